@@ -0,0 +1,264 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Container for sparse partitions: a sorted array of set positions.
+ */
+final class ArrayContainer extends Container {
+    private int[] m_values;
+    private int m_size;
+
+    ArrayContainer( final int bits )
+    {
+        this( bits, new int[ 4 ], 0 );
+    }
+
+    ArrayContainer( final int bits, final int[] values, final int size )
+    {
+        super( bits );
+        m_values = values;
+        m_size = size;
+    }
+
+    static ArrayContainer copyOf( final Container src, final int cardinality )
+    {
+        final int[] values = new int[ Math.max( cardinality, 4 ) ];
+        int cnt = 0;
+        for ( int i = src.nextSetBit( 0 ); i >= 0; i = src.nextSetBit( i + 1 ) )
+            values[ cnt++ ] = i;
+        return new ArrayContainer( src.m_bits, values, cnt );
+    }
+
+    /**
+     * @param pos Position
+     * @return Index of the first value not lower than {@code pos}
+     */
+    private int lowerBound( final int pos )
+    {
+        final int idx = Arrays.binarySearch( m_values, 0, m_size, pos );
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    boolean get( final int pos )
+    {
+        return Arrays.binarySearch( m_values, 0, m_size, pos ) >= 0;
+    }
+
+    Container set( final int pos )
+    {
+        int idx = Arrays.binarySearch( m_values, 0, m_size, pos );
+        if ( idx >= 0 )
+            return this;
+        idx = -idx - 1;
+        if ( m_size == arrayMaxSize() )
+        {
+            //array is full - switch to runs if they are clustered enough, otherwise to a bitmap
+            final int runs = runs();
+            if ( runs < runMaxSize() )
+                return RunContainer.copyOf( this, runs ).set( pos );
+            return BitmapContainer.copyOf( this ).set( pos );
+        }
+        if ( m_size == m_values.length )
+        {
+            //clustered positions are checked on every growth, so the check cost is amortized
+            final int runs = runs();
+            if ( 2 * runs < m_size )
+                return RunContainer.copyOf( this, runs ).set( pos );
+            m_values = Arrays.copyOf( m_values, Math.min( m_values.length * 2, arrayMaxSize() ) );
+        }
+        System.arraycopy( m_values, idx, m_values, idx + 1, m_size - idx );
+        m_values[ idx ] = pos;
+        ++m_size;
+        return this;
+    }
+
+    Container clear( final int pos )
+    {
+        final int idx = Arrays.binarySearch( m_values, 0, m_size, pos );
+        if ( idx >= 0 )
+        {
+            System.arraycopy( m_values, idx + 1, m_values, idx, m_size - idx - 1 );
+            --m_size;
+        }
+        return this;
+    }
+
+    Container clear( final int from, final int to )
+    {
+        final int lo = lowerBound( from );
+        final int hi = lowerBound( to );
+        if ( lo < hi )
+        {
+            System.arraycopy( m_values, hi, m_values, lo, m_size - hi );
+            m_size -= hi - lo;
+        }
+        return this;
+    }
+
+    int nextSetBit( final int from )
+    {
+        final int idx = lowerBound( from );
+        return idx < m_size ? m_values[ idx ] : -1;
+    }
+
+    int nextClearBit( final int from )
+    {
+        int idx = lowerBound( from );
+        int pos = from;
+        while ( idx < m_size && m_values[ idx ] == pos )
+        {
+            ++idx;
+            ++pos;
+        }
+        return pos;
+    }
+
+    int cardinality()
+    {
+        return m_size;
+    }
+
+    int cardinality( final int from, final int to )
+    {
+        return lowerBound( to ) - lowerBound( from );
+    }
+
+    Container copy()
+    {
+        return new ArrayContainer( m_bits, Arrays.copyOf( m_values, Math.max( m_size, 4 ) ), m_size );
+    }
+
+    int toWords( final long[] words )
+    {
+        for ( int i = 0; i < m_size; ++i )
+            words[ m_values[ i ] >> 6 ] |= 1L << m_values[ i ];
+        return m_size > 0 ? ( m_values[ m_size - 1 ] >> 6 ) + 1 : 0;
+    }
+
+    void write( final ByteBuffer buf )
+    {
+        buf.put( ( byte ) TYPE_ARRAY );
+        MoneyCodec.writeVarint( m_size, buf );
+        //gaps between consecutive positions
+        int prev = -1;
+        for ( int i = 0; i < m_size; ++i )
+        {
+            MoneyCodec.writeVarint( m_values[ i ] - prev - 1, buf );
+            prev = m_values[ i ];
+        }
+    }
+
+    static Container read( final int bits, final ByteBuffer buf )
+    {
+        final ArrayContainer res = new ArrayContainer( bits );
+        final int size = readInt( buf, res.arrayMaxSize() );
+        final int[] values = new int[ Math.max( size, 4 ) ];
+        int pos = -1;
+        for ( int i = 0; i < size; ++i )
+        {
+            pos += readInt( buf, res.partitionSize() - pos - 2 ) + 1;
+            values[ i ] = pos;
+        }
+        res.m_values = values;
+        res.m_size = size;
+        return res;
+    }
+
+    /**
+     * Calculate a bitwise operation on 2 array containers by merging their sorted positions
+     * @param a First container
+     * @param b Second container
+     * @param op One of {@code Container.AND}, {@code Container.OR}, {@code Container.AND_NOT}, {@code Container.XOR}
+     * @return A new container with the result, may be empty
+     */
+    static Container merge( final ArrayContainer a, final ArrayContainer b, final int op )
+    {
+        final int[] res = new int[ Math.max( op == AND ? Math.min( a.m_size, b.m_size ) : op == AND_NOT ? a.m_size : a.m_size + b.m_size, 4 ) ];
+        int cnt = 0;
+        int i = 0;
+        int j = 0;
+        while ( i < a.m_size && j < b.m_size )
+        {
+            final int va = a.m_values[ i ];
+            final int vb = b.m_values[ j ];
+            if ( va == vb )
+            {
+                if ( op == AND || op == OR )
+                    res[ cnt++ ] = va;
+                ++i;
+                ++j;
+            }
+            else if ( va < vb )
+            {
+                if ( op != AND )
+                    res[ cnt++ ] = va;
+                ++i;
+            }
+            else
+            {
+                if ( op == OR || op == XOR )
+                    res[ cnt++ ] = vb;
+                ++j;
+            }
+        }
+        if ( op != AND )
+        {
+            while ( i < a.m_size )
+                res[ cnt++ ] = a.m_values[ i++ ];
+            if ( op != AND_NOT )
+                while ( j < b.m_size )
+                    res[ cnt++ ] = b.m_values[ j++ ];
+        }
+        final ArrayContainer container = new ArrayContainer( a.m_bits, res, cnt );
+        return optimize( container, cnt, container.runs() );
+    }
+
+    int encodedLengthBound()
+    {
+        //type + count + a gap per value
+        return 6 + 5 * m_size;
+    }
+
+    long memoryUsage()
+    {
+        return 32 + 4L * m_values.length;
+    }
+
+    boolean forEach( final long base, final LongProcedure proc )
+    {
+        for ( int i = 0; i < m_size; ++i )
+            if ( !proc.forEntry( base + m_values[ i ] ) )
+                return false;
+        return true;
+    }
+
+    /**
+     * @return Number of runs of consecutive positions
+     */
+    private int runs()
+    {
+        int res = m_size > 0 ? 1 : 0;
+        for ( int i = 1; i < m_size; ++i )
+            if ( m_values[ i ] != m_values[ i - 1 ] + 1 )
+                ++res;
+        return res;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Container for dense partitions: a plain bitmap. Words are allocated up to the highest set bit only.
+ */
+final class BitmapContainer extends Container {
+    private long[] m_words;
+    private int m_cardinality;
+
+    BitmapContainer( final int bits )
+    {
+        super( bits );
+        m_words = new long[ Math.min( 16, partitionSize() >> 6 ) ];
+    }
+
+    BitmapContainer( final int bits, final long[] words, final int cardinality )
+    {
+        super( bits );
+        m_words = words;
+        m_cardinality = cardinality;
+    }
+
+    static BitmapContainer copyOf( final Container src )
+    {
+        final BitmapContainer res = new BitmapContainer( src.m_bits );
+        for ( int i = src.nextSetBit( 0 ); i >= 0; i = src.nextSetBit( i + 1 ) )
+        {
+            final int end = src.nextClearBit( i );
+            res.setRange( i, end );
+            i = end;
+        }
+        return res;
+    }
+
+    private void ensureCapacity( final int words )
+    {
+        if ( words > m_words.length )
+            m_words = Arrays.copyOf( m_words, Math.min( Math.max( words, m_words.length * 2 ), partitionSize() >> 6 ) );
+    }
+
+    /**
+     * Set all bits between {@code from} (inclusive) and {@code to} (exclusive), no representation change
+     */
+    void setRange( final int from, final int to )
+    {
+        if ( from >= to )
+            return;
+        ensureCapacity( ( ( to - 1 ) >> 6 ) + 1 );
+        for ( int i = from; i < to; )
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min( to, ( word + 1 ) << 6 );
+            final int len = wordEnd - i;
+            final long mask = len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( i & 63 );
+            m_cardinality += len - Long.bitCount( m_words[ word ] & mask );
+            m_words[ word ] |= mask;
+            i = wordEnd;
+        }
+    }
+
+    boolean get( final int pos )
+    {
+        final int word = pos >> 6;
+        return word < m_words.length && ( m_words[ word ] & ( 1L << pos ) ) != 0;
+    }
+
+    Container set( final int pos )
+    {
+        final int word = pos >> 6;
+        ensureCapacity( word + 1 );
+        final long old = m_words[ word ];
+        final long upd = old | ( 1L << pos );
+        if ( upd != old )
+        {
+            m_words[ word ] = upd;
+            ++m_cardinality;
+            //dense bitmaps are periodically checked if they became long runs
+            if ( m_cardinality % arrayMaxSize() == 0 )
+            {
+                final int runs = runs();
+                if ( 2 * runs < arrayMaxSize() )
+                    return RunContainer.copyOf( this, runs );
+            }
+        }
+        return this;
+    }
+
+    Container clear( final int pos )
+    {
+        final int word = pos >> 6;
+        if ( word >= m_words.length )
+            return this;
+        final long old = m_words[ word ];
+        final long upd = old & ~( 1L << pos );
+        if ( upd != old )
+        {
+            m_words[ word ] = upd;
+            return onClear( 1 );
+        }
+        return this;
+    }
+
+    Container clear( final int from, final int to )
+    {
+        final int end = Math.min( to, m_words.length << 6 );
+        int cleared = 0;
+        for ( int i = from; i < end; )
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min( end, ( word + 1 ) << 6 );
+            final int len = wordEnd - i;
+            final long mask = len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( i & 63 );
+            cleared += Long.bitCount( m_words[ word ] & mask );
+            m_words[ word ] &= ~mask;
+            i = wordEnd;
+        }
+        return cleared > 0 ? onClear( cleared ) : this;
+    }
+
+    private Container onClear( final int cleared )
+    {
+        m_cardinality -= cleared;
+        //hysteresis: do not convert back to an array right after a conversion to a bitmap
+        if ( m_cardinality <= arrayMaxSize() >> 1 )
+            return optimize( this, m_cardinality, runs() );
+        return this;
+    }
+
+    int nextSetBit( final int from )
+    {
+        int word = from >> 6;
+        if ( word >= m_words.length )
+            return -1;
+        long w = m_words[ word ] & ( -1L << from );
+        while ( true )
+        {
+            if ( w != 0 )
+                return ( word << 6 ) + Long.numberOfTrailingZeros( w );
+            if ( ++word == m_words.length )
+                return -1;
+            w = m_words[ word ];
+        }
+    }
+
+    int nextClearBit( final int from )
+    {
+        int word = from >> 6;
+        if ( word >= m_words.length )
+            return from;
+        long w = ~m_words[ word ] & ( -1L << from );
+        while ( true )
+        {
+            if ( w != 0 )
+                return ( word << 6 ) + Long.numberOfTrailingZeros( w );
+            if ( ++word == m_words.length )
+                return word << 6;
+            w = ~m_words[ word ];
+        }
+    }
+
+    int cardinality()
+    {
+        return m_cardinality;
+    }
+
+    int cardinality( final int from, final int to )
+    {
+        final int end = Math.min( to, m_words.length << 6 );
+        int res = 0;
+        for ( int i = from; i < end; )
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min( end, ( word + 1 ) << 6 );
+            final int len = wordEnd - i;
+            final long mask = len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( i & 63 );
+            res += Long.bitCount( m_words[ word ] & mask );
+            i = wordEnd;
+        }
+        return res;
+    }
+
+    Container copy()
+    {
+        return new BitmapContainer( m_bits, m_words.clone(), m_cardinality );
+    }
+
+    int toWords( final long[] words )
+    {
+        System.arraycopy( m_words, 0, words, 0, m_words.length );
+        return m_words.length;
+    }
+
+    void write( final ByteBuffer buf )
+    {
+        buf.put( ( byte ) TYPE_BITMAP );
+        int count = m_words.length;
+        while ( count > 0 && m_words[ count - 1 ] == 0 )
+            --count;
+        MoneyCodec.writeVarint( count, buf );
+        //groups of (number of zero words, number of non-zero words, non-zero words)
+        final ByteOrder order = buf.order();
+        buf.order( ByteOrder.LITTLE_ENDIAN );
+        int i = 0;
+        while ( i < count )
+        {
+            final int zeroStart = i;
+            while ( m_words[ i ] == 0 )
+                ++i;
+            final int literalStart = i;
+            while ( i < count && m_words[ i ] != 0 )
+                ++i;
+            MoneyCodec.writeVarint( literalStart - zeroStart, buf );
+            MoneyCodec.writeVarint( i - literalStart, buf );
+            for ( int j = literalStart; j < i; ++j )
+                buf.putLong( m_words[ j ] );
+        }
+        buf.order( order );
+    }
+
+    static Container read( final int bits, final ByteBuffer buf )
+    {
+        final int maxWords = 1 << bits >> 6;
+        final int count = readInt( buf, maxWords );
+        final long[] words = new long[ count ];
+        int cardinality = 0;
+        final ByteOrder order = buf.order();
+        buf.order( ByteOrder.LITTLE_ENDIAN );
+        int i = 0;
+        while ( i < count )
+        {
+            final int zeros = readInt( buf, count - i );
+            i += zeros;
+            final int literals = readInt( buf, count - i );
+            if ( zeros == 0 && literals == 0 )
+                throw new IllegalArgumentException( "Malformed container: empty group of words" );
+            for ( int j = 0; j < literals; ++j )
+            {
+                words[ i ] = buf.getLong();
+                cardinality += Long.bitCount( words[ i++ ] );
+            }
+        }
+        buf.order( order );
+        return new BitmapContainer( bits, words, cardinality );
+    }
+
+    int encodedLengthBound()
+    {
+        //type + word count + (zero words varint, literal words varint, literal word) per non-zero word
+        int nonZero = 0;
+        for ( final long word : m_words )
+            if ( word != 0 )
+                ++nonZero;
+        return 6 + 18 * nonZero;
+    }
+
+    long memoryUsage()
+    {
+        return 32 + 8L * m_words.length;
+    }
+
+    boolean forEach( final long base, final LongProcedure proc )
+    {
+        for ( int i = 0; i < m_words.length; ++i )
+        {
+            long w = m_words[ i ];
+            while ( w != 0 )
+            {
+                if ( !proc.forEntry( base + ( i << 6 ) + Long.numberOfTrailingZeros( w ) ) )
+                    return false;
+                w &= w - 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of runs of set bits
+     */
+    private int runs()
+    {
+        return runs( m_words, m_words.length );
+    }
+
+    /**
+     * @param words Bitmap
+     * @param count Number of words to check
+     * @return Number of runs of set bits in a bitmap
+     */
+    static int runs( final long[] words, final int count )
+    {
+        int res = 0;
+        long prevHigh = 0;
+        for ( int i = 0; i < count; ++i )
+        {
+            final long w = words[ i ];
+            //count run starts: bits set in a word, which are not preceded by a set bit
+            res += Long.bitCount( w & ~( ( w << 1 ) | prevHigh ) );
+            prevHigh = w >>> 63;
+        }
+        return res;
+    }
+}
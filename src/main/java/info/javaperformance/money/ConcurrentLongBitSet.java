@@ -0,0 +1,298 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *  Thread safe version of {@link LongBitSet}. Each partition is a plain bitmap kept in an {@code AtomicLongArray},
+ *  so bits are set and cleared with CAS and {@code get}/{@code set}/{@code getAndSet} never block.
+ *  Partitions are created on demand with {@code putIfAbsent} into a concurrent directory.
+ * </p>
+ * <p>
+ *  Unlike {@code LongBitSet}, partitions are not compressed: an adaptive container can not be switched
+ *  atomically without locking writers. Use {@code LongBitSet} for sparse sets which are not shared between threads.
+ * </p>
+ * <p>
+ *  {@code clear(from, to)} calls are serialized between each other, but they never block readers and writers.
+ *  Bulk methods like {@code cardinality} and {@code forEach} are weakly consistent: they see all modifications
+ *  completed before they were called and may see some concurrent modifications.
+ * </p>
+ */
+public class ConcurrentLongBitSet
+{
+    /** Number of bits allocated to a value in an index */
+    private static final int VALUE_BITS = 20; //1M values per bit set
+    /** Mask for extracting values */
+    private static final long VALUE_MASK = ( 1 << VALUE_BITS ) - 1;
+    /** Number of words in a partition */
+    private static final int WORDS = 1 << VALUE_BITS >> 6;
+
+    private final ConcurrentMap<Long, Partition> m_sets = new ConcurrentHashMap<Long, Partition>( 16, 0.75f, 32 );
+    /** The last accessed partition. It is replaced as a whole, so its index always matches its words */
+    private volatile Partition m_last;
+    /** Serializes range clears */
+    private final Object m_clearLock = new Object();
+
+    private static final class Partition
+    {
+        final long index;
+        final AtomicLongArray words = new AtomicLongArray( WORDS );
+        /** Set when a partition is removed from the directory, so it must not be used from the cache anymore */
+        volatile boolean removed;
+
+        Partition( final long index ) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Get set index by long index (extract bits 20-63)
+     * @param index Long index
+     * @return Index of a partition in the directory
+     */
+    private static long getSetIndex( final long index )
+    {
+        return index >> VALUE_BITS;
+    }
+
+    /**
+     * Get index of a value in a partition (bits 0-19)
+     * @param index Long index
+     * @return Index of a value in a partition
+     */
+    private static int getPos( final long index )
+    {
+        return (int) (index & VALUE_MASK);
+    }
+
+    /**
+     * Get an existing partition by its index
+     * @param setIndex Partition index
+     * @return A partition or null if it does not exist
+     */
+    private Partition findSet( final long setIndex )
+    {
+        final Partition last = m_last;
+        if ( last != null && last.index == setIndex && !last.removed )
+            return last;
+        final Partition res = m_sets.get( setIndex );
+        if ( res != null )
+            m_last = res;
+        return res;
+    }
+
+    /**
+     * Get an existing partition or create a new one. If several threads create the same partition at once,
+     * only one of them wins the race.
+     * @param setIndex Partition index
+     * @return A partition (always not null)
+     */
+    private Partition getOrCreate( final long setIndex )
+    {
+        Partition res = findSet( setIndex );
+        if ( res == null )
+        {
+            final Partition created = new Partition( setIndex );
+            res = m_sets.putIfAbsent( setIndex, created );
+            if ( res == null )
+                res = created;
+            m_last = res;
+        }
+        return res;
+    }
+
+    /**
+     * Set a bit in a partition with CAS
+     * @param words Partition
+     * @param pos Position in a partition
+     * @param value New value
+     * @return Previous value
+     */
+    private static boolean setBit( final AtomicLongArray words, final int pos, final boolean value )
+    {
+        final int word = pos >> 6;
+        final long mask = 1L << pos;
+        while ( true )
+        {
+            final long old = words.get( word );
+            if ( ( ( old & mask ) != 0 ) == value )
+                return value;
+            if ( words.compareAndSet( word, old, value ? old | mask : old & ~mask ) )
+                return !value;
+        }
+    }
+
+    /**
+     * Clear bits of a word with CAS
+     * @param words Partition
+     * @param word Word index
+     * @param mask Bits to clear
+     */
+    private static void clearBits( final AtomicLongArray words, final int word, final long mask )
+    {
+        while ( true )
+        {
+            final long old = words.get( word );
+            if ( ( old & mask ) == 0 || words.compareAndSet( word, old, old & ~mask ) )
+                return;
+        }
+    }
+
+    /**
+     * Set a given value for a given index
+     * @param index Long index
+     * @param value Value to set
+     */
+    public void set( final long index, final boolean value )
+    {
+        getAndSet( index, value );
+    }
+
+    /**
+     * Atomically set a given value for a given index
+     * @param index Long index
+     * @param value Value to set
+     * @return Previous value associated with a given index
+     */
+    public boolean getAndSet( final long index, final boolean value )
+    {
+        final long setIndex = getSetIndex( index );
+        if ( value )
+            return setBit( getOrCreate( setIndex ).words, getPos( index ), true );
+        //if value shall be cleared, check first if given partition exists
+        final Partition partition = findSet( setIndex );
+        return partition != null && setBit( partition.words, getPos( index ), false );
+    }
+
+    /**
+     * Get a value for a given index
+     * @param index Long index
+     * @return Value associated with a given index
+     */
+    public boolean get( final long index )
+    {
+        final Partition partition = findSet( getSetIndex( index ) );
+        if ( partition == null )
+            return false;
+        final int pos = getPos( index );
+        return ( partition.words.get( pos >> 6 ) & ( 1L << pos ) ) != 0;
+    }
+
+    /**
+     * Clear all bits between {@code fromIndex} (inclusive) and {@code toIndex} (exclusive).
+     * Bits set concurrently with this call may be either cleared or kept.
+     * @param fromIndex Start index (inclusive)
+     * @param toIndex End index (exclusive)
+     */
+    public void clear( final long fromIndex, final long toIndex )
+    {
+        if ( fromIndex >= toIndex ) return;
+        final long fromPos = getSetIndex( fromIndex );
+        final long toPos = getSetIndex( toIndex );
+        synchronized ( m_clearLock )
+        {
+            //remove all partitions in the middle
+            if ( toPos - fromPos > 1 )
+            {
+                if ( toPos - fromPos - 1 <= m_sets.size() )
+                {
+                    for ( long i = fromPos + 1; i < toPos; ++i )
+                        remove( i );
+                }
+                else
+                {
+                    //the range is wider than the number of partitions - scan the directory instead of the range
+                    final Iterator<Long> iter = m_sets.keySet().iterator();
+                    while ( iter.hasNext() )
+                    {
+                        final long key = iter.next();
+                        if ( key > fromPos && key < toPos )
+                            remove( key );
+                    }
+                }
+            }
+            //clean two corner partitions word by word
+            final Partition fromSet = m_sets.get( fromPos );
+            if ( fromSet != null )
+                clearRange( fromSet.words, getPos( fromIndex ), fromPos == toPos ? getPos( toIndex ) : 1 << VALUE_BITS );
+            if ( fromPos != toPos )
+            {
+                final Partition toSet = m_sets.get( toPos );
+                if ( toSet != null )
+                    clearRange( toSet.words, 0, getPos( toIndex ) );
+            }
+        }
+    }
+
+    private void remove( final long setIndex )
+    {
+        final Partition partition = m_sets.remove( setIndex );
+        if ( partition != null )
+            partition.removed = true;
+    }
+
+    private static void clearRange( final AtomicLongArray words, final int from, final int to )
+    {
+        for ( int i = from; i < to; )
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min( to, ( word + 1 ) << 6 );
+            final int len = wordEnd - i;
+            clearBits( words, word, len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( i & 63 ) );
+            i = wordEnd;
+        }
+    }
+
+    /**
+     * @return Number of set bits in this set (weakly consistent)
+     */
+    public long cardinality()
+    {
+        long res = 0;
+        for ( final Partition partition : m_sets.values() )
+            for ( int i = 0; i < WORDS; ++i )
+                res += Long.bitCount( partition.words.get( i ) );
+        return res;
+    }
+
+    /**
+     * Iteration over all set values (weakly consistent). Order of iteration is not specified.
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     */
+    public void forEach( final LongProcedure proc )
+    {
+        for ( final Partition partition : m_sets.values() )
+        {
+            final long baseIndex = partition.index << VALUE_BITS;
+            for ( int i = 0; i < WORDS; ++i )
+            {
+                long w = partition.words.get( i );
+                while ( w != 0 )
+                {
+                    if ( !proc.forEntry( baseIndex + ( i << 6 ) + Long.numberOfTrailingZeros( w ) ) )
+                        return;
+                    w &= w - 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  A set of bits of a single <code>LongBitSet</code> partition (positions between 0 and <code>2^bits</code>).
+ *  There are 3 implementations, which are switched automatically based on cardinality and number of runs:
+ *  <ul>
+ *      <li>{@link ArrayContainer} - sorted array of positions, for sparse partitions</li>
+ *      <li>{@link BitmapContainer} - plain bitmap, for dense partitions</li>
+ *      <li>{@link RunContainer} - sorted runs of set bits, for clustered partitions</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  All modifying methods return a container holding the result: either this container or a new one
+ *  if a different representation is more efficient now.
+ * </p>
+ */
+abstract class Container {
+    /** Number of bits in a position - a partition contains <code>2^m_bits</code> positions */
+    protected final int m_bits;
+    /** Set on every modification, reset after a container is written to a snapshot or a delta */
+    boolean m_changed = true;
+
+    protected Container( final int bits ) {
+        m_bits = bits;
+    }
+
+    /**
+     * @return Number of positions in a partition
+     */
+    final int partitionSize()
+    {
+        return 1 << m_bits;
+    }
+
+    /**
+     * Maximal cardinality of an array container: a larger array would occupy more memory than a bitmap
+     * for the whole partition.
+     * @return Maximal number of positions in an array container
+     */
+    final int arrayMaxSize()
+    {
+        return Math.max( 1 << m_bits >> 5, 16 );
+    }
+
+    /**
+     * Maximal number of runs in a run container: each run takes 2 ints, so a run container with more runs
+     * would occupy more memory than an array container of the maximal size.
+     * @return Maximal number of runs in a run container
+     */
+    final int runMaxSize()
+    {
+        return arrayMaxSize() >> 1;
+    }
+
+    /**
+     * @param pos Position
+     * @return Value of a bit at a given position
+     */
+    abstract boolean get( final int pos );
+
+    /**
+     * Set a bit at a given position
+     * @param pos Position
+     * @return Container with the result
+     */
+    abstract Container set( final int pos );
+
+    /**
+     * Clear a bit at a given position
+     * @param pos Position
+     * @return Container with the result
+     */
+    abstract Container clear( final int pos );
+
+    /**
+     * Clear all bits between {@code from} (inclusive) and {@code to} (exclusive)
+     * @param from Start position (inclusive)
+     * @param to End position (exclusive)
+     * @return Container with the result
+     */
+    abstract Container clear( final int from, final int to );
+
+    /**
+     * @param from Position to start searching from (inclusive)
+     * @return Position of the next set bit or -1 if there is no such bit
+     */
+    abstract int nextSetBit( final int from );
+
+    /**
+     * @param from Position to start searching from (inclusive)
+     * @return Position of the next clear bit or {@code partitionSize()} if all remaining bits are set
+     */
+    abstract int nextClearBit( final int from );
+
+    /**
+     * @return Number of set bits
+     */
+    abstract int cardinality();
+
+    /**
+     * @return Approximate number of bytes occupied by this container
+     */
+    abstract long memoryUsage();
+
+    /**
+     * Call a procedure for all set bits in ascending order
+     * @param base Index of the first bit of this partition, added to all positions
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     * @return {@code false} if iteration was stopped by a procedure
+     */
+    abstract boolean forEach( final long base, final LongProcedure proc );
+
+    /**
+     * @param from Start position (inclusive)
+     * @param to End position (exclusive)
+     * @return Number of set bits between given positions
+     */
+    abstract int cardinality( final int from, final int to );
+
+    /**
+     * @return A deep copy of this container
+     */
+    abstract Container copy();
+
+    /**
+     * Write all set bits into a bitmap
+     * @param words Destination bitmap of {@code partitionSize() / 64} words, must be cleared by a caller
+     * @return Number of words after the last non-zero word (may be higher, but not lower)
+     */
+    abstract int toWords( final long[] words );
+
+    /** Serialized container types */
+    static final int TYPE_ARRAY = 1;
+    static final int TYPE_RUNS = 2;
+    static final int TYPE_BITMAP = 3;
+
+    /**
+     * @param bits Number of bits in a position
+     * @return Maximal number of bytes written by {@code write}
+     */
+    static int maxEncodedLength( final int bits )
+    {
+        //type + word count + (zero words varint, literal words varint, literal word) per word
+        return 6 + 18 * ( 1 << bits >> 6 );
+    }
+
+    /**
+     * @return Upper bound of the number of bytes written by {@code write} for this container
+     */
+    abstract int encodedLengthBound();
+
+    /**
+     * Write a container type byte followed by container data. Numbers are written as varints, bitmap words
+     * are written little endian.
+     * @param buf Destination buffer
+     */
+    abstract void write( final ByteBuffer buf );
+
+    /**
+     * Read a container written by {@code write}
+     * @param bits Number of bits in a position
+     * @param buf Source buffer
+     * @return A new container
+     * @throws IllegalArgumentException If data is malformed
+     */
+    static Container read( final int bits, final ByteBuffer buf )
+    {
+        final int type = buf.get();
+        switch ( type )
+        {
+            case TYPE_ARRAY:
+                return ArrayContainer.read( bits, buf );
+            case TYPE_RUNS:
+                return RunContainer.read( bits, buf );
+            case TYPE_BITMAP:
+                return BitmapContainer.read( bits, buf );
+            default:
+                throw new IllegalArgumentException( "Unknown container type: " + type );
+        }
+    }
+
+    /**
+     * Read a varint and check that it fits into a given range
+     */
+    static int readInt( final ByteBuffer buf, final int max )
+    {
+        final long res = MoneyCodec.readVarint( buf );
+        if ( res < 0 || res > max )
+            throw new IllegalArgumentException( "Malformed container: " + res + " is out of range [0, " + max + "]" );
+        return ( int ) res;
+    }
+
+    /**
+     * Convert a container with a given cardinality and number of runs into the most memory efficient representation
+     * @param src Source container
+     * @param cardinality Number of set bits in a container
+     * @param runs Number of runs in a container
+     * @return The most efficient container with the same bits
+     */
+    static Container optimize( final Container src, final int cardinality, final int runs )
+    {
+        final int arrayMax = src.arrayMaxSize();
+        if ( runs <= src.runMaxSize() && 2 * runs < Math.min( cardinality, arrayMax ) )
+            return src instanceof RunContainer ? src : RunContainer.copyOf( src, runs );
+        if ( cardinality <= arrayMax )
+            return src instanceof ArrayContainer ? src : ArrayContainer.copyOf( src, cardinality );
+        return src instanceof BitmapContainer ? src : BitmapContainer.copyOf( src );
+    }
+
+    static final int AND = 0;
+    static final int OR = 1;
+    static final int AND_NOT = 2;
+    static final int XOR = 3;
+
+    /**
+     * Calculate a bitwise operation on 2 containers. Arguments are not modified.
+     * Sparse containers are merged directly, all other cases are calculated on words.
+     * @param a First container
+     * @param b Second container
+     * @param op One of {@code AND}, {@code OR}, {@code AND_NOT}, {@code XOR}
+     * @param scratch1 Cleared buffer of {@code partitionSize() / 64} words, which is cleared again on exit
+     * @param scratch2 Cleared buffer of {@code partitionSize() / 64} words, which is cleared again on exit
+     * @return A new container with the result, may be empty
+     */
+    static Container apply( final Container a, final Container b, final int op, final long[] scratch1, final long[] scratch2 )
+    {
+        if ( a instanceof ArrayContainer && b instanceof ArrayContainer )
+            return ArrayContainer.merge( ( ArrayContainer ) a, ( ArrayContainer ) b, op );
+        final int n1 = a.toWords( scratch1 );
+        final int n2 = b.toWords( scratch2 );
+        final int n;
+        switch ( op )
+        {
+            case AND:
+                n = Math.min( n1, n2 );
+                for ( int i = 0; i < n; ++i )
+                    scratch1[ i ] &= scratch2[ i ];
+                break;
+            case OR:
+                n = Math.max( n1, n2 );
+                for ( int i = 0; i < n2; ++i )
+                    scratch1[ i ] |= scratch2[ i ];
+                break;
+            case AND_NOT:
+                n = n1;
+                for ( int i = 0; i < Math.min( n1, n2 ); ++i )
+                    scratch1[ i ] &= ~scratch2[ i ];
+                break;
+            case XOR:
+                n = Math.max( n1, n2 );
+                for ( int i = 0; i < n2; ++i )
+                    scratch1[ i ] ^= scratch2[ i ];
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown operation: " + op );
+        }
+        final Container res = fromWords( a.m_bits, scratch1, n );
+        Arrays.fill( scratch1, 0, Math.max( n1, n2 ), 0 );
+        Arrays.fill( scratch2, 0, n2, 0 );
+        return res;
+    }
+
+    /**
+     * Create the most efficient container for a given bitmap
+     * @param bits Number of bits in a position
+     * @param words Bitmap
+     * @param count Number of words to use
+     * @return A new container, may be empty
+     */
+    static Container fromWords( final int bits, final long[] words, int count )
+    {
+        while ( count > 0 && words[ count - 1 ] == 0 )
+            --count;
+        int cardinality = 0;
+        for ( int i = 0; i < count; ++i )
+            cardinality += Long.bitCount( words[ i ] );
+        final BitmapContainer bitmap = new BitmapContainer( bits, Arrays.copyOf( words, count ), cardinality );
+        return optimize( bitmap, cardinality, BitmapContainer.runs( words, count ) );
+    }
+}
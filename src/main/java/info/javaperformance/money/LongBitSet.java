@@ -16,24 +16,96 @@
 
 package info.javaperformance.money;
 
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
+/**
+ * <p>
+ *  A bit set with <code>long</code> indices. Indices are split into partitions of <code>2^valueBits</code> bits
+ *  (<code>2^20</code> by default). Each partition is stored in a compressed container (see {@link Container}):
+ *  sparse partitions are kept as sorted arrays, clustered ones as runs and only dense partitions are kept as bitmaps.
+ *  Containers are switched automatically based on their cardinality and number of runs. Empty partitions are removed.
+ * </p>
+ * <p>
+ *  A set may work as a sliding window over the most recent indices (see {@link #setWindow(long)}): old partitions
+ *  are dropped automatically as higher indices are added.
+ * </p>
+ */
 public class LongBitSet
 {
+    /** Default number of bits allocated to a value in an index */
+    public static final int DEFAULT_VALUE_BITS = 20; //1M values per partition
+    /** Minimal number of value bits: a partition must contain at least one bitmap word */
+    public static final int MIN_VALUE_BITS = 6;
+    /** Maximal number of value bits: positions in a partition must fit into int */
+    public static final int MAX_VALUE_BITS = 30;
+
     /** Number of bits allocated to a value in an index */
-    private static final int VALUE_BITS = 20; //1M values per bit set
+    private final int m_valueBits;
     /** Mask for extracting values */
-    private static final long VALUE_MASK = ( 1 << VALUE_BITS ) - 1;
+    private final long m_valueMask;
+
+    /**
+     * Map from a value stored in high bits of a long index to a container mapped to the lower bits of an index.
+     * Containers occupy memory proportional to the number of set bits (or runs), so a partition with a single
+     * set bit does not waste 128Kb anymore. Partition size should still be balanced: too short partitions
+     * make this map too big, too long ones make range operations and sliding window eviction coarser.
+     */
+    private final LongObjectMap<Container> m_sets = new LongObjectMap<Container>( 20 );
+
+    /** Index of the last accessed bit set, valid only if {@code m_lastSet} is not null */
+    private long m_lastSetIndex;
+    /**
+     * The last accessed bit set. Most of real life access patterns are sequential, so it allows to skip
+     * a map lookup in most of cases.
+     */
+    private Container m_lastSet;
+
+    /**
+     * Sorted indices of all bit sets, used for ordered iteration. It is rebuilt lazily after the set of partitions
+     * changes, so it is not sorted on every call.
+     */
+    private long[] m_sortedSetIndices;
+
+    /**
+     * Indices of partitions removed since the last snapshot or delta was written (see {@link LongBitSetCodec}).
+     * Changed partitions are flagged in containers. Removals are tracked only after the first snapshot or delta
+     * was written: before that there is no baseline a delta is applied to.
+     */
+    private final LongObjectMap<Boolean> m_removed = new LongObjectMap<Boolean>( 4 );
+    /** True if a snapshot or a delta was written, so removed partitions must be tracked for the next delta */
+    private boolean m_trackRemovals;
+
+    /** Sliding window size in indices, 0 if the window is disabled */
+    private long m_window;
+    /** The highest partition index ever allocated, valid only if {@code m_allocatedPartitions > 0} */
+    private long m_maxSetIndex;
+    /** Number of partitions allocated since creation */
+    private long m_allocatedPartitions;
+    /** Number of partitions removed by the sliding window or {@code evictBelow} */
+    private long m_evictedPartitions;
+
+    /**
+     * Create a set with the default partition size of <code>2^DEFAULT_VALUE_BITS</code> indices
+     */
+    public LongBitSet()
+    {
+        this( DEFAULT_VALUE_BITS );
+    }
 
     /**
-     * Map from a value stored in high bits of a long index to a bit set mapped to the lower bits of an index.
-     * Bit sets size should be balanced - not to long (otherwise setting a single bit may waste megabytes of memory)
-     * but not too short (otherwise this map will get too big). Update value of {@code VALUE_BITS} for your needs.
-     * In most cases it is ok to keep 1M - 64M values in a bit set, so each bit set will occupy 128Kb - 8Mb.
+     * Create a set with a given partition size.
+     * @param valueBits Partition contains <code>2^valueBits</code> indices, between {@code MIN_VALUE_BITS} and
+     *                  {@code MAX_VALUE_BITS}
+     * @throws IllegalArgumentException If the number of bits is out of range
      */
-    private Map<Long, BitSet> m_sets = new HashMap<Long, BitSet>( 20 );
+    public LongBitSet( final int valueBits )
+    {
+        if ( valueBits < MIN_VALUE_BITS || valueBits > MAX_VALUE_BITS )
+            throw new IllegalArgumentException( "Value bits must be between " + MIN_VALUE_BITS + " and " + MAX_VALUE_BITS + ": " + valueBits );
+        m_valueBits = valueBits;
+        m_valueMask = ( 1L << valueBits ) - 1;
+    }
 
     /**
      * Get set index by long index (extract bits 20-63)
@@ -42,7 +114,7 @@ public class LongBitSet
      */
     private long getSetIndex( final long index )
     {
-        return index >> VALUE_BITS;
+        return index >> m_valueBits;
     }
 
     /**
@@ -52,24 +124,183 @@ public class LongBitSet
      */
     private int getPos( final long index )
     {
-        return (int) (index & VALUE_MASK);
+        return (int) (index & m_valueMask);
     }
 
     /**
-     * Helper method to get (or create, if necessary) a bit set for a given long index
-     * @param index Long index
-     * @return A bit set for a given index (always not null)
+     * Get an existing container by its index
+     * @param setIndex Container index (see {@code getSetIndex})
+     * @return A container or null if it does not exist
+     */
+    private Container findSet( final long setIndex )
+    {
+        if ( m_lastSet != null && m_lastSetIndex == setIndex )
+            return m_lastSet;
+        final Container container = m_sets.get( setIndex );
+        if ( container != null )
+        {
+            m_lastSetIndex = setIndex;
+            m_lastSet = container;
+        }
+        return container;
+    }
+
+    /**
+     * Store the result of a container modification: replace a container if its representation has changed
+     * and remove it if it became empty
+     * @param setIndex Container index
+     * @param old Container before modification
+     * @param updated Container after modification
+     */
+    private void update( final long setIndex, final Container old, final Container updated )
+    {
+        if ( updated.cardinality() == 0 )
+        {
+            m_sets.remove( setIndex );
+            onRemove( setIndex );
+            m_sortedSetIndices = null;
+            m_lastSet = null;
+        }
+        else
+        {
+            updated.m_changed = true;
+            if ( updated != old )
+            {
+                m_sets.put( setIndex, updated );
+                m_lastSetIndex = setIndex;
+                m_lastSet = updated;
+            }
+        }
+    }
+
+    /**
+     * Remember a removed partition for the next delta
+     * @param setIndex Removed partition index
      */
-    private BitSet bitSet( final long index )
+    private void onRemove( final long setIndex )
     {
-        final Long iIndex = getSetIndex( index );
-        BitSet bitSet = m_sets.get( iIndex );
-        if ( bitSet == null )
+        if ( m_trackRemovals )
+            m_removed.put( setIndex, Boolean.TRUE );
+    }
+
+    /**
+     * Update statistics and apply the sliding window after a new partition was allocated
+     * @param setIndex New partition index
+     * @param index Index which caused the allocation
+     */
+    private void onAllocate( final long setIndex, final long index )
+    {
+        if ( m_allocatedPartitions++ == 0 || setIndex > m_maxSetIndex )
         {
-            bitSet = new BitSet( 1024 );
-            m_sets.put( iIndex, bitSet );
+            m_maxSetIndex = setIndex;
+            //the window moves only when a new highest partition is allocated, so eviction is not a part of a hot path
+            if ( m_window > 0 )
+                slideWindow( index );
+        }
+    }
+
+    /**
+     * Evict partitions below the window ending at a given index
+     * @param maxIndex The highest index in the window
+     */
+    private void slideWindow( final long maxIndex )
+    {
+        final long lowWaterMark = maxIndex - m_window + 1;
+        if ( lowWaterMark <= maxIndex ) //no overflow
+            evictBelow( lowWaterMark );
+    }
+
+    /**
+     * Enable the sliding window mode: once a new partition is allocated above all existing ones, all partitions
+     * located entirely below the window are removed. The window covers at least {@code size} the most recent indices,
+     * but eviction works on the partition granularity, so somewhat older indices may be kept as well.
+     * Indices set below the window are kept until the window moves next time.
+     * @param size Window size in indices, 0 disables the window
+     * @throws IllegalArgumentException If size is negative
+     */
+    public void setWindow( final long size )
+    {
+        if ( size < 0 )
+            throw new IllegalArgumentException( "Window size must be non-negative: " + size );
+        m_window = size;
+        //only the highest partition is known, so the window is conservatively aligned to its start
+        if ( size > 0 && m_allocatedPartitions > 0 )
+            slideWindow( m_maxSetIndex << m_valueBits );
+    }
+
+    /**
+     * Remove all partitions located entirely below a given low-water mark. Unlike {@code clear}, a partition
+     * containing the mark is not touched.
+     * @param lowWaterMark Lowest index to keep
+     * @return Number of removed partitions
+     */
+    public int evictBelow( final long lowWaterMark )
+    {
+        final int before = m_sets.size();
+        removeSets( Long.MIN_VALUE, getSetIndex( lowWaterMark ) );
+        final int evicted = before - m_sets.size();
+        m_evictedPartitions += evicted;
+        return evicted;
+    }
+
+    /**
+     * @return Current number of partitions
+     */
+    public int partitionCount()
+    {
+        return m_sets.size();
+    }
+
+    /**
+     * @return Number of partitions allocated since this set was created (including evicted and removed ones)
+     */
+    public long allocatedPartitions()
+    {
+        return m_allocatedPartitions;
+    }
+
+    /**
+     * @return Number of partitions removed by the sliding window or {@code evictBelow}
+     */
+    public long evictedPartitions()
+    {
+        return m_evictedPartitions;
+    }
+
+    /**
+     * Remove all bit sets with indices strictly between given ones
+     * @param fromSetIndex Left bound (exclusive)
+     * @param toSetIndex Right bound (exclusive)
+     */
+    private void removeSets( final long fromSetIndex, final long toSetIndex )
+    {
+        m_lastSet = null;
+        m_sortedSetIndices = null;
+        final long width = toSetIndex - fromSetIndex - 1; //negative on overflow
+        if ( width >= 0 && width <= m_sets.size() )
+        {
+            for ( long i = fromSetIndex + 1; i < toSetIndex; ++i )
+                if ( m_sets.remove( i ) != null )
+                    onRemove( i );
+            return;
+        }
+        //the range is wider than the number of partitions - scan the map instead of the range
+        final long[] toRemove = new long[ m_sets.size() ];
+        int cnt = 0;
+        for ( int i = 0; i < m_sets.capacity(); ++i )
+        {
+            if ( m_sets.valueAt( i ) != null )
+            {
+                final long key = m_sets.keyAt( i );
+                if ( key > fromSetIndex && key < toSetIndex )
+                    toRemove[ cnt++ ] = key;
+            }
+        }
+        for ( int i = 0; i < cnt; ++i )
+        {
+            m_sets.remove( toRemove[ i ] );
+            onRemove( toRemove[ i ] );
         }
-        return bitSet;
     }
 
     /**
@@ -79,14 +310,25 @@ public class LongBitSet
      */
     public void set( final long index, final boolean value )
     {
+        final long setIndex = getSetIndex( index );
+        final Container container = findSet( setIndex );
         if ( value )
-            bitSet( index ).set( getPos( index ), value );
-        else
-        {  //if value shall be cleared, check first if given partition exists
-            final BitSet bitSet = m_sets.get( getSetIndex( index ) );
-            if ( bitSet != null )
-                bitSet.clear( getPos( index ) );
+        {
+            if ( container == null )
+            {
+                final Container created = new ArrayContainer( m_valueBits ).set( getPos( index ) );
+                m_sets.put( setIndex, created );
+                m_sortedSetIndices = null;
+                m_lastSetIndex = setIndex;
+                m_lastSet = created;
+                onAllocate( setIndex, index );
+            }
+            else
+                update( setIndex, container, container.set( getPos( index ) ) );
         }
+        //if value shall be cleared, check first if given partition exists
+        else if ( container != null )
+            update( setIndex, container, container.clear( getPos( index ) ) );
     }
 
     /**
@@ -96,8 +338,8 @@ public class LongBitSet
      */
     public boolean get( final long index )
     {
-        final BitSet bitSet = m_sets.get( getSetIndex( index ) );
-        return bitSet != null && bitSet.get( getPos( index ) );
+        final Container container = findSet( getSetIndex( index ) );
+        return container != null && container.get( getPos( index ) );
     }
 
     /**
@@ -111,39 +353,409 @@ public class LongBitSet
         final long fromPos = getSetIndex( fromIndex );
         final long toPos = getSetIndex( toIndex );
         //remove all maps in the middle
-        for ( long i = fromPos + 1; i < toPos; ++i )
-            m_sets.remove( i );
+        if ( toPos - fromPos > 1 )
+            removeSets( fromPos, toPos );
         //clean two corner sets manually
-        final BitSet fromSet = m_sets.get( fromPos );
-        final BitSet toSet = m_sets.get( toPos );
+        final Container fromSet = m_sets.get( fromPos );
+        final Container toSet = m_sets.get( toPos );
         ///are both ends in the same subset?
-        if ( fromSet != null && fromSet == toSet )
+        if ( fromSet != null && fromPos == toPos )
         {
-            fromSet.clear( getPos( fromIndex ), getPos( toIndex ) );
+            update( fromPos, fromSet, fromSet.clear( getPos( fromIndex ), getPos( toIndex ) ) );
             return;
         }
         //clean left subset from left index to the end
         if ( fromSet != null )
-            fromSet.clear( getPos( fromIndex ), fromSet.length() );
+            update( fromPos, fromSet, fromSet.clear( getPos( fromIndex ), fromSet.partitionSize() ) );
         //clean right subset from 0 to given index. Note that both checks are independent
         if ( toSet != null )
-            toSet.clear( 0, getPos( toIndex ) );
-    }
-
-//    /**
-//     * Iteration over all set values in a LongBitSet. Order of iteration is not specified.
-//     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
-//     */
-//    public void forEach( final LongProcedure proc )
-//    {
-//        for ( final Map.Entry<Long, BitSet> entry : m_sets.entrySet() )
-//        {
-//            final BitSet bs = entry.getValue();
-//            final long baseIndex = entry.getKey() << VALUE_BITS;
-//            for ( int i = bs.nextSetBit( 0 ); i >= 0; i = bs.nextSetBit( i + 1 ) ) {
-//                if ( !proc.forEntry( baseIndex + i ) )
-//                    return;
-//            }
-//        }
-//    }
-}
\ No newline at end of file
+            update( toPos, toSet, toSet.clear( 0, getPos( toIndex ) ) );
+    }
+
+    /**
+     * Iteration over all set values in a LongBitSet. Order of iteration is not specified.
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     */
+    public void forEach( final LongProcedure proc )
+    {
+        for ( int cell = 0; cell < m_sets.capacity(); ++cell )
+        {
+            final Container container = m_sets.valueAt( cell );
+            if ( container != null && !container.forEach( m_sets.keyAt( cell ) << m_valueBits, proc ) )
+                return;
+        }
+    }
+
+    /**
+     * @return Approximate number of bytes occupied by all partitions (the partition map is not included)
+     */
+    public long memoryUsage()
+    {
+        long res = 0;
+        for ( int cell = 0; cell < m_sets.capacity(); ++cell )
+        {
+            final Container container = m_sets.valueAt( cell );
+            if ( container != null )
+                res += container.memoryUsage();
+        }
+        return res;
+    }
+
+    /**
+     * @return Number of set bits in this set
+     */
+    public long cardinality()
+    {
+        long res = 0;
+        for ( int cell = 0; cell < m_sets.capacity(); ++cell )
+        {
+            final Container container = m_sets.valueAt( cell );
+            if ( container != null )
+                res += container.cardinality();
+        }
+        return res;
+    }
+
+    /**
+     * Count set bits between {@code fromIndex} (inclusive) and {@code toIndex} (exclusive). Only existing
+     * partitions are checked, so the cost does not depend on the width of a range.
+     * @param fromIndex Start index (inclusive)
+     * @param toIndex End index (exclusive)
+     * @return Number of set bits in a range
+     */
+    public long cardinality( final long fromIndex, final long toIndex )
+    {
+        if ( fromIndex >= toIndex ) return 0;
+        final long fromPos = getSetIndex( fromIndex );
+        final long toPos = getSetIndex( toIndex );
+        final long[] indices = sortedSetIndices();
+        int i = Arrays.binarySearch( indices, fromPos );
+        if ( i < 0 )
+            i = -i - 1;
+        long res = 0;
+        for ( ; i < indices.length && indices[ i ] <= toPos; ++i )
+        {
+            final Container container = m_sets.get( indices[ i ] );
+            final int from = indices[ i ] == fromPos ? getPos( fromIndex ) : 0;
+            if ( indices[ i ] == toPos )
+                res += container.cardinality( from, getPos( toIndex ) );
+            else
+                res += from == 0 ? container.cardinality() : container.cardinality( from, container.partitionSize() );
+        }
+        return res;
+    }
+
+    /**
+     * Keep only bits which are set in both sets (same as {@code java.util.BitSet.and})
+     * @param other Another set, it is not modified
+     */
+    public void and( final LongBitSet other )
+    {
+        combine( this, this, other, Container.AND );
+    }
+
+    /**
+     * Set all bits which are set in another set (same as {@code java.util.BitSet.or})
+     * @param other Another set, it is not modified
+     */
+    public void or( final LongBitSet other )
+    {
+        combine( this, this, other, Container.OR );
+    }
+
+    /**
+     * Clear all bits which are set in another set (same as {@code java.util.BitSet.andNot})
+     * @param other Another set, it is not modified
+     */
+    public void andNot( final LongBitSet other )
+    {
+        combine( this, this, other, Container.AND_NOT );
+    }
+
+    /**
+     * Flip all bits which are set in another set (same as {@code java.util.BitSet.xor})
+     * @param other Another set, it is not modified
+     */
+    public void xor( final LongBitSet other )
+    {
+        combine( this, this, other, Container.XOR );
+    }
+
+    /**
+     * @param a First set
+     * @param b Second set
+     * @return A new set containing bits set in both arguments
+     */
+    public static LongBitSet and( final LongBitSet a, final LongBitSet b )
+    {
+        final LongBitSet res = new LongBitSet( a.m_valueBits );
+        combine( res, a, b, Container.AND );
+        return res;
+    }
+
+    /**
+     * @param a First set
+     * @param b Second set
+     * @return A new set containing bits set in any of arguments
+     */
+    public static LongBitSet or( final LongBitSet a, final LongBitSet b )
+    {
+        final LongBitSet res = new LongBitSet( a.m_valueBits );
+        combine( res, a, b, Container.OR );
+        return res;
+    }
+
+    /**
+     * @param a First set
+     * @param b Second set
+     * @return A new set containing bits set in the first argument, but not in the second one
+     */
+    public static LongBitSet andNot( final LongBitSet a, final LongBitSet b )
+    {
+        final LongBitSet res = new LongBitSet( a.m_valueBits );
+        combine( res, a, b, Container.AND_NOT );
+        return res;
+    }
+
+    /**
+     * @param a First set
+     * @param b Second set
+     * @return A new set containing bits set in exactly one of arguments
+     */
+    public static LongBitSet xor( final LongBitSet a, final LongBitSet b )
+    {
+        final LongBitSet res = new LongBitSet( a.m_valueBits );
+        combine( res, a, b, Container.XOR );
+        return res;
+    }
+
+    /**
+     * Calculate a bitwise operation partition by partition. Partitions missing in both sets are never touched,
+     * so the cost is proportional to the number of populated partitions.
+     * @param dest Destination set, either empty or same as {@code a}
+     * @param a First argument
+     * @param b Second argument, it is never modified
+     * @param op Operation, see {@code Container}
+     * @throws IllegalArgumentException If sets have different partition sizes
+     */
+    private static void combine( final LongBitSet dest, final LongBitSet a, final LongBitSet b, final int op )
+    {
+        if ( a.m_valueBits != b.m_valueBits )
+            throw new IllegalArgumentException( "Sets have different partition sizes: 2^" + a.m_valueBits + " and 2^" + b.m_valueBits );
+        //sorted indices are an immutable snapshot, so it is safe to modify the map while iterating over them
+        final long[] indices = a.sortedSetIndices();
+        long[] scratch1 = null;
+        long[] scratch2 = null;
+        for ( final long setIndex : indices )
+        {
+            final Container ca = a.m_sets.get( setIndex );
+            final Container cb = b.m_sets.get( setIndex );
+            if ( cb == null )
+            {
+                if ( op == Container.AND )
+                    dest.replaceContainer( setIndex, null );
+                else if ( dest != a )
+                    dest.m_sets.put( setIndex, ca.copy() );
+                continue;
+            }
+            if ( scratch1 == null )
+            {
+                scratch1 = new long[ 1 << a.m_valueBits >> 6 ];
+                scratch2 = new long[ 1 << a.m_valueBits >> 6 ];
+            }
+            final Container res = Container.apply( ca, cb, op, scratch1, scratch2 );
+            dest.replaceContainer( setIndex, res );
+        }
+        if ( op == Container.OR || op == Container.XOR )
+        {
+            for ( final long setIndex : b.sortedSetIndices() )
+                if ( Arrays.binarySearch( indices, setIndex ) < 0 )
+                    dest.m_sets.put( setIndex, b.m_sets.get( setIndex ).copy() );
+        }
+        dest.m_lastSet = null;
+        dest.m_sortedSetIndices = null;
+    }
+
+    /**
+     * @return Number of bits in a position inside a partition (partition contains <code>2^valueBits</code> indices)
+     */
+    public int valueBits()
+    {
+        return m_valueBits;
+    }
+
+    /**
+     * @param setIndex Partition index
+     * @return Partition container or null
+     */
+    Container container( final long setIndex )
+    {
+        return m_sets.get( setIndex );
+    }
+
+    /**
+     * Replace a partition container. The new container is considered changed.
+     * @param setIndex Partition index
+     * @param container New container, null or empty container removes a partition
+     */
+    void replaceContainer( final long setIndex, final Container container )
+    {
+        if ( container == null || container.cardinality() == 0 )
+        {
+            if ( m_sets.remove( setIndex ) != null )
+                onRemove( setIndex );
+        }
+        else
+        {
+            container.m_changed = true;
+            m_sets.put( setIndex, container );
+        }
+        m_lastSet = null;
+        m_sortedSetIndices = null;
+    }
+
+    /**
+     * Remove all partitions
+     */
+    void clearAll()
+    {
+        if ( m_trackRemovals )
+            for ( final long setIndex : sortedSetIndices() )
+                m_removed.put( setIndex, Boolean.TRUE );
+        m_sets.clear();
+        m_lastSet = null;
+        m_sortedSetIndices = null;
+    }
+
+    /**
+     * @return Sorted indices of partitions removed since the last {@code resetChanges} call
+     */
+    long[] removedSetIndices()
+    {
+        final long[] res = new long[ m_removed.size() ];
+        int cnt = 0;
+        for ( int cell = 0; cell < m_removed.capacity(); ++cell )
+            if ( m_removed.valueAt( cell ) != null )
+                res[ cnt++ ] = m_removed.keyAt( cell );
+        Arrays.sort( res );
+        return res;
+    }
+
+    /**
+     * Forget all changes and start tracking removed partitions: called after a snapshot or a delta is written
+     */
+    void resetChanges()
+    {
+        m_trackRemovals = true;
+        for ( int cell = 0; cell < m_sets.capacity(); ++cell )
+        {
+            final Container container = m_sets.valueAt( cell );
+            if ( container != null )
+                container.m_changed = false;
+        }
+        m_removed.clear();
+    }
+
+    /**
+     * Get sorted indices of all bit sets, rebuilding them if partitions were added or removed since the last call
+     * @return Sorted bit set indices
+     */
+    long[] sortedSetIndices()
+    {
+        if ( m_sortedSetIndices == null )
+        {
+            final long[] res = new long[ m_sets.size() ];
+            int cnt = 0;
+            for ( int cell = 0; cell < m_sets.capacity(); ++cell )
+                if ( m_sets.valueAt( cell ) != null )
+                    res[ cnt++ ] = m_sets.keyAt( cell );
+            Arrays.sort( res );
+            m_sortedSetIndices = res;
+        }
+        return m_sortedSetIndices;
+    }
+
+    /**
+     * Find the first set bit with an index not lower than the given one. Same as {@code java.util.BitSet},
+     * this method works with non-negative indices only.
+     * @param fromIndex Index to start searching from (inclusive)
+     * @return Index of the next set bit or -1 if there is no such bit
+     * @throws IndexOutOfBoundsException If the start index is negative
+     */
+    public long nextSetBit( final long fromIndex )
+    {
+        if ( fromIndex < 0 )
+            throw new IndexOutOfBoundsException( "fromIndex < 0: " + fromIndex );
+        final long setIndex = getSetIndex( fromIndex );
+        final Container container = findSet( setIndex );
+        if ( container != null )
+        {
+            final int pos = container.nextSetBit( getPos( fromIndex ) );
+            if ( pos >= 0 )
+                return ( setIndex << m_valueBits ) + pos;
+        }
+        //find the first non-empty bit set after the current one
+        final long[] indices = sortedSetIndices();
+        int i = Arrays.binarySearch( indices, setIndex );
+        i = i >= 0 ? i + 1 : -i - 1;
+        for ( ; i < indices.length; ++i )
+        {
+            final int pos = m_sets.get( indices[ i ] ).nextSetBit( 0 );
+            if ( pos >= 0 )
+                return ( indices[ i ] << m_valueBits ) + pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first clear bit with an index not lower than the given one. Same as {@code java.util.BitSet},
+     * this method works with non-negative indices only.
+     * @param fromIndex Index to start searching from (inclusive)
+     * @return Index of the next clear bit or -1 if all bits up to {@code Long.MAX_VALUE} are set
+     * @throws IndexOutOfBoundsException If the start index is negative
+     */
+    public long nextClearBit( final long fromIndex )
+    {
+        if ( fromIndex < 0 )
+            throw new IndexOutOfBoundsException( "fromIndex < 0: " + fromIndex );
+        long index = fromIndex;
+        while ( true )
+        {
+            final long setIndex = getSetIndex( index );
+            final Container container = findSet( setIndex );
+            if ( container == null )
+                return index;
+            final int pos = container.nextClearBit( getPos( index ) );
+            if ( pos <= m_valueMask )
+                return ( setIndex << m_valueBits ) + pos;
+            //all bits till the end of this bit set are set
+            if ( setIndex == getSetIndex( Long.MAX_VALUE ) )
+                return -1;
+            index = ( setIndex + 1 ) << m_valueBits;
+        }
+    }
+
+    /**
+     * Get an iterator over all set non-negative indices in ascending order. This set should not be modified
+     * while the iterator is in use.
+     * @return Ordered iterator
+     */
+    public LongIterator iterator()
+    {
+        return new LongIterator() {
+            private long m_next = nextSetBit( 0 );
+
+            public boolean hasNext() {
+                return m_next >= 0;
+            }
+
+            public long next() {
+                if ( m_next < 0 )
+                    throw new NoSuchElementException();
+                final long res = m_next;
+                m_next = res == Long.MAX_VALUE ? -1 : nextSetBit( res + 1 );
+                return res;
+            }
+        };
+    }
+}
@@ -0,0 +1,351 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ *  Binary snapshot and delta format for {@link LongBitSet}. A stream may be written into a ByteBuffer or a channel
+ *  partition by partition, so a channel is never required to hold the whole set in memory.
+ * </p>
+ * <p>
+ *  Stream layout (all fixed size numbers are little endian):
+ *  <ul>
+ *      <li>int magic, byte version, byte stream type (snapshot or delta), byte partition bits</li>
+ *      <li>partition records: int record length followed by a record</li>
+ *      <li>int zero as an end marker</li>
+ *  </ul>
+ *  A record contains a zig-zag varint partition index followed by a container type byte and container data:
+ *  <ul>
+ *      <li>sorted array: varint count, varint gaps between positions</li>
+ *      <li>runs: varint count, (varint gap after the previous run, varint run length) pairs</li>
+ *      <li>bitmap: varint number of words, groups of (varint number of zero words, varint number of non-zero words,
+ *      non-zero words). Empty words are never written.</li>
+ *      <li>removed partition (deltas only): no data</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  A {@code LongBitSet} tracks partitions changed since the last written snapshot or delta. A delta contains
+ *  only such partitions, each of them is written in full, so deltas are idempotent. Removed partitions are tracked
+ *  only after the first snapshot or delta was written, so a set which is never written does not accumulate them;
+ *  the first delta of a set is meant to be applied to an empty set. Applying a snapshot replaces
+ *  the whole content of a set, applying a delta replaces the listed partitions.
+ * </p>
+ */
+public final class LongBitSetCodec {
+    private static final int MAGIC = 0x3153424C; //"LBS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7;
+
+    private static final int SNAPSHOT = 0;
+    private static final int DELTA = 1;
+
+    /** Record type for partitions removed since the last snapshot */
+    private static final int TYPE_REMOVED = 0;
+    /** Record length prefix */
+    private static final int LENGTH_SIZE = 4;
+    /** Max partition index varint length */
+    private static final int MAX_INDEX_LENGTH = 10;
+    /** Initial size of channel buffers, they grow to the longest record */
+    private static final int CHANNEL_BUFFER_SIZE = 4096;
+
+    private LongBitSetCodec() {
+    }
+
+    /**
+     * Write a full snapshot of a set and reset its change tracking.
+     * @param set Set to write
+     * @param buf Destination buffer, its byte order is not changed
+     * @throws java.nio.BufferOverflowException If there is not enough space in a buffer
+     */
+    public static void writeSnapshot( final LongBitSet set, final ByteBuffer buf )
+    {
+        final ByteOrder order = buf.order();
+        buf.order( ByteOrder.LITTLE_ENDIAN );
+        try
+        {
+            write( set, SNAPSHOT, buf, null );
+        }
+        catch ( IOException ex )
+        {
+            throw new AssertionError( ex ); //no IO without a channel
+        }
+        finally
+        {
+            buf.order( order );
+        }
+    }
+
+    /**
+     * Write all partitions changed since the last snapshot or delta and reset change tracking.
+     * @param set Set to write
+     * @param buf Destination buffer, its byte order is not changed
+     * @throws java.nio.BufferOverflowException If there is not enough space in a buffer
+     */
+    public static void writeDelta( final LongBitSet set, final ByteBuffer buf )
+    {
+        final ByteOrder order = buf.order();
+        buf.order( ByteOrder.LITTLE_ENDIAN );
+        try
+        {
+            write( set, DELTA, buf, null );
+        }
+        catch ( IOException ex )
+        {
+            throw new AssertionError( ex ); //no IO without a channel
+        }
+        finally
+        {
+            buf.order( order );
+        }
+    }
+
+    /**
+     * Write a full snapshot of a set into a channel and reset its change tracking.
+     * Only a single partition is kept in memory at a time.
+     * @param set Set to write
+     * @param channel Destination channel
+     * @throws IOException In case of IO errors
+     */
+    public static void writeSnapshot( final LongBitSet set, final WritableByteChannel channel ) throws IOException
+    {
+        write( set, SNAPSHOT, null, channel );
+    }
+
+    /**
+     * Write all partitions changed since the last snapshot or delta into a channel and reset change tracking.
+     * @param set Set to write
+     * @param channel Destination channel
+     * @throws IOException In case of IO errors
+     */
+    public static void writeDelta( final LongBitSet set, final WritableByteChannel channel ) throws IOException
+    {
+        write( set, DELTA, null, channel );
+    }
+
+    /**
+     * Read a set from a snapshot or a delta
+     * @param buf Source buffer
+     * @return A new set
+     * @throws IllegalArgumentException If data is malformed
+     */
+    public static LongBitSet read( final ByteBuffer buf )
+    {
+        if ( buf.remaining() < HEADER_SIZE )
+            throw new IllegalArgumentException( "Not a LongBitSet stream: only " + buf.remaining() + " bytes" );
+        final LongBitSet res = new LongBitSet( valueBits( buf.get( buf.position() + HEADER_SIZE - 1 ) ) );
+        apply( res, buf );
+        return res;
+    }
+
+    /**
+     * Read a set from a snapshot or a delta stored in a channel
+     * @param channel Source channel
+     * @return A new set
+     * @throws IOException In case of IO errors
+     * @throws IllegalArgumentException If data is malformed
+     */
+    public static LongBitSet read( final ReadableByteChannel channel ) throws IOException
+    {
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        readFully( channel, header, HEADER_SIZE );
+        final LongBitSet res = new LongBitSet( valueBits( header.get( HEADER_SIZE - 1 ) ) );
+        readHeader( res, header );
+        readRecords( res, channel );
+        return res;
+    }
+
+    private static int valueBits( final int bits )
+    {
+        if ( bits < LongBitSet.MIN_VALUE_BITS || bits > LongBitSet.MAX_VALUE_BITS )
+            throw new IllegalArgumentException( "Not a LongBitSet stream: partition bits = " + bits );
+        return bits;
+    }
+
+    /**
+     * Apply a snapshot (replaces the whole set content) or a delta (replaces changed partitions) to a set
+     * @param set Destination set
+     * @param buf Source buffer, its byte order is not changed
+     * @throws IllegalArgumentException If data is malformed or was written for another partition size
+     */
+    public static void apply( final LongBitSet set, final ByteBuffer buf )
+    {
+        final ByteOrder order = buf.order();
+        buf.order( ByteOrder.LITTLE_ENDIAN );
+        try
+        {
+            readHeader( set, buf );
+            while ( true )
+            {
+                final int length = buf.getInt();
+                if ( length == 0 )
+                    return;
+                final int end = buf.position() + length;
+                final int limit = buf.limit();
+                buf.limit( end );
+                readRecord( set, buf );
+                buf.limit( limit );
+            }
+        }
+        finally
+        {
+            buf.order( order );
+        }
+    }
+
+    /**
+     * Apply a snapshot (replaces the whole set content) or a delta (replaces changed partitions) to a set.
+     * Data is read record by record.
+     * @param set Destination set
+     * @param channel Source channel
+     * @throws IOException In case of IO errors
+     * @throws IllegalArgumentException If data is malformed or was written for another partition size
+     */
+    public static void apply( final LongBitSet set, final ReadableByteChannel channel ) throws IOException
+    {
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        readFully( channel, header, HEADER_SIZE );
+        readHeader( set, header );
+        readRecords( set, channel );
+    }
+
+    private static void readRecords( final LongBitSet set, final ReadableByteChannel channel ) throws IOException
+    {
+        final int maxRecord = maxRecordLength( set );
+        ByteBuffer buf = ByteBuffer.allocate( CHANNEL_BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( true )
+        {
+            readFully( channel, buf, LENGTH_SIZE );
+            final int length = buf.getInt();
+            if ( length == 0 )
+                return;
+            if ( length < 0 || length > maxRecord )
+                throw new IllegalArgumentException( "Malformed stream: record length = " + length );
+            if ( length > buf.capacity() )
+                buf = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+            readFully( channel, buf, length );
+            readRecord( set, buf );
+        }
+    }
+
+    private static int maxRecordLength( final LongBitSet set )
+    {
+        return MAX_INDEX_LENGTH + Container.maxEncodedLength( set.valueBits() );
+    }
+
+    private static void write( final LongBitSet set, final int type, final ByteBuffer buf, final WritableByteChannel channel )
+            throws IOException
+    {
+        ByteBuffer out = buf != null ? buf : ByteBuffer.allocate( CHANNEL_BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        out.putInt( MAGIC ).put( ( byte ) VERSION ).put( ( byte ) type ).put( ( byte ) set.valueBits() );
+        flush( out, channel );
+        if ( type == DELTA )
+        {
+            for ( final long setIndex : set.removedSetIndices() )
+            {
+                //removed and created again - written as a changed partition
+                if ( set.container( setIndex ) != null )
+                    continue;
+                final int start = out.position();
+                out.putInt( 0 );
+                MoneyCodec.writeVarint( MoneyCodec.zigZag( setIndex ), out );
+                out.put( ( byte ) TYPE_REMOVED );
+                out.putInt( start, out.position() - start - LENGTH_SIZE );
+                flush( out, channel );
+            }
+        }
+        for ( final long setIndex : set.sortedSetIndices() )
+        {
+            final Container container = set.container( setIndex );
+            if ( type == DELTA && !container.m_changed )
+                continue;
+            //a channel buffer is empty here, it grows to fit the current record
+            final int bound = LENGTH_SIZE + MAX_INDEX_LENGTH + container.encodedLengthBound();
+            if ( channel != null && bound > out.capacity() )
+                out = ByteBuffer.allocate( bound ).order( ByteOrder.LITTLE_ENDIAN );
+            final int start = out.position();
+            out.putInt( 0 );
+            MoneyCodec.writeVarint( MoneyCodec.zigZag( setIndex ), out );
+            container.write( out );
+            out.putInt( start, out.position() - start - LENGTH_SIZE );
+            flush( out, channel );
+        }
+        out.putInt( 0 );
+        flush( out, channel );
+        set.resetChanges();
+    }
+
+    /**
+     * Write buffer content into a channel and clear a buffer. Does nothing if there is no channel.
+     */
+    private static void flush( final ByteBuffer buf, final WritableByteChannel channel ) throws IOException
+    {
+        if ( channel == null )
+            return;
+        buf.flip();
+        while ( buf.hasRemaining() )
+            channel.write( buf );
+        buf.clear();
+    }
+
+    /**
+     * Read exactly {@code length} bytes from a channel into a cleared buffer and flip it
+     */
+    private static void readFully( final ReadableByteChannel channel, final ByteBuffer buf, final int length ) throws IOException
+    {
+        buf.clear();
+        buf.limit( length );
+        while ( buf.hasRemaining() )
+            if ( channel.read( buf ) < 0 )
+                throw new EOFException( "Unexpected end of stream" );
+        buf.flip();
+    }
+
+    private static void readHeader( final LongBitSet set, final ByteBuffer buf )
+    {
+        if ( buf.getInt() != MAGIC || buf.get() != VERSION )
+            throw new IllegalArgumentException( "Not a LongBitSet stream" );
+        final int type = buf.get();
+        final int bits = buf.get();
+        if ( bits != set.valueBits() )
+            throw new IllegalArgumentException( "Stream was written with " + bits + " partition bits, but a set uses " + set.valueBits() );
+        if ( type == SNAPSHOT )
+            set.clearAll();
+        else if ( type != DELTA )
+            throw new IllegalArgumentException( "Unknown stream type: " + type );
+    }
+
+    private static void readRecord( final LongBitSet set, final ByteBuffer buf )
+    {
+        final long setIndex = MoneyCodec.unZigZag( MoneyCodec.readVarint( buf ) );
+        if ( buf.get( buf.position() ) == TYPE_REMOVED )
+        {
+            buf.get();
+            set.replaceContainer( setIndex, null );
+        }
+        else
+            set.replaceContainer( setIndex, Container.read( set.valueBits(), buf ) );
+        if ( buf.hasRemaining() )
+            throw new IllegalArgumentException( "Malformed stream: " + buf.remaining() + " extra bytes in a record of partition " + setIndex );
+    }
+}
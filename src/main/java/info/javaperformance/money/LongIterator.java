@@ -0,0 +1,33 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * Iterator over primitive <code>long</code> values, which does not box them.
+ */
+public interface LongIterator {
+    /**
+     * @return {@code true} if there are more values
+     */
+    public boolean hasNext();
+
+    /**
+     * @return The next value
+     * @throws java.util.NoSuchElementException If there are no more values
+     */
+    public long next();
+}
@@ -0,0 +1,220 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * Open addressing map from primitive <code>long</code> keys to non-null objects with linear probing.
+ * A <code>null</code> value marks a free cell, so any <code>long</code> can be used as a key.
+ * @param <V> Value type
+ */
+final class LongObjectMap<V> {
+    /** Multiplier for Fibonacci hashing */
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    private static final float FILL_FACTOR = 0.5f;
+
+    private long[] m_keys;
+    private Object[] m_values;
+    /** Number of bits in a cell index */
+    private int m_bits;
+    private int m_mask;
+    private int m_size;
+    /** Resize the map after its size reaches this threshold */
+    private int m_threshold;
+
+    LongObjectMap( final int expectedSize )
+    {
+        int bits = 4;
+        while ( ( 1 << bits ) * FILL_FACTOR < expectedSize )
+            ++bits;
+        allocate( bits );
+    }
+
+    private void allocate( final int bits )
+    {
+        m_bits = bits;
+        m_mask = ( 1 << bits ) - 1;
+        m_keys = new long[ 1 << bits ];
+        m_values = new Object[ 1 << bits ];
+        m_threshold = ( int ) ( ( 1 << bits ) * FILL_FACTOR );
+    }
+
+    private int cell( final long key )
+    {
+        return ( int ) ( ( key * PHI ) >>> ( 64 - m_bits ) );
+    }
+
+    /**
+     * @param key Key
+     * @return Value associated with a key or null
+     */
+    @SuppressWarnings( "unchecked" )
+    V get( final long key )
+    {
+        int idx = cell( key );
+        Object val;
+        while ( ( val = m_values[ idx ] ) != null )
+        {
+            if ( m_keys[ idx ] == key )
+                return ( V ) val;
+            idx = ( idx + 1 ) & m_mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param key Key
+     * @param value New value, must be not null
+     * @return Previous value associated with a key or null
+     */
+    @SuppressWarnings( "unchecked" )
+    V put( final long key, final V value )
+    {
+        int idx = cell( key );
+        Object val;
+        while ( ( val = m_values[ idx ] ) != null )
+        {
+            if ( m_keys[ idx ] == key )
+            {
+                m_values[ idx ] = value;
+                return ( V ) val;
+            }
+            idx = ( idx + 1 ) & m_mask;
+        }
+        m_keys[ idx ] = key;
+        m_values[ idx ] = value;
+        if ( ++m_size >= m_threshold )
+            rehash();
+        return null;
+    }
+
+    /**
+     * @param key Key
+     * @return Removed value or null
+     */
+    @SuppressWarnings( "unchecked" )
+    V remove( final long key )
+    {
+        int idx = cell( key );
+        Object val;
+        while ( ( val = m_values[ idx ] ) != null )
+        {
+            if ( m_keys[ idx ] == key )
+            {
+                shiftKeys( idx );
+                --m_size;
+                return ( V ) val;
+            }
+            idx = ( idx + 1 ) & m_mask;
+        }
+        return null;
+    }
+
+    /**
+     * Backward shift deletion: move entries of a probe chain into the freed cell, so no tombstones are needed
+     * @param pos Freed cell
+     */
+    private void shiftKeys( int pos )
+    {
+        int last;
+        while ( true )
+        {
+            last = pos;
+            pos = ( pos + 1 ) & m_mask;
+            while ( true )
+            {
+                if ( m_values[ pos ] == null )
+                {
+                    m_values[ last ] = null;
+                    return;
+                }
+                final int slot = cell( m_keys[ pos ] );
+                //move an entry only if its home cell is not located cyclically in (last, pos]
+                if ( last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos )
+                    break;
+                pos = ( pos + 1 ) & m_mask;
+            }
+            m_keys[ last ] = m_keys[ pos ];
+            m_values[ last ] = m_values[ pos ];
+        }
+    }
+
+    private void rehash()
+    {
+        final long[] oldKeys = m_keys;
+        final Object[] oldValues = m_values;
+        allocate( m_bits + 1 );
+        for ( int i = 0; i < oldKeys.length; ++i )
+        {
+            if ( oldValues[ i ] != null )
+            {
+                int idx = cell( oldKeys[ i ] );
+                while ( m_values[ idx ] != null )
+                    idx = ( idx + 1 ) & m_mask;
+                m_keys[ idx ] = oldKeys[ i ];
+                m_values[ idx ] = oldValues[ i ];
+            }
+        }
+    }
+
+    /**
+     * @return Number of entries in this map
+     */
+    int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Remove all entries
+     */
+    void clear()
+    {
+        for ( int i = 0; i < m_values.length; ++i )
+            m_values[ i ] = null;
+        m_size = 0;
+    }
+
+    /**
+     * Iteration support: number of cells to scan with {@code keyAt}/{@code valueAt}
+     * @return Number of cells in this map
+     */
+    int capacity()
+    {
+        return m_values.length;
+    }
+
+    /**
+     * Iteration support: get a key stored in a cell. Valid only if {@code valueAt} returns non-null for this cell.
+     * @param cell Cell index
+     * @return Key
+     */
+    long keyAt( final int cell )
+    {
+        return m_keys[ cell ];
+    }
+
+    /**
+     * Iteration support: get a value stored in a cell
+     * @param cell Cell index
+     * @return Value or null for a free cell
+     */
+    @SuppressWarnings( "unchecked" )
+    V valueAt( final int cell )
+    {
+        return ( V ) m_values[ cell ];
+    }
+}
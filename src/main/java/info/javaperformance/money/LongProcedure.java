@@ -0,0 +1,29 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * Callback for iterating over primitive <code>long</code> values.
+ */
+public interface LongProcedure {
+    /**
+     * Process a single value
+     * @param value Value
+     * @return {@code true} to continue iteration, {@code false} to stop it
+     */
+    public boolean forEntry( final long value );
+}
@@ -0,0 +1,422 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *  Persistent version of {@link LongBitSet}, which keeps its partitions in a memory-mapped file. It survives
+ *  restarts (open it with {@link #open(java.io.File)}) and does not occupy the Java heap except for a small
+ *  directory of partitions.
+ * </p>
+ * <p>
+ *  File layout: 32 bytes header (magic, version, partition bits, number of pages), followed by fixed size pages.
+ *  Each page contains a 64 bytes page header (partition index and a page marker) and a plain bitmap of
+ *  <code>2^20</code> bits (little endian words). Pages are allocated in regions of {@code REGION_PAGES} pages,
+ *  each region is mapped separately. The directory is rebuilt from page headers on open. The OS may write
+ *  mapped pages to disk in any order, so a page counted in the file header may have no page header yet. Every page
+ *  is validated on its own: pages without a marker are skipped on open and reused for new partitions.
+ *  Bits of such pages are lost only if the process or the OS crashed before they were flushed.
+ * </p>
+ * <p>
+ *  Pages are never released: clearing a range zeroes bitmaps of existing pages.
+ *  Changes are written to disk only by {@link #flush()} and {@link #close()} (or whenever the OS decides to do so).
+ * </p>
+ * <p>
+ *  This class is not thread safe.
+ * </p>
+ */
+public class MappedLongBitSet implements Closeable
+{
+    /** Number of bits allocated to a value in an index */
+    private static final int VALUE_BITS = 20; //1M values per page
+    /** Mask for extracting values */
+    private static final long VALUE_MASK = ( 1 << VALUE_BITS ) - 1;
+    /** Number of words in a page */
+    private static final int WORDS = 1 << VALUE_BITS >> 6;
+
+    private static final long MAGIC = 0x4C4F4E4742495453L; //"LONGBITS"
+    private static final int VERSION = 2;
+    /** Written into a page header after its partition index, a zeroed page header is not valid */
+    private static final long PAGE_MAGIC = 0x50414745L; //"PAGE"
+    private static final int HEADER_SIZE = 32;
+    /** Page header size, keeps bitmaps cache line aligned */
+    private static final int PAGE_HEADER_SIZE = 64;
+    private static final int PAGE_SIZE = PAGE_HEADER_SIZE + WORDS * 8;
+    /** Number of pages mapped at once - each mapping is 8Mb */
+    private static final int REGION_PAGES = 64;
+
+    private final RandomAccessFile m_file;
+    private final MappedByteBuffer m_header;
+    /** Mapped regions */
+    private final List<MappedByteBuffer> m_regions = new ArrayList<MappedByteBuffer>();
+    /** Directory: partition index to its bitmap (a slice of a region) */
+    private final LongObjectMap<ByteBuffer> m_pages = new LongObjectMap<ByteBuffer>( 20 );
+    /** Number of allocated pages */
+    private long m_pageCount;
+    /** Allocated pages without a written page header, they are reused before new pages are allocated */
+    private final List<Long> m_tornPages = new ArrayList<Long>();
+
+    /** Index of the last accessed page, valid only if {@code m_lastPage} is not null */
+    private long m_lastPageIndex;
+    /** The last accessed page */
+    private ByteBuffer m_lastPage;
+
+    private MappedLongBitSet( final RandomAccessFile file ) throws IOException
+    {
+        m_file = file;
+        m_header = file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE );
+        m_header.order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    /**
+     * Create a new empty set. An existing file will be overwritten.
+     * @param file File to keep data in
+     * @return A new set
+     * @throws IOException In case of IO errors
+     */
+    public static MappedLongBitSet create( final File file ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            raf.setLength( 0 ); //discard old data
+            raf.setLength( HEADER_SIZE );
+            final MappedLongBitSet res = new MappedLongBitSet( raf );
+            res.m_header.putLong( 0, MAGIC ).putInt( 8, VERSION ).putInt( 12, VALUE_BITS ).putLong( 16, 0 );
+            res.m_header.force();
+            return res;
+        }
+        catch ( IOException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open an existing set
+     * @param file File created by {@link #create(java.io.File)}
+     * @return Set backed by this file
+     * @throws IOException In case of IO errors
+     * @throws IllegalArgumentException If the file was not created by this class
+     */
+    public static MappedLongBitSet open( final File file ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            if ( raf.length() < HEADER_SIZE )
+                throw new IllegalArgumentException( "File is too short: " + file );
+            final MappedLongBitSet res = new MappedLongBitSet( raf );
+            final ByteBuffer header = res.m_header;
+            if ( header.getLong( 0 ) != MAGIC || header.getInt( 8 ) != VERSION || header.getInt( 12 ) != VALUE_BITS )
+                throw new IllegalArgumentException( "Not a MappedLongBitSet file: " + file );
+            final long pages = header.getLong( 16 );
+            final long regions = ( pages + REGION_PAGES - 1 ) / REGION_PAGES;
+            if ( pages < 0 || raf.length() != HEADER_SIZE + regions * REGION_PAGES * PAGE_SIZE )
+                throw new IllegalArgumentException( "File is corrupted, pages = " + pages + ": " + file );
+            for ( long i = 0; i < regions; ++i )
+                res.mapRegion();
+            //mapped pages reach the disk in any order, so a torn page does not affect the following ones
+            for ( long i = 0; i < pages; ++i )
+            {
+                if ( res.isPageWritten( i ) )
+                    res.registerPage( i );
+                else
+                    res.m_tornPages.add( i );
+            }
+            res.m_pageCount = pages;
+            return res;
+        }
+        catch ( IOException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    private void mapRegion() throws IOException
+    {
+        final long start = HEADER_SIZE + ( long ) m_regions.size() * REGION_PAGES * PAGE_SIZE;
+        final MappedByteBuffer region = m_file.getChannel().map( FileChannel.MapMode.READ_WRITE, start, ( long ) REGION_PAGES * PAGE_SIZE );
+        region.order( ByteOrder.LITTLE_ENDIAN );
+        m_regions.add( region );
+    }
+
+    /**
+     * Check if a page header was written to disk
+     * @param page Page number in a file
+     * @return True if a page header contains a page marker
+     */
+    private boolean isPageWritten( final long page )
+    {
+        final ByteBuffer region = m_regions.get( ( int ) ( page / REGION_PAGES ) );
+        return region.getLong( ( int ) ( page % REGION_PAGES ) * PAGE_SIZE + 8 ) == PAGE_MAGIC;
+    }
+
+    /**
+     * Add an existing page to the directory
+     * @param page Page number in a file
+     * @return Page bitmap
+     */
+    private ByteBuffer registerPage( final long page )
+    {
+        final ByteBuffer region = m_regions.get( ( int ) ( page / REGION_PAGES ) );
+        final int offset = ( int ) ( page % REGION_PAGES ) * PAGE_SIZE;
+        final long setIndex = region.getLong( offset );
+        final ByteBuffer dup = region.duplicate();
+        dup.position( offset + PAGE_HEADER_SIZE ).limit( offset + PAGE_SIZE );
+        final ByteBuffer words = dup.slice().order( ByteOrder.LITTLE_ENDIAN );
+        m_pages.put( setIndex, words );
+        return words;
+    }
+
+    /**
+     * Allocate a new page for a given partition, growing the file if needed
+     * @param setIndex Partition index
+     * @return Page bitmap
+     */
+    private ByteBuffer allocatePage( final long setIndex )
+    {
+        if ( !m_tornPages.isEmpty() )
+            return reusePage( m_tornPages.remove( m_tornPages.size() - 1 ), setIndex );
+        try
+        {
+            if ( m_pageCount == ( long ) m_regions.size() * REGION_PAGES )
+            {
+                m_file.setLength( HEADER_SIZE + ( m_regions.size() + 1L ) * REGION_PAGES * PAGE_SIZE );
+                mapRegion();
+            }
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Failed to grow the file", ex );
+        }
+        final long page = m_pageCount;
+        final int offset = ( int ) ( page % REGION_PAGES ) * PAGE_SIZE;
+        m_regions.get( ( int ) ( page / REGION_PAGES ) ).putLong( offset, setIndex ).putLong( offset + 8, PAGE_MAGIC );
+        //the OS may still persist the page count first, open() skips pages without a marker
+        m_header.putLong( 16, ++m_pageCount );
+        return registerPage( page );
+    }
+
+    /**
+     * Assign a torn page to a given partition. Its bitmap may contain bits of a lost partition, so it is cleared.
+     * @param page Page number in a file
+     * @param setIndex Partition index
+     * @return Page bitmap
+     */
+    private ByteBuffer reusePage( final long page, final long setIndex )
+    {
+        final ByteBuffer region = m_regions.get( ( int ) ( page / REGION_PAGES ) );
+        final int offset = ( int ) ( page % REGION_PAGES ) * PAGE_SIZE;
+        for ( int i = 0; i < WORDS; ++i )
+            region.putLong( offset + PAGE_HEADER_SIZE + i * 8, 0 );
+        region.putLong( offset, setIndex ).putLong( offset + 8, PAGE_MAGIC );
+        return registerPage( page );
+    }
+
+    private static long getSetIndex( final long index )
+    {
+        return index >> VALUE_BITS;
+    }
+
+    private static int getPos( final long index )
+    {
+        return (int) (index & VALUE_MASK);
+    }
+
+    /**
+     * Get an existing page by its partition index
+     * @param setIndex Partition index
+     * @return Page bitmap or null if it does not exist
+     */
+    private ByteBuffer findPage( final long setIndex )
+    {
+        if ( m_lastPage != null && m_lastPageIndex == setIndex )
+            return m_lastPage;
+        final ByteBuffer page = m_pages.get( setIndex );
+        if ( page != null )
+        {
+            m_lastPageIndex = setIndex;
+            m_lastPage = page;
+        }
+        return page;
+    }
+
+    /**
+     * Set a given value for a given index
+     * @param index Long index
+     * @param value Value to set
+     * @throws IllegalStateException If a file could not be extended for a new page
+     */
+    public void set( final long index, final boolean value )
+    {
+        final long setIndex = getSetIndex( index );
+        ByteBuffer page = findPage( setIndex );
+        if ( page == null )
+        {
+            //do not allocate pages for clearing bits
+            if ( !value )
+                return;
+            page = allocatePage( setIndex );
+            m_lastPageIndex = setIndex;
+            m_lastPage = page;
+        }
+        final int pos = getPos( index );
+        final int offset = ( pos >> 6 ) << 3;
+        final long word = page.getLong( offset );
+        page.putLong( offset, value ? word | ( 1L << pos ) : word & ~( 1L << pos ) );
+    }
+
+    /**
+     * Get a value for a given index
+     * @param index Long index
+     * @return Value associated with a given index
+     */
+    public boolean get( final long index )
+    {
+        final ByteBuffer page = findPage( getSetIndex( index ) );
+        if ( page == null )
+            return false;
+        final int pos = getPos( index );
+        return ( page.getLong( ( pos >> 6 ) << 3 ) & ( 1L << pos ) ) != 0;
+    }
+
+    /**
+     * Clear all bits between {@code fromIndex} (inclusive) and {@code toIndex} (exclusive)
+     * @param fromIndex Start index (inclusive)
+     * @param toIndex End index (exclusive)
+     */
+    public void clear( final long fromIndex, final long toIndex )
+    {
+        if ( fromIndex >= toIndex ) return;
+        final long fromPos = getSetIndex( fromIndex );
+        final long toPos = getSetIndex( toIndex );
+        for ( int cell = 0; cell < m_pages.capacity(); ++cell )
+        {
+            final ByteBuffer page = m_pages.valueAt( cell );
+            if ( page == null )
+                continue;
+            final long setIndex = m_pages.keyAt( cell );
+            if ( setIndex < fromPos || setIndex > toPos )
+                continue;
+            final int from = setIndex == fromPos ? getPos( fromIndex ) : 0;
+            final int to = setIndex == toPos ? getPos( toIndex ) : 1 << VALUE_BITS;
+            clearRange( page, from, to );
+        }
+    }
+
+    private static void clearRange( final ByteBuffer page, final int from, final int to )
+    {
+        for ( int i = from; i < to; )
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min( to, ( word + 1 ) << 6 );
+            final int len = wordEnd - i;
+            final long mask = len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( i & 63 );
+            page.putLong( word << 3, page.getLong( word << 3 ) & ~mask );
+            i = wordEnd;
+        }
+    }
+
+    /**
+     * @return Number of set bits in this set
+     */
+    public long cardinality()
+    {
+        long res = 0;
+        for ( int cell = 0; cell < m_pages.capacity(); ++cell )
+        {
+            final ByteBuffer page = m_pages.valueAt( cell );
+            if ( page != null )
+                for ( int i = 0; i < WORDS; ++i )
+                    res += Long.bitCount( page.getLong( i << 3 ) );
+        }
+        return res;
+    }
+
+    /**
+     * Iteration over all set values. Order of iteration is not specified.
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     */
+    public void forEach( final LongProcedure proc )
+    {
+        for ( int cell = 0; cell < m_pages.capacity(); ++cell )
+        {
+            final ByteBuffer page = m_pages.valueAt( cell );
+            if ( page == null )
+                continue;
+            final long baseIndex = m_pages.keyAt( cell ) << VALUE_BITS;
+            for ( int i = 0; i < WORDS; ++i )
+            {
+                long w = page.getLong( i << 3 );
+                while ( w != 0 )
+                {
+                    if ( !proc.forEntry( baseIndex + ( i << 6 ) + Long.numberOfTrailingZeros( w ) ) )
+                        return;
+                    w &= w - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of pages used by partitions
+     */
+    public long pageCount()
+    {
+        return m_pageCount - m_tornPages.size();
+    }
+
+    /**
+     * Write all changes to the backing file. Pages are forced before the header, so after a successful flush
+     * the header never references a page which was not written.
+     */
+    public void flush()
+    {
+        for ( final MappedByteBuffer region : m_regions )
+            region.force();
+        m_header.force();
+    }
+
+    /**
+     * Flush all changes and close the backing file. The set must not be used after this call.
+     * @throws IOException In case of IO errors
+     */
+    public void close() throws IOException
+    {
+        flush();
+        m_file.close();
+    }
+}
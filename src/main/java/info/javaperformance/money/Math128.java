@@ -0,0 +1,85 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * 128 bit integer helpers. A 128 bit value is kept as a pair of longs: signed high word and unsigned low word.
+ * A high word of a product is calculated by {@link MoneyMath#multiplyHigh}.
+ */
+final class Math128 {
+    private Math128() {
+    }
+
+    /**
+     * Check if a 128 bit value fits into a signed long
+     * @param high High word
+     * @param low Low word
+     * @return {@code true} if the high word is a sign extension of the low word
+     */
+    static boolean fitsInLong( final long high, final long low )
+    {
+        return high == ( low >> 63 );
+    }
+
+    /**
+     * Compare two 128 bit values
+     * @param high1 High word of the first value
+     * @param low1 Low word of the first value
+     * @param high2 High word of the second value
+     * @param low2 Low word of the second value
+     * @return -1, 0, or 1 as the first value is less than, equal to, or greater than the second one
+     */
+    static int compare( final long high1, final long low1, final long high2, final long low2 )
+    {
+        if ( high1 != high2 )
+            return high1 < high2 ? -1 : 1;
+        if ( low1 == low2 )
+            return 0;
+        //unsigned comparison of low words
+        return ( low1 ^ Long.MIN_VALUE ) < ( low2 ^ Long.MIN_VALUE ) ? -1 : 1;
+    }
+
+    /**
+     * Write a 128 bit value into a byte array, big endian
+     * @param high High word
+     * @param low Low word
+     * @param dest Destination array
+     * @param offset Start position in the array
+     */
+    static void write( final long high, final long low, final byte[] dest, final int offset )
+    {
+        writeLong( high, dest, offset );
+        writeLong( low, dest, offset + 8 );
+    }
+
+    static void writeLong( long value, final byte[] dest, final int offset )
+    {
+        for ( int i = offset + 7; i >= offset; --i )
+        {
+            dest[ i ] = ( byte ) value;
+            value >>>= 8;
+        }
+    }
+
+    static long readLong( final byte[] src, final int offset )
+    {
+        long res = 0;
+        for ( int i = offset; i < offset + 8; ++i )
+            res = ( res << 8 ) | ( src[ i ] & 0xFF );
+        return res;
+    }
+}
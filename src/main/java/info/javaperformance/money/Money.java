@@ -17,6 +17,7 @@
 package info.javaperformance.money;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 /**
  * <p>
@@ -100,6 +101,18 @@ public interface Money extends Comparable<Money> {
      */
     public Money divide( final double divider, final int precision );
 
+    /**
+     * Divide the current object by the given <code>long</code> divider rounding the result with a given rounding mode.
+     * Unlike {@link #divide(long, int)}, the result is calculated exactly.
+     * @param divider Divider
+     * @param precision Maximal precision to keep
+     * @param mode Rounding mode applied to the digits after {@code precision}
+     * @return A new Money object normalized to the efficient representation if possible
+     * @throws ArithmeticException If {@code divider} is zero or if {@code mode} is {@link RoundingMode#UNNECESSARY}
+     * and the result has more than {@code precision} digits after decimal point
+     */
+    public Money divide( final long divider, final int precision, final RoundingMode mode );
+
     /**
      * Truncate the current value leaving no more than {@code maximalPrecision} signs after decimal point.
      * The number will be rounded towards closest digit (0-4 -{@literal >} 0; 5-9 -> 1)
@@ -108,6 +121,44 @@ public interface Money extends Comparable<Money> {
      */
     public Money truncate( final int maximalPrecision );
 
+    /**
+     * Truncate the current value leaving no more than {@code maximalPrecision} signs after decimal point.
+     * Removed digits are rounded with a given rounding mode.
+     * @param maximalPrecision Required precision
+     * @param mode Rounding mode
+     * @return A new Money object normalized to the efficient representation if possible
+     * @throws ArithmeticException If {@code mode} is {@link RoundingMode#UNNECESSARY} and this value
+     * has more than {@code maximalPrecision} digits after decimal point
+     */
+    public Money truncate( final int maximalPrecision, final RoundingMode mode );
+
+    /**
+     * Convert this value into an order-preserving 64 bit key: units in a given scale with a flipped sign bit.
+     * Unsigned comparison of such keys (as well as comparison of their big-endian bytes) matches the numerical
+     * order of values converted with the same scale. Use {@link MoneyFactory#fromSortableKey(long, int)} for
+     * the reverse conversion.
+     * @param scale Number of digits after decimal point in a key, between 0 and
+     *              <code>MoneyFactory.MAX_ALLOWED_PRECISION</code> (inclusive).
+     * @return Sortable key
+     * @throws java.lang.ArithmeticException If this value has more than {@code scale} digits after decimal point
+     * or if it does not fit into 64 bits in a given scale
+     */
+    public long toSortableKey( final int scale );
+
+    /**
+     * Convert this value into an order-preserving 128 bit key: units in a given scale with a flipped sign bit,
+     * written as 16 big-endian bytes. Unsigned lexicographical comparison of such keys matches the numerical
+     * order of values converted with the same scale. Use {@link MoneyFactory#fromSortableKey128(byte[], int, int)}
+     * for the reverse conversion.
+     * @param scale Number of digits after decimal point in a key, between 0 and
+     *              <code>MoneyFactory.MAX_ALLOWED_PRECISION</code> (inclusive).
+     * @param dest Destination array
+     * @param offset Start position in the destination array
+     * @throws java.lang.ArithmeticException If this value has more than {@code scale} digits after decimal point
+     * or if it does not fit into 128 bits in a given scale
+     */
+    public void toSortableKey128( final int scale, final byte[] dest, final int offset );
+
     /**
      * Compares another Money object to this one. Should be used like {@link BigDecimal#compareTo(Object)}. May or may
      * not share the same specification, read return. However this method will be up to specification as defined in
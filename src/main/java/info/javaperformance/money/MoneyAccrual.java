@@ -0,0 +1,246 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>
+ *  Interest accrual over columns of balances. Balances are currency units in any common precision, accrued interest
+ *  has the same precision. Rates are fixed point values per period with {@code rateScale} digits after decimal
+ *  point: for example, a daily rate of 0.0137% with rate scale 9 is passed as {@code 137000}.
+ * </p>
+ * <p>
+ *  Interest of every period is {@code balance * rate} rounded to balance units with the given rounding mode.
+ *  Simple accrual adds the same interest for every period. Compound accrual adds the interest of a period to
+ *  the balance before calculating the next period. All calculations are exact: products are calculated in
+ *  <code>long</code> arithmetic and only products which do not fit into <code>long</code> are calculated
+ *  via <code>BigInteger</code>, so results are the same as results of the same calculation on BigDecimal.
+ * </p>
+ * <p>
+ *  Column methods follow {@link MoneyColumns} conventions: interest which does not fit into <code>long</code>
+ *  is not calculated and its index is reported in an overflow bitmask.
+ * </p>
+ * <p>
+ *  This class is immutable and thread safe.
+ * </p>
+ */
+public final class MoneyAccrual {
+    /** Result of private calculations which do not fit into <code>long</code>, like in <code>MoneyLong.rescaleUp</code> */
+    private static final long OVERFLOW = Long.MIN_VALUE;
+
+    private final boolean m_compound;
+    private final int m_rateScale;
+    /** {@code 10^m_rateScale} */
+    private final long m_divisor;
+    private final RoundingMode m_mode;
+
+    private MoneyAccrual( final boolean compound, final int rateScale, final RoundingMode mode ) {
+        if ( rateScale < 0 || rateScale > MoneyFactory.MAX_ALLOWED_PRECISION )
+            throw new IllegalArgumentException( "Rate scale must be between 0 and " + MoneyFactory.MAX_ALLOWED_PRECISION );
+        if ( mode == RoundingMode.UNNECESSARY )
+            throw new IllegalArgumentException( "Interest of a period must be rounded, UNNECESSARY is not supported" );
+        m_compound = compound;
+        m_rateScale = rateScale;
+        m_divisor = MoneyFactory.MULTIPLIERS[ rateScale ];
+        m_mode = mode;
+    }
+
+    /**
+     * Create a simple accrual: interest is not added to the balance between periods
+     * @param rateScale Number of digits after decimal point in rates, between 0 and
+     *                  <code>MoneyFactory.MAX_ALLOWED_PRECISION</code> (inclusive)
+     * @param mode Rounding of interest of every period, any mode except <code>UNNECESSARY</code>
+     * @return Simple accrual
+     */
+    public static MoneyAccrual simple( final int rateScale, final RoundingMode mode )
+    {
+        return new MoneyAccrual( false, rateScale, mode );
+    }
+
+    /**
+     * Create a compound accrual: rounded interest of every period is added to the balance before the next period
+     * @param rateScale Number of digits after decimal point in rates, between 0 and
+     *                  <code>MoneyFactory.MAX_ALLOWED_PRECISION</code> (inclusive)
+     * @param mode Rounding of interest of every period, any mode except <code>UNNECESSARY</code>
+     * @return Compound accrual
+     */
+    public static MoneyAccrual compound( final int rateScale, final RoundingMode mode )
+    {
+        return new MoneyAccrual( true, rateScale, mode );
+    }
+
+    /**
+     * Calculate interest accrued on a single balance
+     * @param balance Balance units
+     * @param rate Fixed point rate per period
+     * @param periods Number of periods, non-negative
+     * @return Accrued interest in balance units
+     * @throws IllegalArgumentException If a number of periods is negative
+     * @throws ArithmeticException If interest or a compounded balance does not fit into <code>long</code>
+     *                             (<code>Long.MIN_VALUE</code> is treated as an overflow)
+     */
+    public long accrue( final long balance, final long rate, final int periods )
+    {
+        if ( periods < 0 )
+            throw new IllegalArgumentException( "Number of periods must be non-negative: " + periods );
+        final long res = accrued( balance, rate, periods );
+        if ( res == OVERFLOW )
+            throw new ArithmeticException( "Accrued interest does not fit into long" );
+        return res;
+    }
+
+    /**
+     * Calculate accrued interest without throwing on overflow, so column methods do not pay for exceptions
+     * @return Accrued interest or {@link #OVERFLOW}
+     */
+    private long accrued( final long balance, final long rate, final int periods )
+    {
+        if ( periods == 0 )
+            return 0;
+        if ( !m_compound )
+        {
+            final long interest = interest( balance, rate );
+            final long res = interest * periods;
+            if ( interest == OVERFLOW || !MoneyMath.multiplyFits( interest, periods, res ) )
+                return OVERFLOW;
+            return res;
+        }
+        long current = balance;
+        for ( int i = 0; i < periods; ++i )
+        {
+            final long interest = interest( current, rate );
+            final long next = current + interest;
+            if ( interest == OVERFLOW || !MoneyMath.addFits( current, interest, next ) )
+                return OVERFLOW;
+            current = next;
+        }
+        final long res = current - balance;
+        //overflow - operands have different signs and the sign of a result differs from the sign of current
+        if ( ( ( current ^ balance ) & ( current ^ res ) ) < 0 )
+            return OVERFLOW;
+        return res;
+    }
+
+    /**
+     * Calculate interest of a single period
+     * @return Interest or {@link #OVERFLOW}
+     */
+    private long interest( final long balance, final long rate )
+    {
+        final long product = balance * rate;
+        if ( MoneyMath.multiplyFits( balance, rate, product ) )
+            return MoneyLong.round( product / m_divisor, product % m_divisor, m_divisor, m_mode );
+        //128 bit product
+        final BigInteger res = new BigDecimal( BigInteger.valueOf( balance ).multiply( BigInteger.valueOf( rate ) ), m_rateScale )
+                .setScale( 0, m_mode ).unscaledValue();
+        return res.bitLength() > 63 ? OVERFLOW : res.longValue();
+    }
+
+    /**
+     * Calculate interest accrued on a column of balances
+     * @param balances Balance units
+     * @param rates Fixed point rates per period, not shorter than {@code balances}
+     * @param periods Numbers of periods, not shorter than {@code balances}
+     * @param dest Destination for accrued interest, not shorter than {@code balances}. May be {@code balances}
+     * @param overflow Overflow bitmask of <code>MoneyColumns.maskLength(balances.length)</code> words
+     * @return Number of overflowed results
+     * @throws IllegalArgumentException If any number of periods is negative
+     */
+    public int accrue( final long[] balances, final long[] rates, final int[] periods, final long[] dest, final long[] overflow )
+    {
+        checkColumns( balances, rates, periods );
+        MoneyColumns.prepare( balances.length, dest, overflow );
+        accrue( balances, rates, periods, dest, overflow, 0, balances.length );
+        return MoneyColumns.count( overflow, balances.length );
+    }
+
+    /**
+     * Calculate interest accrued on a column of balances in parallel. Columns are split into chunks of whole
+     * bitmask words, which are processed by the given executor (for example, a {@code ForkJoinPool}).
+     * @param balances Balance units
+     * @param rates Fixed point rates per period, not shorter than {@code balances}
+     * @param periods Numbers of periods, not shorter than {@code balances}
+     * @param dest Destination for accrued interest, not shorter than {@code balances}. May be {@code balances}
+     * @param overflow Overflow bitmask of <code>MoneyColumns.maskLength(balances.length)</code> words
+     * @param executor Executor for chunks. Small inputs are processed in the calling thread.
+     * @return Number of overflowed results
+     * @throws IllegalArgumentException If any number of periods is negative
+     * @throws IllegalStateException If the calling thread was interrupted while waiting for the result
+     */
+    public int accrue( final long[] balances, final long[] rates, final int[] periods, final long[] dest, final long[] overflow,
+                       final ExecutorService executor )
+    {
+        final int length = balances.length;
+        final int tasks = MoneyColumns.taskCount( length );
+        if ( tasks < 2 )
+            return accrue( balances, rates, periods, dest, overflow );
+        checkColumns( balances, rates, periods );
+        MoneyColumns.prepare( length, dest, overflow );
+
+        //chunks never share bitmask words
+        final int words = MoneyColumns.maskLength( length );
+        final List<Callable<Void>> chunks = new ArrayList<Callable<Void>>( tasks );
+        for ( int t = 0; t < tasks; ++t )
+        {
+            final int from = (int) ( (long) words * t / tasks ) << 6;
+            final int to = (int) Math.min( length, ( (long) words * ( t + 1 ) / tasks ) << 6 );
+            chunks.add( new Callable<Void>() {
+                public Void call() {
+                    accrue( balances, rates, periods, dest, overflow, from, to );
+                    return null;
+                }
+            } );
+        }
+        MoneyColumns.runAll( executor, chunks, "accrued interest" );
+        return MoneyColumns.count( overflow, length );
+    }
+
+    private void accrue( final long[] balances, final long[] rates, final int[] periods, final long[] dest, final long[] overflow,
+                         final int fromIndex, final int toIndex )
+    {
+        for ( int i = fromIndex; i < toIndex; ++i )
+        {
+            final long res = accrued( balances[ i ], rates[ i ], periods[ i ] );
+            if ( res == OVERFLOW )
+                overflow[ i >> 6 ] |= 1L << i;
+            else
+                dest[ i ] = res;
+        }
+    }
+
+    private static void checkColumns( final long[] balances, final long[] rates, final int[] periods )
+    {
+        MoneyColumns.checkLength( "rates", rates, balances.length );
+        if ( periods.length < balances.length )
+            throw new IllegalArgumentException( "periods must have at least " + balances.length + " values, but has " + periods.length );
+        for ( int i = 0; i < balances.length; ++i )
+            if ( periods[ i ] < 0 )
+                throw new IllegalArgumentException( "Number of periods must be non-negative at index " + i + ": " + periods[ i ] );
+    }
+
+    @Override
+    public String toString() {
+        return "MoneyAccrual{" + ( m_compound ? "compound" : "simple" ) + ", rateScale=" + m_rateScale + ", mode=" + m_mode + '}';
+    }
+}
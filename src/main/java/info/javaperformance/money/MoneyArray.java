@@ -0,0 +1,386 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ *  Fixed size off-heap array of money values, which are kept as units and precision in direct or memory-mapped
+ *  ByteBuffers. It does not create any garbage and does not affect GC pauses regardless of its size. Only values
+ *  representable as <code>MoneyLong</code> can be stored in this array.
+ * </p>
+ * <p>
+ *  Data is split into chunks of <code>2^CHUNK_BITS</code> values, so the array size is not limited by the maximal
+ *  ByteBuffer size. Units of a chunk are kept in one buffer (8 bytes per value, little endian), precisions are kept
+ *  in another one (1 byte per value).
+ * </p>
+ * <p>
+ *  Memory-mapped file layout: 32 bytes header (magic, version, size), followed by all units and then by all
+ *  precisions. A memory-mapped array survives restarts: open it with {@link #open(java.io.File)}. Call
+ *  {@link #flush()} in order to write changes to disk.
+ * </p>
+ * <p>
+ *  This class is not thread safe.
+ * </p>
+ */
+public class MoneyArray implements Closeable {
+    /** Number of bits of an index used for a position in a chunk */
+    private static final int CHUNK_BITS = 24; //16M values per chunk
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final long MAGIC = 0x4D4F4E4559415252L; //"MONEYARR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    /** Number of values in this array */
+    private final long m_size;
+    /** Units chunks */
+    private final ByteBuffer[] m_units;
+    /** Precision chunks */
+    private final ByteBuffer[] m_precisions;
+    /** Backing file (null for non-mapped arrays) */
+    private final RandomAccessFile m_file;
+
+    /**
+     * Allocate an array in the direct memory. All values are initialized to zero.
+     * @param size Number of values
+     */
+    public MoneyArray( final long size )
+    {
+        this( size, null );
+        for ( int i = 0; i < m_units.length; ++i )
+        {
+            final int chunkSize = chunkSize( i );
+            m_units[ i ] = ByteBuffer.allocateDirect( chunkSize << 3 ).order( ByteOrder.LITTLE_ENDIAN );
+            m_precisions[ i ] = ByteBuffer.allocateDirect( chunkSize );
+        }
+    }
+
+    private MoneyArray( final long size, final RandomAccessFile file )
+    {
+        if ( size < 0 )
+            throw new IllegalArgumentException( "Size must be non-negative: " + size );
+        m_size = size;
+        m_file = file;
+        final int chunks = ( int ) ( ( size + CHUNK_SIZE - 1 ) >>> CHUNK_BITS );
+        m_units = new ByteBuffer[ chunks ];
+        m_precisions = new ByteBuffer[ chunks ];
+    }
+
+    /**
+     * Create a new memory-mapped array. All values are initialized to zero. An existing file will be overwritten.
+     * @param file File to keep data in
+     * @param size Number of values
+     * @return A new array
+     * @throws IOException In case of IO errors
+     */
+    public static MoneyArray create( final File file, final long size ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            raf.setLength( 0 ); //discard old data
+            raf.setLength( HEADER_SIZE + size * 9 );
+            final MoneyArray res = new MoneyArray( size, raf );
+            final MappedByteBuffer header = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE );
+            header.order( ByteOrder.LITTLE_ENDIAN );
+            header.putLong( 0, MAGIC ).putInt( 8, VERSION ).putLong( 16, size );
+            header.force();
+            res.mapChunks();
+            return res;
+        }
+        catch ( IOException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open an existing memory-mapped array
+     * @param file File created by {@link #create(java.io.File, long)}
+     * @return Array backed by this file
+     * @throws IOException In case of IO errors
+     * @throws IllegalArgumentException If the file was not created by this class
+     */
+    public static MoneyArray open( final File file ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            if ( raf.length() < HEADER_SIZE )
+                throw new IllegalArgumentException( "File is too short: " + file );
+            final MappedByteBuffer header = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE );
+            header.order( ByteOrder.LITTLE_ENDIAN );
+            if ( header.getLong( 0 ) != MAGIC || header.getInt( 8 ) != VERSION )
+                throw new IllegalArgumentException( "Not a MoneyArray file: " + file );
+            final long size = header.getLong( 16 );
+            if ( size < 0 || raf.length() != HEADER_SIZE + size * 9 )
+                throw new IllegalArgumentException( "File is corrupted, size = " + size + ": " + file );
+            final MoneyArray res = new MoneyArray( size, raf );
+            res.mapChunks();
+            return res;
+        }
+        catch ( IOException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    private void mapChunks() throws IOException
+    {
+        final FileChannel channel = m_file.getChannel();
+        final long precisionsStart = HEADER_SIZE + m_size * 8;
+        for ( int i = 0; i < m_units.length; ++i )
+        {
+            final long chunkStart = ( long ) i << CHUNK_BITS;
+            final int chunkSize = chunkSize( i );
+            m_units[ i ] = channel.map( FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunkStart * 8, chunkSize << 3 )
+                    .order( ByteOrder.LITTLE_ENDIAN );
+            m_precisions[ i ] = channel.map( FileChannel.MapMode.READ_WRITE, precisionsStart + chunkStart, chunkSize );
+        }
+    }
+
+    private int chunkSize( final int chunk )
+    {
+        return ( int ) Math.min( CHUNK_SIZE, m_size - ( ( long ) chunk << CHUNK_BITS ) );
+    }
+
+    /**
+     * @return Number of values in this array
+     */
+    public long size()
+    {
+        return m_size;
+    }
+
+    private void checkIndex( final long index )
+    {
+        if ( index < 0 || index >= m_size )
+            throw new IndexOutOfBoundsException( "Index " + index + " is out of bounds [0, " + m_size + ")" );
+    }
+
+    /**
+     * Get currency units of a value
+     * @param index Value index
+     * @return Currency units
+     */
+    public long getUnits( final long index )
+    {
+        checkIndex( index );
+        return m_units[ ( int ) ( index >>> CHUNK_BITS ) ].getLong( ( ( int ) index & CHUNK_MASK ) << 3 );
+    }
+
+    /**
+     * Get precision of a value
+     * @param index Value index
+     * @return Precision
+     */
+    public int getPrecision( final long index )
+    {
+        checkIndex( index );
+        return m_precisions[ ( int ) ( index >>> CHUNK_BITS ) ].get( ( int ) index & CHUNK_MASK );
+    }
+
+    /**
+     * Get a value as a Money object
+     * @param index Value index
+     * @return Money object
+     */
+    public Money get( final long index )
+    {
+        return new MoneyLong( getUnits( index ), getPrecision( index ) ).normalize();
+    }
+
+    /**
+     * Set a value defined by its units and precision
+     * @param index Value index
+     * @param units Currency units
+     * @param precision Precision, should be between 0 and <code>MAX_ALLOWED_PRECISION</code> (inclusive).
+     */
+    public void set( final long index, final long units, final int precision )
+    {
+        checkIndex( index );
+        MoneyFactory.checkPrecision( precision );
+        set0( index, units, precision );
+    }
+
+    private void set0( final long index, final long units, final int precision )
+    {
+        final int chunk = ( int ) ( index >>> CHUNK_BITS );
+        final int pos = ( int ) index & CHUNK_MASK;
+        m_units[ chunk ].putLong( pos << 3, units );
+        m_precisions[ chunk ].put( pos, ( byte ) precision );
+    }
+
+    /**
+     * Set a value
+     * @param index Value index
+     * @param value Value to set
+     * @throws IllegalArgumentException If a value can not be represented as <code>MoneyLong</code>
+     */
+    public void set( final long index, final Money value )
+    {
+        final MoneyLong lng;
+        try
+        {
+            lng = MoneyFactory.toMoneyLong( value );
+        }
+        catch ( ArithmeticException ex )
+        {
+            throw new IllegalArgumentException( "Value can not be stored in MoneyArray: " + value, ex );
+        }
+        set( index, lng.getUnits(), lng.getPrecision() );
+    }
+
+    /**
+     * Add a value to the array element in place. Result is normalized the same way as <code>Money.add</code> does.
+     * @param index Value index
+     * @param units Currency units to add
+     * @param precision Precision of units to add
+     * @return {@code true} if the result was stored, {@code false} if it can not be represented as
+     * <code>MoneyLong</code> (the element is not modified in this case)
+     */
+    public boolean add( final long index, final long units, final int precision )
+    {
+        MoneyFactory.checkPrecision( precision );
+        final long curUnits = getUnits( index );
+        final int curPrecision = getPrecision( index );
+
+        final int resPrecision = Math.max( curPrecision, precision );
+        long a = curUnits;
+        long b = units;
+        //only one operand is rescaled, the other one is already in the result precision
+        if ( curPrecision < resPrecision )
+        {
+            final long mul = MoneyFactory.MULTIPLIERS[ resPrecision - curPrecision ];
+            a = curUnits * mul;
+            if ( !MoneyMath.multiplyFits( curUnits, mul, a ) )
+                return false;
+        }
+        else if ( precision < resPrecision )
+        {
+            final long mul = MoneyFactory.MULTIPLIERS[ resPrecision - precision ];
+            b = units * mul;
+            if ( !MoneyMath.multiplyFits( units, mul, b ) )
+                return false;
+        }
+        final long sum = a + b;
+        if ( !MoneyMath.addFits( a, b, sum ) )
+            return false;
+        final int normPrecision = MoneyLong.normalizedPrecision( sum, resPrecision );
+        set0( index, sum / MoneyFactory.MULTIPLIERS[ resPrecision - normPrecision ], normPrecision );
+        return true;
+    }
+
+    /**
+     * Add a value to the array element in place. Result is normalized the same way as <code>Money.add</code> does.
+     * @param index Value index
+     * @param value Value to add
+     * @return {@code true} if the result was stored, {@code false} if it can not be represented as
+     * <code>MoneyLong</code> (the element is not modified in this case)
+     * @throws IllegalArgumentException If a value to add can not be represented as <code>MoneyLong</code>
+     */
+    public boolean add( final long index, final Money value )
+    {
+        final MoneyLong lng;
+        try
+        {
+            lng = MoneyFactory.toMoneyLong( value );
+        }
+        catch ( ArithmeticException ex )
+        {
+            throw new IllegalArgumentException( "Value can not be added to MoneyArray: " + value, ex );
+        }
+        return add( index, lng.getUnits(), lng.getPrecision() );
+    }
+
+    /**
+     * Iterate over all values in index order without materializing Money objects
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     * @return {@code true} if all values were processed, {@code false} if iteration was stopped by a procedure
+     */
+    public boolean forEach( final MoneyProcedure proc )
+    {
+        return forEach( 0, m_size, proc );
+    }
+
+    /**
+     * Iterate over a range of values in index order without materializing Money objects
+     * @param fromIndex Start index (inclusive)
+     * @param toIndex End index (exclusive)
+     * @param proc Procedure to call. If it returns {@code false}, then iteration will stop at once
+     * @return {@code true} if all values were processed, {@code false} if iteration was stopped by a procedure
+     */
+    public boolean forEach( final long fromIndex, final long toIndex, final MoneyProcedure proc )
+    {
+        if ( fromIndex < 0 || toIndex > m_size || fromIndex > toIndex )
+            throw new IndexOutOfBoundsException( "Invalid range [" + fromIndex + ", " + toIndex + ") for size " + m_size );
+        long index = fromIndex;
+        while ( index < toIndex )
+        {
+            final int chunk = ( int ) ( index >>> CHUNK_BITS );
+            final ByteBuffer units = m_units[ chunk ];
+            final ByteBuffer precisions = m_precisions[ chunk ];
+            final int end = ( int ) Math.min( CHUNK_SIZE, toIndex - ( ( long ) chunk << CHUNK_BITS ) );
+            for ( int pos = ( int ) index & CHUNK_MASK; pos < end; ++pos, ++index )
+                if ( !proc.forEntry( index, units.getLong( pos << 3 ), precisions.get( pos ) ) )
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write all changes to the backing file. Does nothing for arrays allocated in the direct memory.
+     */
+    public void flush()
+    {
+        if ( m_file == null )
+            return;
+        for ( int i = 0; i < m_units.length; ++i )
+        {
+            ( ( MappedByteBuffer ) m_units[ i ] ).force();
+            ( ( MappedByteBuffer ) m_precisions[ i ] ).force();
+        }
+    }
+
+    /**
+     * Flush all changes and close the backing file. The array must not be used after this call.
+     * @throws IOException In case of IO errors
+     */
+    public void close() throws IOException
+    {
+        flush();
+        if ( m_file != null )
+            m_file.close();
+    }
+}
@@ -17,21 +17,37 @@
 package info.javaperformance.money;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.MathContext;
+import java.math.RoundingMode;
 
 /**
  * Safe but slow Money implementation. Uses BigDecimal as a storage.
  */
 class MoneyBigDecimal extends AbstractMoney {
     private final BigDecimal m_value;
+    /** True if <code>m_value</code> is known to have no trailing zeros */
+    private final boolean m_normalized;
+    /** Unscaled value split into longs, calculated on the first comparison with MoneyLong */
+    private Unscaled m_unscaled;
 
     public MoneyBigDecimal( final BigDecimal value ) {
+        this( value, false );
+    }
+
+    /**
+     * @param value Value
+     * @param normalized True if a value is known to have no trailing zeros, so they will not be stripped again
+     */
+    MoneyBigDecimal( final BigDecimal value, final boolean normalized ) {
         m_value = value;
+        m_normalized = normalized;
     }
 
     public MoneyBigDecimal( final double value )
     {
         m_value = new BigDecimal( value, MathContext.DECIMAL64 ).stripTrailingZeros(); //decimal64 to match double
+        m_normalized = true;
     }
 
     public MoneyBigDecimal( final String value )
@@ -39,6 +55,7 @@ class MoneyBigDecimal extends AbstractMoney {
         //important - do not use DECIMAL64 context here - you will lose precision for huge values.
         //at the same time using it is required for BigDecimal(double) constructor - it matches "double" range.
         m_value = new BigDecimal( value );
+        m_normalized = false;
     }
 
     public double toDouble() {
@@ -60,7 +77,7 @@ class MoneyBigDecimal extends AbstractMoney {
      * @return A new object with the same value with a different sign
      */
     public Money negate() {
-        return new MoneyBigDecimal( m_value.negate() );
+        return new MoneyBigDecimal( m_value.negate(), m_normalized );
     }
 
     /**
@@ -72,6 +89,62 @@ class MoneyBigDecimal extends AbstractMoney {
         return m_value.toPlainString();
     }
 
+    /**
+     * Get the unscaled value of this object in a given scale
+     * @param scale Required scale
+     * @param maxBits Maximal number of bits allowed in the result (excluding the sign bit)
+     * @return Unscaled value in a given scale
+     * @throws ArithmeticException If this value does not fit into a given scale and number of bits
+     */
+    private BigInteger unscaledValue( final int scale, final int maxBits )
+    {
+        MoneyFactory.checkPrecision( scale );
+        BigDecimal val = m_value;
+        if ( val.scale() > scale )
+        {
+            if ( !m_normalized )
+                val = val.stripTrailingZeros();
+            if ( val.scale() > scale )
+                throw new ArithmeticException( "Value " + this + " has more than " + scale + " digits after decimal point" );
+        }
+        final BigInteger res = val.setScale( scale ).unscaledValue();
+        if ( res.bitLength() > maxBits )
+            throw new ArithmeticException( "Value " + this + " does not fit into " + ( maxBits + 1 ) + " bits in scale " + scale );
+        return res;
+    }
+
+    /**
+     * Convert this value into an order-preserving 64 bit key: units in a given scale with a flipped sign bit.
+     * See {@link Money#toSortableKey(int)}.
+     *
+     * @param scale Number of digits after decimal point in a key
+     * @return Sortable key
+     * @throws IllegalArgumentException If scale is invalid
+     * @throws ArithmeticException If this value has more than {@code scale} digits after decimal point
+     *                             or if it does not fit into 64 bits in a given scale
+     */
+    public long toSortableKey( final int scale )
+    {
+        return unscaledValue( scale, 63 ).longValue() ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Convert this value into an order-preserving 128 bit key written as 16 big-endian bytes.
+     * See {@link Money#toSortableKey128(int, byte[], int)}.
+     *
+     * @param scale  Number of digits after decimal point in a key
+     * @param dest   Destination array
+     * @param offset Start position in the destination array
+     * @throws IllegalArgumentException If scale is invalid
+     * @throws ArithmeticException If this value has more than {@code scale} digits after decimal point
+     *                             or if it does not fit into 128 bits in a given scale
+     */
+    public void toSortableKey128( final int scale, final byte[] dest, final int offset )
+    {
+        final BigInteger unscaled = unscaledValue( scale, 127 );
+        Math128.write( unscaled.shiftRight( 64 ).longValue() ^ Long.MIN_VALUE, unscaled.longValue(), dest, offset );
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -97,6 +170,48 @@ class MoneyBigDecimal extends AbstractMoney {
         return -(other.compareTo(this)); // flips the response with unary
     }
 
+    /**
+     * Get the unscaled value split into longs. It is calculated once per object, so repeated comparisons
+     * of the same value (a limit, for example) with <code>MoneyLong</code> values do not allocate.
+     * @return Unscaled value
+     */
+    Unscaled unscaled()
+    {
+        //racy single check: Unscaled is immutable, so it is safe to calculate it more than once
+        Unscaled res = m_unscaled;
+        if ( res == null )
+            m_unscaled = res = new Unscaled( m_value );
+        return res;
+    }
+
+    /**
+     * Unscaled value of a BigDecimal as a 128 bit integer, its scale and magnitude
+     */
+    static final class Unscaled
+    {
+        /** Signum of a value */
+        final int m_signum;
+        /** Scale of a value */
+        final int m_scale;
+        /** {@code precision - scale}: absolute value is not less than {@code 10^(m_integerDigits - 1)} */
+        final int m_integerDigits;
+        /** True if the unscaled value fits into 128 bits. Otherwise high and low words are not defined */
+        final boolean m_fits;
+        final long m_high;
+        final long m_low;
+
+        private Unscaled( final BigDecimal value )
+        {
+            final BigInteger unscaled = value.unscaledValue();
+            m_signum = value.signum();
+            m_scale = value.scale();
+            m_integerDigits = value.precision() - m_scale;
+            m_fits = unscaled.bitLength() < 128;
+            m_high = m_fits ? unscaled.shiftRight( 64 ).longValue() : 0;
+            m_low = unscaled.longValue();
+        }
+    }
+
     /**
      * Multiply the current object by the <code>long</code> value.
      *
@@ -116,7 +231,7 @@ class MoneyBigDecimal extends AbstractMoney {
      */
     public Money multiply(double multiplier) {
         return MoneyFactory.fromBigDecimal(
-                m_value.multiply(new BigDecimal(multiplier, MathContext.DECIMAL64), MathContext.DECIMAL64) );
+                m_value.multiply( CachedMultiplier.get( multiplier ), MathContext.DECIMAL64 ) );
     }
 
     /**
@@ -128,8 +243,7 @@ class MoneyBigDecimal extends AbstractMoney {
      */
     public Money divide( final long divider, final int precision )
     {
-        final BigDecimal res = m_value.divide( BigDecimal.valueOf( divider ), MathContext.DECIMAL64 ).stripTrailingZeros();
-        return truncate( res, precision );
+        return divide( divider, precision, RoundingMode.HALF_UP );
     }
 
     /**
@@ -141,8 +255,23 @@ class MoneyBigDecimal extends AbstractMoney {
      */
     public Money divide( final double divider, final int precision )
     {
-        final BigDecimal res = m_value.divide( BigDecimal.valueOf( divider ), MathContext.DECIMAL64 ).stripTrailingZeros();
-        return truncate( res, precision );
+        MoneyFactory.checkPrecision( precision );
+        //the result is rounded only once - directly in the required precision
+        return MoneyFactory.fromBigDecimalExact( m_value.divide( BigDecimal.valueOf( divider ), precision, RoundingMode.HALF_UP ) );
+    }
+
+    /**
+     * Divide the current object by the given <code>long</code> divider rounding the result with a given rounding mode.
+     *
+     * @param divider   Divider
+     * @param precision Maximal precision to keep
+     * @param mode      Rounding mode applied to the digits after {@code precision}
+     * @return A new Money object normalized to the efficient representation if possible
+     */
+    public Money divide( final long divider, final int precision, final RoundingMode mode )
+    {
+        MoneyFactory.checkPrecision( precision );
+        return MoneyFactory.fromBigDecimalExact( m_value.divide( BigDecimal.valueOf( divider ), precision, mode ) );
     }
 
     /**
@@ -152,23 +281,56 @@ class MoneyBigDecimal extends AbstractMoney {
      * @param maximalPrecision Required precision
      * @return A new Money object normalized to the efficient representation if possible
      */
-    private static Money truncate( final BigDecimal val, final int maximalPrecision ) {
-        MoneyFactory.checkPrecision( maximalPrecision );
-
-        final BigDecimal res = val.setScale( maximalPrecision, BigDecimal.ROUND_HALF_UP );
-        return MoneyFactory.fromBigDecimal( res );
+    public Money truncate( final int maximalPrecision ) {
+        return truncate( maximalPrecision, RoundingMode.HALF_UP );
     }
 
     /**
      * Truncate the current value leaving no more than {@code maximalPrecision} signs after decimal point.
-     * The number will be rounded towards closest digit (0-4 -> 0; 5-9 -> 1)
+     * Removed digits are rounded with a given rounding mode.
      *
      * @param maximalPrecision Required precision
+     * @param mode             Rounding mode
      * @return A new Money object normalized to the efficient representation if possible
      */
-    public Money truncate( final int maximalPrecision ) {
+    public Money truncate( final int maximalPrecision, final RoundingMode mode ) {
         if ( m_value.scale() <= maximalPrecision )
             return this;
-        return truncate(m_value, maximalPrecision);
+        MoneyFactory.checkPrecision( maximalPrecision );
+        return MoneyFactory.fromBigDecimalExact( m_value.setScale( maximalPrecision, mode ) );
+    }
+
+    /**
+     * BigDecimal forms of recently used <code>double</code> multipliers. Applications usually multiply many values
+     * by a few rates, so their conversions are cached in a small direct mapped table. Entries are immutable, so
+     * unsynchronized reads and writes of the table are safe - a lost update only costs another conversion.
+     */
+    private static final class CachedMultiplier
+    {
+        /** Number of table slots, a power of 2 */
+        private static final int SIZE = 16;
+        private static final CachedMultiplier[] CACHE = new CachedMultiplier[ SIZE ];
+
+        private final long m_bits;
+        private final BigDecimal m_value;
+
+        private CachedMultiplier( final long bits, final BigDecimal value ) {
+            m_bits = bits;
+            m_value = value;
+        }
+
+        static BigDecimal get( final double multiplier )
+        {
+            //compare bits: 0.0 and -0.0 are different multipliers
+            final long bits = Double.doubleToRawLongBits( multiplier );
+            //the lowest mantissa bits of short decimal fractions are similar, so bits are mixed before taking a slot
+            final int slot = ( int ) ( ( bits * 0x9E3779B97F4A7C15L ) >>> 60 ) & ( SIZE - 1 );
+            final CachedMultiplier cached = CACHE[ slot ];
+            if ( cached != null && cached.m_bits == bits )
+                return cached.m_value;
+            final BigDecimal value = new BigDecimal( multiplier, MathContext.DECIMAL64 );
+            CACHE[ slot ] = new CachedMultiplier( bits, value );
+            return value;
+        }
     }
 }
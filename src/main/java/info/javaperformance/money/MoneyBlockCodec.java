@@ -0,0 +1,276 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  Columnar compressed codec for sequences of <code>MoneyLong</code> values kept as units and precision columns.
+ *  It is intended for time series (prices, balances), where consecutive values are close to each other.
+ * </p>
+ * <p>
+ *  A block starts with a varint number of values. Values are split into frames of consecutive values sharing
+ *  the same precision (no more than <code>FRAME_SIZE</code> values per frame). Each frame is encoded either
+ *  using frame-of-reference (all units minus a frame minimum) or delta (difference with a previous value,
+ *  zig-zag encoded) encoding, whichever is shorter. Resulting non-negative numbers are bit-packed using the
+ *  minimal bit width for a frame:
+ *  <ul>
+ *      <li>header byte - precision in bits 0-3, delta encoding flag in bit 4</li>
+ *      <li>varint number of values in a frame</li>
+ *      <li>zig-zag varint base value - a minimum for frame-of-reference, a first value for delta encoding</li>
+ *      <li>bit width byte</li>
+ *      <li>bit-packed values, little endian, padded to a byte boundary</li>
+ *  </ul>
+ * </p>
+ */
+public final class MoneyBlockCodec {
+    /** Maximal number of values in a frame. Smaller frames adapt better to value range changes */
+    public static final int FRAME_SIZE = 128;
+
+    /** Header flag for delta-encoded frames */
+    private static final int DELTA_FLAG = 0x10;
+    /** Mask for extracting precision from a frame header */
+    private static final int PRECISION_MASK = 0x0F;
+
+    private MoneyBlockCodec() {
+    }
+
+    /**
+     * Get the maximal number of bytes which may be needed to encode a block of a given size. Actual size is
+     * usually much smaller.
+     * @param count Number of values
+     * @return Maximal encoded block size
+     */
+    public static long maxEncodedLength( final int count )
+    {
+        //count varint + (header, frame length, base, bit width, 8 bytes of data) per value in the worst case
+        return 5 + 22L * count;
+    }
+
+    /**
+     * Encode a block of values into a ByteBuffer starting from its current position.
+     * @param units Currency units
+     * @param precisions Precisions
+     * @param from First value to encode
+     * @param count Number of values to encode
+     * @param buf Destination buffer
+     */
+    public static void encode( final long[] units, final int[] precisions, final int from, final int count,
+                               final ByteBuffer buf )
+    {
+        MoneyCodec.writeVarint( count, buf );
+        final int end = from + count;
+        int start = from;
+        while ( start < end )
+        {
+            final int precision = precisions[ start ];
+            MoneyFactory.checkPrecision( precision );
+            int frameEnd = start + 1;
+            final int maxFrameEnd = Math.min( end, start + FRAME_SIZE );
+            while ( frameEnd < maxFrameEnd && precisions[ frameEnd ] == precision )
+                ++frameEnd;
+            encodeFrame( units, start, frameEnd, precision, buf );
+            start = frameEnd;
+        }
+    }
+
+    private static void encodeFrame( final long[] units, final int start, final int end, final int precision,
+                                     final ByteBuffer buf )
+    {
+        final int size = end - start;
+        long min = units[ start ];
+        for ( int i = start + 1; i < end; ++i )
+            if ( units[ i ] < min )
+                min = units[ i ];
+        long forBits = 0;
+        long deltaBits = 0;
+        for ( int i = start; i < end; ++i )
+            forBits |= units[ i ] - min; //may not fit into signed long, but it always fits into unsigned long
+        for ( int i = start + 1; i < end; ++i )
+            deltaBits |= MoneyCodec.zigZag( units[ i ] - units[ i - 1 ] );
+        final int forWidth = 64 - Long.numberOfLeadingZeros( forBits );
+        final int deltaWidth = 64 - Long.numberOfLeadingZeros( deltaBits );
+
+        final boolean delta = ( long ) deltaWidth * ( size - 1 ) < ( long ) forWidth * size;
+        buf.put( ( byte ) ( delta ? precision | DELTA_FLAG : precision ) );
+        MoneyCodec.writeVarint( size, buf );
+        if ( delta )
+        {
+            MoneyCodec.writeVarint( MoneyCodec.zigZag( units[ start ] ), buf );
+            buf.put( ( byte ) deltaWidth );
+            final BitWriter writer = new BitWriter( buf );
+            for ( int i = start + 1; i < end; ++i )
+                writer.write( MoneyCodec.zigZag( units[ i ] - units[ i - 1 ] ), deltaWidth );
+            writer.flush();
+        }
+        else
+        {
+            MoneyCodec.writeVarint( MoneyCodec.zigZag( min ), buf );
+            buf.put( ( byte ) forWidth );
+            final BitWriter writer = new BitWriter( buf );
+            for ( int i = start; i < end; ++i )
+                writer.write( units[ i ] - min, forWidth );
+            writer.flush();
+        }
+    }
+
+    /**
+     * Decode a block of values from a ByteBuffer starting from its current position directly into units
+     * and precision columns. No objects are allocated by this method.
+     * @param buf Source buffer
+     * @param units Destination units
+     * @param precisions Destination precisions. May be <code>null</code> if a caller knows the precision in advance.
+     * @param from First position to fill in the destination arrays
+     * @return Number of decoded values
+     * @throws java.lang.IllegalArgumentException In case of malformed input
+     */
+    public static int decode( final ByteBuffer buf, final long[] units, final int[] precisions, final int from )
+    {
+        final int count = ( int ) MoneyCodec.readVarint( buf );
+        final int end = from + count;
+        int pos = from;
+        while ( pos < end )
+        {
+            final int header = buf.get() & 0xFF;
+            final int precision = header & PRECISION_MASK;
+            final int size = ( int ) MoneyCodec.readVarint( buf );
+            if ( size <= 0 || pos + size > end )
+                throw new IllegalArgumentException( "Malformed block: invalid frame size " + size );
+            final long base = MoneyCodec.unZigZag( MoneyCodec.readVarint( buf ) );
+            final int width = buf.get();
+            if ( width < 0 || width > 64 )
+                throw new IllegalArgumentException( "Malformed block: invalid bit width " + width );
+            final int frameEnd = pos + size;
+            if ( ( header & DELTA_FLAG ) != 0 )
+            {
+                long prev = base;
+                units[ pos ] = prev;
+                readBits( buf, units, pos + 1, frameEnd, width );
+                for ( int i = pos + 1; i < frameEnd; ++i )
+                {
+                    prev += MoneyCodec.unZigZag( units[ i ] );
+                    units[ i ] = prev;
+                }
+            }
+            else
+            {
+                readBits( buf, units, pos, frameEnd, width );
+                for ( int i = pos; i < frameEnd; ++i )
+                    units[ i ] += base;
+            }
+            if ( precisions != null )
+                for ( int i = pos; i < frameEnd; ++i )
+                    precisions[ i ] = precision;
+            pos = frameEnd;
+        }
+        return count;
+    }
+
+    /**
+     * Unpack <code>end - start</code> values of <code>width</code> bits each into a given array
+     */
+    private static void readBits( final ByteBuffer buf, final long[] dest, final int start, final int end, final int width )
+    {
+        if ( width == 0 )
+        {
+            for ( int i = start; i < end; ++i )
+                dest[ i ] = 0;
+            return;
+        }
+        final long mask = width == 64 ? -1L : ( 1L << width ) - 1;
+        int remainingBytes = ( int ) ( ( ( long ) width * ( end - start ) + 7 ) >>> 3 );
+        long acc = 0;
+        int accBits = 0;
+        for ( int i = start; i < end; ++i )
+        {
+            if ( accBits >= width )
+            {
+                dest[ i ] = acc & mask;
+                acc = width == 64 ? 0 : acc >>> width;
+                accBits -= width;
+            }
+            else
+            {
+                //take the remaining bits from the accumulator and the rest from the next (up to) 8 bytes
+                final int bytes = Math.min( 8, remainingBytes );
+                long next = 0;
+                for ( int b = 0; b < bytes; ++b )
+                    next |= ( buf.get() & 0xFFL ) << ( b << 3 );
+                remainingBytes -= bytes;
+                dest[ i ] = ( acc | ( next << accBits ) ) & mask;
+                final int used = width - accBits;
+                acc = used == 64 ? 0 : next >>> used;
+                accBits = ( bytes << 3 ) - used;
+            }
+        }
+    }
+
+    /**
+     * Helper class for writing bit-packed values into a ByteBuffer, little endian.
+     */
+    private static final class BitWriter
+    {
+        private final ByteBuffer m_buf;
+        private long m_acc;
+        private int m_accBits;
+
+        private BitWriter( final ByteBuffer buf ) {
+            m_buf = buf;
+        }
+
+        /**
+         * Append a value to the output
+         * @param value Value to write, must fit into <code>width</code> bits
+         * @param width Number of bits to write
+         */
+        void write( final long value, final int width )
+        {
+            if ( width == 0 )
+                return;
+            m_acc |= value << m_accBits;
+            final int total = m_accBits + width;
+            if ( total >= 64 )
+            {
+                writeBytes( m_acc, 8 );
+                m_acc = m_accBits == 0 ? 0 : value >>> ( 64 - m_accBits );
+                m_accBits = total - 64;
+            }
+            else
+                m_accBits = total;
+        }
+
+        /**
+         * Write all pending bits, padding them to a byte boundary
+         */
+        void flush()
+        {
+            writeBytes( m_acc, ( m_accBits + 7 ) >>> 3 );
+            m_acc = 0;
+            m_accBits = 0;
+        }
+
+        private void writeBytes( long value, final int bytes )
+        {
+            for ( int i = 0; i < bytes; ++i )
+            {
+                m_buf.put( ( byte ) value );
+                value >>>= 8;
+            }
+        }
+    }
+}
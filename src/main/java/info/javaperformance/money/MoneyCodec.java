@@ -0,0 +1,502 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  Compact binary codec for Money values. It is much faster and produces much shorter output than
+ *  <code>toString</code> + <code>MoneyFactory.fromString</code> pair.
+ * </p>
+ * <p>
+ *  <code>MoneyLong</code> values are encoded as a header byte followed by an optional varint:
+ *  <ul>
+ *      <li>bit 7 of a header - 0 (BigDecimal flag)</li>
+ *      <li>bit 6 of a header - set if more varint bytes follow</li>
+ *      <li>bits 4-5 of a header - 2 lowest bits of zig-zag encoded units</li>
+ *      <li>bits 0-3 of a header - precision (0-15)</li>
+ *  </ul>
+ *  Remaining bits of zig-zag encoded units are written as a little endian base 128 varint. As a result,
+ *  values between -2 and 1 units take 1 byte, values below 2^8 units take 2 bytes and so on up to 10 bytes.
+ * </p>
+ * <p>
+ *  <code>MoneyBigDecimal</code> values are encoded as a <code>0x80</code> header byte, zig-zag varint scale,
+ *  varint length of an unscaled value and two's-complement big-endian bytes of an unscaled value.
+ * </p>
+ */
+public final class MoneyCodec {
+    /** Header flag for BigDecimal-based values */
+    private static final int BIG_DECIMAL_FLAG = 0x80;
+    /** Header flag set if more varint bytes follow the header */
+    private static final int CONTINUATION_FLAG = 0x40;
+    /** Number of zig-zag encoded units bits kept in the header */
+    private static final int HEADER_UNITS_BITS = 2;
+    /** Position of units bits in the header */
+    private static final int HEADER_UNITS_SHIFT = 4;
+    /** Mask for extracting units bits from the header (after the shift) */
+    private static final int HEADER_UNITS_MASK = ( 1 << HEADER_UNITS_BITS ) - 1;
+    /** Mask for extracting precision from the header */
+    private static final int PRECISION_MASK = 0x0F;
+
+    /** Maximal length of an encoded <code>MoneyLong</code> value: header + 9 varint bytes for the remaining 62 bits */
+    public static final int MAX_LONG_ENCODED_LENGTH = 10;
+
+    private MoneyCodec() {
+    }
+
+    /**
+     * Calculate the number of bytes required to encode a given value
+     * @param value Value to encode
+     * @return Number of bytes <code>write</code> methods will output for this value
+     */
+    public static int encodedLength( final Money value )
+    {
+        if ( value instanceof MoneyLong )
+        {
+            final MoneyLong lng = ( MoneyLong ) value;
+            return encodedLength( lng.getUnits() );
+        }
+        final BigDecimal bd = value.toBigDecimal();
+        final int bytes = bitsToBytes( bd.unscaledValue().bitLength() + 1 );
+        return 1 + varintLength( zigZag( bd.scale() ) ) + varintLength( bytes ) + bytes;
+    }
+
+    /**
+     * Calculate the number of bytes required to encode a value defined by its units
+     * @param units Currency units
+     * @return Number of bytes <code>write</code> methods will output for such value
+     */
+    public static int encodedLength( final long units )
+    {
+        final long rest = zigZag( units ) >>> HEADER_UNITS_BITS;
+        return rest == 0 ? 1 : 1 + varintLength( rest );
+    }
+
+    /**
+     * Write a value into a byte array
+     * @param value Value to write
+     * @param buf Destination buffer
+     * @param offset Start position in the buffer
+     * @return Position in the buffer after the written value
+     */
+    public static int write( final Money value, final byte[] buf, final int offset )
+    {
+        if ( value instanceof MoneyLong )
+        {
+            final MoneyLong lng = ( MoneyLong ) value;
+            return write( lng.getUnits(), lng.getPrecision(), buf, offset );
+        }
+        final BigDecimal bd = value.toBigDecimal();
+        final byte[] unscaled = bd.unscaledValue().toByteArray();
+        int pos = offset;
+        buf[ pos++ ] = ( byte ) BIG_DECIMAL_FLAG;
+        pos = writeVarint( zigZag( bd.scale() ), buf, pos );
+        pos = writeVarint( unscaled.length, buf, pos );
+        System.arraycopy( unscaled, 0, buf, pos, unscaled.length );
+        return pos + unscaled.length;
+    }
+
+    /**
+     * Write a value defined by its units and precision into a byte array. It is decoded as <code>MoneyLong</code>.
+     * @param units Currency units
+     * @param precision Precision, should be between 0 and <code>MAX_ALLOWED_PRECISION</code> (inclusive).
+     * @param buf Destination buffer
+     * @param offset Start position in the buffer
+     * @return Position in the buffer after the written value
+     * @throws java.lang.IllegalArgumentException In case of invalid precision
+     */
+    public static int write( final long units, final int precision, final byte[] buf, final int offset )
+    {
+        MoneyFactory.checkPrecision( precision );
+        final long zz = zigZag( units );
+        final long rest = zz >>> HEADER_UNITS_BITS;
+        final int header = ( int ) ( ( zz & HEADER_UNITS_MASK ) << HEADER_UNITS_SHIFT ) | precision;
+        if ( rest == 0 )
+        {
+            buf[ offset ] = ( byte ) header;
+            return offset + 1;
+        }
+        buf[ offset ] = ( byte ) ( header | CONTINUATION_FLAG );
+        return writeVarint( rest, buf, offset + 1 );
+    }
+
+    /**
+     * Write a value into a ByteBuffer starting from its current position
+     * @param value Value to write
+     * @param buf Destination buffer
+     */
+    public static void write( final Money value, final ByteBuffer buf )
+    {
+        if ( value instanceof MoneyLong )
+        {
+            final MoneyLong lng = ( MoneyLong ) value;
+            write( lng.getUnits(), lng.getPrecision(), buf );
+            return;
+        }
+        final BigDecimal bd = value.toBigDecimal();
+        final byte[] unscaled = bd.unscaledValue().toByteArray();
+        buf.put( ( byte ) BIG_DECIMAL_FLAG );
+        writeVarint( zigZag( bd.scale() ), buf );
+        writeVarint( unscaled.length, buf );
+        buf.put( unscaled );
+    }
+
+    /**
+     * Write a value defined by its units and precision into a ByteBuffer starting from its current position.
+     * It is decoded as <code>MoneyLong</code>.
+     * @param units Currency units
+     * @param precision Precision, should be between 0 and <code>MAX_ALLOWED_PRECISION</code> (inclusive).
+     * @param buf Destination buffer
+     * @throws java.lang.IllegalArgumentException In case of invalid precision
+     */
+    public static void write( final long units, final int precision, final ByteBuffer buf )
+    {
+        MoneyFactory.checkPrecision( precision );
+        final long zz = zigZag( units );
+        final long rest = zz >>> HEADER_UNITS_BITS;
+        final int header = ( int ) ( ( zz & HEADER_UNITS_MASK ) << HEADER_UNITS_SHIFT ) | precision;
+        if ( rest == 0 )
+            buf.put( ( byte ) header );
+        else
+        {
+            buf.put( ( byte ) ( header | CONTINUATION_FLAG ) );
+            writeVarint( rest, buf );
+        }
+    }
+
+    /**
+     * Read a value from a byte array
+     * @param buf Source buffer
+     * @param offset Position of a value in the buffer
+     * @return Decoded value
+     * @throws java.lang.IllegalArgumentException In case of malformed input
+     */
+    public static Money read( final byte[] buf, final int offset )
+    {
+        final int header = buf[ offset ] & 0xFF;
+        if ( ( header & BIG_DECIMAL_FLAG ) != 0 )
+        {
+            int pos = offset + 1;
+            final int scale = ( int ) unZigZag( readVarint( buf, pos ) );
+            pos = skipVarint( buf, pos );
+            final long len = readVarint( buf, pos );
+            pos = skipVarint( buf, pos );
+            checkPayloadLength( len, buf.length - pos );
+            final BigInteger unscaled = new BigInteger( Arrays.copyOfRange( buf, pos, pos + ( int ) len ) );
+            return new MoneyBigDecimal( new BigDecimal( unscaled, scale ) );
+        }
+        return new MoneyLong( readUnits( header, buf, offset + 1 ), header & PRECISION_MASK );
+    }
+
+    /**
+     * Check the length of an unscaled BigDecimal value: it is encoded by <code>BigInteger.toByteArray</code>,
+     * which always writes at least one byte
+     * @param len Decoded length
+     * @param available Number of bytes left in the input
+     */
+    private static void checkPayloadLength( final long len, final int available )
+    {
+        if ( len <= 0 || len > available )
+            throw new IllegalArgumentException( "Malformed BigDecimal value: " + len + " bytes of unscaled value, "
+                                                + available + " bytes available" );
+    }
+
+    /**
+     * Skip an encoded value in a byte array
+     * @param buf Source buffer
+     * @param offset Position of a value in the buffer
+     * @return Position in the buffer after the given value
+     */
+    public static int skip( final byte[] buf, final int offset )
+    {
+        final int header = buf[ offset ] & 0xFF;
+        if ( ( header & BIG_DECIMAL_FLAG ) != 0 )
+        {
+            final int pos = skipVarint( buf, offset + 1 ); //scale
+            final int len = ( int ) readVarint( buf, pos );
+            return skipVarint( buf, pos ) + len;
+        }
+        if ( ( header & CONTINUATION_FLAG ) == 0 )
+            return offset + 1;
+        return skipVarint( buf, offset + 1 );
+    }
+
+    /**
+     * Read a value from a ByteBuffer starting from its current position
+     * @param buf Source buffer
+     * @return Decoded value
+     * @throws java.lang.IllegalArgumentException In case of malformed input
+     */
+    public static Money read( final ByteBuffer buf )
+    {
+        final int header = buf.get() & 0xFF;
+        if ( ( header & BIG_DECIMAL_FLAG ) != 0 )
+        {
+            final int scale = ( int ) unZigZag( readVarint( buf ) );
+            final long len = readVarint( buf );
+            checkPayloadLength( len, buf.remaining() );
+            final byte[] unscaled = new byte[ ( int ) len ];
+            buf.get( unscaled );
+            return new MoneyBigDecimal( new BigDecimal( new BigInteger( unscaled ), scale ) );
+        }
+        return new MoneyLong( readUnits( header, buf ), header & PRECISION_MASK );
+    }
+
+    /**
+     * Write a part of Money array into a byte array
+     * @param values Values to write
+     * @param from First value to write
+     * @param count Number of values to write
+     * @param buf Destination buffer
+     * @param offset Start position in the buffer
+     * @return Position in the buffer after the last written value
+     */
+    public static int writeArray( final Money[] values, final int from, final int count, final byte[] buf, final int offset )
+    {
+        int pos = offset;
+        for ( int i = from; i < from + count; ++i )
+            pos = write( values[ i ], buf, pos );
+        return pos;
+    }
+
+    /**
+     * Write a part of Money array into a ByteBuffer starting from its current position
+     * @param values Values to write
+     * @param from First value to write
+     * @param count Number of values to write
+     * @param buf Destination buffer
+     */
+    public static void writeArray( final Money[] values, final int from, final int count, final ByteBuffer buf )
+    {
+        for ( int i = from; i < from + count; ++i )
+            write( values[ i ], buf );
+    }
+
+    /**
+     * Read a sequence of values from a byte array into a Money array
+     * @param buf Source buffer
+     * @param offset Position of the first value in the buffer
+     * @param dest Destination array
+     * @param from First position to fill in the destination array
+     * @param count Number of values to read
+     * @return Position in the buffer after the last read value
+     */
+    public static int readArray( final byte[] buf, final int offset, final Money[] dest, final int from, final int count )
+    {
+        int pos = offset;
+        for ( int i = from; i < from + count; ++i )
+        {
+            dest[ i ] = read( buf, pos );
+            pos = skip( buf, pos );
+        }
+        return pos;
+    }
+
+    /**
+     * Read a sequence of values from a ByteBuffer into a Money array
+     * @param buf Source buffer
+     * @param dest Destination array
+     * @param from First position to fill in the destination array
+     * @param count Number of values to read
+     */
+    public static void readArray( final ByteBuffer buf, final Money[] dest, final int from, final int count )
+    {
+        for ( int i = from; i < from + count; ++i )
+            dest[ i ] = read( buf );
+    }
+
+    /**
+     * Write a sequence of values defined by units and precision columns into a byte array
+     * @param units Currency units
+     * @param precisions Precisions
+     * @param from First value to write
+     * @param count Number of values to write
+     * @param buf Destination buffer
+     * @param offset Start position in the buffer
+     * @return Position in the buffer after the last written value
+     */
+    public static int writeColumns( final long[] units, final int[] precisions, final int from, final int count,
+                                    final byte[] buf, final int offset )
+    {
+        int pos = offset;
+        for ( int i = from; i < from + count; ++i )
+            pos = write( units[ i ], precisions[ i ], buf, pos );
+        return pos;
+    }
+
+    /**
+     * Write a sequence of values defined by units and precision columns into a ByteBuffer
+     * @param units Currency units
+     * @param precisions Precisions
+     * @param from First value to write
+     * @param count Number of values to write
+     * @param buf Destination buffer
+     */
+    public static void writeColumns( final long[] units, final int[] precisions, final int from, final int count,
+                                     final ByteBuffer buf )
+    {
+        for ( int i = from; i < from + count; ++i )
+            write( units[ i ], precisions[ i ], buf );
+    }
+
+    /**
+     * Read a sequence of <code>MoneyLong</code> values from a byte array directly into units and precision columns.
+     * No objects are allocated by this method.
+     * @param buf Source buffer
+     * @param offset Position of the first value in the buffer
+     * @param units Destination units
+     * @param precisions Destination precisions
+     * @param from First position to fill in the destination arrays
+     * @param count Number of values to read
+     * @return Position in the buffer after the last read value
+     * @throws java.lang.IllegalArgumentException If a BigDecimal-based value is found in the input
+     */
+    public static int readColumns( final byte[] buf, final int offset, final long[] units, final int[] precisions,
+                                   final int from, final int count )
+    {
+        int pos = offset;
+        for ( int i = from; i < from + count; ++i )
+        {
+            final int header = buf[ pos ] & 0xFF;
+            if ( ( header & BIG_DECIMAL_FLAG ) != 0 )
+                throw new IllegalArgumentException( "BigDecimal-based value at position " + pos + " can not be stored in columns" );
+            units[ i ] = readUnits( header, buf, pos + 1 );
+            precisions[ i ] = header & PRECISION_MASK;
+            pos = ( header & CONTINUATION_FLAG ) == 0 ? pos + 1 : skipVarint( buf, pos + 1 );
+        }
+        return pos;
+    }
+
+    /**
+     * Read a sequence of <code>MoneyLong</code> values from a ByteBuffer directly into units and precision columns.
+     * No objects are allocated by this method.
+     * @param buf Source buffer
+     * @param units Destination units
+     * @param precisions Destination precisions
+     * @param from First position to fill in the destination arrays
+     * @param count Number of values to read
+     * @throws java.lang.IllegalArgumentException If a BigDecimal-based value is found in the input
+     */
+    public static void readColumns( final ByteBuffer buf, final long[] units, final int[] precisions,
+                                    final int from, final int count )
+    {
+        for ( int i = from; i < from + count; ++i )
+        {
+            final int header = buf.get() & 0xFF;
+            if ( ( header & BIG_DECIMAL_FLAG ) != 0 )
+                throw new IllegalArgumentException( "BigDecimal-based value at position " + ( buf.position() - 1 ) + " can not be stored in columns" );
+            units[ i ] = readUnits( header, buf );
+            precisions[ i ] = header & PRECISION_MASK;
+        }
+    }
+
+    private static long readUnits( final int header, final byte[] buf, final int offset )
+    {
+        long zz = ( header >>> HEADER_UNITS_SHIFT ) & HEADER_UNITS_MASK;
+        if ( ( header & CONTINUATION_FLAG ) != 0 )
+            zz |= readVarint( buf, offset ) << HEADER_UNITS_BITS;
+        return unZigZag( zz );
+    }
+
+    private static long readUnits( final int header, final ByteBuffer buf )
+    {
+        long zz = ( header >>> HEADER_UNITS_SHIFT ) & HEADER_UNITS_MASK;
+        if ( ( header & CONTINUATION_FLAG ) != 0 )
+            zz |= readVarint( buf ) << HEADER_UNITS_BITS;
+        return unZigZag( zz );
+    }
+
+    static long zigZag( final long value )
+    {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+    static long unZigZag( final long value )
+    {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+
+    private static int bitsToBytes( final int bits )
+    {
+        return ( bits + 7 ) >>> 3;
+    }
+
+    static int varintLength( final long value )
+    {
+        //1 byte per each 7 bits, but at least one byte
+        final int bits = 64 - Long.numberOfLeadingZeros( value | 1 );
+        return ( bits + 6 ) / 7;
+    }
+
+    static int writeVarint( long value, final byte[] buf, int offset )
+    {
+        while ( ( value & ~0x7FL ) != 0 )
+        {
+            buf[ offset++ ] = ( byte ) ( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        buf[ offset++ ] = ( byte ) value;
+        return offset;
+    }
+
+    static void writeVarint( long value, final ByteBuffer buf )
+    {
+        while ( ( value & ~0x7FL ) != 0 )
+        {
+            buf.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        buf.put( ( byte ) value );
+    }
+
+    static long readVarint( final byte[] buf, int offset )
+    {
+        long res = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            final byte b = buf[ offset++ ];
+            res |= ( long ) ( b & 0x7F ) << shift;
+            if ( b >= 0 ) //no continuation bit
+                return res;
+        }
+        throw new IllegalArgumentException( "Malformed varint: more than 64 bits encoded" );
+    }
+
+    static long readVarint( final ByteBuffer buf )
+    {
+        long res = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            final byte b = buf.get();
+            res |= ( long ) ( b & 0x7F ) << shift;
+            if ( b >= 0 ) //no continuation bit
+                return res;
+        }
+        throw new IllegalArgumentException( "Malformed varint: more than 64 bits encoded" );
+    }
+
+    private static int skipVarint( final byte[] buf, int offset )
+    {
+        while ( buf[ offset ] < 0 ) //continuation bit is set
+            ++offset;
+        return offset + 1;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ *  Bulk arithmetic over columns of currency units. All values in the processed columns (and scalar arguments)
+ *  must have the same precision, so the results have this precision too - exactly like <code>MoneyLong</code>
+ *  operations on values with equal precision, but without normalization.
+ * </p>
+ * <p>
+ *  Results which do not fit into <code>long</code> are not calculated. Instead, their indices are reported in
+ *  an overflow bitmask: bit <code>i &amp; 63</code> of word <code>i &gt;&gt; 6</code> is set if the result at index
+ *  <code>i</code> has overflowed, so a caller can recalculate only those values via <code>Money</code> objects.
+ *  The destination value at an overflowed index is unspecified. Use {@link #maskLength(int)} to allocate
+ *  bitmasks. A destination column may be the same array as a source column.
+ * </p>
+ * <p>
+ *  {@link #sumOfProducts} is an exception - it accepts values with different precisions and its result is exact.
+ * </p>
+ * <p>
+ *  On Java 17+ these methods use SIMD instructions via the Vector API if <code>jdk.incubator.vector</code> module
+ *  is added to the JVM (<code>--add-modules jdk.incubator.vector</code>). Start JVM with
+ *  <code>-Dinfo.javaperformance.money.vector=false</code> to disable them.
+ * </p>
+ */
+public final class MoneyColumns {
+    /** Minimal number of values per task in parallel calculations */
+    private static final int MIN_TASK_SIZE = 64 * 1024;
+
+    private MoneyColumns() {
+    }
+
+    /**
+     * Get the number of words in a bitmask for a given number of values
+     * @param length Number of values
+     * @return Number of <code>long</code> words required for a bitmask
+     */
+    public static int maskLength( final int length )
+    {
+        return ( length + 63 ) >>> 6;
+    }
+
+    /**
+     * Add a value to all units: {@code dest[i] = units[i] + value}
+     * @param units Source units
+     * @param value Value to add, in the same precision
+     * @param dest Destination units, not shorter than {@code units}
+     * @param overflow Overflow bitmask, not shorter than {@code maskLength(units.length)}
+     * @return Number of overflowed results
+     */
+    public static int add( final long[] units, final long value, final long[] dest, final long[] overflow )
+    {
+        final int length = units.length;
+        prepare( length, dest, overflow );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.add( units, value, dest, overflow, length ) : 0;
+        for ( int i = start; i < length; ++i )
+        {
+            final long a = units[ i ];
+            final long sum = a + value;
+            dest[ i ] = sum;
+            if ( !MoneyMath.addFits( a, value, sum ) )
+                overflow[ i >> 6 ] |= 1L << i;
+        }
+        return count( overflow, length );
+    }
+
+    /**
+     * Add two columns: {@code dest[i] = a[i] + b[i]}
+     * @param a First summand units
+     * @param b Second summand units in the same precision, not shorter than {@code a}
+     * @param dest Destination units, not shorter than {@code a}
+     * @param overflow Overflow bitmask, not shorter than {@code maskLength(a.length)}
+     * @return Number of overflowed results
+     */
+    public static int add( final long[] a, final long[] b, final long[] dest, final long[] overflow )
+    {
+        final int length = a.length;
+        checkLength( "b", b, length );
+        prepare( length, dest, overflow );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.add( a, b, dest, overflow, length ) : 0;
+        for ( int i = start; i < length; ++i )
+        {
+            final long x = a[ i ];
+            final long y = b[ i ];
+            final long sum = x + y;
+            dest[ i ] = sum;
+            if ( !MoneyMath.addFits( x, y, sum ) )
+                overflow[ i >> 6 ] |= 1L << i;
+        }
+        return count( overflow, length );
+    }
+
+    /**
+     * Subtract a value from all units: {@code dest[i] = units[i] - value}
+     * @param units Source units
+     * @param value Value to subtract, in the same precision
+     * @param dest Destination units, not shorter than {@code units}
+     * @param overflow Overflow bitmask, not shorter than {@code maskLength(units.length)}
+     * @return Number of overflowed results
+     */
+    public static int subtract( final long[] units, final long value, final long[] dest, final long[] overflow )
+    {
+        final int length = units.length;
+        prepare( length, dest, overflow );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.subtract( units, value, dest, overflow, length ) : 0;
+        for ( int i = start; i < length; ++i )
+        {
+            final long a = units[ i ];
+            final long diff = a - value;
+            dest[ i ] = diff;
+            if ( !subtractFits( a, value, diff ) )
+                overflow[ i >> 6 ] |= 1L << i;
+        }
+        return count( overflow, length );
+    }
+
+    /**
+     * Subtract two columns: {@code dest[i] = a[i] - b[i]}
+     * @param a Minuend units
+     * @param b Subtrahend units in the same precision, not shorter than {@code a}
+     * @param dest Destination units, not shorter than {@code a}
+     * @param overflow Overflow bitmask, not shorter than {@code maskLength(a.length)}
+     * @return Number of overflowed results
+     */
+    public static int subtract( final long[] a, final long[] b, final long[] dest, final long[] overflow )
+    {
+        final int length = a.length;
+        checkLength( "b", b, length );
+        prepare( length, dest, overflow );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.subtract( a, b, dest, overflow, length ) : 0;
+        for ( int i = start; i < length; ++i )
+        {
+            final long x = a[ i ];
+            final long y = b[ i ];
+            final long diff = x - y;
+            dest[ i ] = diff;
+            if ( !subtractFits( x, y, diff ) )
+                overflow[ i >> 6 ] |= 1L << i;
+        }
+        return count( overflow, length );
+    }
+
+    /**
+     * Multiply all units by a factor: {@code dest[i] = units[i] * factor}. Precision of the results is the same
+     * as precision of the source units.
+     * @param units Source units
+     * @param factor Multiplier
+     * @param dest Destination units, not shorter than {@code units}
+     * @param overflow Overflow bitmask, not shorter than {@code maskLength(units.length)}
+     * @return Number of overflowed results
+     */
+    public static int multiply( final long[] units, final long factor, final long[] dest, final long[] overflow )
+    {
+        final int length = units.length;
+        prepare( length, dest, overflow );
+        //a product fits into long if and only if a multiplicand is between these bounds
+        final long min;
+        final long max;
+        if ( factor > 0 )
+        {
+            min = Long.MIN_VALUE / factor;
+            max = Long.MAX_VALUE / factor;
+        }
+        else if ( factor < -1 )
+        {
+            min = Long.MAX_VALUE / factor;
+            max = Long.MIN_VALUE / factor;
+        }
+        else if ( factor == -1 )
+        {
+            min = -Long.MAX_VALUE;
+            max = Long.MAX_VALUE;
+        }
+        else
+        {
+            min = Long.MIN_VALUE;
+            max = Long.MAX_VALUE;
+        }
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.multiply( units, factor, min, max, dest, overflow, length ) : 0;
+        for ( int i = start; i < length; ++i )
+        {
+            final long a = units[ i ];
+            dest[ i ] = a * factor;
+            if ( a < min || a > max )
+                overflow[ i >> 6 ] |= 1L << i;
+        }
+        return count( overflow, length );
+    }
+
+    /**
+     * Find all units greater than a threshold
+     * @param units Units
+     * @param threshold Threshold in the same precision
+     * @param mask Result bitmask, not shorter than {@code maskLength(units.length)}. Bits are set for all
+     *             indices where {@code units[i] > threshold}
+     * @return Number of units greater than a threshold
+     */
+    public static int greaterThan( final long[] units, final long threshold, final long[] mask )
+    {
+        final int length = units.length;
+        prepare( length, units, mask );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.greaterThan( units, threshold, mask, length ) : 0;
+        for ( int i = start; i < length; ++i )
+            if ( units[ i ] > threshold )
+                mask[ i >> 6 ] |= 1L << i;
+        return count( mask, length );
+    }
+
+    /**
+     * Find all units less than a threshold
+     * @param units Units
+     * @param threshold Threshold in the same precision
+     * @param mask Result bitmask, not shorter than {@code maskLength(units.length)}. Bits are set for all
+     *             indices where {@code units[i] < threshold}
+     * @return Number of units less than a threshold
+     */
+    public static int lessThan( final long[] units, final long threshold, final long[] mask )
+    {
+        final int length = units.length;
+        prepare( length, units, mask );
+        final int start = VectorKernels.AVAILABLE ? VectorKernels.lessThan( units, threshold, mask, length ) : 0;
+        for ( int i = start; i < length; ++i )
+            if ( units[ i ] < threshold )
+                mask[ i >> 6 ] |= 1L << i;
+        return count( mask, length );
+    }
+
+    /**
+     * <p>
+     *  Calculate an exact sum of {@code quantities[i] * (units[i], precisions[i])}, for example a portfolio value.
+     * </p>
+     * <p>
+     *  Products are accumulated in 128 bits per precision and rescaled only once at the end, so no objects are
+     *  allocated per value and no intermediate overflow is possible.
+     * </p>
+     * @param quantities Quantities
+     * @param units Currency units, not shorter than {@code quantities}
+     * @param precisions Precisions of units, not shorter than {@code quantities}
+     * @return Exact sum of products in the highest precision of values, normalized to the efficient representation if possible
+     * @throws IllegalArgumentException If any precision is invalid
+     */
+    public static Money sumOfProducts( final long[] quantities, final long[] units, final int[] precisions )
+    {
+        checkProductColumns( quantities, units, precisions );
+        return new ProductSum().add( quantities, units, precisions, 0, quantities.length ).toMoney();
+    }
+
+    /**
+     * Calculate an exact sum of {@code quantities[i] * (units[i], precisions[i])} in parallel. Columns are split
+     * into chunks, which are summed by the given executor (for example, a {@code ForkJoinPool}). Chunk sums are
+     * merged exactly, so the result is the same as the result of the sequential version.
+     * @param quantities Quantities
+     * @param units Currency units, not shorter than {@code quantities}
+     * @param precisions Precisions of units, not shorter than {@code quantities}
+     * @param executor Executor for chunks. Small inputs are summed in the calling thread.
+     * @return Exact sum of products in the highest precision of values, normalized to the efficient representation if possible
+     * @throws IllegalArgumentException If any precision is invalid
+     * @throws IllegalStateException If the calling thread was interrupted while waiting for the result
+     */
+    public static Money sumOfProducts( final long[] quantities, final long[] units, final int[] precisions,
+                                       final ExecutorService executor )
+    {
+        checkProductColumns( quantities, units, precisions );
+        final int length = quantities.length;
+        final int tasks = taskCount( length );
+        if ( tasks < 2 )
+            return sumOfProducts( quantities, units, precisions );
+
+        final List<Callable<ProductSum>> chunks = new ArrayList<Callable<ProductSum>>( tasks );
+        for ( int t = 0; t < tasks; ++t )
+        {
+            final int from = (int) ( (long) length * t / tasks );
+            final int to = (int) ( (long) length * ( t + 1 ) / tasks );
+            chunks.add( new Callable<ProductSum>() {
+                public ProductSum call() {
+                    return new ProductSum().add( quantities, units, precisions, from, to );
+                }
+            } );
+        }
+        final ProductSum res = new ProductSum();
+        for ( final ProductSum chunk : runAll( executor, chunks, "a sum of products" ) )
+            res.merge( chunk );
+        return res.toMoney();
+    }
+
+    /**
+     * Get the number of parallel tasks for a column
+     * @param length Column length
+     * @return Number of tasks, less than 2 if a column shall be processed in the calling thread
+     */
+    static int taskCount( final int length )
+    {
+        return Math.min( Runtime.getRuntime().availableProcessors() * 4, length / MIN_TASK_SIZE );
+    }
+
+    /**
+     * Run tasks via an executor and wait for all of them
+     * @param executor Executor
+     * @param tasks Tasks
+     * @param what Name of a calculation for an error message
+     * @return Results of tasks in the same order
+     * @throws IllegalStateException If the calling thread was interrupted while waiting for the results
+     */
+    static <T> List<T> runAll( final ExecutorService executor, final List<Callable<T>> tasks, final String what )
+    {
+        final List<Future<T>> futures = new ArrayList<Future<T>>( tasks.size() );
+        for ( final Callable<T> task : tasks )
+            futures.add( executor.submit( task ) );
+        final List<T> res = new ArrayList<T>( tasks.size() );
+        try
+        {
+            for ( final Future<T> future : futures )
+                res.add( future.get() );
+        }
+        catch ( InterruptedException ex )
+        {
+            for ( final Future<T> future : futures )
+                future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while waiting for " + what, ex );
+        }
+        catch ( ExecutionException ex )
+        {
+            if ( ex.getCause() instanceof RuntimeException )
+                throw ( RuntimeException ) ex.getCause();
+            if ( ex.getCause() instanceof Error )
+                throw ( Error ) ex.getCause();
+            throw new IllegalStateException( ex.getCause() );
+        }
+        return res;
+    }
+
+    private static void checkProductColumns( final long[] quantities, final long[] units, final int[] precisions )
+    {
+        checkLength( "units", units, quantities.length );
+        if ( precisions.length < quantities.length )
+            throw new IllegalArgumentException( "precisions must have at least " + quantities.length + " values, but has " + precisions.length );
+    }
+
+    private static boolean subtractFits( final long x, final long y, final long diff )
+    {
+        //overflow - operands have different signs and the sign of a result differs from the sign of x
+        return ( ( x ^ y ) & ( x ^ diff ) ) >= 0;
+    }
+
+    /**
+     * Check the destination arrays and clear a bitmask
+     */
+    static void prepare( final int length, final long[] dest, final long[] mask )
+    {
+        checkLength( "dest", dest, length );
+        final int words = maskLength( length );
+        if ( mask.length < words )
+            throw new IllegalArgumentException( "Bitmask must have at least " + words + " words, but has " + mask.length );
+        Arrays.fill( mask, 0, words, 0 );
+    }
+
+    static void checkLength( final String name, final long[] column, final int length )
+    {
+        if ( column.length < length )
+            throw new IllegalArgumentException( name + " must have at least " + length + " values, but has " + column.length );
+    }
+
+    static int count( final long[] mask, final int length )
+    {
+        int res = 0;
+        for ( int i = 0; i < maskLength( length ); ++i )
+            res += Long.bitCount( mask[ i ] );
+        return res;
+    }
+}
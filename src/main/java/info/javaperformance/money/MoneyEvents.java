@@ -0,0 +1,36 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * Java Flight Recorder events. JFR is not available before Java 11, so this version does nothing.
+ * Java 11+ version of this class is located in <code>src/main/java11</code> and is loaded from a multi-release jar.
+ */
+final class MoneyEvents {
+    private MoneyEvents() {
+    }
+
+    /**
+     * An operation left the fast path
+     * @param site Fallback site
+     * @param precision Precision of the first operand
+     * @param otherPrecision Precision of the second operand or -1 if not applicable
+     */
+    static void fallback( final MoneyMetrics.FallbackSite site, final int precision, final int otherPrecision )
+    {
+    }
+}
@@ -65,6 +65,38 @@ public class MoneyFactory {
         return new MoneyLong( units, precision ).normalize();
     }
 
+    /**
+     * Convert a 64 bit sortable key (see {@link Money#toSortableKey(int)}) back into Money object.
+     * @param key Sortable key
+     * @param scale Scale used to create a key
+     * @return Money object
+     * @throws java.lang.IllegalArgumentException In case of invalid scale
+     */
+    public static Money fromSortableKey( final long key, final int scale )
+    {
+        return fromUnits( key ^ Long.MIN_VALUE, scale );
+    }
+
+    /**
+     * Convert a 128 bit sortable key (see {@link Money#toSortableKey128(int, byte[], int)}) back into Money object.
+     * @param src Source array
+     * @param offset Position of a key in the source array
+     * @param scale Scale used to create a key
+     * @return Money object
+     * @throws java.lang.IllegalArgumentException In case of invalid scale
+     */
+    public static Money fromSortableKey128( final byte[] src, final int offset, final int scale )
+    {
+        checkPrecision( scale );
+        final long high = Math128.readLong( src, offset ) ^ Long.MIN_VALUE;
+        final long low = Math128.readLong( src, offset + 8 );
+        if ( Math128.fitsInLong( high, low ) )
+            return new MoneyLong( low, scale ).normalize();
+        final byte[] bytes = new byte[ 16 ];
+        Math128.write( high, low, bytes, 0 );
+        return fromBigDecimal( new BigDecimal( new BigInteger( bytes ), scale ) );
+    }
+
     /**
      * Same as <code>fromString</code>, but characters are extracted from the given part of char array
      * @param chars Char array
@@ -176,7 +208,10 @@ public class MoneyFactory {
         final int dotPos = value.indexOf('.');
         final int precision = dotPos == -1 ? 0 : value.length() - dotPos - 1;
         if ( precision > MAX_ALLOWED_PRECISION ) //too high precision
+        {
+            MoneyMetrics.record( MoneyMetrics.FallbackSite.FROM_STRING, precision, -1 );
             return new MoneyBigDecimal( value );
+        }
         if ( dotPos != -1 && value.indexOf( '.', dotPos + 1 ) != -1 )
             throw new IllegalArgumentException( "Unparseable String value has more than 1 decimal point: " + value );
         try
@@ -188,7 +223,9 @@ public class MoneyFactory {
         {
             try
             {
-                return new MoneyBigDecimal( value );
+                final Money res = new MoneyBigDecimal( value );
+                MoneyMetrics.record( MoneyMetrics.FallbackSite.FROM_STRING, precision, -1 );
+                return res;
             }
             catch ( NumberFormatException ex2 )
             {
@@ -238,7 +275,10 @@ public class MoneyFactory {
         if ( precision >= 0 && precision <= MAX_ALLOWED_PRECISION )
             return new MoneyLong( res * sign, precision ).normalize();
         else
+        {
+            MoneyMetrics.record( MoneyMetrics.FallbackSite.FROM_STRING, precision, -1 );
             return new MoneyBigDecimal( str.toString() );
+        }
     }
 
     /**
@@ -285,6 +325,7 @@ public class MoneyFactory {
         if ( direct != null )
             return direct;
 
+        MoneyMetrics.record( MoneyMetrics.FallbackSite.FROM_DOUBLE, precision, -1 );
         return new MoneyBigDecimal( value );
     }
 
@@ -328,8 +369,6 @@ public class MoneyFactory {
      */
     public static Money fromBigDecimal( final BigDecimal value )
     {
-        final BigDecimal cleaned = value.stripTrailingZeros();
-
         //try to convert to double using a fixed precision = 3, which will cover most of currencies
         //it is required to get rid of rounding issues
         final double dbl = value.doubleValue();
@@ -337,16 +376,17 @@ public class MoneyFactory {
         if ( res != null )
             return res;
 
+        final BigDecimal cleaned = stripTrailingZeros( value );
         final int scale = cleaned.scale();
         if ( scale > MAX_ALLOWED_PRECISION || scale < -MAX_ALLOWED_PRECISION )
-            return new MoneyBigDecimal( cleaned );
+            return fromBigDecimalFallback( cleaned );
         //we may not fit into the Long, but we should try
         //this value may be truncated!
         final BigInteger unscaledBigInt = cleaned.unscaledValue();
         final long unscaledUnits = unscaledBigInt.longValue();
         //check that it was not
         if ( !BigInteger.valueOf(unscaledUnits).equals( unscaledBigInt ) )
-            return new MoneyBigDecimal( cleaned );
+            return fromBigDecimalFallback( cleaned );
         //scale could be negative here - we must multiply in that case
         if ( scale >= 0 )
             return new MoneyLong( unscaledUnits, scale );
@@ -357,10 +397,68 @@ public class MoneyFactory {
         {
             units *= 10;
             if ( units >= MAX_LONG_DIVIDED_BY_10 )
-                return new MoneyBigDecimal( value );
+                return fromBigDecimalFallback( cleaned );
         }
         return new MoneyLong( units, 0 );
 
     }
 
+    /**
+     * Get an exact MoneyLong representation of a value
+     * @param value Value to convert
+     * @return MoneyLong with the same value
+     * @throws ArithmeticException If a value can not be represented as MoneyLong
+     */
+    static MoneyLong toMoneyLong( final Money value )
+    {
+        if ( value instanceof MoneyLong )
+            return ( MoneyLong ) value;
+        final Money res = fromBigDecimalExact( value.toBigDecimal() );
+        if ( res instanceof MoneyLong )
+            return ( MoneyLong ) res;
+        throw new ArithmeticException( "Value " + value + " does not fit into long units with precision up to "
+                                       + MAX_ALLOWED_PRECISION );
+    }
+
+    /**
+     * Convert a BigDecimal into the most efficient representation without any rounding. Unlike
+     * {@link #fromBigDecimal(BigDecimal)}, this method does not try a double based conversion, so it shall be used
+     * for results of exact calculations.
+     * @param value Value to convert
+     * @return MoneyLong if the value fits into it, MoneyBigDecimal otherwise
+     */
+    static Money fromBigDecimalExact( final BigDecimal value )
+    {
+        final int scale = value.scale();
+        //up to 18 digits always fit into long, so trailing zeros may be removed in long arithmetic
+        if ( scale >= 0 && scale <= MAX_ALLOWED_PRECISION && value.precision() <= 18 )
+            return new MoneyLong( value.unscaledValue().longValue(), scale ).normalize();
+        final BigDecimal cleaned = value.signum() == 0 ? BigDecimal.ZERO : stripTrailingZeros( value );
+        if ( cleaned.scale() <= MAX_ALLOWED_PRECISION )
+        {
+            //MoneyLong units have no negative precision, but MoneyBigDecimal keeps a stripped value like fromBigDecimal
+            final BigDecimal units = cleaned.scale() < 0 ? cleaned.setScale( 0 ) : cleaned;
+            if ( units.unscaledValue().bitLength() < 64 )
+                return new MoneyLong( units.unscaledValue().longValue(), units.scale() );
+        }
+        return new MoneyBigDecimal( cleaned, true );
+    }
+
+    /**
+     * Strip trailing zeros unless an unscaled value is odd - in this case it has no trailing zeros
+     */
+    private static BigDecimal stripTrailingZeros( final BigDecimal value )
+    {
+        return value.unscaledValue().testBit( 0 ) ? value : value.stripTrailingZeros();
+    }
+
+    /**
+     * @param value A value without trailing zeros
+     */
+    private static Money fromBigDecimalFallback( final BigDecimal value )
+    {
+        MoneyMetrics.record( MoneyMetrics.FallbackSite.FROM_BIG_DECIMAL, value.scale(), -1 );
+        return new MoneyBigDecimal( value, true );
+    }
+
 }
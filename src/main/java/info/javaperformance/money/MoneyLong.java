@@ -19,11 +19,23 @@ package info.javaperformance.money;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
+import java.math.RoundingMode;
 
 /**
  * The most efficient implementation storing the number of currency units in <code>long</code> field.
  */
 class MoneyLong extends AbstractMoney {
+    /** All powers of 10 which fit into long, used for rescaling in 128 bits */
+    private static final long[] POWERS_OF_10 = new long[ 19 ];
+    static
+    {
+        long val = 1;
+        for ( int i = 0; i < POWERS_OF_10.length; ++i )
+        {
+            POWERS_OF_10[ i ] = val;
+            val *= 10;
+        }
+    }
 
     /** Number of currency units in your precision */
     private final long m_units;
@@ -35,6 +47,24 @@ class MoneyLong extends AbstractMoney {
         m_precision = precision;
     }
 
+    /**
+     * Get the raw number of currency units
+     * @return Number of currency units in <code>m_precision</code> precision
+     */
+    long getUnits()
+    {
+        return m_units;
+    }
+
+    /**
+     * Get the precision of this value
+     * @return Number of digits after decimal point
+     */
+    int getPrecision()
+    {
+        return m_precision;
+    }
+
     /**
      * Convert to the original currency - divide <code>units</code> by <code>10^precision</code>.
      * @return <code>units / (10^precision)</code>
@@ -108,6 +138,73 @@ class MoneyLong extends AbstractMoney {
         return BigDecimal.valueOf( m_units, m_precision );
     }
 
+    /**
+     * Get units of this value in a given scale
+     * @param scale Required scale, should not be lower than the normalized precision
+     * @return Units in a given scale
+     * @throws ArithmeticException If this value does not fit into a given scale
+     */
+    private long unitsInScale( final int scale )
+    {
+        MoneyFactory.checkPrecision( scale );
+        if ( m_precision == scale )
+            return m_units;
+        if ( m_precision > scale )
+        {
+            final int normPrecision = normalizedPrecision( m_units, m_precision );
+            if ( normPrecision > scale )
+                throw new ArithmeticException( "Value " + this + " has more than " + scale + " digits after decimal point" );
+            return m_units / MoneyFactory.MULTIPLIERS[ m_precision - scale ];
+        }
+        //Long.MIN_VALUE is not divisible by 10, so it is always an overflow here
+        final long res = rescaleUp( m_units, m_precision, scale );
+        if ( res == Long.MIN_VALUE )
+            throw new ArithmeticException( "Value " + this + " does not fit into 64 bits in scale " + scale );
+        return res;
+    }
+
+    /**
+     * Convert this value into an order-preserving 64 bit key: units in a given scale with a flipped sign bit.
+     * See {@link Money#toSortableKey(int)}.
+     *
+     * @param scale Number of digits after decimal point in a key
+     * @return Sortable key
+     * @throws IllegalArgumentException If scale is invalid
+     * @throws ArithmeticException If this value has more than {@code scale} digits after decimal point
+     *                             or if it does not fit into 64 bits in a given scale
+     */
+    public long toSortableKey( final int scale )
+    {
+        return unitsInScale( scale ) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Convert this value into an order-preserving 128 bit key written as 16 big-endian bytes.
+     * See {@link Money#toSortableKey128(int, byte[], int)}.
+     *
+     * @param scale  Number of digits after decimal point in a key
+     * @param dest   Destination array
+     * @param offset Start position in the destination array
+     * @throws IllegalArgumentException If scale is invalid
+     * @throws ArithmeticException If this value has more than {@code scale} digits after decimal point
+     *                             or if it does not fit into 128 bits in a given scale
+     */
+    public void toSortableKey128( final int scale, final byte[] dest, final int offset )
+    {
+        MoneyFactory.checkPrecision( scale );
+        if ( m_precision >= scale )
+        {
+            final long units = unitsInScale( scale );
+            Math128.write( ( units >> 63 ) ^ Long.MIN_VALUE, units, dest, offset );
+        }
+        else
+        {
+            //can not overflow: |units| * 10^15 < 2^113
+            final long multiplier = MoneyFactory.MULTIPLIERS[ scale - m_precision ];
+            Math128.write( MoneyMath.multiplyHigh( m_units, multiplier ) ^ Long.MIN_VALUE, m_units * multiplier, dest, offset );
+        }
+    }
+
     /**
      * Return this value with an opposite sign.
      *
@@ -134,59 +231,120 @@ class MoneyLong extends AbstractMoney {
 
     public Money add( final MoneyLong other )
     {
-        long normUnitsRes;
+        long left = m_units;
+        long right = other.m_units;
         int precision = m_precision;
-        if ( m_precision == other.m_precision )
-            normUnitsRes = m_units + other.m_units;
-        else if ( m_precision > other.m_precision ) {
-            long multiplier = MoneyFactory.MULTIPLIERS[m_precision - other.m_precision];
-            long mult = other.m_units * multiplier;
-            if ( mult / multiplier != other.m_units ) //overflow check, alternative is double multiplication and compare with Long.MAX_VALUE.
-                return other.add( new MoneyBigDecimal( toBigDecimal() ) );
-            normUnitsRes = m_units + mult;
+        if ( m_precision > other.m_precision ) {
+            final long multiplier = MoneyFactory.MULTIPLIERS[m_precision - other.m_precision];
+            right = other.m_units * multiplier;
+            if ( !MoneyMath.multiplyFits( other.m_units, multiplier, right ) )
+                return addOverflow( other );
         }
-        else
+        else if ( m_precision < other.m_precision )
         {
-            long multiplier = MoneyFactory.MULTIPLIERS[other.m_precision - m_precision];
-            long mult = m_units * multiplier;
-            if ( mult / multiplier != m_units ) //overflow check
-                return  other.add( new MoneyBigDecimal( toBigDecimal() ) );
-            normUnitsRes = mult + other.m_units;
+            final long multiplier = MoneyFactory.MULTIPLIERS[other.m_precision - m_precision];
+            left = m_units * multiplier;
+            if ( !MoneyMath.multiplyFits( m_units, multiplier, left ) )
+                return addOverflow( other );
             precision = other.m_precision;
         }
-        //cheap overflow check, it does not cover a case when normUnitsRes get positive
-        if ( m_units >= 0 && other.m_units >= 0 && normUnitsRes < 0 )
-            return other.add( new MoneyBigDecimal( toBigDecimal() ) );
+        final long normUnitsRes = left + right;
+        if ( !MoneyMath.addFits( left, right, normUnitsRes ) )
+            return addOverflow( other );
         return new MoneyLong( normUnitsRes, precision ).normalize();
     }
 
+    private Money addOverflow( final MoneyLong other )
+    {
+        MoneyMetrics.record( MoneyMetrics.FallbackSite.ADD_OVERFLOW, m_precision, other.m_precision );
+        return other.add( new MoneyBigDecimal( toBigDecimal() ) );
+    }
+
     private static int compare( final long x, final long y )
     {
         return ( x < y ) ? -1 : ( ( x == y ) ? 0 : 1 );
     }
 
-    @Override
-    protected int compareTo( final MoneyLong other )
+    /**
+     * Compare two values defined by their units and precisions without allocating any objects.
+     * @param units1 Units of the first value
+     * @param precision1 Precision of the first value
+     * @param units2 Units of the second value
+     * @param precision2 Precision of the second value
+     * @return -1, 0, or 1 as the first value is numerically less than, equal to, or greater than the second one
+     */
+    static int compare( final long units1, final int precision1, final long units2, final int precision2 )
     {
-        if ( m_precision == other.m_precision )
-            return compare( m_units, other.m_units );
-        if ( m_precision < other.m_precision )
+        if ( precision1 == precision2 )
+            return compare( units1, units2 );
+        if ( precision1 < precision2 )
         {
-            final long multiplier = MoneyFactory.MULTIPLIERS[ other.m_precision - m_precision ];
-            final long mult = m_units * multiplier;
-            if ( mult / multiplier == m_units ) //overflow check
-                return compare( mult, other.m_units );
+            final long multiplier = MoneyFactory.MULTIPLIERS[ precision2 - precision1 ];
+            final long mult = units1 * multiplier;
+            if ( MoneyMath.multiplyFits( units1, multiplier, mult ) )
+                return compare( mult, units2 );
+            //rescaled units1 do not fit into long, so its absolute value is greater than any long
+            return units1 < 0 ? -1 : 1;
         }
-        if ( m_precision > other.m_precision )
+        final long multiplier = MoneyFactory.MULTIPLIERS[ precision1 - precision2 ];
+        final long mult = units2 * multiplier;
+        if ( MoneyMath.multiplyFits( units2, multiplier, mult ) )
+            return compare( units1, mult );
+        return units2 < 0 ? 1 : -1;
+    }
+
+    @Override
+    protected int compareTo( final MoneyLong other )
+    {
+        return compare( m_units, m_precision, other.m_units, other.m_precision );
+    }
+
+    /**
+     * Compare this value with a MoneyBigDecimal without allocating objects if possible. Values with different signs
+     * or with very different magnitudes are compared without looking at digits. Otherwise the value with
+     * a smaller scale is rescaled and both values are compared as 128 bit integers.
+     * @param other Other money object
+     * @return -1, 0, or 1 as this value is numerically less than, equal to, or greater than {@code other}
+     */
+    @Override
+    public int compareTo( final MoneyBigDecimal other )
+    {
+        final MoneyBigDecimal.Unscaled bd = other.unscaled();
+        final int signum = Long.signum( m_units );
+        if ( signum != bd.m_signum )
+            return signum < bd.m_signum ? -1 : 1;
+        if ( signum == 0 )
+            return 0;
+        //|this| <= |m_units| < 10^19 <= |other|
+        if ( bd.m_integerDigits > 19 )
+            return -signum;
+        if ( bd.m_fits )
         {
-            final long multiplier = MoneyFactory.MULTIPLIERS[ m_precision - other.m_precision ];
-            final long mult = other.m_units * multiplier;
-            if ( mult / multiplier == other.m_units ) //overflow check
-                return compare( m_units, mult );
+            final int scale = bd.m_scale;
+            if ( scale == m_precision )
+                return Math128.compare( m_units >> 63, m_units, bd.m_high, bd.m_low );
+            if ( scale > m_precision )
+            {
+                if ( scale - m_precision < POWERS_OF_10.length )
+                {
+                    final long multiplier = POWERS_OF_10[ scale - m_precision ];
+                    //a product of two longs always fits into 128 bits
+                    return Math128.compare( MoneyMath.multiplyHigh( m_units, multiplier ), m_units * multiplier,
+                                            bd.m_high, bd.m_low );
+                }
+            }
+            //scale < m_precision: rescaled unscaled value of other is not less than the unscaled value itself
+            else if ( !Math128.fitsInLong( bd.m_high, bd.m_low ) )
+                return -signum;
+            else if ( m_precision - scale < POWERS_OF_10.length )
+            {
+                final long multiplier = POWERS_OF_10[ m_precision - scale ];
+                return Math128.compare( m_units >> 63, m_units,
+                                        MoneyMath.multiplyHigh( bd.m_low, multiplier ), bd.m_low * multiplier );
+            }
         }
-
-        //fallback for generic case
-        return toBigDecimal().compareTo(other.toBigDecimal());
+        //fallback for generic case: too large unscaled value or too different scales
+        return toBigDecimal().compareTo( other.toBigDecimal() );
     }
 
     /**
@@ -217,7 +375,48 @@ class MoneyLong extends AbstractMoney {
             return new MoneyLong( units, precision );
     }
 
-    private static final long MASK32 = 0xFFFFFFFF00000000L;
+    /**
+     * Get the precision of a normalized value (see {@code normalize}) without allocating it.
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return Precision after removing all trailing zeroes from units
+     */
+    static int normalizedPrecision( final long units, final int precision )
+    {
+        if ( ( units & 1 ) == 1 )
+            return precision;
+        int res = precision;
+        long val = units;
+        long q;
+        while ( res > 0 )
+        {
+            q = val / 10;
+            if ( val - ( (q << 3) + ( q << 1 ) ) != 0 )
+                break;
+            --res;
+            val = q;
+        }
+        return res;
+    }
+
+    /**
+     * Rescale units to a higher precision
+     * @param units Currency units
+     * @param precision Precision of units
+     * @param newPrecision New precision, must be not lower than {@code precision}
+     * @return Units in the new precision or {@code Long.MIN_VALUE} in case of overflow. Callers should send
+     * {@code Long.MIN_VALUE} results to the slow path regardless of their origin.
+     */
+    static long rescaleUp( final long units, final int precision, final int newPrecision )
+    {
+        if ( precision == newPrecision )
+            return units;
+        final long multiplier = MoneyFactory.MULTIPLIERS[ newPrecision - precision ];
+        final long mult = units * multiplier;
+        if ( !MoneyMath.multiplyFits( units, multiplier, mult ) || mult == Long.MIN_VALUE )
+            return Long.MIN_VALUE;
+        return mult;
+    }
 
     /**
      * Multiply the current object by the <code>long</code> value.
@@ -227,15 +426,9 @@ class MoneyLong extends AbstractMoney {
      */
     public Money multiply( long multiplier ) {
         final long resUnits = m_units * multiplier;
-        //fast overflow test - if both values fit in the 32 bits (and positive), they can not overflow
-        if ( ( (m_units | multiplier) & MASK32 ) == 0 )
-            return new MoneyLong( resUnits, m_precision ).normalize();
-
-        //slower overflow test - check if we will get the original value back after division. It is not possible
-        //in case of overflow.
-        final long origUnits = resUnits / multiplier;
-        if ( origUnits != m_units )
+        if ( !MoneyMath.multiplyFits( m_units, multiplier, resUnits ) )
         {
+            MoneyMetrics.record( MoneyMetrics.FallbackSite.MULTIPLY_LONG_OVERFLOW, m_precision, -1 );
             final BigInteger res = BigInteger.valueOf( m_units ).multiply( BigInteger.valueOf( multiplier ) );
             return MoneyFactory.fromBigDecimal( new BigDecimal( res ) );
         }
@@ -265,6 +458,7 @@ class MoneyLong extends AbstractMoney {
                 return new MoneyLong( unscaledLong.m_units, unscaledLong.m_precision + m_precision ).normalize();
         }
         //slow path via BD. We may still get MoneyLong on this branch if the unscaledRes precision is too high.
+        MoneyMetrics.record( MoneyMetrics.FallbackSite.MULTIPLY_DOUBLE, m_precision, -1 );
         return MoneyFactory.fromBigDecimal(
                 toBigDecimal().multiply( new BigDecimal( multiplier, MathContext.DECIMAL64 ), MathContext.DECIMAL64 ) );
     }
@@ -289,7 +483,10 @@ class MoneyLong extends AbstractMoney {
      */
     public Money divide( final double divider, final int precision ) {
         if ( precision > MoneyFactory.MAX_ALLOWED_PRECISION )
+        {
+            MoneyMetrics.record( MoneyMetrics.FallbackSite.DIVIDE_PRECISION, m_precision, precision );
             return new MoneyBigDecimal( toBigDecimal() ).divide( divider, precision );
+        }
         final double unscaledRes = m_units / divider;
         //We already have m_precision digits of precision. We need to take (precision-m_precision) digits
         //more from the unscaled result. Plus one more digit for rounding.
@@ -313,6 +510,49 @@ class MoneyLong extends AbstractMoney {
         return new MoneyLong( destRes, precision ).normalize();
     }
 
+    /**
+     * Divide the current object by the given <code>long</code> divider rounding the result with a given rounding mode.
+     * The result is calculated exactly in <code>long</code> arithmetic unless rescaled operands do not fit into
+     * <code>long</code>.
+     *
+     * @param divider   Divider
+     * @param precision Maximal precision to keep
+     * @param mode      Rounding mode applied to the digits after {@code precision}
+     * @return A new Money object normalized to the efficient representation if possible
+     */
+    public Money divide( final long divider, final int precision, final RoundingMode mode ) {
+        if ( divider == 0 )
+            throw new ArithmeticException( "Division by zero" );
+        MoneyFactory.checkPrecision( precision );
+        //units * 10^(precision - m_precision) / divider
+        long dividend = m_units;
+        long divisor = divider;
+        if ( precision > m_precision )
+        {
+            final long multiplier = MoneyFactory.MULTIPLIERS[ precision - m_precision ];
+            dividend = m_units * multiplier;
+            if ( !MoneyMath.multiplyFits( m_units, multiplier, dividend ) )
+                return divideSlow( divider, precision, mode );
+        }
+        else if ( precision < m_precision )
+        {
+            final long multiplier = MoneyFactory.MULTIPLIERS[ m_precision - precision ];
+            divisor = divider * multiplier;
+            if ( !MoneyMath.multiplyFits( divider, multiplier, divisor ) )
+                return divideSlow( divider, precision, mode );
+        }
+        //the only quotient which does not fit into long, also avoids abs(Long.MIN_VALUE) in rounding
+        if ( divisor == Long.MIN_VALUE || ( dividend == Long.MIN_VALUE && divisor == -1 ) )
+            return divideSlow( divider, precision, mode );
+        return new MoneyLong( round( dividend / divisor, dividend % divisor, divisor, mode ), precision ).normalize();
+    }
+
+    private Money divideSlow( final long divider, final int precision, final RoundingMode mode )
+    {
+        MoneyMetrics.record( MoneyMetrics.FallbackSite.DIVIDE_OVERFLOW, m_precision, precision );
+        return new MoneyBigDecimal( toBigDecimal() ).divide( divider, precision, mode );
+    }
+
     /**
      * Truncate the current value leaving no more than {@code maximalPrecision} signs after decimal point.
      * The number will be rounded towards closest digit (0-4 -> 0; 5-9 -> 1)
@@ -321,12 +561,74 @@ class MoneyLong extends AbstractMoney {
      * @return A new Money object normalized to the efficient representation if possible
      */
     public Money truncate( final int maximalPrecision ) {
+        return truncate( maximalPrecision, RoundingMode.HALF_UP );
+    }
+
+    /**
+     * Truncate the current value leaving no more than {@code maximalPrecision} signs after decimal point.
+     * Removed digits are rounded with a given rounding mode.
+     *
+     * @param maximalPrecision Required precision
+     * @param mode             Rounding mode
+     * @return A new Money object normalized to the efficient representation if possible
+     */
+    public Money truncate( final int maximalPrecision, final RoundingMode mode ) {
         if ( m_precision <= maximalPrecision )
             return this;
         MoneyFactory.checkPrecision( maximalPrecision );
 
-        //remove not needed digits
-        //we can multiply by floating point values here because we will round the result afterwards
-        return new MoneyLong( Math.round( m_units * MoneyFactory.MULTIPLIERS_NEG[ m_precision - maximalPrecision ] ), maximalPrecision ).normalize();
+        //remove not needed digits: exact quotient and remainder, no floating point rounding errors
+        final long divisor = MoneyFactory.MULTIPLIERS[ m_precision - maximalPrecision ];
+        return new MoneyLong( round( m_units / divisor, m_units % divisor, divisor, mode ), maximalPrecision ).normalize();
+    }
+
+    /**
+     * Round a result of integer division.
+     * @param quotient  {@code dividend / divisor}
+     * @param remainder {@code dividend % divisor}
+     * @param divisor   Divisor, not equal to zero or <code>Long.MIN_VALUE</code>
+     * @param mode      Rounding mode
+     * @return Rounded quotient
+     * @throws ArithmeticException If mode is <code>UNNECESSARY</code> and the remainder is not zero
+     */
+    static long round( final long quotient, final long remainder, final long divisor, final RoundingMode mode )
+    {
+        if ( remainder == 0 )
+            return quotient;
+        //sign of the exact result, quotient may be zero
+        final long sign = ( remainder ^ divisor ) < 0 ? -1 : 1;
+        final boolean increment;
+        switch ( mode )
+        {
+            case UP:
+                increment = true;
+                break;
+            case DOWN:
+                increment = false;
+                break;
+            case CEILING:
+                increment = sign > 0;
+                break;
+            case FLOOR:
+                increment = sign < 0;
+                break;
+            case UNNECESSARY:
+                throw new ArithmeticException( "Rounding necessary" );
+            default:
+            {
+                //compare the remainder with a half of the divisor, |remainder| < |divisor| so there is no overflow
+                final long absRemainder = Math.abs( remainder );
+                final long cmp = absRemainder - ( Math.abs( divisor ) - absRemainder );
+                if ( cmp != 0 )
+                    increment = cmp > 0;
+                else if ( mode == RoundingMode.HALF_UP )
+                    increment = true;
+                else if ( mode == RoundingMode.HALF_DOWN )
+                    increment = false;
+                else //HALF_EVEN
+                    increment = ( quotient & 1 ) != 0;
+            }
+        }
+        return increment ? quotient + sign : quotient;
     }
 }
@@ -0,0 +1,83 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * <p>
+ *  Hot arithmetic primitives which have JIT intrinsics in the newer JDKs. This version is written for Java 6.
+ * </p>
+ * <p>
+ *  Java 17+ version of this class is located in <code>src/main/java17</code> and is loaded from a multi-release jar.
+ *  Both versions must have the same set of methods with the same semantics.
+ * </p>
+ */
+final class MoneyMath {
+    private MoneyMath() {
+    }
+
+    /**
+     * Get the high 64 bits of a signed 128 bit product of two longs (the low 64 bits are {@code x * y}).
+     * @param x First multiplier
+     * @param y Second multiplier
+     * @return High 64 bits of a product
+     */
+    static long multiplyHigh( final long x, final long y )
+    {
+        //Hacker's Delight, 8-2: multiply 32 bit halves and propagate carries
+        final long x1 = x >> 32;
+        final long x2 = x & 0xFFFFFFFFL;
+        final long y1 = y >> 32;
+        final long y2 = y & 0xFFFFFFFFL;
+        final long z2 = x2 * y2;
+        final long t = x1 * y2 + ( z2 >>> 32 );
+        long z1 = t & 0xFFFFFFFFL;
+        final long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + ( z1 >> 32 );
+    }
+
+    /**
+     * Check if a product of two longs did not overflow
+     * @param x First multiplier
+     * @param y Second multiplier
+     * @param product {@code x * y}
+     * @return {@code true} if {@code product} is an exact product
+     */
+    static boolean multiplyFits( final long x, final long y, final long product )
+    {
+        //if both values fit in the 31 bits, they can not overflow
+        if ( ( ( Math.abs( x ) | Math.abs( y ) ) >>> 31 ) == 0 )
+            return true;
+        //check if we will get the original value back after division. It is not possible in case of overflow.
+        if ( y == 0 )
+            return true;
+        return product / y == x && !( x == Long.MIN_VALUE && y == -1 );
+    }
+
+    /**
+     * Check if a sum of two longs did not overflow
+     * @param x First summand
+     * @param y Second summand
+     * @param sum {@code x + y}
+     * @return {@code true} if {@code sum} is an exact sum
+     */
+    static boolean addFits( final long x, final long y, final long sum )
+    {
+        //overflow - sign of a result differs from signs of both operands
+        return ( ( x ^ sum ) & ( y ^ sum ) ) >= 0;
+    }
+}
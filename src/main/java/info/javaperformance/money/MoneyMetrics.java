@@ -0,0 +1,195 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *  Counters of operations which fall back from the efficient <code>long</code> based path
+ *  to <code>BigDecimal</code> calculations. High counters point to inputs which make the application slow.
+ * </p>
+ * <p>
+ *  Metrics are disabled by default. Start JVM with <code>-Dinfo.javaperformance.money.metrics=true</code>
+ *  to enable them. The flag is read once into a <code>static final</code> field, so JIT removes all counting
+ *  code when metrics are disabled.
+ * </p>
+ * <p>
+ *  Counters are striped by thread in order to avoid contention between threads falling back at the same time.
+ *  Use {@link #snapshot()} to read them, for example to export them into your metrics system.
+ * </p>
+ * <p>
+ *  On Java 11+ every fallback is also reported as an <code>info.javaperformance.money.Fallback</code>
+ *  Java Flight Recorder event regardless of this flag. Events are not created unless a recording is running.
+ * </p>
+ */
+public final class MoneyMetrics {
+    /** System property enabling the metrics */
+    public static final String PROPERTY = "info.javaperformance.money.metrics";
+    /** True if metrics are collected */
+    public static final boolean ENABLED = Boolean.getBoolean( PROPERTY );
+
+    /**
+     * Operations which may fall back to BigDecimal calculations
+     */
+    public enum FallbackSite
+    {
+        /** <code>MoneyLong.add</code> overflow */
+        ADD_OVERFLOW,
+        /** <code>MoneyLong.multiply(long)</code> overflow calculated via BigInteger */
+        MULTIPLY_LONG_OVERFLOW,
+        /** <code>MoneyLong.multiply(double)</code> result calculated via BigDecimal */
+        MULTIPLY_DOUBLE,
+        /** <code>MoneyLong.divide</code> with precision above <code>MoneyFactory.MAX_ALLOWED_PRECISION</code> */
+        DIVIDE_PRECISION,
+        /** <code>MoneyLong.divide(long, int, RoundingMode)</code> operands overflowed after rescaling */
+        DIVIDE_OVERFLOW,
+        /** <code>MoneyFactory.fromString</code> returned <code>MoneyBigDecimal</code> */
+        FROM_STRING,
+        /** <code>MoneyFactory.fromDouble</code> returned <code>MoneyBigDecimal</code> */
+        FROM_DOUBLE,
+        /**
+         * <code>MoneyFactory.fromBigDecimal</code> returned <code>MoneyBigDecimal</code>. This method is also used
+         * by other slow paths, so such fallbacks are counted twice: by their own site and here.
+         */
+        FROM_BIG_DECIMAL
+    }
+
+    private static final FallbackSite[] SITES = FallbackSite.values();
+    /** Number of longs in a cache line */
+    private static final int LINE = 8;
+    /** Distance between stripes: all counters of a stripe plus a cache line of padding */
+    private static final int STRIDE = ( SITES.length + LINE - 1 ) / LINE * LINE + LINE;
+    /** Number of stripes, a power of 2 */
+    private static final int STRIPES = stripes( Runtime.getRuntime().availableProcessors() );
+
+    private static final AtomicLongArray COUNTERS = new AtomicLongArray( STRIPES * STRIDE + LINE );
+
+    private MoneyMetrics() {
+    }
+
+    private static int stripes( final int cpus )
+    {
+        //twice the number of CPUs, but no more than 64
+        return Integer.highestOneBit( Math.min( Math.max( cpus, 1 ), 32 ) ) << 1;
+    }
+
+    /**
+     * Record a fallback: count it if metrics are enabled and emit a JFR event if it is recorded (Java 11+).
+     * @param site Fallback site
+     * @param precision Precision of the first operand
+     * @param otherPrecision Precision of the second operand or -1 if not applicable
+     */
+    static void record( final FallbackSite site, final int precision, final int otherPrecision )
+    {
+        if ( ENABLED )
+            increment( site );
+        MoneyEvents.fallback( site, precision, otherPrecision );
+    }
+
+    /**
+     * Count a fallback regardless of the flag
+     * @param site Fallback site
+     */
+    static void increment( final FallbackSite site )
+    {
+        final long id = Thread.currentThread().getId();
+        final int stripe = (int) ( id ^ ( id >>> 32 ) ) & ( STRIPES - 1 );
+        //leading padding keeps the first stripe away from the array header
+        COUNTERS.incrementAndGet( LINE + stripe * STRIDE + site.ordinal() );
+    }
+
+    /**
+     * Get current values of all counters. Counters updated concurrently with this call may be either included
+     * into a snapshot or not.
+     * @return A snapshot of counters
+     */
+    public static Snapshot snapshot()
+    {
+        final long[] counts = new long[ SITES.length ];
+        for ( int stripe = 0; stripe < STRIPES; ++stripe )
+            for ( int i = 0; i < counts.length; ++i )
+                counts[ i ] += COUNTERS.get( LINE + stripe * STRIDE + i );
+        return new Snapshot( counts );
+    }
+
+    /**
+     * Reset all counters to zero. Fallbacks recorded concurrently with this call may be lost.
+     */
+    public static void reset()
+    {
+        for ( int i = 0; i < COUNTERS.length(); ++i )
+            COUNTERS.set( i, 0 );
+    }
+
+    /**
+     * Immutable values of all counters at some moment
+     */
+    public static final class Snapshot
+    {
+        private final long[] m_counts;
+
+        private Snapshot( final long[] counts ) {
+            m_counts = counts;
+        }
+
+        /**
+         * @param site Fallback site
+         * @return Number of fallbacks at a given site
+         */
+        public long get( final FallbackSite site )
+        {
+            return m_counts[ site.ordinal() ];
+        }
+
+        /**
+         * @return Number of fallbacks at all sites
+         */
+        public long total()
+        {
+            long res = 0;
+            for ( final long count : m_counts )
+                res += count;
+            return res;
+        }
+
+        /**
+         * Get the difference between this snapshot and an earlier one
+         * @param earlier Earlier snapshot
+         * @return Number of fallbacks which happened between two snapshots
+         */
+        public Snapshot minus( final Snapshot earlier )
+        {
+            final long[] res = new long[ m_counts.length ];
+            for ( int i = 0; i < res.length; ++i )
+                res[ i ] = m_counts[ i ] - earlier.m_counts[ i ];
+            return new Snapshot( res );
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder( "{" );
+            for ( int i = 0; i < m_counts.length; ++i )
+            {
+                if ( i > 0 )
+                    sb.append( ", " );
+                sb.append( SITES[ i ] ).append( '=' ).append( m_counts[ i ] );
+            }
+            return sb.append( '}' ).toString();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * <p>
+ *  Open addressing map from money values to non-null objects with linear probing. Keys are stored as normalized
+ *  units and precision in primitive arrays, so no objects are allocated per entry, and keys are compared by their
+ *  numerical values: 1.5, 1.50 and an equal <code>MoneyBigDecimal</code> are the same key. Unlike
+ *  <code>HashMap&lt;Money, V&gt;</code>, lookups by raw units (see {@link #get(long, int)}) do not allocate.
+ * </p>
+ * <p>
+ *  Keys must be representable as <code>long</code> units with precision up to
+ *  <code>MoneyFactory.MAX_ALLOWED_PRECISION</code>, otherwise methods taking <code>Money</code> keys throw
+ *  <code>ArithmeticException</code>.
+ * </p>
+ * <p>
+ *  Iterate over cells from 0 to {@link #capacity()} and skip cells for which {@link #valueAt(int)} returns null.
+ *  This class is not thread safe.
+ * </p>
+ * @param <V> Value type
+ */
+public final class MoneyObjectMap<V> {
+    /** Multiplier for Fibonacci hashing */
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    private static final float FILL_FACTOR = 0.5f;
+
+    /** Normalized units of keys */
+    private long[] m_units;
+    /** Precisions of normalized keys */
+    private byte[] m_precisions;
+    private Object[] m_values;
+    /** Number of bits in a cell index */
+    private int m_bits;
+    private int m_mask;
+    private int m_size;
+    /** Resize the map after its size reaches this threshold */
+    private int m_threshold;
+
+    /**
+     * Create a map
+     * @param expectedSize Expected number of entries. A map grows if there are more entries.
+     */
+    public MoneyObjectMap( final int expectedSize )
+    {
+        int bits = 4;
+        while ( ( 1 << bits ) * FILL_FACTOR < expectedSize )
+            ++bits;
+        allocate( bits );
+    }
+
+    private void allocate( final int bits )
+    {
+        m_bits = bits;
+        m_mask = ( 1 << bits ) - 1;
+        m_units = new long[ 1 << bits ];
+        m_precisions = new byte[ 1 << bits ];
+        m_values = new Object[ 1 << bits ];
+        m_threshold = ( int ) ( ( 1 << bits ) * FILL_FACTOR );
+    }
+
+    /**
+     * Hash a normalized key. Top 4 bits of units are replaced by the precision, which is always less than 16.
+     */
+    private int cell( final long units, final int precision )
+    {
+        return ( int ) ( ( ( units << 4 | precision ) * PHI ) >>> ( 64 - m_bits ) );
+    }
+
+    /**
+     * Get units of a normalized key
+     * @param units Currency units
+     * @param precision Precision of units
+     * @param normalizedPrecision Precision of a normalized key
+     * @return Units of a normalized key
+     */
+    private static long normalizedUnits( final long units, final int precision, final int normalizedPrecision )
+    {
+        return precision == normalizedPrecision ? units : units / MoneyFactory.MULTIPLIERS[ precision - normalizedPrecision ];
+    }
+
+    /**
+     * Find a cell of a key
+     * @return Cell index or -1 if there is no such key
+     */
+    private int find( final long units, final int precision )
+    {
+        MoneyFactory.checkPrecision( precision );
+        final int normPrecision = MoneyLong.normalizedPrecision( units, precision );
+        final long normUnits = normalizedUnits( units, precision, normPrecision );
+        int idx = cell( normUnits, normPrecision );
+        while ( m_values[ idx ] != null )
+        {
+            if ( m_units[ idx ] == normUnits && m_precisions[ idx ] == normPrecision )
+                return idx;
+            idx = ( idx + 1 ) & m_mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param key Key
+     * @return Value associated with a key or null
+     * @throws ArithmeticException If a key does not fit into <code>long</code> units
+     */
+    public V get( final Money key )
+    {
+        final MoneyLong lng = MoneyFactory.toMoneyLong( key );
+        return get( lng.getUnits(), lng.getPrecision() );
+    }
+
+    /**
+     * Get a value by a key defined by its units and precision. This method does not allocate any objects.
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return Value associated with a key or null
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    @SuppressWarnings( "unchecked" )
+    public V get( final long units, final int precision )
+    {
+        final int idx = find( units, precision );
+        return idx == -1 ? null : ( V ) m_values[ idx ];
+    }
+
+    /**
+     * @param key Key
+     * @return True if this map contains a key
+     * @throws ArithmeticException If a key does not fit into <code>long</code> units
+     */
+    public boolean containsKey( final Money key )
+    {
+        return get( key ) != null;
+    }
+
+    /**
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return True if this map contains a key
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public boolean containsKey( final long units, final int precision )
+    {
+        return find( units, precision ) != -1;
+    }
+
+    /**
+     * @param key Key
+     * @param value New value, must be not null
+     * @return Previous value associated with a key or null
+     * @throws ArithmeticException If a key does not fit into <code>long</code> units
+     */
+    public V put( final Money key, final V value )
+    {
+        final MoneyLong lng = MoneyFactory.toMoneyLong( key );
+        return put( lng.getUnits(), lng.getPrecision(), value );
+    }
+
+    /**
+     * Associate a value with a key defined by its units and precision. This method does not allocate any objects
+     * unless a map grows.
+     * @param units Currency units
+     * @param precision Precision of units
+     * @param value New value, must be not null
+     * @return Previous value associated with a key or null
+     * @throws IllegalArgumentException If precision is invalid or a value is null
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( final long units, final int precision, final V value )
+    {
+        if ( value == null )
+            throw new IllegalArgumentException( "Null values are not supported" );
+        MoneyFactory.checkPrecision( precision );
+        final int normPrecision = MoneyLong.normalizedPrecision( units, precision );
+        final long normUnits = normalizedUnits( units, precision, normPrecision );
+        int idx = cell( normUnits, normPrecision );
+        Object val;
+        while ( ( val = m_values[ idx ] ) != null )
+        {
+            if ( m_units[ idx ] == normUnits && m_precisions[ idx ] == normPrecision )
+            {
+                m_values[ idx ] = value;
+                return ( V ) val;
+            }
+            idx = ( idx + 1 ) & m_mask;
+        }
+        m_units[ idx ] = normUnits;
+        m_precisions[ idx ] = ( byte ) normPrecision;
+        m_values[ idx ] = value;
+        if ( ++m_size >= m_threshold )
+            rehash();
+        return null;
+    }
+
+    /**
+     * @param key Key
+     * @return Removed value or null
+     * @throws ArithmeticException If a key does not fit into <code>long</code> units
+     */
+    public V remove( final Money key )
+    {
+        final MoneyLong lng = MoneyFactory.toMoneyLong( key );
+        return remove( lng.getUnits(), lng.getPrecision() );
+    }
+
+    /**
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return Removed value or null
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( final long units, final int precision )
+    {
+        final int idx = find( units, precision );
+        if ( idx == -1 )
+            return null;
+        final V val = ( V ) m_values[ idx ];
+        shiftKeys( idx );
+        --m_size;
+        return val;
+    }
+
+    /**
+     * Backward shift deletion: move entries of a probe chain into the freed cell, so no tombstones are needed
+     * @param pos Freed cell
+     */
+    private void shiftKeys( int pos )
+    {
+        int last;
+        while ( true )
+        {
+            last = pos;
+            pos = ( pos + 1 ) & m_mask;
+            while ( true )
+            {
+                if ( m_values[ pos ] == null )
+                {
+                    m_values[ last ] = null;
+                    return;
+                }
+                final int slot = cell( m_units[ pos ], m_precisions[ pos ] );
+                //move an entry only if its home cell is not located cyclically in (last, pos]
+                if ( last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos )
+                    break;
+                pos = ( pos + 1 ) & m_mask;
+            }
+            m_units[ last ] = m_units[ pos ];
+            m_precisions[ last ] = m_precisions[ pos ];
+            m_values[ last ] = m_values[ pos ];
+        }
+    }
+
+    private void rehash()
+    {
+        final long[] oldUnits = m_units;
+        final byte[] oldPrecisions = m_precisions;
+        final Object[] oldValues = m_values;
+        allocate( m_bits + 1 );
+        for ( int i = 0; i < oldUnits.length; ++i )
+        {
+            if ( oldValues[ i ] != null )
+            {
+                int idx = cell( oldUnits[ i ], oldPrecisions[ i ] );
+                while ( m_values[ idx ] != null )
+                    idx = ( idx + 1 ) & m_mask;
+                m_units[ idx ] = oldUnits[ i ];
+                m_precisions[ idx ] = oldPrecisions[ i ];
+                m_values[ idx ] = oldValues[ i ];
+            }
+        }
+    }
+
+    /**
+     * @return Number of entries in this map
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * @return True if this map has no entries
+     */
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < m_values.length; ++i )
+            m_values[ i ] = null;
+        m_size = 0;
+    }
+
+    /**
+     * Iteration support: number of cells to scan
+     * @return Number of cells in this map
+     */
+    public int capacity()
+    {
+        return m_values.length;
+    }
+
+    /**
+     * Iteration support: get normalized units of a key stored in a cell. Valid only if {@link #valueAt(int)}
+     * returns non-null for this cell.
+     * @param cell Cell index
+     * @return Key units
+     */
+    public long unitsAt( final int cell )
+    {
+        return m_units[ cell ];
+    }
+
+    /**
+     * Iteration support: get precision of a key stored in a cell. Valid only if {@link #valueAt(int)}
+     * returns non-null for this cell.
+     * @param cell Cell index
+     * @return Key precision
+     */
+    public int precisionAt( final int cell )
+    {
+        return m_precisions[ cell ];
+    }
+
+    /**
+     * Iteration support: get a key stored in a cell as a Money object. Valid only if {@link #valueAt(int)}
+     * returns non-null for this cell.
+     * @param cell Cell index
+     * @return Key
+     */
+    public Money keyAt( final int cell )
+    {
+        return new MoneyLong( m_units[ cell ], m_precisions[ cell ] );
+    }
+
+    /**
+     * Iteration support: get a value stored in a cell
+     * @param cell Cell index
+     * @return Value or null for a free cell
+     */
+    @SuppressWarnings( "unchecked" )
+    public V valueAt( final int cell )
+    {
+        return ( V ) m_values[ cell ];
+    }
+}
@@ -0,0 +1,177 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * <p>
+ *  Set of money values compared by their numerical values. It is a {@link MoneyObjectMap} with a shared marker
+ *  value, so it has the same properties: values are stored as normalized units and precision in primitive arrays
+ *  and operations on raw units do not allocate any objects.
+ * </p>
+ * <p>
+ *  Iterate over cells from 0 to {@link #capacity()} and skip cells for which {@link #isUsed(int)} returns false.
+ *  This class is not thread safe.
+ * </p>
+ */
+public final class MoneySet {
+    private final MoneyObjectMap<Boolean> m_map;
+
+    /**
+     * Create a set
+     * @param expectedSize Expected number of values. A set grows if there are more values.
+     */
+    public MoneySet( final int expectedSize )
+    {
+        m_map = new MoneyObjectMap<Boolean>( expectedSize );
+    }
+
+    /**
+     * @param value Value to add
+     * @return True if this set did not contain a value
+     * @throws ArithmeticException If a value does not fit into <code>long</code> units
+     */
+    public boolean add( final Money value )
+    {
+        return m_map.put( value, Boolean.TRUE ) == null;
+    }
+
+    /**
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return True if this set did not contain a value
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public boolean add( final long units, final int precision )
+    {
+        return m_map.put( units, precision, Boolean.TRUE ) == null;
+    }
+
+    /**
+     * @param value Value
+     * @return True if this set contains a value
+     * @throws ArithmeticException If a value does not fit into <code>long</code> units
+     */
+    public boolean contains( final Money value )
+    {
+        return m_map.containsKey( value );
+    }
+
+    /**
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return True if this set contains a value
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public boolean contains( final long units, final int precision )
+    {
+        return m_map.containsKey( units, precision );
+    }
+
+    /**
+     * @param value Value to remove
+     * @return True if this set contained a value
+     * @throws ArithmeticException If a value does not fit into <code>long</code> units
+     */
+    public boolean remove( final Money value )
+    {
+        return m_map.remove( value ) != null;
+    }
+
+    /**
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return True if this set contained a value
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public boolean remove( final long units, final int precision )
+    {
+        return m_map.remove( units, precision ) != null;
+    }
+
+    /**
+     * @return Number of values in this set
+     */
+    public int size()
+    {
+        return m_map.size();
+    }
+
+    /**
+     * @return True if this set has no values
+     */
+    public boolean isEmpty()
+    {
+        return m_map.isEmpty();
+    }
+
+    /**
+     * Remove all values
+     */
+    public void clear()
+    {
+        m_map.clear();
+    }
+
+    /**
+     * Iteration support: number of cells to scan
+     * @return Number of cells in this set
+     */
+    public int capacity()
+    {
+        return m_map.capacity();
+    }
+
+    /**
+     * Iteration support: check if a cell contains a value
+     * @param cell Cell index
+     * @return True if a cell contains a value
+     */
+    public boolean isUsed( final int cell )
+    {
+        return m_map.valueAt( cell ) != null;
+    }
+
+    /**
+     * Iteration support: get normalized units of a value stored in a cell
+     * @param cell Cell index, {@link #isUsed(int)} must return true for it
+     * @return Value units
+     */
+    public long unitsAt( final int cell )
+    {
+        return m_map.unitsAt( cell );
+    }
+
+    /**
+     * Iteration support: get precision of a value stored in a cell
+     * @param cell Cell index, {@link #isUsed(int)} must return true for it
+     * @return Value precision
+     */
+    public int precisionAt( final int cell )
+    {
+        return m_map.precisionAt( cell );
+    }
+
+    /**
+     * Iteration support: get a value stored in a cell as a Money object
+     * @param cell Cell index, {@link #isUsed(int)} must return true for it
+     * @return Value
+     */
+    public Money valueAt( final int cell )
+    {
+        return m_map.keyAt( cell );
+    }
+}
@@ -0,0 +1,378 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  Sorting and searching for money values.
+ * </p>
+ * <p>
+ *  Sorting maps every value to a <code>long</code> key - its units rescaled to the highest precision in the sorted
+ *  range - and sorts keys with LSD radix sort. Values which keys do not fit into <code>long</code> are kept in a
+ *  fallback bucket, which is sorted by comparisons. Such values are larger by absolute value than any value with
+ *  a key, so for units/precision columns they are simply placed before or after all other values depending on
+ *  their sign.
+ * </p>
+ */
+public final class MoneySort {
+    /** Ranges shorter than this are sorted by an insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private MoneySort() {
+    }
+
+    /**
+     * Sort values defined by units and precision columns in ascending numerical order. Both columns are reordered.
+     * @param units Currency units
+     * @param precisions Precisions
+     */
+    public static void sort( final long[] units, final int[] precisions )
+    {
+        sort( units, precisions, 0, units.length );
+    }
+
+    /**
+     * Sort a range of values defined by units and precision columns in ascending numerical order.
+     * Both columns are reordered.
+     * @param units Currency units
+     * @param precisions Precisions
+     * @param fromIndex First index to sort (inclusive)
+     * @param toIndex Last index to sort (exclusive)
+     */
+    public static void sort( final long[] units, final int[] precisions, final int fromIndex, final int toIndex )
+    {
+        checkRange( units.length, fromIndex, toIndex );
+        final int n = toIndex - fromIndex;
+        if ( n < INSERTION_SORT_THRESHOLD )
+        {
+            insertionSort( units, precisions, fromIndex, toIndex );
+            return;
+        }
+        int scale = 0;
+        for ( int i = fromIndex; i < toIndex; ++i )
+            scale = Math.max( scale, precisions[ i ] );
+
+        //keys of normal values are added from the start, fallback indices - from the end of idx
+        final long[] keys = new long[ n ];
+        final int[] idx = new int[ n ];
+        int normal = 0;
+        int fallback = n;
+        for ( int i = fromIndex; i < toIndex; ++i )
+        {
+            final long key = MoneyLong.rescaleUp( units[ i ], precisions[ i ], scale );
+            if ( key == Long.MIN_VALUE )
+                idx[ --fallback ] = i;
+            else
+            {
+                keys[ normal ] = key;
+                idx[ normal++ ] = i;
+            }
+        }
+        radixSort( keys, idx, normal );
+        if ( fallback < n )
+            mergeSort( idx, new int[ n ], fallback, n, units, precisions );
+        //negative fallback values go first
+        int split = fallback;
+        while ( split < n && units[ idx[ split ] ] < 0 )
+            ++split;
+
+        final long[] resUnits = new long[ n ];
+        final int[] resPrecisions = new int[ n ];
+        int pos = 0;
+        for ( int i = fallback; i < split; ++i, ++pos )
+        {
+            resUnits[ pos ] = units[ idx[ i ] ];
+            resPrecisions[ pos ] = precisions[ idx[ i ] ];
+        }
+        for ( int i = 0; i < normal; ++i, ++pos )
+        {
+            resUnits[ pos ] = units[ idx[ i ] ];
+            resPrecisions[ pos ] = precisions[ idx[ i ] ];
+        }
+        for ( int i = split; i < n; ++i, ++pos )
+        {
+            resUnits[ pos ] = units[ idx[ i ] ];
+            resPrecisions[ pos ] = precisions[ idx[ i ] ];
+        }
+        System.arraycopy( resUnits, 0, units, fromIndex, n );
+        System.arraycopy( resPrecisions, 0, precisions, fromIndex, n );
+    }
+
+    /**
+     * Sort Money objects in ascending numerical order. Result is the same as of <code>Arrays.sort</code>, but
+     * <code>MoneyLong</code> values are not compared with each other.
+     * @param values Values to sort
+     */
+    public static void sort( final Money[] values )
+    {
+        sort( values, 0, values.length );
+    }
+
+    /**
+     * Sort a range of Money objects in ascending numerical order. Result is the same as of <code>Arrays.sort</code>,
+     * but <code>MoneyLong</code> values are not compared with each other.
+     * @param values Values to sort
+     * @param fromIndex First index to sort (inclusive)
+     * @param toIndex Last index to sort (exclusive)
+     */
+    public static void sort( final Money[] values, final int fromIndex, final int toIndex )
+    {
+        checkRange( values.length, fromIndex, toIndex );
+        final int n = toIndex - fromIndex;
+        if ( n < INSERTION_SORT_THRESHOLD )
+        {
+            Arrays.sort( values, fromIndex, toIndex );
+            return;
+        }
+        int scale = 0;
+        for ( int i = fromIndex; i < toIndex; ++i )
+            if ( values[ i ] instanceof MoneyLong )
+                scale = Math.max( scale, ( ( MoneyLong ) values[ i ] ).getPrecision() );
+
+        final long[] keys = new long[ n ];
+        final int[] idx = new int[ n ];
+        int normal = 0;
+        int fallback = n;
+        for ( int i = fromIndex; i < toIndex; ++i )
+        {
+            final Money val = values[ i ];
+            if ( val instanceof MoneyLong )
+            {
+                final MoneyLong lng = ( MoneyLong ) val;
+                final long key = MoneyLong.rescaleUp( lng.getUnits(), lng.getPrecision(), scale );
+                if ( key == Long.MIN_VALUE )
+                    idx[ --fallback ] = i;
+                else
+                {
+                    keys[ normal ] = key;
+                    idx[ normal++ ] = i;
+                }
+            }
+            else
+            {
+                final BigInteger key = getKey( val.toBigDecimal(), scale );
+                if ( key == null )
+                    idx[ --fallback ] = i;
+                else
+                {
+                    keys[ normal ] = key.longValue();
+                    idx[ normal++ ] = i;
+                }
+            }
+        }
+        radixSort( keys, idx, normal );
+
+        final Money[] rest = new Money[ n - fallback ];
+        for ( int i = fallback; i < n; ++i )
+            rest[ i - fallback ] = values[ idx[ i ] ];
+        Arrays.sort( rest );
+
+        //merge sorted keyed values with the sorted fallback values
+        final Money[] res = new Money[ n ];
+        int i = 0;
+        int j = 0;
+        int pos = 0;
+        while ( i < normal && j < rest.length )
+        {
+            if ( values[ idx[ i ] ].compareTo( rest[ j ] ) <= 0 )
+                res[ pos++ ] = values[ idx[ i++ ] ];
+            else
+                res[ pos++ ] = rest[ j++ ];
+        }
+        while ( i < normal )
+            res[ pos++ ] = values[ idx[ i++ ] ];
+        while ( j < rest.length )
+            res[ pos++ ] = rest[ j++ ];
+        System.arraycopy( res, 0, values, fromIndex, n );
+    }
+
+    /**
+     * Get unscaled value of a BigDecimal in a given scale if it fits into <code>long</code>
+     * @return Unscaled value or null
+     */
+    private static BigInteger getKey( final BigDecimal value, final int scale )
+    {
+        BigDecimal val = value;
+        if ( val.scale() > scale )
+        {
+            val = val.stripTrailingZeros();
+            if ( val.scale() > scale )
+                return null;
+        }
+        final BigInteger unscaled = val.setScale( scale ).unscaledValue();
+        return unscaled.bitLength() < 64 ? unscaled : null;
+    }
+
+    /**
+     * Search a sorted range of values defined by units and precision columns for the specified value.
+     * @param units Currency units
+     * @param precisions Precisions
+     * @param fromIndex First index to search (inclusive)
+     * @param toIndex Last index to search (exclusive)
+     * @param keyUnits Units of a value to search for
+     * @param keyPrecision Precision of a value to search for
+     * @return Index of a value numerically equal to the search key if it is present in the range; otherwise,
+     * <code>(-(insertion point) - 1)</code> - the same as <code>Arrays.binarySearch</code>
+     */
+    public static int binarySearch( final long[] units, final int[] precisions, final int fromIndex, final int toIndex,
+                                    final long keyUnits, final int keyPrecision )
+    {
+        checkRange( units.length, fromIndex, toIndex );
+        int low = fromIndex;
+        int high = toIndex - 1;
+        while ( low <= high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            final int cmp = MoneyLong.compare( units[ mid ], precisions[ mid ], keyUnits, keyPrecision );
+            if ( cmp < 0 )
+                low = mid + 1;
+            else if ( cmp > 0 )
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -( low + 1 );
+    }
+
+    private static void checkRange( final int length, final int fromIndex, final int toIndex )
+    {
+        if ( fromIndex > toIndex )
+            throw new IllegalArgumentException( "fromIndex(" + fromIndex + ") > toIndex(" + toIndex + ")" );
+        if ( fromIndex < 0 )
+            throw new ArrayIndexOutOfBoundsException( fromIndex );
+        if ( toIndex > length )
+            throw new ArrayIndexOutOfBoundsException( toIndex );
+    }
+
+    private static void insertionSort( final long[] units, final int[] precisions, final int fromIndex, final int toIndex )
+    {
+        for ( int i = fromIndex + 1; i < toIndex; ++i )
+        {
+            final long u = units[ i ];
+            final int p = precisions[ i ];
+            int j = i - 1;
+            while ( j >= fromIndex && MoneyLong.compare( units[ j ], precisions[ j ], u, p ) > 0 )
+            {
+                units[ j + 1 ] = units[ j ];
+                precisions[ j + 1 ] = precisions[ j ];
+                --j;
+            }
+            units[ j + 1 ] = u;
+            precisions[ j + 1 ] = p;
+        }
+    }
+
+    /**
+     * Sort indices of values in the given range of <code>idx</code> by values they point to
+     */
+    private static void mergeSort( final int[] idx, final int[] tmp, final int from, final int to,
+                                   final long[] units, final int[] precisions )
+    {
+        if ( to - from < INSERTION_SORT_THRESHOLD )
+        {
+            for ( int i = from + 1; i < to; ++i )
+            {
+                final int cur = idx[ i ];
+                int j = i - 1;
+                while ( j >= from && MoneyLong.compare( units[ idx[ j ] ], precisions[ idx[ j ] ], units[ cur ], precisions[ cur ] ) > 0 )
+                {
+                    idx[ j + 1 ] = idx[ j ];
+                    --j;
+                }
+                idx[ j + 1 ] = cur;
+            }
+            return;
+        }
+        final int mid = ( from + to ) >>> 1;
+        mergeSort( idx, tmp, from, mid, units, precisions );
+        mergeSort( idx, tmp, mid, to, units, precisions );
+        int i = from;
+        int j = mid;
+        int pos = from;
+        while ( i < mid && j < to )
+        {
+            if ( MoneyLong.compare( units[ idx[ i ] ], precisions[ idx[ i ] ], units[ idx[ j ] ], precisions[ idx[ j ] ] ) <= 0 )
+                tmp[ pos++ ] = idx[ i++ ];
+            else
+                tmp[ pos++ ] = idx[ j++ ];
+        }
+        while ( i < mid )
+            tmp[ pos++ ] = idx[ i++ ];
+        while ( j < to )
+            tmp[ pos++ ] = idx[ j++ ];
+        System.arraycopy( tmp, from, idx, from, to - from );
+    }
+
+    /**
+     * LSD radix sort of signed keys by bytes. Indices are reordered alongside keys. Passes where all keys share
+     * the same byte are skipped, so narrow key ranges are sorted in a few passes.
+     * @param keys Keys, they will be modified by this method
+     * @param idx Indices associated with keys
+     * @param n Number of keys to sort
+     */
+    static void radixSort( final long[] keys, final int[] idx, final int n )
+    {
+        if ( n < 2 )
+            return;
+        //flip the sign bit, so signed order becomes unsigned order
+        for ( int i = 0; i < n; ++i )
+            keys[ i ] ^= Long.MIN_VALUE;
+        long[] srcKeys = keys;
+        int[] srcIdx = idx;
+        long[] dstKeys = new long[ n ];
+        int[] dstIdx = new int[ n ];
+        final int[] counts = new int[ 256 ];
+        for ( int shift = 0; shift < 64; shift += 8 )
+        {
+            Arrays.fill( counts, 0 );
+            for ( int i = 0; i < n; ++i )
+                ++counts[ ( int ) ( srcKeys[ i ] >>> shift ) & 0xFF ];
+            if ( counts[ ( int ) ( srcKeys[ 0 ] >>> shift ) & 0xFF ] == n )
+                continue; //all keys have the same byte
+            int sum = 0;
+            for ( int b = 0; b < counts.length; ++b )
+            {
+                final int c = counts[ b ];
+                counts[ b ] = sum;
+                sum += c;
+            }
+            for ( int i = 0; i < n; ++i )
+            {
+                final int pos = counts[ ( int ) ( srcKeys[ i ] >>> shift ) & 0xFF ]++;
+                dstKeys[ pos ] = srcKeys[ i ];
+                dstIdx[ pos ] = srcIdx[ i ];
+            }
+            final long[] tk = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tk;
+            final int[] ti = srcIdx;
+            srcIdx = dstIdx;
+            dstIdx = ti;
+        }
+        if ( srcKeys != keys )
+        {
+            System.arraycopy( srcKeys, 0, keys, 0, n );
+            System.arraycopy( srcIdx, 0, idx, 0, n );
+        }
+        for ( int i = 0; i < n; ++i )
+            keys[ i ] ^= Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * <p>
+ *  Mutable accumulator of count, exact sum, minimum and maximum of money values. Values are accepted either as
+ *  <code>Money</code> objects or as units/precision pairs from primitive columns. Unlike a chain of
+ *  <code>Money.add</code> calls, accumulation does not allocate any objects for values with <code>long</code> units
+ *  and never loses precision: units are summed in 128 bit accumulators per precision.
+ * </p>
+ * <p>
+ *  Two accumulators may be combined exactly, so this class has the same shape as
+ *  <code>java.util.LongSummaryStatistics</code> and may be used as a mutable reduction container on Java 8+:
+ *  <pre>
+ *  MoneyStatistics stats = stream.collect( MoneyStatistics::new, MoneyStatistics::accept, MoneyStatistics::combine );
+ *  Collector&lt;Money, ?, MoneyStatistics&gt; summarizing =
+ *          Collector.of( MoneyStatistics::new, MoneyStatistics::accept, MoneyStatistics::combine );
+ *  Map&lt;String, MoneyStatistics&gt; byBook = trades.collect( Collectors.groupingBy( Trade::getBook,
+ *          Collectors.mapping( Trade::getAmount, summarizing ) ) );
+ *  </pre>
+ *  Primitive columns are split evenly for parallel streams by <code>IntStream.range</code>:
+ *  <pre>
+ *  IntStream.range( 0, units.length ).parallel().collect( MoneyStatistics::new,
+ *          ( s, i ) -&gt; s.accept( units[ i ], precisions[ i ] ), MoneyStatistics::combine );
+ *  </pre>
+ * </p>
+ * <p>
+ *  This class is not thread safe.
+ * </p>
+ */
+public final class MoneyStatistics {
+    private final ProductSum m_sum = new ProductSum();
+    private long m_count;
+
+    /** Extremes among values with long units */
+    private boolean m_hasLong;
+    private long m_minUnits;
+    private int m_minPrecision;
+    private long m_maxUnits;
+    private int m_maxPrecision;
+    /** Extremes among BigDecimal values, null if there were none */
+    private BigDecimal m_minBig;
+    private BigDecimal m_maxBig;
+
+    /**
+     * Add a value
+     * @param value Value to add
+     */
+    public void accept( final Money value )
+    {
+        if ( value instanceof MoneyLong )
+        {
+            final MoneyLong lng = ( MoneyLong ) value;
+            accept( lng.getUnits(), lng.getPrecision() );
+        }
+        else
+            accept( value.toBigDecimal() );
+    }
+
+    /**
+     * Add a value defined by its units and precision
+     * @param units Currency units
+     * @param precision Precision of units
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public void accept( final long units, final int precision )
+    {
+        m_sum.add( units, precision );
+        ++m_count;
+        if ( !m_hasLong )
+        {
+            m_hasLong = true;
+            m_minUnits = m_maxUnits = units;
+            m_minPrecision = m_maxPrecision = precision;
+        }
+        else if ( MoneyLong.compare( units, precision, m_minUnits, m_minPrecision ) < 0 )
+        {
+            m_minUnits = units;
+            m_minPrecision = precision;
+        }
+        else if ( MoneyLong.compare( units, precision, m_maxUnits, m_maxPrecision ) > 0 )
+        {
+            m_maxUnits = units;
+            m_maxPrecision = precision;
+        }
+    }
+
+    private void accept( final BigDecimal value )
+    {
+        m_sum.add( value );
+        ++m_count;
+        if ( m_minBig == null || value.compareTo( m_minBig ) < 0 )
+            m_minBig = value;
+        if ( m_maxBig == null || value.compareTo( m_maxBig ) > 0 )
+            m_maxBig = value;
+    }
+
+    /**
+     * Add all values of another accumulator to this one. The other accumulator is not changed.
+     * @param other Other accumulator
+     * @return This object, so this method may be used both as a combiner of <code>Stream.collect</code>
+     * and as a combiner of <code>Collector.of</code>
+     */
+    public MoneyStatistics combine( final MoneyStatistics other )
+    {
+        m_sum.merge( other.m_sum );
+        m_count += other.m_count;
+        if ( other.m_hasLong )
+        {
+            if ( !m_hasLong || MoneyLong.compare( other.m_minUnits, other.m_minPrecision, m_minUnits, m_minPrecision ) < 0 )
+            {
+                m_minUnits = other.m_minUnits;
+                m_minPrecision = other.m_minPrecision;
+            }
+            if ( !m_hasLong || MoneyLong.compare( other.m_maxUnits, other.m_maxPrecision, m_maxUnits, m_maxPrecision ) > 0 )
+            {
+                m_maxUnits = other.m_maxUnits;
+                m_maxPrecision = other.m_maxPrecision;
+            }
+            m_hasLong = true;
+        }
+        if ( other.m_minBig != null )
+        {
+            if ( m_minBig == null || other.m_minBig.compareTo( m_minBig ) < 0 )
+                m_minBig = other.m_minBig;
+            if ( m_maxBig == null || other.m_maxBig.compareTo( m_maxBig ) > 0 )
+                m_maxBig = other.m_maxBig;
+        }
+        return this;
+    }
+
+    /**
+     * @return Number of added values
+     */
+    public long getCount()
+    {
+        return m_count;
+    }
+
+    /**
+     * @return Exact sum of added values (zero if there were none), normalized to the efficient representation if possible
+     */
+    public Money getSum()
+    {
+        return m_sum.toMoney();
+    }
+
+    /**
+     * @return The smallest added value normalized to the efficient representation or null if there were none
+     */
+    public Money getMin()
+    {
+        if ( !m_hasLong )
+            return m_minBig == null ? null : MoneyFactory.fromBigDecimalExact( m_minBig );
+        final MoneyLong min = new MoneyLong( m_minUnits, m_minPrecision );
+        return m_minBig != null && m_minBig.compareTo( min.toBigDecimal() ) < 0 ? MoneyFactory.fromBigDecimalExact( m_minBig ) : min.normalize();
+    }
+
+    /**
+     * @return The largest added value normalized to the efficient representation or null if there were none
+     */
+    public Money getMax()
+    {
+        if ( !m_hasLong )
+            return m_maxBig == null ? null : MoneyFactory.fromBigDecimalExact( m_maxBig );
+        final MoneyLong max = new MoneyLong( m_maxUnits, m_maxPrecision );
+        return m_maxBig != null && m_maxBig.compareTo( max.toBigDecimal() ) > 0 ? MoneyFactory.fromBigDecimalExact( m_maxBig ) : max.normalize();
+    }
+
+    /**
+     * Get an average of added values. The exact sum is divided by the count exactly, the result is rounded
+     * with <code>HALF_UP</code> mode.
+     * @param precision Maximal precision to keep
+     * @return An average or null if there were no values
+     * @throws IllegalArgumentException If precision is invalid
+     */
+    public Money getAverage( final int precision )
+    {
+        return m_count == 0 ? null : getSum().divide( m_count, precision, RoundingMode.HALF_UP );
+    }
+
+    @Override
+    public String toString() {
+        return "MoneyStatistics{count=" + m_count + ", sum=" + getSum() + ", min=" + getMin() + ", max=" + getMax() + '}';
+    }
+}
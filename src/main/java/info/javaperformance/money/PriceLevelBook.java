@@ -0,0 +1,307 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *  Array backed map from price levels of a {@link TickGrid} to non-null objects. Levels are stored in an array
+ *  indexed by a level index relative to the lowest index covered by the array, so a lookup is an array access.
+ *  The array is recentered or grows in both directions when a level outside of it is added. This structure is
+ *  intended for dense price ladders of order books: its memory usage is proportional to the largest distance
+ *  between the lowest and the highest used levels rather than to the number of levels.
+ * </p>
+ * <p>
+ *  Methods taking prices require them to be exactly on the grid. Iterate over levels from {@link #lowestIndex()}
+ *  with {@link #higherIndex(int)} or from {@link #highestIndex()} with {@link #lowerIndex(int)} until
+ *  {@link #NONE} is returned. This class is not thread safe.
+ * </p>
+ * @param <V> Value type
+ */
+public final class PriceLevelBook<V> {
+    /** Returned by navigation methods if there is no such level. It is not a valid level index. */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private final TickGrid m_grid;
+    private Object[] m_levels;
+    /** Level index of {@code m_levels[ 0 ]} */
+    private long m_offset;
+    private int m_size;
+    /** The lowest and the highest used level indices, valid only if {@code m_size > 0} */
+    private int m_low;
+    private int m_high;
+
+    /**
+     * Create a book
+     * @param grid Price grid
+     * @param expectedLevels Expected distance between the lowest and the highest level. A book grows if it is larger.
+     */
+    public PriceLevelBook( final TickGrid grid, final int expectedLevels )
+    {
+        m_grid = grid;
+        m_levels = new Object[ Math.max( expectedLevels, 16 ) ];
+    }
+
+    /**
+     * @return Price grid of this book
+     */
+    public TickGrid getGrid()
+    {
+        return m_grid;
+    }
+
+    /**
+     * @param index Level index
+     * @return Value of a level or null
+     */
+    @SuppressWarnings( "unchecked" )
+    public V get( final int index )
+    {
+        final long pos = index - m_offset;
+        return pos >= 0 && pos < m_levels.length ? ( V ) m_levels[ ( int ) pos ] : null;
+    }
+
+    /**
+     * Get a value of a level by its price. This method does not allocate any objects.
+     * @param units Price units
+     * @param precision Precision of units
+     * @return Value of a level or null
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If a price is not on the grid
+     */
+    public V get( final long units, final int precision )
+    {
+        return get( m_grid.indexOf( units, precision, RoundingMode.UNNECESSARY ) );
+    }
+
+    /**
+     * @param index Level index
+     * @param value New value, must be not null
+     * @return Previous value of a level or null
+     * @throws IllegalArgumentException If a value is null or an index is {@link #NONE}
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( final int index, final V value )
+    {
+        if ( value == null )
+            throw new IllegalArgumentException( "Null values are not supported" );
+        if ( index == NONE )
+            throw new IllegalArgumentException( "Level index " + NONE + " is reserved" );
+        long pos = index - m_offset;
+        if ( m_size == 0 && ( pos < 0 || pos >= m_levels.length ) )
+        {
+            //an empty book is centered around the first level
+            m_offset = ( long ) index - m_levels.length / 2;
+            pos = index - m_offset;
+        }
+        else if ( pos < 0 || pos >= m_levels.length )
+        {
+            grow( index );
+            pos = index - m_offset;
+        }
+        final Object prev = m_levels[ ( int ) pos ];
+        m_levels[ ( int ) pos ] = value;
+        if ( prev == null )
+        {
+            if ( m_size++ == 0 )
+                m_low = m_high = index;
+            else if ( index < m_low )
+                m_low = index;
+            else if ( index > m_high )
+                m_high = index;
+        }
+        return ( V ) prev;
+    }
+
+    /**
+     * Set a value of a level by its price. This method does not allocate any objects unless a book grows.
+     * @param units Price units
+     * @param precision Precision of units
+     * @param value New value, must be not null
+     * @return Previous value of a level or null
+     * @throws IllegalArgumentException If precision is invalid or a value is null
+     * @throws ArithmeticException If a price is not on the grid
+     */
+    public V put( final long units, final int precision, final V value )
+    {
+        return put( m_grid.indexOf( units, precision, RoundingMode.UNNECESSARY ), value );
+    }
+
+    /**
+     * Move levels, so they cover all used levels and a new index. If these levels take at most a half of the array,
+     * they are recentered in the same array, so a book drifting in one direction does not grow while the distance
+     * between its levels stays the same. Otherwise levels are copied into an array which is at least twice longer.
+     */
+    private void grow( final int index )
+    {
+        final long low = Math.min( index, m_low );
+        final long high = Math.max( index, m_high );
+        final int from = ( int ) ( m_low - m_offset );
+        final int count = m_high - m_low + 1;
+        if ( high - low + 1 <= m_levels.length / 2 )
+        {
+            final long offset = low - ( m_levels.length - ( high - low + 1 ) ) / 2;
+            final int to = ( int ) ( m_low - offset );
+            //arraycopy supports overlapping ranges, then the part of the old range left behind is cleared
+            System.arraycopy( m_levels, from, m_levels, to, count );
+            if ( to > from )
+                Arrays.fill( m_levels, from, Math.min( from + count, to ), null );
+            else
+                Arrays.fill( m_levels, Math.max( to + count, from ), from + count, null );
+            m_offset = offset;
+            return;
+        }
+        final long length = Math.max( high - low + 1, m_levels.length * 2L );
+        if ( length > Integer.MAX_VALUE - 8 )
+            throw new IllegalStateException( "Too many price levels between " + low + " and " + high );
+        final Object[] levels = new Object[ ( int ) length ];
+        //keep a spare room on both sides
+        final long offset = low - ( length - ( high - low + 1 ) ) / 2;
+        System.arraycopy( m_levels, from, levels, ( int ) ( m_low - offset ), count );
+        m_levels = levels;
+        m_offset = offset;
+    }
+
+    /**
+     * @param index Level index
+     * @return Removed value or null
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( final int index )
+    {
+        final long pos = index - m_offset;
+        if ( pos < 0 || pos >= m_levels.length || m_levels[ ( int ) pos ] == null )
+            return null;
+        final V prev = ( V ) m_levels[ ( int ) pos ];
+        m_levels[ ( int ) pos ] = null;
+        if ( --m_size > 0 )
+        {
+            if ( index == m_low )
+                m_low = higherIndex( index );
+            else if ( index == m_high )
+                m_high = lowerIndex( index );
+        }
+        return prev;
+    }
+
+    /**
+     * @param units Price units
+     * @param precision Precision of units
+     * @return Removed value or null
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If a price is not on the grid
+     */
+    public V remove( final long units, final int precision )
+    {
+        return remove( m_grid.indexOf( units, precision, RoundingMode.UNNECESSARY ) );
+    }
+
+    /**
+     * @return Index of the lowest used level
+     * @throws NoSuchElementException If this book is empty
+     */
+    public int lowestIndex()
+    {
+        if ( m_size == 0 )
+            throw new NoSuchElementException( "Book is empty" );
+        return m_low;
+    }
+
+    /**
+     * @return Index of the highest used level
+     * @throws NoSuchElementException If this book is empty
+     */
+    public int highestIndex()
+    {
+        if ( m_size == 0 )
+            throw new NoSuchElementException( "Book is empty" );
+        return m_high;
+    }
+
+    /**
+     * @param index Level index, it may be not used
+     * @return Index of the lowest used level strictly above a given one or {@link #NONE}
+     */
+    public int higherIndex( final int index )
+    {
+        if ( m_size == 0 || index >= m_high )
+            return NONE;
+        if ( index < m_low )
+            return m_low;
+        //m_high is used, so the scan stops at it
+        int pos = ( int ) ( index - m_offset ) + 1;
+        while ( m_levels[ pos ] == null )
+            ++pos;
+        return ( int ) ( pos + m_offset );
+    }
+
+    /**
+     * @param index Level index, it may be not used
+     * @return Index of the highest used level strictly below a given one or {@link #NONE}
+     */
+    public int lowerIndex( final int index )
+    {
+        if ( m_size == 0 || index <= m_low )
+            return NONE;
+        if ( index > m_high )
+            return m_high;
+        //m_low is used, so the scan stops at it
+        int pos = ( int ) ( index - m_offset ) - 1;
+        while ( m_levels[ pos ] == null )
+            --pos;
+        return ( int ) ( pos + m_offset );
+    }
+
+    /**
+     * @return Number of used levels
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * @return True if this book has no levels
+     */
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+
+    /**
+     * @return Length of the level array
+     */
+    int capacity()
+    {
+        return m_levels.length;
+    }
+
+    /**
+     * Remove all levels. A book keeps its allocated array.
+     */
+    public void clear()
+    {
+        if ( m_size > 0 )
+        {
+            Arrays.fill( m_levels, ( int ) ( m_low - m_offset ), ( int ) ( m_high - m_offset ) + 1, null );
+            m_size = 0;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * <p>
+ *  Exact accumulator for sums of {@code quantity * units} products. Products are calculated in 128 bits and added
+ *  to a 128 bit accumulator of their precision, so values are rescaled only once - when the final result is built.
+ * </p>
+ * <p>
+ *  A 128 bit accumulator may overflow only after adding several products close to {@code 2^126}. In this case
+ *  its value is moved into a {@code BigInteger} and accumulation starts again. Values which do not have
+ *  <code>long</code> units are summed separately as {@code BigDecimal}.
+ * </p>
+ */
+final class ProductSum {
+    private static final int BUCKETS = MoneyFactory.MAX_ALLOWED_PRECISION + 1;
+
+    private final long[] m_high = new long[ BUCKETS ];
+    private final long[] m_low = new long[ BUCKETS ];
+    /** Overflowed accumulators, allocated lazily */
+    private BigInteger[] m_spilled;
+    /** Bit per used precision */
+    private int m_used;
+    /** Sum of BigDecimal values, null if there were none */
+    private BigDecimal m_other;
+
+    /**
+     * Add a single value
+     * @param units Currency units
+     * @param precision Precision of units
+     * @return This object
+     */
+    ProductSum add( final long units, final int precision )
+    {
+        if ( precision < 0 || precision >= BUCKETS )
+            throw new IllegalArgumentException( "Invalid precision: " + precision );
+        add( precision, units >> 63, units );
+        return this;
+    }
+
+    /**
+     * Add a value which may not fit into the 128 bit accumulators
+     * @param value Value to add
+     * @return This object
+     */
+    ProductSum add( final BigDecimal value )
+    {
+        m_other = m_other == null ? value : m_other.add( value );
+        return this;
+    }
+
+    /**
+     * Add products of a range of values
+     * @param quantities Quantities
+     * @param units Currency units
+     * @param precisions Precisions of units
+     * @param fromIndex First index (inclusive)
+     * @param toIndex Last index (exclusive)
+     * @return This object
+     */
+    ProductSum add( final long[] quantities, final long[] units, final int[] precisions, final int fromIndex, final int toIndex )
+    {
+        for ( int i = fromIndex; i < toIndex; ++i )
+        {
+            final int precision = precisions[ i ];
+            if ( precision < 0 || precision >= BUCKETS )
+                throw new IllegalArgumentException( "Invalid precision at index " + i + ": " + precision );
+            final long q = quantities[ i ];
+            final long u = units[ i ];
+            add( precision, MoneyMath.multiplyHigh( q, u ), q * u );
+        }
+        return this;
+    }
+
+    /**
+     * Add a 128 bit value to an accumulator
+     * @param bucket Precision of a value
+     * @param high High word, {@code |high| <= 2^62} (always true for a product of two longs)
+     * @param low Low word
+     */
+    private void add( final int bucket, final long high, final long low )
+    {
+        m_used |= 1 << bucket;
+        final long oldLow = m_low[ bucket ];
+        final long oldHigh = m_high[ bucket ];
+        final long resLow = oldLow + low;
+        //unsigned comparison: the low word has wrapped around
+        final long carry = ( resLow ^ Long.MIN_VALUE ) < ( low ^ Long.MIN_VALUE ) ? 1 : 0;
+        //|high| <= 2^62, so adding a carry can not overflow
+        final long addend = high + carry;
+        final long resHigh = oldHigh + addend;
+        if ( MoneyMath.addFits( oldHigh, addend, resHigh ) )
+        {
+            m_low[ bucket ] = resLow;
+            m_high[ bucket ] = resHigh;
+        }
+        else
+        {
+            spill( bucket, oldHigh, oldLow );
+            m_low[ bucket ] = low;
+            m_high[ bucket ] = high;
+        }
+    }
+
+    private void spill( final int bucket, final long high, final long low )
+    {
+        if ( m_spilled == null )
+            m_spilled = new BigInteger[ BUCKETS ];
+        final BigInteger value = toBigInteger( high, low );
+        m_spilled[ bucket ] = m_spilled[ bucket ] == null ? value : m_spilled[ bucket ].add( value );
+    }
+
+    private static BigInteger toBigInteger( final long high, final long low )
+    {
+        final byte[] bytes = new byte[ 16 ];
+        Math128.write( high, low, bytes, 0 );
+        return new BigInteger( bytes );
+    }
+
+    /**
+     * Add another sum to this one
+     * @param other Other sum
+     * @return This object
+     */
+    ProductSum merge( final ProductSum other )
+    {
+        if ( other.m_other != null )
+            add( other.m_other );
+        m_used |= other.m_used;
+        for ( int bucket = 0; bucket < BUCKETS; ++bucket )
+        {
+            if ( ( other.m_used & ( 1 << bucket ) ) == 0 )
+                continue;
+            final long high = other.m_high[ bucket ];
+            if ( ( high >> 62 ) == ( high >> 63 ) ) //|high| <= 2^62
+                add( bucket, high, other.m_low[ bucket ] );
+            else
+                spill( bucket, high, other.m_low[ bucket ] );
+            if ( other.m_spilled != null && other.m_spilled[ bucket ] != null )
+            {
+                if ( m_spilled == null )
+                    m_spilled = new BigInteger[ BUCKETS ];
+                m_spilled[ bucket ] = m_spilled[ bucket ] == null ? other.m_spilled[ bucket ] : m_spilled[ bucket ].add( other.m_spilled[ bucket ] );
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Build an exact result
+     * @return Sum of all products in the highest used precision, normalized to the efficient representation if possible
+     */
+    Money toMoney()
+    {
+        if ( m_used == 0 )
+            return m_other == null ? MoneyFactory.fromUnits( 0, 0 ) : MoneyFactory.fromBigDecimalExact( m_other );
+        final int precision = 31 - Integer.numberOfLeadingZeros( m_used );
+        //the most common case - a single precision without overflows
+        if ( m_used == 1 << precision && m_spilled == null && m_other == null
+                && Math128.fitsInLong( m_high[ precision ], m_low[ precision ] ) )
+            return new MoneyLong( m_low[ precision ], precision ).normalize();
+
+        BigInteger sum = BigInteger.ZERO;
+        for ( int bucket = 0; bucket <= precision; ++bucket )
+        {
+            if ( ( m_used & ( 1 << bucket ) ) == 0 )
+                continue;
+            BigInteger value = toBigInteger( m_high[ bucket ], m_low[ bucket ] );
+            if ( m_spilled != null && m_spilled[ bucket ] != null )
+                value = value.add( m_spilled[ bucket ] );
+            if ( bucket < precision )
+                value = value.multiply( BigInteger.valueOf( MoneyFactory.MULTIPLIERS[ precision - bucket ] ) );
+            sum = sum.add( value );
+        }
+        if ( m_other != null )
+            return MoneyFactory.fromBigDecimalExact( new BigDecimal( sum, precision ).add( m_other ) );
+        if ( sum.bitLength() < 64 )
+            return new MoneyLong( sum.longValue(), precision ).normalize();
+        //a sum may have trailing zeros which bring it back into long range
+        return MoneyFactory.fromBigDecimalExact( new BigDecimal( sum, precision ) );
+    }
+}
@@ -0,0 +1,297 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Container for clustered partitions: sorted runs of set bits. Runs never overlap or touch each other.
+ */
+final class RunContainer extends Container {
+    /** Pairs of (start inclusive, end exclusive) */
+    private int[] m_runs;
+    /** Number of runs */
+    private int m_count;
+    private int m_cardinality;
+
+    private RunContainer( final int bits, final int runs )
+    {
+        super( bits );
+        m_runs = new int[ Math.max( runs, 2 ) * 2 ];
+    }
+
+    static RunContainer copyOf( final Container src, final int runs )
+    {
+        final RunContainer res = new RunContainer( src.m_bits, runs );
+        for ( int i = src.nextSetBit( 0 ); i >= 0; i = src.nextSetBit( i + 1 ) )
+        {
+            final int end = src.nextClearBit( i );
+            res.append( i, end );
+            i = end;
+        }
+        return res;
+    }
+
+    private void append( final int start, final int end )
+    {
+        ensureCapacity( m_count + 1 );
+        m_runs[ 2 * m_count ] = start;
+        m_runs[ 2 * m_count + 1 ] = end;
+        ++m_count;
+        m_cardinality += end - start;
+    }
+
+    private void ensureCapacity( final int runs )
+    {
+        if ( runs * 2 > m_runs.length )
+            m_runs = Arrays.copyOf( m_runs, Math.max( runs * 2, m_runs.length * 2 ) );
+    }
+
+    private int start( final int run )
+    {
+        return m_runs[ 2 * run ];
+    }
+
+    private int end( final int run )
+    {
+        return m_runs[ 2 * run + 1 ];
+    }
+
+    /**
+     * @param pos Position
+     * @return Index of the last run starting at or before {@code pos} or -1
+     */
+    private int floor( final int pos )
+    {
+        int lo = 0;
+        int hi = m_count - 1;
+        while ( lo <= hi )
+        {
+            final int mid = ( lo + hi ) >>> 1;
+            if ( start( mid ) <= pos )
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+
+    /**
+     * Replace {@code removed} runs starting at {@code at} with {@code added} runs (the new runs must be written by a caller)
+     */
+    private void replace( final int at, final int removed, final int added )
+    {
+        ensureCapacity( m_count - removed + added );
+        System.arraycopy( m_runs, 2 * ( at + removed ), m_runs, 2 * ( at + added ), 2 * ( m_count - at - removed ) );
+        m_count += added - removed;
+    }
+
+    /**
+     * Switch to another representation if runs are not efficient anymore
+     */
+    private Container check()
+    {
+        if ( m_count > runMaxSize() || 2 * m_count >= m_cardinality )
+            return optimize( this, m_cardinality, m_count );
+        return this;
+    }
+
+    boolean get( final int pos )
+    {
+        final int run = floor( pos );
+        return run >= 0 && pos < end( run );
+    }
+
+    Container set( final int pos )
+    {
+        final int run = floor( pos );
+        if ( run >= 0 && pos < end( run ) )
+            return this;
+        final boolean extendsPrev = run >= 0 && end( run ) == pos;
+        final boolean extendsNext = run + 1 < m_count && start( run + 1 ) == pos + 1;
+        ++m_cardinality;
+        if ( extendsPrev && extendsNext )
+        {
+            //merge 2 runs
+            m_runs[ 2 * run + 1 ] = end( run + 1 );
+            replace( run + 1, 1, 0 );
+            return this;
+        }
+        if ( extendsPrev )
+            m_runs[ 2 * run + 1 ] = pos + 1;
+        else if ( extendsNext )
+            m_runs[ 2 * run + 2 ] = pos;
+        else
+        {
+            replace( run + 1, 0, 1 );
+            m_runs[ 2 * run + 2 ] = pos;
+            m_runs[ 2 * run + 3 ] = pos + 1;
+            return check();
+        }
+        return this;
+    }
+
+    Container clear( final int pos )
+    {
+        return clear( pos, pos + 1 );
+    }
+
+    Container clear( final int from, final int to )
+    {
+        if ( from >= to )
+            return this;
+        //runs [lo, hi) intersect with the range
+        int lo = floor( from );
+        if ( lo < 0 || end( lo ) <= from )
+            ++lo;
+        final int hi = floor( to - 1 ) + 1;
+        if ( lo >= hi )
+            return this;
+        final int leftStart = start( lo );
+        final int rightEnd = end( hi - 1 );
+        for ( int i = lo; i < hi; ++i )
+            m_cardinality -= Math.min( end( i ), to ) - Math.max( start( i ), from );
+        final boolean hasLeft = leftStart < from;
+        final boolean hasRight = rightEnd > to;
+        final int added = ( hasLeft ? 1 : 0 ) + ( hasRight ? 1 : 0 );
+        replace( lo, hi - lo, added );
+        int idx = 2 * lo;
+        if ( hasLeft )
+        {
+            m_runs[ idx++ ] = leftStart;
+            m_runs[ idx++ ] = from;
+        }
+        if ( hasRight )
+        {
+            m_runs[ idx++ ] = to;
+            m_runs[ idx ] = rightEnd;
+        }
+        return check();
+    }
+
+    int nextSetBit( final int from )
+    {
+        final int run = floor( from );
+        if ( run >= 0 && from < end( run ) )
+            return from;
+        return run + 1 < m_count ? start( run + 1 ) : -1;
+    }
+
+    int nextClearBit( final int from )
+    {
+        final int run = floor( from );
+        return run >= 0 && from < end( run ) ? end( run ) : from;
+    }
+
+    int cardinality()
+    {
+        return m_cardinality;
+    }
+
+    int cardinality( final int from, final int to )
+    {
+        int res = 0;
+        for ( int i = Math.max( floor( from ), 0 ); i < m_count && start( i ) < to; ++i )
+            res += Math.max( 0, Math.min( end( i ), to ) - Math.max( start( i ), from ) );
+        return res;
+    }
+
+    Container copy()
+    {
+        final RunContainer res = new RunContainer( m_bits, m_count );
+        System.arraycopy( m_runs, 0, res.m_runs, 0, 2 * m_count );
+        res.m_count = m_count;
+        res.m_cardinality = m_cardinality;
+        return res;
+    }
+
+    int toWords( final long[] words )
+    {
+        for ( int i = 0; i < m_count; ++i )
+        {
+            final int end = end( i );
+            for ( int j = start( i ); j < end; )
+            {
+                final int word = j >> 6;
+                final int wordEnd = Math.min( end, ( word + 1 ) << 6 );
+                final int len = wordEnd - j;
+                words[ word ] |= len == 64 ? -1L : ( ( 1L << len ) - 1 ) << ( j & 63 );
+                j = wordEnd;
+            }
+        }
+        return m_count > 0 ? ( ( end( m_count - 1 ) - 1 ) >> 6 ) + 1 : 0;
+    }
+
+    void write( final ByteBuffer buf )
+    {
+        buf.put( ( byte ) TYPE_RUNS );
+        MoneyCodec.writeVarint( m_count, buf );
+        //gap after the previous run and run length
+        int prevEnd = 0;
+        for ( int i = 0; i < m_count; ++i )
+        {
+            MoneyCodec.writeVarint( start( i ) - prevEnd, buf );
+            MoneyCodec.writeVarint( end( i ) - start( i ), buf );
+            prevEnd = end( i );
+        }
+    }
+
+    static Container read( final int bits, final ByteBuffer buf )
+    {
+        final RunContainer res = new RunContainer( bits, 0 );
+        final int count = readInt( buf, res.partitionSize() );
+        res.ensureCapacity( count );
+        int prevEnd = 0;
+        for ( int i = 0; i < count; ++i )
+        {
+            final int gap = readInt( buf, res.partitionSize() - prevEnd );
+            final int start = prevEnd + gap;
+            final int length = readInt( buf, res.partitionSize() - start );
+            //runs must not be empty or touch each other
+            if ( length == 0 || ( gap == 0 && i > 0 ) )
+                throw new IllegalArgumentException( "Malformed container: invalid run " + i );
+            final int end = start + length;
+            res.append( start, end );
+            prevEnd = end;
+        }
+        return res;
+    }
+
+    int encodedLengthBound()
+    {
+        //type + count + (gap, length) per run
+        return 6 + 10 * m_count;
+    }
+
+    long memoryUsage()
+    {
+        return 32 + 4L * m_runs.length;
+    }
+
+    boolean forEach( final long base, final LongProcedure proc )
+    {
+        for ( int i = 0; i < m_count; ++i )
+        {
+            final int end = end( i );
+            for ( int j = start( i ); j < end; ++j )
+                if ( !proc.forEntry( base + j ) )
+                    return false;
+        }
+        return true;
+    }
+}
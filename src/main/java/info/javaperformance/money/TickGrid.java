@@ -0,0 +1,293 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * <p>
+ *  Price grid defined by a tick size and a base price: grid prices are {@code base + index * tickSize} for any
+ *  <code>int</code> index. This class maps prices to level indices and back, which covers "round to tick",
+ *  "next tick up/down" and "index of a price level" operations of order books.
+ * </p>
+ * <p>
+ *  The tick size and the base are stored as <code>long</code> units in the grid precision (the larger of their
+ *  normalized precisions), so all operations on raw units are exact and do not allocate any objects. Only prices
+ *  which overflow <code>long</code> after rescaling to a common precision are processed via BigDecimal.
+ * </p>
+ * <p>
+ *  This class is immutable and thread safe.
+ * </p>
+ */
+public final class TickGrid {
+    /** Tick size units in grid precision, always positive */
+    private final long m_tick;
+    /** Base price units in grid precision */
+    private final long m_base;
+    private final int m_precision;
+
+    /**
+     * Create a grid with a zero base price
+     * @param tickSize Tick size, must be positive
+     * @throws IllegalArgumentException If a tick size is not positive
+     * @throws ArithmeticException If a tick size does not fit into <code>long</code> units
+     */
+    public TickGrid( final Money tickSize )
+    {
+        this( tickSize, MoneyFactory.fromUnits( 0, 0 ) );
+    }
+
+    /**
+     * Create a grid
+     * @param tickSize Tick size, must be positive
+     * @param base Price of a level with index 0
+     * @throws IllegalArgumentException If a tick size is not positive
+     * @throws ArithmeticException If a tick size or a base do not fit into <code>long</code> units in a common precision
+     */
+    public TickGrid( final Money tickSize, final Money base )
+    {
+        final MoneyLong tick = MoneyFactory.toMoneyLong( tickSize );
+        final MoneyLong bs = MoneyFactory.toMoneyLong( base );
+        if ( tick.getUnits() <= 0 )
+            throw new IllegalArgumentException( "Tick size must be positive: " + tickSize );
+        final int tickPrecision = MoneyLong.normalizedPrecision( tick.getUnits(), tick.getPrecision() );
+        final int basePrecision = MoneyLong.normalizedPrecision( bs.getUnits(), bs.getPrecision() );
+        m_precision = Math.max( tickPrecision, basePrecision );
+        m_tick = rescale( tick.getUnits(), tick.getPrecision(), m_precision );
+        m_base = rescale( bs.getUnits(), bs.getPrecision(), m_precision );
+    }
+
+    /**
+     * Rescale units which are known to be divisible by a power of 10 if precision decreases
+     * @throws ArithmeticException On overflow
+     */
+    private static long rescale( final long units, final int precision, final int newPrecision )
+    {
+        if ( newPrecision <= precision )
+            return units / MoneyFactory.MULTIPLIERS[ precision - newPrecision ];
+        final long mul = MoneyFactory.MULTIPLIERS[ newPrecision - precision ];
+        final long res = units * mul;
+        if ( !MoneyMath.multiplyFits( units, mul, res ) )
+            throw new ArithmeticException( "Value does not fit into long units with precision " + newPrecision );
+        return res;
+    }
+
+    private static boolean subtractFits( final long x, final long y, final long diff )
+    {
+        //overflow - operands have different signs and a result sign differs from the first operand
+        return ( ( x ^ y ) & ( x ^ diff ) ) >= 0;
+    }
+
+    /**
+     * @return Grid precision: number of digits after decimal point in {@link #unitsAt(int)} results
+     */
+    public int getPrecision()
+    {
+        return m_precision;
+    }
+
+    /**
+     * @return Tick size
+     */
+    public Money getTickSize()
+    {
+        return MoneyFactory.fromUnits( m_tick, m_precision );
+    }
+
+    /**
+     * @return Price of a level with index 0
+     */
+    public Money getBase()
+    {
+        return MoneyFactory.fromUnits( m_base, m_precision );
+    }
+
+    /**
+     * Get a level index of a price. Prices between grid levels are rounded with a given rounding mode: for example,
+     * <code>FLOOR</code> returns the highest level at or below a price.
+     * @param units Price units
+     * @param precision Precision of units
+     * @param mode Rounding mode, <code>UNNECESSARY</code> requires a price to be exactly on the grid
+     * @return Level index
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If a price is not on the grid and mode is <code>UNNECESSARY</code> or
+     *                             if an index does not fit into <code>int</code>
+     */
+    public int indexOf( final long units, final int precision, final RoundingMode mode )
+    {
+        return toIndex( index( units, precision, mode ) );
+    }
+
+    /**
+     * Get a level index of a price. See {@link #indexOf(long, int, RoundingMode)}.
+     * @param price Price
+     * @param mode Rounding mode
+     * @return Level index
+     * @throws ArithmeticException If a price is not on the grid and mode is <code>UNNECESSARY</code>,
+     *                             if an index does not fit into <code>int</code> or if a price does not fit into
+     *                             <code>long</code> units
+     */
+    public int indexOf( final Money price, final RoundingMode mode )
+    {
+        final MoneyLong lng = MoneyFactory.toMoneyLong( price );
+        return indexOf( lng.getUnits(), lng.getPrecision(), mode );
+    }
+
+    /**
+     * Get an index of the lowest level strictly above a price ("next tick up")
+     * @param units Price units
+     * @param precision Precision of units
+     * @return Level index
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If an index does not fit into <code>int</code>
+     */
+    public int indexAbove( final long units, final int precision )
+    {
+        return toIndex( index( units, precision, RoundingMode.FLOOR ) + 1 );
+    }
+
+    /**
+     * Get an index of the highest level strictly below a price ("next tick down")
+     * @param units Price units
+     * @param precision Precision of units
+     * @return Level index
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If an index does not fit into <code>int</code>
+     */
+    public int indexBelow( final long units, final int precision )
+    {
+        return toIndex( index( units, precision, RoundingMode.CEILING ) - 1 );
+    }
+
+    /**
+     * Check if a price is a grid level price
+     * @param units Price units
+     * @param precision Precision of units
+     * @return True if a price is exactly on the grid
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If a price is more than <code>Long.MAX_VALUE</code> ticks away from the base
+     */
+    public boolean isOnGrid( final long units, final int precision )
+    {
+        return index( units, precision, RoundingMode.FLOOR ) == index( units, precision, RoundingMode.CEILING );
+    }
+
+    /**
+     * Get a level price as units in grid precision (see {@link #getPrecision()})
+     * @param index Level index
+     * @return Price units
+     * @throws ArithmeticException If a price does not fit into <code>long</code>
+     */
+    public long unitsAt( final int index )
+    {
+        final long offset = index * m_tick;
+        final long res = m_base + offset;
+        if ( !MoneyMath.multiplyFits( index, m_tick, offset ) || !MoneyMath.addFits( m_base, offset, res ) )
+            throw new ArithmeticException( "Price of level " + index + " does not fit into long units" );
+        return res;
+    }
+
+    /**
+     * @param index Level index
+     * @return Level price
+     * @throws ArithmeticException If a price does not fit into <code>long</code> units
+     */
+    public Money priceAt( final int index )
+    {
+        return MoneyFactory.fromUnits( unitsAt( index ), m_precision );
+    }
+
+    /**
+     * Round a price to the grid ("round to tick")
+     * @param units Price units
+     * @param precision Precision of units
+     * @param mode Rounding mode
+     * @return Units of a rounded price in grid precision (see {@link #getPrecision()})
+     * @throws IllegalArgumentException If precision is invalid
+     * @throws ArithmeticException If a price is not on the grid and mode is <code>UNNECESSARY</code> or if
+     *                             a rounded price is too far from the base
+     */
+    public long roundUnits( final long units, final int precision, final RoundingMode mode )
+    {
+        return unitsAt( indexOf( units, precision, mode ) );
+    }
+
+    /**
+     * Round a price to the grid ("round to tick")
+     * @param price Price
+     * @param mode Rounding mode
+     * @return Rounded price
+     * @throws ArithmeticException If a price is not on the grid and mode is <code>UNNECESSARY</code>, if
+     *                             a rounded price is too far from the base or if a price does not fit into
+     *                             <code>long</code> units
+     */
+    public Money round( final Money price, final RoundingMode mode )
+    {
+        return priceAt( indexOf( price, mode ) );
+    }
+
+    private static int toIndex( final long index )
+    {
+        if ( index != ( int ) index )
+            throw new ArithmeticException( "Price level index " + index + " does not fit into int" );
+        return ( int ) index;
+    }
+
+    /**
+     * Calculate {@code (price - base) / tick} rounded to an integer
+     */
+    private long index( final long units, final int precision, final RoundingMode mode )
+    {
+        MoneyFactory.checkPrecision( precision );
+        final long dividend;
+        final long divisor;
+        if ( precision <= m_precision )
+        {
+            //rescale a price to grid precision
+            final long mul = MoneyFactory.MULTIPLIERS[ m_precision - precision ];
+            final long price = units * mul;
+            dividend = price - m_base;
+            divisor = m_tick;
+            if ( !MoneyMath.multiplyFits( units, mul, price ) || !subtractFits( price, m_base, dividend ) )
+                return indexSlow( units, precision, mode );
+        }
+        else
+        {
+            //rescale the grid to price precision
+            final long mul = MoneyFactory.MULTIPLIERS[ precision - m_precision ];
+            final long base = m_base * mul;
+            dividend = units - base;
+            divisor = m_tick * mul;
+            if ( !MoneyMath.multiplyFits( m_base, mul, base ) || !MoneyMath.multiplyFits( m_tick, mul, divisor )
+                    || !subtractFits( units, base, dividend ) )
+                return indexSlow( units, precision, mode );
+        }
+        return MoneyLong.round( dividend / divisor, dividend % divisor, divisor, mode );
+    }
+
+    private long indexSlow( final long units, final int precision, final RoundingMode mode )
+    {
+        return BigDecimal.valueOf( units, precision ).subtract( BigDecimal.valueOf( m_base, m_precision ) )
+                .divide( BigDecimal.valueOf( m_tick, m_precision ), 0, mode ).longValueExact();
+    }
+
+    @Override
+    public String toString() {
+        return "TickGrid{tickSize=" + getTickSize() + ", base=" + getBase() + '}';
+    }
+}
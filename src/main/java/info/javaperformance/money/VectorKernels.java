@@ -0,0 +1,77 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * <p>
+ *  SIMD kernels for {@link MoneyColumns}. The Vector API is not available before Java 17, so this version
+ *  is not used. Its kernels process an empty prefix, so callers stay correct even if they are called.
+ * </p>
+ * <p>
+ *  Java 17+ version of this class is located in <code>src/main/java17</code> and is loaded from a multi-release jar.
+ *  Every kernel processes a prefix of a column and returns its length, {@code MoneyColumns} processes the rest.
+ *  Kernels set bits in bitmasks which were cleared by a caller.
+ * </p>
+ */
+final class VectorKernels {
+    /** True if kernels may be called. Not a compile time constant, so callers are not bound to this version */
+    static final boolean AVAILABLE = available();
+
+    private VectorKernels() {
+    }
+
+    private static boolean available()
+    {
+        return false;
+    }
+
+    static int add( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        return 0;
+    }
+
+    static int add( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        return 0;
+    }
+
+    static int subtract( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        return 0;
+    }
+
+    static int subtract( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        return 0;
+    }
+
+    static int multiply( final long[] units, final long factor, final long min, final long max,
+                         final long[] dest, final long[] overflow, final int length )
+    {
+        return 0;
+    }
+
+    static int greaterThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        return 0;
+    }
+
+    static int lessThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ *  Java Flight Recorder events, Java 11+ version.
+ * </p>
+ * <p>
+ *  An event object does not escape when recording is off, so JIT removes its allocation and
+ *  the only remaining cost is the {@code isEnabled} check.
+ * </p>
+ */
+final class MoneyEvents {
+    private MoneyEvents() {
+    }
+
+    @Name( "info.javaperformance.money.Fallback" )
+    @Label( "Money Fallback" )
+    @Category( "Money" )
+    @Description( "Money operation left the fast long based path and was calculated via BigDecimal" )
+    @StackTrace( true )
+    static final class FallbackEvent extends Event
+    {
+        @Label( "Reason" )
+        String reason;
+
+        @Label( "Precision" )
+        @Description( "Precision of the first operand" )
+        int precision;
+
+        @Label( "Other Precision" )
+        @Description( "Precision of the second operand or -1 if not applicable" )
+        int otherPrecision;
+    }
+
+    /**
+     * An operation left the fast path
+     * @param site Fallback site
+     * @param precision Precision of the first operand
+     * @param otherPrecision Precision of the second operand or -1 if not applicable
+     */
+    static void fallback( final MoneyMetrics.FallbackSite site, final int precision, final int otherPrecision )
+    {
+        final FallbackEvent event = new FallbackEvent();
+        if ( event.isEnabled() )
+        {
+            event.reason = site.name();
+            event.precision = precision;
+            event.otherPrecision = otherPrecision;
+            event.commit();
+        }
+    }
+}
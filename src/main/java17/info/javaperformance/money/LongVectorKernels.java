@@ -0,0 +1,150 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ *  Vector API kernels over <code>long</code> columns. Each kernel processes the longest prefix of a column which
+ *  consists of whole vectors and returns its length.
+ * </p>
+ * <p>
+ *  The number of lanes always divides 64, so lane masks of a vector are shifted into a single bitmask word.
+ *  Overflow checks are the same as in the scalar code, but they are calculated lanewise.
+ * </p>
+ */
+final class LongVectorKernels {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private LongVectorKernels() {
+    }
+
+    /**
+     * Set bits of lanes in a bitmask
+     */
+    private static void mark( final long[] mask, final int index, final VectorMask<Long> lanes )
+    {
+        if ( lanes.anyTrue() )
+            mask[ index >> 6 ] |= lanes.toLong() << index;
+    }
+
+    /**
+     * Addition overflow: sign of a result differs from signs of both operands
+     */
+    private static VectorMask<Long> addOverflow( final LongVector x, final LongVector y, final LongVector sum )
+    {
+        return x.lanewise( VectorOperators.XOR, sum ).and( y.lanewise( VectorOperators.XOR, sum ) ).compare( VectorOperators.LT, 0 );
+    }
+
+    /**
+     * Subtraction overflow: operands have different signs and the sign of a result differs from the sign of x
+     */
+    private static VectorMask<Long> subtractOverflow( final LongVector x, final LongVector y, final LongVector diff )
+    {
+        return x.lanewise( VectorOperators.XOR, y ).and( x.lanewise( VectorOperators.XOR, diff ) ).compare( VectorOperators.LT, 0 );
+    }
+
+    static int add( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        final LongVector y = LongVector.broadcast( SPECIES, value );
+        for ( int i = 0; i < bound; i += LANES )
+        {
+            final LongVector x = LongVector.fromArray( SPECIES, units, i );
+            final LongVector sum = x.add( y );
+            sum.intoArray( dest, i );
+            mark( overflow, i, addOverflow( x, y, sum ) );
+        }
+        return bound;
+    }
+
+    static int add( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        for ( int i = 0; i < bound; i += LANES )
+        {
+            final LongVector x = LongVector.fromArray( SPECIES, a, i );
+            final LongVector y = LongVector.fromArray( SPECIES, b, i );
+            final LongVector sum = x.add( y );
+            sum.intoArray( dest, i );
+            mark( overflow, i, addOverflow( x, y, sum ) );
+        }
+        return bound;
+    }
+
+    static int subtract( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        final LongVector y = LongVector.broadcast( SPECIES, value );
+        for ( int i = 0; i < bound; i += LANES )
+        {
+            final LongVector x = LongVector.fromArray( SPECIES, units, i );
+            final LongVector diff = x.sub( y );
+            diff.intoArray( dest, i );
+            mark( overflow, i, subtractOverflow( x, y, diff ) );
+        }
+        return bound;
+    }
+
+    static int subtract( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        for ( int i = 0; i < bound; i += LANES )
+        {
+            final LongVector x = LongVector.fromArray( SPECIES, a, i );
+            final LongVector y = LongVector.fromArray( SPECIES, b, i );
+            final LongVector diff = x.sub( y );
+            diff.intoArray( dest, i );
+            mark( overflow, i, subtractOverflow( x, y, diff ) );
+        }
+        return bound;
+    }
+
+    static int multiply( final long[] units, final long factor, final long min, final long max,
+                         final long[] dest, final long[] overflow, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        for ( int i = 0; i < bound; i += LANES )
+        {
+            final LongVector x = LongVector.fromArray( SPECIES, units, i );
+            x.mul( factor ).intoArray( dest, i );
+            mark( overflow, i, x.compare( VectorOperators.LT, min ).or( x.compare( VectorOperators.GT, max ) ) );
+        }
+        return bound;
+    }
+
+    static int greaterThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        for ( int i = 0; i < bound; i += LANES )
+            mark( mask, i, LongVector.fromArray( SPECIES, units, i ).compare( VectorOperators.GT, threshold ) );
+        return bound;
+    }
+
+    static int lessThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        final int bound = SPECIES.loopBound( length );
+        for ( int i = 0; i < bound; i += LANES )
+            mark( mask, i, LongVector.fromArray( SPECIES, units, i ).compare( VectorOperators.LT, threshold ) );
+        return bound;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * Hot arithmetic primitives, Java 17+ version. {@code Math.multiplyHigh} is compiled into a single
+ * 64x64-&gt;128 bit multiplication instruction, so overflow checks do not need a division anymore.
+ */
+final class MoneyMath {
+    private MoneyMath() {
+    }
+
+    /**
+     * Get the high 64 bits of a signed 128 bit product of two longs (the low 64 bits are {@code x * y}).
+     * @param x First multiplier
+     * @param y Second multiplier
+     * @return High 64 bits of a product
+     */
+    static long multiplyHigh( final long x, final long y )
+    {
+        return Math.multiplyHigh( x, y );
+    }
+
+    /**
+     * Check if a product of two longs did not overflow
+     * @param x First multiplier
+     * @param y Second multiplier
+     * @param product {@code x * y}
+     * @return {@code true} if {@code product} is an exact product
+     */
+    static boolean multiplyFits( final long x, final long y, final long product )
+    {
+        //the high word of an exact product is a sign extension of the low word
+        return Math.multiplyHigh( x, y ) == ( product >> 63 );
+    }
+
+    /**
+     * Check if a sum of two longs did not overflow
+     * @param x First summand
+     * @param y Second summand
+     * @param sum {@code x + y}
+     * @return {@code true} if {@code sum} is an exact sum
+     */
+    static boolean addFits( final long x, final long y, final long sum )
+    {
+        //same check as in Math.addExact
+        return ( ( x ^ sum ) & ( y ^ sum ) ) >= 0;
+    }
+}
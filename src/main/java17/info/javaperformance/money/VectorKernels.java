@@ -0,0 +1,77 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+/**
+ * <p>
+ *  SIMD kernels for {@link MoneyColumns}, Java 17+ version.
+ * </p>
+ * <p>
+ *  The Vector API is an incubator module, which is not resolved unless it is added to the JVM explicitly.
+ *  This class does not mention any Vector API types, so it can be loaded without the module. Actual kernels
+ *  are located in {@link LongVectorKernels}, which is loaded only if the module is present.
+ * </p>
+ */
+final class VectorKernels {
+    /** True if kernels may be called */
+    static final boolean AVAILABLE = available();
+
+    private VectorKernels() {
+    }
+
+    private static boolean available()
+    {
+        return !"false".equals( System.getProperty( "info.javaperformance.money.vector" ) )
+                && ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isPresent();
+    }
+
+    static int add( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        return LongVectorKernels.add( units, value, dest, overflow, length );
+    }
+
+    static int add( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        return LongVectorKernels.add( a, b, dest, overflow, length );
+    }
+
+    static int subtract( final long[] units, final long value, final long[] dest, final long[] overflow, final int length )
+    {
+        return LongVectorKernels.subtract( units, value, dest, overflow, length );
+    }
+
+    static int subtract( final long[] a, final long[] b, final long[] dest, final long[] overflow, final int length )
+    {
+        return LongVectorKernels.subtract( a, b, dest, overflow, length );
+    }
+
+    static int multiply( final long[] units, final long factor, final long min, final long max,
+                         final long[] dest, final long[] overflow, final int length )
+    {
+        return LongVectorKernels.multiply( units, factor, min, max, dest, overflow, length );
+    }
+
+    static int greaterThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        return LongVectorKernels.greaterThan( units, threshold, mask, length );
+    }
+
+    static int lessThan( final long[] units, final long threshold, final long[] mask, final int length )
+    {
+        return LongVectorKernels.lessThan( units, threshold, mask, length );
+    }
+}
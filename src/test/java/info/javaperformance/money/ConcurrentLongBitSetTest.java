@@ -0,0 +1,113 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentLongBitSetTest extends TestCase {
+    private static final long PARTITION = 1L << 20;
+
+    public void testSetGet()
+    {
+        final ConcurrentLongBitSet bs = new ConcurrentLongBitSet();
+        final long[] indices = { 0, 1, 63, 64, PARTITION - 1, PARTITION, 5 * PARTITION + 7, -1, -PARTITION, Long.MAX_VALUE, Long.MIN_VALUE };
+        for ( final long idx : indices )
+        {
+            assertFalse( bs.get( idx ) );
+            assertFalse( bs.getAndSet( idx, true ) );
+            assertTrue( bs.getAndSet( idx, true ) );
+            assertTrue( bs.get( idx ) );
+        }
+        assertEquals( indices.length, bs.cardinality() );
+        for ( final long idx : indices )
+        {
+            assertTrue( bs.getAndSet( idx, false ) );
+            assertFalse( bs.get( idx ) );
+        }
+        assertFalse( bs.getAndSet( 12345678, false ) ); //clearing a bit in a missing partition
+        assertEquals( 0, bs.cardinality() );
+    }
+
+    public void testClear()
+    {
+        final ConcurrentLongBitSet bs = new ConcurrentLongBitSet();
+        for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+            bs.set( i, true );
+        bs.clear( 5000, 8 * PARTITION + 3000 );
+        for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+            assertEquals( "Index " + i, i < 5000 || i >= 8 * PARTITION + 3000, bs.get( i ) );
+
+        //both ends in the same partition
+        for ( long i = 9 * PARTITION; i <= 9 * PARTITION + 5000; ++i )
+            bs.set( i, true );
+        bs.clear( 9 * PARTITION + 1000, 9 * PARTITION + 5000 );
+        assertTrue( bs.get( 9 * PARTITION + 999 ) );
+        assertFalse( bs.get( 9 * PARTITION + 1000 ) );
+        assertFalse( bs.get( 9 * PARTITION + 4999 ) );
+        assertTrue( bs.get( 9 * PARTITION + 5000 ) );
+
+        //removed partitions are recreated on the next write
+        bs.set( 5 * PARTITION, true );
+        assertTrue( bs.get( 5 * PARTITION ) );
+
+        bs.clear( Long.MIN_VALUE, Long.MAX_VALUE );
+        assertEquals( 0, bs.cardinality() );
+    }
+
+    public void testConcurrentGetAndSet() throws InterruptedException
+    {
+        final ConcurrentLongBitSet bs = new ConcurrentLongBitSet();
+        final int threads = 8;
+        final int count = 200000;
+        final AtomicInteger firstSets = new AtomicInteger();
+        final Thread[] workers = new Thread[ threads ];
+        for ( int t = 0; t < threads; ++t )
+        {
+            final int seed = t;
+            workers[ t ] = new Thread() {
+                @Override
+                public void run() {
+                    final Random r = new Random( seed );
+                    //all threads write the same ids in different order, so each id must be reported as new only once
+                    for ( int i = 0; i < count; ++i )
+                    {
+                        final long idx = ( ( i * 7919L + r.nextInt( 2 ) ) % count ) * 37;
+                        if ( !bs.getAndSet( idx, true ) )
+                            firstSets.incrementAndGet();
+                    }
+                }
+            };
+            workers[ t ].start();
+        }
+        for ( final Thread t : workers )
+            t.join();
+        final Set<Long> actual = new HashSet<Long>();
+        bs.forEach( new LongProcedure() {
+            public boolean forEntry( final long value ) {
+                actual.add( value );
+                return true;
+            }
+        } );
+        assertEquals( actual.size(), firstSets.get() );
+        assertEquals( actual.size(), bs.cardinality() );
+    }
+}
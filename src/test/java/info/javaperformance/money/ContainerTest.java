@@ -0,0 +1,157 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+import java.util.Random;
+
+public class ContainerTest extends TestCase {
+    private static final int BITS = 12;
+    private static final int SIZE = 1 << BITS;
+
+    private static void assertSame( final BitSet expected, final Container actual )
+    {
+        assertEquals( expected.cardinality(), actual.cardinality() );
+        for ( int i = 0; i < SIZE; ++i )
+        {
+            assertEquals( "Pos " + i, expected.get( i ), actual.get( i ) );
+            final int nextSet = expected.nextSetBit( i );
+            assertEquals( "Pos " + i, nextSet, actual.nextSetBit( i ) );
+            assertEquals( "Pos " + i, expected.nextClearBit( i ), actual.nextClearBit( i ) );
+        }
+    }
+
+    public void testArrayToBitmap()
+    {
+        Container c = new ArrayContainer( BITS );
+        final BitSet expected = new BitSet();
+        for ( int i = 0; i < SIZE; i += 3 )
+        {
+            c = c.set( i );
+            expected.set( i );
+            if ( expected.cardinality() <= c.arrayMaxSize() )
+                assertTrue( c instanceof ArrayContainer );
+        }
+        assertTrue( c instanceof BitmapContainer );
+        assertSame( expected, c );
+
+        //clearing most of bits converts it back
+        c = c.clear( 100, SIZE );
+        expected.clear( 100, SIZE );
+        assertTrue( c instanceof ArrayContainer );
+        assertSame( expected, c );
+    }
+
+    public void testRuns()
+    {
+        Container c = new ArrayContainer( BITS );
+        final BitSet expected = new BitSet();
+        for ( int i = 0; i < SIZE; i += 1000 )
+        {
+            for ( int j = i; j < Math.min( i + 500, SIZE ); ++j )
+            {
+                c = c.set( j );
+                expected.set( j );
+            }
+        }
+        assertTrue( c instanceof RunContainer );
+        assertSame( expected, c );
+
+        //split a run, then merge it back
+        c = c.clear( 1100 );
+        expected.clear( 1100 );
+        assertSame( expected, c );
+        c = c.set( 1100 );
+        expected.set( 1100 );
+        assertSame( expected, c );
+        assertTrue( c.memoryUsage() < 100 );
+
+        //a lot of short runs are not efficient anymore
+        for ( int i = 0; i < SIZE; i += 2 )
+        {
+            c = c.clear( i );
+            expected.clear( i );
+        }
+        assertFalse( c instanceof RunContainer );
+        assertSame( expected, c );
+    }
+
+    public void testRandom()
+    {
+        final Random r = new Random( 7 );
+        for ( int round = 0; round < 20; ++round )
+        {
+            Container c = new ArrayContainer( BITS );
+            final BitSet expected = new BitSet();
+            //mix of single bits and clustered ranges
+            for ( int i = 0; i < 3000; ++i )
+            {
+                final int pos = r.nextInt( SIZE );
+                final int op = r.nextInt( 10 );
+                if ( op < 6 )
+                {
+                    c = c.set( pos );
+                    expected.set( pos );
+                }
+                else if ( op < 8 )
+                {
+                    final int end = Math.min( SIZE, pos + r.nextInt( 100 ) );
+                    for ( int j = pos; j < end; ++j )
+                        c = c.set( j );
+                    expected.set( pos, end );
+                }
+                else if ( op < 9 )
+                {
+                    c = c.clear( pos );
+                    expected.clear( pos );
+                }
+                else
+                {
+                    final int end = Math.min( SIZE, pos + r.nextInt( 300 ) );
+                    c = c.clear( pos, end );
+                    expected.clear( pos, end );
+                }
+            }
+            assertSame( expected, c );
+            final BitSet iterated = new BitSet();
+            c.forEach( 0, new LongProcedure() {
+                public boolean forEntry( final long value ) {
+                    iterated.set( ( int ) value );
+                    return true;
+                }
+            } );
+            assertEquals( expected, iterated );
+        }
+    }
+
+    public void testMemory()
+    {
+        //sparse and clustered ids: 100 partitions with 10 runs of 1000 ids each
+        final LongBitSet bs = new LongBitSet();
+        final long partition = 1L << 20;
+        for ( long p = 0; p < 100; ++p )
+            for ( int run = 0; run < 10; ++run )
+                for ( int i = 0; i < 1000; ++i )
+                    bs.set( p * partition + run * 50000 + i, true );
+        //a full bitmap per partition would take 12.8Mb
+        assertTrue( "Memory = " + bs.memoryUsage(), bs.memoryUsage() < 100 * partition / 8 / 10 );
+        assertTrue( bs.get( 99 * partition + 9 * 50000 + 999 ) );
+        assertFalse( bs.get( 99 * partition + 9 * 50000 + 1000 ) );
+    }
+}
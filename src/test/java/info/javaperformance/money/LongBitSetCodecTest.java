@@ -0,0 +1,214 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+public class LongBitSetCodecTest extends TestCase {
+    private static final long PARTITION = 1L << 20;
+
+    /**
+     * Sparse, dense and clustered partitions, including negative indices
+     */
+    private static LongBitSet sample()
+    {
+        final Random r = new Random( 5 );
+        final LongBitSet bs = new LongBitSet();
+        for ( int i = 0; i < 300; ++i )
+            bs.set( -3 * PARTITION + r.nextInt( 1 << 20 ), true );
+        for ( int i = 0; i < 100000; ++i )
+            bs.set( 2 * PARTITION + r.nextInt( 1 << 18 ), true );
+        for ( long i = 7 * PARTITION; i < 7 * PARTITION + 30000; ++i )
+            bs.set( i, true );
+        bs.set( Long.MAX_VALUE, true );
+        bs.set( Long.MIN_VALUE, true );
+        return bs;
+    }
+
+    private static void assertEqualSets( final LongBitSet expected, final LongBitSet actual )
+    {
+        assertEquals( expected.cardinality(), actual.cardinality() );
+        assertEquals( 0, LongBitSet.xor( expected, actual ).cardinality() );
+    }
+
+    public void testSnapshotBuffer()
+    {
+        final LongBitSet bs = sample();
+        final ByteBuffer buf = ByteBuffer.allocate( 1 << 20 );
+        LongBitSetCodec.writeSnapshot( bs, buf );
+        //much smaller than 4 plain bitmaps
+        assertTrue( "Size = " + buf.position(), buf.position() < 4 * PARTITION / 8 / 2 );
+        buf.flip();
+        final LongBitSet copy = LongBitSetCodec.read( buf );
+        assertFalse( buf.hasRemaining() );
+        assertEqualSets( bs, copy );
+        assertTrue( copy.get( Long.MAX_VALUE ) );
+        assertTrue( copy.get( Long.MIN_VALUE ) );
+    }
+
+    public void testSnapshotChannel() throws IOException
+    {
+        final LongBitSet bs = sample();
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        LongBitSetCodec.writeSnapshot( bs, Channels.newChannel( bos ) );
+        final LongBitSet copy = LongBitSetCodec.read( Channels.newChannel( new ByteArrayInputStream( bos.toByteArray() ) ) );
+        assertEqualSets( bs, copy );
+
+        //same format as a buffer
+        final ByteBuffer buf = ByteBuffer.allocate( bos.size() );
+        LongBitSetCodec.writeSnapshot( bs, buf );
+        assertEquals( bos.size(), buf.position() );
+    }
+
+    public void testDelta()
+    {
+        final LongBitSet master = sample();
+        final ByteBuffer buf = ByteBuffer.allocate( 1 << 20 );
+        LongBitSetCodec.writeSnapshot( master, buf );
+        buf.flip();
+        final LongBitSet replica = LongBitSetCodec.read( buf );
+
+        //no changes - an empty delta
+        buf.clear();
+        LongBitSetCodec.writeDelta( master, buf );
+        final int emptyDelta = buf.position();
+
+        master.set( 7 * PARTITION + 50000, true ); //changed partition
+        master.set( 100 * PARTITION, true ); //new partition
+        master.clear( -3 * PARTITION, -2 * PARTITION ); //removed partition
+        master.clear( 2 * PARTITION, 3 * PARTITION ); //removed and created again
+        master.set( 2 * PARTITION + 5, true );
+        buf.clear();
+        LongBitSetCodec.writeDelta( master, buf );
+        assertTrue( buf.position() > emptyDelta );
+        //a delta contains only changed partitions
+        assertTrue( "Size = " + buf.position(), buf.position() < 200 );
+        buf.flip();
+        LongBitSetCodec.apply( replica, buf );
+        assertEqualSets( master, replica );
+
+        //applying a snapshot replaces everything
+        final LongBitSet other = new LongBitSet();
+        other.set( 12345, true );
+        buf.clear();
+        LongBitSetCodec.writeSnapshot( other, buf );
+        buf.flip();
+        LongBitSetCodec.apply( replica, buf );
+        assertEqualSets( other, replica );
+    }
+
+    public void testValueBits()
+    {
+        final LongBitSet bs = new LongBitSet( 12 );
+        for ( long i = 0; i < 100000; i += 3 )
+            bs.set( i, true );
+        final ByteBuffer buf = ByteBuffer.allocate( 1 << 20 );
+        LongBitSetCodec.writeSnapshot( bs, buf );
+        buf.flip();
+        final LongBitSet copy = LongBitSetCodec.read( buf );
+        assertEquals( 12, copy.valueBits() );
+        assertEqualSets( bs, copy );
+
+        buf.rewind();
+        try
+        {
+            LongBitSetCodec.apply( new LongBitSet(), buf );
+            fail( "Partition sizes differ" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testMalformed()
+    {
+        final ByteBuffer buf = ByteBuffer.allocate( 100 );
+        buf.putInt( 12345 ).flip();
+        try
+        {
+            LongBitSetCodec.read( buf );
+            fail( "Wrong magic" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testSlidingWindowDeltas()
+    {
+        final LongBitSet master = new LongBitSet( 10 );
+        master.setWindow( 4096 );
+        final ByteBuffer buf = ByteBuffer.allocate( 1 << 16 );
+        LongBitSetCodec.writeSnapshot( master, buf );
+        buf.flip();
+        final LongBitSet replica = LongBitSetCodec.read( buf );
+        for ( long id = 0; id < 5000000; id += 7 )
+        {
+            master.set( id, true );
+            if ( id % 700000 == 0 )
+            {
+                //tracked removals are bounded by partitions evicted since the previous delta
+                assertTrue( master.removedSetIndices().length <= 700000 / 1024 + 1 );
+                buf.clear();
+                LongBitSetCodec.writeDelta( master, buf );
+                assertEquals( 0, master.removedSetIndices().length );
+                buf.flip();
+                LongBitSetCodec.apply( replica, buf );
+                assertEqualSets( master, replica );
+                assertEquals( master.partitionCount(), replica.partitionCount() );
+            }
+        }
+        assertEquals( 5, master.partitionCount() );
+    }
+
+    public void testEncodedLengthBound()
+    {
+        final LongBitSet bs = sample();
+        //every other bit: a bitmap without empty words
+        for ( long i = 20 * PARTITION; i < 21 * PARTITION; i += 2 )
+            bs.set( i, true );
+        final ByteBuffer buf = ByteBuffer.allocate( 1 << 20 );
+        for ( final long setIndex : bs.sortedSetIndices() )
+        {
+            final Container container = bs.container( setIndex );
+            buf.clear();
+            container.write( buf );
+            assertTrue( container.getClass().getSimpleName() + " " + buf.position() + " > " + container.encodedLengthBound(),
+                        buf.position() <= container.encodedLengthBound() );
+        }
+    }
+
+    public void testLargePartitionsChannel() throws IOException
+    {
+        //channel buffers are sized by records, not by the largest possible partition (about 300Mb here)
+        final LongBitSet bs = new LongBitSet( LongBitSet.MAX_VALUE_BITS );
+        for ( int i = 0; i < 1000; ++i )
+            bs.set( i * 1000003L, true );
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        LongBitSetCodec.writeSnapshot( bs, Channels.newChannel( bos ) );
+        assertTrue( "Size = " + bos.size(), bos.size() < 4096 );
+        final LongBitSet copy = LongBitSetCodec.read( Channels.newChannel( new ByteArrayInputStream( bos.toByteArray() ) ) );
+        assertEqualSets( bs, copy );
+    }
+}
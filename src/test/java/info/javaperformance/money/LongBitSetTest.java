@@ -0,0 +1,382 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class LongBitSetTest extends TestCase {
+    private static final long PARTITION = 1L << 20;
+
+    public void testSetGet()
+    {
+        final LongBitSet bs = new LongBitSet();
+        final long[] indices = { 0, 1, 63, 64, PARTITION - 1, PARTITION, 5 * PARTITION + 7, -1, -PARTITION, Long.MAX_VALUE, Long.MIN_VALUE };
+        for ( final long idx : indices )
+        {
+            assertFalse( bs.get( idx ) );
+            bs.set( idx, true );
+            assertTrue( bs.get( idx ) );
+        }
+        for ( final long idx : indices )
+            assertTrue( bs.get( idx ) );
+        assertFalse( bs.get( 2 ) );
+        assertFalse( bs.get( PARTITION + 1 ) );
+
+        for ( final long idx : indices )
+        {
+            bs.set( idx, false );
+            assertFalse( bs.get( idx ) );
+        }
+        bs.set( 12345678, false ); //clearing a bit in a missing partition
+        assertFalse( bs.get( 12345678 ) );
+    }
+
+    public void testClear()
+    {
+        final LongBitSet bs = new LongBitSet();
+        for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+            bs.set( i, true );
+        bs.clear( 5000, 8 * PARTITION + 3000 );
+        for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+            assertEquals( "Index " + i, i < 5000 || i >= 8 * PARTITION + 3000, bs.get( i ) );
+
+        //both ends in the same partition
+        for ( long i = 9 * PARTITION; i <= 9 * PARTITION + 5000; ++i )
+            bs.set( i, true );
+        bs.clear( 9 * PARTITION + 1000, 9 * PARTITION + 5000 );
+        assertTrue( bs.get( 9 * PARTITION ) );
+        assertFalse( bs.get( 9 * PARTITION + 1000 ) );
+        assertFalse( bs.get( 9 * PARTITION + 4000 ) );
+        assertTrue( bs.get( 9 * PARTITION + 5000 ) );
+
+        //huge range - partitions are found by scanning
+        bs.set( -100 * PARTITION, true );
+        bs.set( 1000 * PARTITION, true );
+        bs.clear( Long.MIN_VALUE, Long.MAX_VALUE );
+        assertFalse( bs.get( -100 * PARTITION ) );
+        assertFalse( bs.get( 1000 * PARTITION ) );
+        assertFalse( bs.get( 0 ) );
+    }
+
+    public void testRandom()
+    {
+        final Random r = new Random( 123 );
+        final LongBitSet bs = new LongBitSet();
+        final Set<Long> expected = new HashSet<Long>();
+        for ( int i = 0; i < 100000; ++i )
+        {
+            final long idx = r.nextInt( 1000 ) * PARTITION + r.nextInt( 100 );
+            final boolean val = r.nextInt( 3 ) != 0;
+            bs.set( idx, val );
+            if ( val )
+                expected.add( idx );
+            else
+                expected.remove( idx );
+            if ( i % 10000 == 0 )
+            {
+                final long from = r.nextInt( 1000 ) * PARTITION;
+                final long to = from + r.nextInt( 100 ) * PARTITION + r.nextInt( 100 );
+                bs.clear( from, to );
+                for ( long j = from; j < to; ++j )
+                    if ( expected.contains( j ) )
+                        expected.remove( j );
+            }
+        }
+        for ( long p = 0; p < 1000; ++p )
+            for ( long j = p * PARTITION; j < p * PARTITION + 100; ++j )
+                assertEquals( expected.contains( j ), bs.get( j ) );
+    }
+
+    public void testOrderedIteration()
+    {
+        final Random r = new Random( 456 );
+        final LongBitSet bs = new LongBitSet();
+        final TreeSet<Long> expected = new TreeSet<Long>();
+        for ( int i = 0; i < 10000; ++i )
+        {
+            final long idx = r.nextInt( 500 ) * PARTITION * 3 + r.nextInt( 1 << 20 );
+            bs.set( idx, true );
+            expected.add( idx );
+        }
+        //empty partition in the middle must be skipped
+        bs.set( 1501 * PARTITION + 5, true );
+        bs.set( 1501 * PARTITION + 5, false );
+        bs.set( -5, true ); //negative indices are not visible to ordered iteration
+
+        final LongIterator iter = bs.iterator();
+        for ( final long val : expected )
+        {
+            assertTrue( iter.hasNext() );
+            assertEquals( val, iter.next() );
+        }
+        assertFalse( iter.hasNext() );
+
+        for ( int i = 0; i < 1000; ++i )
+        {
+            final long from = ( r.nextLong() & Long.MAX_VALUE ) % ( 1600 * PARTITION );
+            final Long next = expected.ceiling( from );
+            assertEquals( next == null ? -1 : next, bs.nextSetBit( from ) );
+        }
+        assertEquals( -1, bs.nextSetBit( expected.last() + 1 ) );
+    }
+
+    public void testNextClearBit()
+    {
+        final LongBitSet bs = new LongBitSet();
+        assertEquals( 0, bs.nextClearBit( 0 ) );
+        for ( long i = 0; i < 3 * PARTITION + 10; ++i )
+            bs.set( i, true );
+        assertEquals( 3 * PARTITION + 10, bs.nextClearBit( 0 ) );
+        assertEquals( 3 * PARTITION + 10, bs.nextClearBit( PARTITION + 5 ) );
+        bs.set( 2 * PARTITION + 100, false );
+        assertEquals( 2 * PARTITION + 100, bs.nextClearBit( 5 ) );
+        assertEquals( 100 * PARTITION, bs.nextClearBit( 100 * PARTITION ) );
+        try
+        {
+            bs.nextClearBit( -1 );
+            fail( "Negative indices are not supported" );
+        }
+        catch ( IndexOutOfBoundsException ex )
+        {
+        }
+    }
+
+    public void testForEach()
+    {
+        final LongBitSet bs = new LongBitSet();
+        final Set<Long> expected = new HashSet<Long>();
+        for ( long i = -10 * PARTITION; i < 10 * PARTITION; i += 12345 )
+        {
+            bs.set( i, true );
+            expected.add( i );
+        }
+        final Set<Long> actual = new HashSet<Long>();
+        bs.forEach( new LongProcedure() {
+            public boolean forEntry( final long value ) {
+                actual.add( value );
+                return true;
+            }
+        } );
+        assertEquals( expected, actual );
+
+        final int[] cnt = new int[ 1 ];
+        bs.forEach( new LongProcedure() {
+            public boolean forEntry( final long value ) {
+                return ++cnt[ 0 ] < 10;
+            }
+        } );
+        assertEquals( 10, cnt[ 0 ] );
+    }
+
+    /**
+     * Build a set with sparse, dense and clustered partitions, so all container combinations are covered
+     */
+    private static LongBitSet randomSet( final Random r, final Set<Long> expected )
+    {
+        final LongBitSet bs = new LongBitSet();
+        for ( int p = 0; p < 8; ++p )
+        {
+            final long base = r.nextInt( 12 ) * PARTITION;
+            switch ( r.nextInt( 3 ) )
+            {
+                case 0: //sparse
+                    for ( int i = 0; i < 200; ++i )
+                        expected.add( base + r.nextInt( 1 << 20 ) );
+                    break;
+                case 1: //dense
+                    for ( int i = 0; i < 60000; ++i )
+                        expected.add( base + r.nextInt( 1 << 18 ) );
+                    break;
+                default: //runs
+                    for ( int run = 0; run < 20; ++run )
+                    {
+                        final long start = base + r.nextInt( 1 << 20 - 100 );
+                        for ( int i = 0; i < 1000; ++i )
+                            expected.add( start + i );
+                    }
+            }
+        }
+        for ( final long idx : expected )
+            bs.set( idx, true );
+        return bs;
+    }
+
+    private static void assertContent( final Set<Long> expected, final LongBitSet actual )
+    {
+        assertEquals( expected.size(), actual.cardinality() );
+        for ( final long idx : expected )
+            assertTrue( actual.get( idx ) );
+    }
+
+    public void testSetAlgebra()
+    {
+        final Random r = new Random( 789 );
+        for ( int round = 0; round < 5; ++round )
+        {
+            final Set<Long> ea = new HashSet<Long>();
+            final Set<Long> eb = new HashSet<Long>();
+            final LongBitSet a = randomSet( r, ea );
+            final LongBitSet b = randomSet( r, eb );
+
+            final Set<Long> and = new HashSet<Long>( ea );
+            and.retainAll( eb );
+            final Set<Long> or = new HashSet<Long>( ea );
+            or.addAll( eb );
+            final Set<Long> andNot = new HashSet<Long>( ea );
+            andNot.removeAll( eb );
+            final Set<Long> xor = new HashSet<Long>( or );
+            xor.removeAll( and );
+
+            assertContent( and, LongBitSet.and( a, b ) );
+            assertContent( or, LongBitSet.or( a, b ) );
+            assertContent( andNot, LongBitSet.andNot( a, b ) );
+            assertContent( xor, LongBitSet.xor( a, b ) );
+            //arguments are not modified
+            assertContent( ea, a );
+            assertContent( eb, b );
+
+            final LongBitSet c = LongBitSet.or( a, a );
+            c.xor( b );
+            assertContent( xor, c );
+            c.and( a );
+            assertContent( andNot, c );
+            c.or( b );
+            assertContent( or, c );
+            c.andNot( b );
+            assertContent( andNot, c );
+            c.xor( c );
+            assertEquals( 0, c.cardinality() );
+            assertEquals( -1, c.nextSetBit( 0 ) );
+        }
+    }
+
+    public void testCardinality()
+    {
+        final LongBitSet bs = new LongBitSet();
+        final TreeSet<Long> expected = new TreeSet<Long>();
+        final Random r = new Random( 12 );
+        for ( int i = 0; i < 20000; ++i )
+        {
+            final long idx = r.nextInt( 50 ) * PARTITION + r.nextInt( 5000 );
+            bs.set( idx, true );
+            expected.add( idx );
+        }
+        assertEquals( expected.size(), bs.cardinality() );
+        for ( int i = 0; i < 1000; ++i )
+        {
+            final long from = r.nextInt( 52 ) * PARTITION + r.nextInt( 6000 );
+            final long to = from + ( r.nextBoolean() ? r.nextInt( 3000 ) : r.nextInt( 10 ) * PARTITION + r.nextInt( 3000 ) );
+            assertEquals( expected.subSet( from, to ).size(), bs.cardinality( from, to ) );
+        }
+        assertEquals( 0, bs.cardinality( 10, 10 ) );
+        assertEquals( expected.size(), bs.cardinality( Long.MIN_VALUE, Long.MAX_VALUE ) );
+    }
+
+    public void testValueBits()
+    {
+        final Random r = new Random( 321 );
+        for ( final int bits : new int[] { LongBitSet.MIN_VALUE_BITS, 10, 24 } )
+        {
+            final LongBitSet bs = new LongBitSet( bits );
+            assertEquals( bits, bs.valueBits() );
+            final TreeSet<Long> expected = new TreeSet<Long>();
+            for ( int i = 0; i < 20000; ++i )
+            {
+                final long idx = r.nextInt( 1 << 22 );
+                bs.set( idx, true );
+                expected.add( idx );
+            }
+            bs.clear( 1000, 1 << 21 );
+            expected.subSet( 1000L, 1L << 21 ).clear();
+            assertEquals( expected.size(), bs.cardinality() );
+            final LongIterator iter = bs.iterator();
+            for ( final long val : expected )
+                assertEquals( val, iter.next() );
+            assertFalse( iter.hasNext() );
+            assertEquals( expected.size(), LongBitSet.and( bs, bs ).cardinality() );
+        }
+        try
+        {
+            LongBitSet.or( new LongBitSet( 10 ), new LongBitSet( 12 ) );
+            fail( "Partition sizes differ" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            new LongBitSet( LongBitSet.MAX_VALUE_BITS + 1 );
+            fail( "Too many bits" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testSlidingWindow()
+    {
+        final int bits = 16;
+        final LongBitSet bs = new LongBitSet( bits );
+        final long window = 5 * ( 1 << bits );
+        bs.setWindow( window );
+        for ( long id = 0; id < 100 * ( 1 << bits ); id += 7 )
+        {
+            bs.set( id, true );
+            //the most recent ids are always kept
+            final long oldest = ( Math.max( 0, id - window + 1 ) + 6 ) / 7 * 7;
+            assertTrue( "Id " + oldest, bs.get( oldest ) );
+        }
+        assertEquals( 100, bs.allocatedPartitions() );
+        assertEquals( 94, bs.evictedPartitions() );
+        assertEquals( 6, bs.partitionCount() ); //a partial partition at the start of the window is kept
+        assertFalse( bs.get( 0 ) );
+        assertTrue( bs.get( ( 100L * ( 1 << bits ) - 1 ) / 7 * 7 ) );
+        assertTrue( bs.memoryUsage() > 0 );
+        //evicted partitions are not remembered: memory is bounded by the window, not by the id range
+        assertEquals( 0, bs.removedSetIndices().length );
+
+        //explicit eviction
+        assertEquals( 4, bs.evictBelow( 98L * ( 1 << bits ) + 5 ) );
+        assertEquals( 2, bs.partitionCount() );
+        bs.setWindow( 0 );
+        bs.set( 1000L * ( 1 << bits ), true );
+        assertEquals( 3, bs.partitionCount() );
+    }
+
+    public void testRemovalsNotTrackedWithoutSnapshots()
+    {
+        final LongBitSet bs = new LongBitSet( 10 );
+        for ( long id = 0; id < 10000000; id += 7 )
+            bs.set( id, true );
+        //every partition is removed again
+        for ( long id = 0; id < 10000000; id += 7 )
+            bs.set( id, false );
+        assertEquals( 0, bs.partitionCount() );
+        assertEquals( 0, bs.removedSetIndices().length );
+
+        for ( long id = 0; id < 10000000; id += 7 )
+            bs.set( id, true );
+        bs.evictBelow( 10000000 - 4096 );
+        assertEquals( 5, bs.partitionCount() );
+        assertEquals( 0, bs.removedSetIndices().length );
+    }
+}
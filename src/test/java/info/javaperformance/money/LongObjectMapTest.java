@@ -0,0 +1,63 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest extends TestCase {
+    public void testAgainstHashMap()
+    {
+        final Random r = new Random( 123 );
+        final LongObjectMap<String> map = new LongObjectMap<String>( 4 );
+        final Map<Long, String> expected = new HashMap<Long, String>();
+        for ( int i = 0; i < 200000; ++i )
+        {
+            //small key range forces lots of collisions and removals
+            final long key = ( r.nextInt( 2000 ) - 1000 ) * 1024L;
+            final int op = r.nextInt( 3 );
+            if ( op == 0 )
+                assertEquals( expected.remove( key ), map.remove( key ) );
+            else if ( op == 1 )
+            {
+                final String val = Integer.toString( i );
+                assertEquals( expected.put( key, val ), map.put( key, val ) );
+            }
+            else
+                assertEquals( expected.get( key ), map.get( key ) );
+            assertEquals( expected.size(), map.size() );
+        }
+        for ( final Map.Entry<Long, String> entry : expected.entrySet() )
+            assertEquals( entry.getValue(), map.get( entry.getKey() ) );
+
+        int cnt = 0;
+        for ( int i = 0; i < map.capacity(); ++i )
+            if ( map.valueAt( i ) != null )
+            {
+                assertEquals( expected.get( map.keyAt( i ) ), map.valueAt( i ) );
+                ++cnt;
+            }
+        assertEquals( expected.size(), cnt );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertNull( map.get( 0 ) );
+    }
+}
@@ -0,0 +1,215 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class MappedLongBitSetTest extends TestCase {
+    private static final long PARTITION = 1L << 20;
+
+    public void testPersistence() throws IOException
+    {
+        final File file = File.createTempFile( "longbits", ".bin" );
+        try
+        {
+            final Random r = new Random( 42 );
+            final Set<Long> expected = new HashSet<Long>();
+            final MappedLongBitSet bs = MappedLongBitSet.create( file );
+            //more partitions than a single region
+            for ( int i = 0; i < 20000; ++i )
+            {
+                final long idx = ( r.nextInt( 150 ) - 20 ) * PARTITION + r.nextInt( 1 << 20 );
+                bs.set( idx, true );
+                expected.add( idx );
+            }
+            bs.set( Long.MAX_VALUE, true );
+            bs.set( Long.MIN_VALUE, true );
+            expected.add( Long.MAX_VALUE );
+            expected.add( Long.MIN_VALUE );
+            bs.set( 1000 * PARTITION, false ); //does not allocate a page
+            assertEquals( expected.size(), bs.cardinality() );
+            final long pages = bs.pageCount();
+            bs.close();
+
+            final MappedLongBitSet copy = MappedLongBitSet.open( file );
+            assertEquals( pages, copy.pageCount() );
+            assertEquals( expected.size(), copy.cardinality() );
+            final Set<Long> actual = new HashSet<Long>();
+            copy.forEach( new LongProcedure() {
+                public boolean forEntry( final long value ) {
+                    actual.add( value );
+                    return true;
+                }
+            } );
+            assertEquals( expected, actual );
+            for ( final long idx : expected )
+            {
+                assertTrue( copy.get( idx ) );
+                copy.set( idx, false );
+                assertFalse( copy.get( idx ) );
+            }
+            assertEquals( 0, copy.cardinality() );
+            copy.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testClear() throws IOException
+    {
+        final File file = File.createTempFile( "longbits", ".bin" );
+        try
+        {
+            final MappedLongBitSet bs = MappedLongBitSet.create( file );
+            for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+                bs.set( i, true );
+            bs.clear( 5000, 8 * PARTITION + 3000 );
+            for ( long i = 0; i < 10 * PARTITION; i += 1000 )
+                assertEquals( "Index " + i, i < 5000 || i >= 8 * PARTITION + 3000, bs.get( i ) );
+            //both ends in the same partition
+            for ( long i = 9 * PARTITION; i <= 9 * PARTITION + 5000; ++i )
+                bs.set( i, true );
+            bs.clear( 9 * PARTITION + 1000, 9 * PARTITION + 5000 );
+            assertTrue( bs.get( 9 * PARTITION ) );
+            assertFalse( bs.get( 9 * PARTITION + 4000 ) );
+            assertTrue( bs.get( 9 * PARTITION + 5000 ) );
+            bs.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testWrongFile() throws IOException
+    {
+        final File file = File.createTempFile( "longbits", ".bin" );
+        try
+        {
+            final FileOutputStream fos = new FileOutputStream( file );
+            fos.write( new byte[ 100 ] );
+            fos.close();
+            MappedLongBitSet.open( file );
+            fail( "Not a bit set file" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testTornPageCount() throws IOException
+    {
+        final File file = File.createTempFile( "longbits", ".bin" );
+        try
+        {
+            final MappedLongBitSet bs = MappedLongBitSet.create( file );
+            bs.set( 5, true );
+            bs.set( PARTITION + 7, true );
+            assertEquals( 2, bs.pageCount() );
+            bs.close();
+
+            //the page count reached the disk, but a header of the third page did not
+            final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            raf.seek( 16 );
+            raf.write( new byte[] { 3, 0, 0, 0, 0, 0, 0, 0 } ); //little endian
+            raf.close();
+
+            final MappedLongBitSet copy = MappedLongBitSet.open( file );
+            assertEquals( 2, copy.pageCount() );
+            assertTrue( copy.get( 5 ) );
+            assertTrue( copy.get( PARTITION + 7 ) );
+            assertEquals( 2, copy.cardinality() );
+            //the torn page is reused, the file does not grow
+            final long length = file.length();
+            copy.set( 2 * PARTITION, true );
+            assertEquals( 3, copy.pageCount() );
+            assertEquals( length, file.length() );
+            copy.close();
+
+            final MappedLongBitSet reopened = MappedLongBitSet.open( file );
+            assertEquals( 3, reopened.pageCount() );
+            assertTrue( reopened.get( 5 ) );
+            assertTrue( reopened.get( 2 * PARTITION ) );
+            assertEquals( 3, reopened.cardinality() );
+            reopened.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    public void testTornPageInTheMiddle() throws IOException
+    {
+        final File file = File.createTempFile( "longbits", ".bin" );
+        try
+        {
+            final MappedLongBitSet bs = MappedLongBitSet.create( file );
+            bs.set( 5, true );
+            bs.set( PARTITION + 7, true );
+            bs.set( 2 * PARTITION + 9, true );
+            bs.set( 3 * PARTITION + 11, true );
+            bs.close();
+
+            //the second page header did not reach the disk, but its bitmap and the following pages did
+            final long pageSize = 64 + ( PARTITION >> 3 );
+            final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            raf.seek( 32 + pageSize );
+            raf.write( new byte[ 16 ] );
+            raf.close();
+
+            final MappedLongBitSet copy = MappedLongBitSet.open( file );
+            assertEquals( 3, copy.pageCount() );
+            assertTrue( copy.get( 5 ) );
+            assertFalse( copy.get( PARTITION + 7 ) );
+            assertTrue( copy.get( 2 * PARTITION + 9 ) );
+            assertTrue( copy.get( 3 * PARTITION + 11 ) );
+            assertEquals( 3, copy.cardinality() );
+            //the torn page is reused with a cleared bitmap
+            copy.set( 4 * PARTITION + 1, true );
+            assertEquals( 4, copy.pageCount() );
+            assertEquals( 4, copy.cardinality() );
+            assertFalse( copy.get( 4 * PARTITION + 7 ) );
+            copy.close();
+
+            final MappedLongBitSet reopened = MappedLongBitSet.open( file );
+            assertEquals( 4, reopened.pageCount() );
+            assertTrue( reopened.get( 4 * PARTITION + 1 ) );
+            assertTrue( reopened.get( 3 * PARTITION + 11 ) );
+            assertEquals( 4, reopened.cardinality() );
+            reopened.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
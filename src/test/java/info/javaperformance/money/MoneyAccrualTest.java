@@ -0,0 +1,225 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MoneyAccrualTest extends TestCase {
+    private static final int RATE_SCALE = 9;
+
+    /**
+     * BigDecimal reference implementation
+     * @return Accrued interest or null if any intermediate value does not fit into long. Interest equal to
+     * <code>Long.MIN_VALUE</code> is an overflow as well.
+     */
+    private static BigInteger reference( final boolean compound, final long balance, final long rate, final int periods,
+                                         final RoundingMode mode )
+    {
+        final BigDecimal r = BigDecimal.valueOf( rate, RATE_SCALE );
+        BigDecimal current = BigDecimal.valueOf( balance );
+        BigDecimal total = BigDecimal.ZERO;
+        for ( int i = 0; i < periods; ++i )
+        {
+            final BigDecimal interest = current.multiply( r ).setScale( 0, mode );
+            if ( !fitsInterest( interest ) )
+                return null;
+            total = total.add( interest );
+            if ( compound )
+            {
+                current = current.add( interest );
+                if ( !fits( current ) )
+                    return null;
+            }
+        }
+        return fitsInterest( total ) ? total.toBigIntegerExact() : null;
+    }
+
+    private static boolean fitsInterest( final BigDecimal value )
+    {
+        return fits( value ) && value.longValueExact() != Long.MIN_VALUE;
+    }
+
+    private static boolean fits( final BigDecimal value )
+    {
+        return value.toBigIntegerExact().bitLength() < 64;
+    }
+
+    private static long[] balances( final Random r, final int length )
+    {
+        final long[] res = new long[ length ];
+        for ( int i = 0; i < length; ++i )
+        {
+            switch ( i % 4 )
+            {
+                case 0: res[ i ] = r.nextInt( 10000000 ); break;
+                case 1: res[ i ] = r.nextLong() >> 20; break;
+                case 2: res[ i ] = -r.nextInt( 100000 ); break;
+                default: res[ i ] = r.nextLong(); break;
+            }
+        }
+        return res;
+    }
+
+    private static long[] rates( final Random r, final int length )
+    {
+        final long[] res = new long[ length ];
+        for ( int i = 0; i < length; ++i )
+            res[ i ] = i % 5 == 0 ? -r.nextInt( 100000 ) : r.nextInt( 1000000 );
+        return res;
+    }
+
+    private static int[] periods( final Random r, final int length )
+    {
+        final int[] res = new int[ length ];
+        for ( int i = 0; i < length; ++i )
+            res[ i ] = r.nextInt( 40 );
+        return res;
+    }
+
+    public void testMatchesReference()
+    {
+        final Random r = new Random( 48 );
+        final int length = 301;
+        final long[] balances = balances( r, length );
+        final long[] rates = rates( r, length );
+        final int[] periods = periods( r, length );
+        final long[] dest = new long[ length ];
+        final long[] overflow = new long[ MoneyColumns.maskLength( length ) ];
+        for ( final boolean compound : new boolean[] { false, true } )
+            for ( final RoundingMode mode : RoundingMode.values() )
+            {
+                if ( mode == RoundingMode.UNNECESSARY )
+                    continue;
+                final MoneyAccrual accrual = compound ? MoneyAccrual.compound( RATE_SCALE, mode ) : MoneyAccrual.simple( RATE_SCALE, mode );
+                int expectedOverflows = 0;
+                final int overflows = accrual.accrue( balances, rates, periods, dest, overflow );
+                for ( int i = 0; i < length; ++i )
+                {
+                    final BigInteger expected = reference( compound, balances[ i ], rates[ i ], periods[ i ], mode );
+                    final String msg = accrual + " " + balances[ i ] + " " + rates[ i ] + " " + periods[ i ];
+                    final boolean overflowed = ( overflow[ i >> 6 ] & ( 1L << i ) ) != 0;
+                    if ( expected == null )
+                    {
+                        ++expectedOverflows;
+                        assertTrue( msg, overflowed );
+                    }
+                    else
+                    {
+                        assertFalse( msg, overflowed );
+                        assertEquals( msg, expected.longValue(), dest[ i ] );
+                    }
+                }
+                assertEquals( expectedOverflows, overflows );
+                //huge balances are compounded beyond long
+                if ( compound )
+                    assertTrue( overflows > 0 );
+            }
+    }
+
+    public void testSingle()
+    {
+        //1000.00 at 5% a year, daily rate 0.000136986 (9 digits)
+        final MoneyAccrual simple = MoneyAccrual.simple( RATE_SCALE, RoundingMode.HALF_EVEN );
+        final MoneyAccrual compound = MoneyAccrual.compound( RATE_SCALE, RoundingMode.HALF_EVEN );
+        //13.6986 cents a day is rounded to 14 cents
+        assertEquals( 14 * 30, simple.accrue( 100000, 136986, 30 ) );
+        assertEquals( 0, simple.accrue( 100000, 136986, 0 ) );
+        assertEquals( 0, compound.accrue( 100000, 136986, 0 ) );
+        assertEquals( 14, compound.accrue( 100000, 136986, 1 ) );
+        //interest grows too slowly to change the rounded value of a small balance
+        assertEquals( simple.accrue( 100000, 136986, 365 ), compound.accrue( 100000, 136986, 365 ) );
+        assertEquals( 136986 * 365, simple.accrue( 1000000000, 136986, 365 ) );
+        assertEquals( 51267375, compound.accrue( 1000000000, 136986, 365 ) );
+        //half a cent
+        assertEquals( 0, MoneyAccrual.simple( 3, RoundingMode.HALF_EVEN ).accrue( 5, 100, 1 ) );
+        assertEquals( 1, MoneyAccrual.simple( 3, RoundingMode.HALF_UP ).accrue( 5, 100, 1 ) );
+        assertEquals( -1, MoneyAccrual.simple( 3, RoundingMode.FLOOR ).accrue( 5, -100, 1 ) );
+        try
+        {
+            simple.accrue( Long.MAX_VALUE, 1000000000, 2 );
+            fail( "Overflow" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        try
+        {
+            MoneyAccrual.simple( 0, RoundingMode.DOWN ).accrue( Long.MIN_VALUE, 1, 1 );
+            fail( "Long.MIN_VALUE interest" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        try
+        {
+            simple.accrue( 1, 1, -1 );
+            fail( "Negative periods" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            //expected
+        }
+        try
+        {
+            MoneyAccrual.compound( RATE_SCALE, RoundingMode.UNNECESSARY );
+            fail( "UNNECESSARY" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            //expected
+        }
+    }
+
+    public void testParallel() throws InterruptedException
+    {
+        final Random r = new Random( 480 );
+        final int length = 300001;
+        final long[] balances = balances( r, length );
+        final long[] rates = rates( r, length );
+        final int[] periods = periods( r, length );
+        final MoneyAccrual accrual = MoneyAccrual.compound( RATE_SCALE, RoundingMode.HALF_EVEN );
+        final long[] expected = new long[ length ];
+        final long[] expectedOverflow = new long[ MoneyColumns.maskLength( length ) ];
+        final int expectedOverflows = accrual.accrue( balances, rates, periods, expected, expectedOverflow );
+
+        final long[] dest = new long[ length ];
+        final long[] overflow = new long[ expectedOverflow.length ];
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            assertEquals( expectedOverflows, accrual.accrue( balances, rates, periods, dest, overflow, executor ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertTrue( Arrays.equals( expectedOverflow, overflow ) );
+        for ( int i = 0; i < length; ++i )
+            if ( ( overflow[ i >> 6 ] & ( 1L << i ) ) == 0 )
+                assertEquals( expected[ i ], dest[ i ] );
+    }
+}
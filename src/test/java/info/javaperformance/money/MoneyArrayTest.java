@@ -0,0 +1,158 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+public class MoneyArrayTest extends TestCase {
+    public void testSetGet()
+    {
+        final MoneyArray arr = new MoneyArray( 100 );
+        assertEquals( 100, arr.size() );
+        assertEquals( MoneyFactory.fromUnits( 0, 0 ), arr.get( 50 ) );
+
+        arr.set( 0, 12345, 2 );
+        arr.set( 99, MoneyFactory.fromString( "-1.005" ) );
+        arr.set( 1, MoneyFactory.fromDouble( 0.05, 1 ) ); //BigDecimal-based, but fits into long
+        assertEquals( 12345, arr.getUnits( 0 ) );
+        assertEquals( 2, arr.getPrecision( 0 ) );
+        assertEquals( "123.45", arr.get( 0 ).toString() );
+        assertEquals( "-1.005", arr.get( 99 ).toString() );
+        assertEquals( "0.05", arr.get( 1 ).toString() );
+
+        //BigDecimal-based values are converted exactly, not via double
+        final Money exact = new MoneyBigDecimal( new BigDecimal( "12345678901234567.890" ) );
+        arr.set( 3, exact );
+        assertEquals( "12345678901234567.89", arr.get( 3 ).toString() );
+        assertTrue( arr.add( 3, exact ) );
+        assertEquals( "24691357802469135.78", arr.get( 3 ).toString() );
+
+        try
+        {
+            arr.set( 2, MoneyFactory.fromString( "123456789012345678901234567890" ) );
+            fail( "Too large values should be rejected" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            arr.add( 2, MoneyFactory.fromString( "0.0000000000000000001" ) );
+            fail( "Too precise values should be rejected" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            arr.get( 100 );
+            fail( "Index is out of bounds" );
+        }
+        catch ( IndexOutOfBoundsException ex )
+        {
+        }
+    }
+
+    public void testAdd()
+    {
+        final MoneyArray arr = new MoneyArray( 10 );
+        arr.set( 0, 150, 2 );
+        assertTrue( arr.add( 0, 5, 1 ) ); //1.5 + 0.5
+        assertEquals( 2, arr.getUnits( 0 ) );
+        assertEquals( 0, arr.getPrecision( 0 ) );
+
+        assertTrue( arr.add( 0, MoneyFactory.fromString( "0.001" ) ) );
+        assertEquals( MoneyFactory.fromString( "2.001" ), arr.get( 0 ) );
+
+        for ( int i = 0; i < 1000; ++i )
+            assertTrue( arr.add( 1, MoneyFactory.fromString( "0.01" ) ) );
+        assertEquals( MoneyFactory.fromUnits( 10, 0 ), arr.get( 1 ) );
+
+        //overflow leaves the value unchanged
+        arr.set( 2, Long.MAX_VALUE - 1, 0 );
+        assertFalse( arr.add( 2, 2, 0 ) );
+        assertEquals( Long.MAX_VALUE - 1, arr.getUnits( 2 ) );
+        arr.set( 3, Long.MIN_VALUE + 1, 0 );
+        assertFalse( arr.add( 3, -2, 0 ) );
+        arr.set( 4, Long.MAX_VALUE / 2, 0 );
+        assertFalse( arr.add( 4, 1, 1 ) ); //rescale overflow
+        assertEquals( Long.MAX_VALUE / 2, arr.getUnits( 4 ) );
+
+        //Long.MIN_VALUE is a valid value, not an overflow marker
+        arr.set( 5, Long.MIN_VALUE, 2 );
+        assertTrue( arr.add( 5, 0, 0 ) );
+        assertTrue( arr.add( 5, 7, 2 ) );
+        assertEquals( Long.MIN_VALUE + 7, arr.getUnits( 5 ) );
+        arr.set( 6, 0, 0 );
+        assertTrue( arr.add( 6, Long.MIN_VALUE, 0 ) );
+        assertEquals( Long.MIN_VALUE, arr.getUnits( 6 ) );
+    }
+
+    public void testForEach()
+    {
+        final MoneyArray arr = new MoneyArray( 1000 );
+        for ( int i = 0; i < arr.size(); ++i )
+            arr.set( i, i, i % 3 );
+        final long[] sum = new long[ 1 ];
+        assertTrue( arr.forEach( new MoneyProcedure() {
+            public boolean forEntry( final long index, final long units, final int precision ) {
+                assertEquals( index, units );
+                assertEquals( index % 3, precision );
+                sum[ 0 ] += units;
+                return true;
+            }
+        } ) );
+        assertEquals( 999 * 1000 / 2, sum[ 0 ] );
+
+        final int[] cnt = new int[ 1 ];
+        assertFalse( arr.forEach( 10, 20, new MoneyProcedure() {
+            public boolean forEntry( final long index, final long units, final int precision ) {
+                return ++cnt[ 0 ] < 5;
+            }
+        } ) );
+        assertEquals( 5, cnt[ 0 ] );
+    }
+
+    public void testMappedFile() throws IOException
+    {
+        final File file = File.createTempFile( "money", ".arr" );
+        try
+        {
+            final MoneyArray arr = MoneyArray.create( file, 12345 );
+            for ( int i = 0; i < arr.size(); ++i )
+                arr.set( i, -i, i % 16 );
+            arr.close();
+
+            final MoneyArray copy = MoneyArray.open( file );
+            assertEquals( 12345, copy.size() );
+            for ( int i = 0; i < copy.size(); ++i )
+            {
+                assertEquals( -i, copy.getUnits( i ) );
+                assertEquals( i % 16, copy.getPrecision( i ) );
+            }
+            copy.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MoneyBlockCodecTest extends TestCase {
+
+    private static void checkRoundTrip( final long[] units, final int[] precisions )
+    {
+        final ByteBuffer buf = ByteBuffer.allocate( ( int ) MoneyBlockCodec.maxEncodedLength( units.length ) );
+        MoneyBlockCodec.encode( units, precisions, 0, units.length, buf );
+        buf.flip();
+        final long[] units2 = new long[ units.length + 1 ];
+        final int[] precisions2 = new int[ units.length + 1 ];
+        assertEquals( units.length, MoneyBlockCodec.decode( buf, units2, precisions2, 1 ) );
+        assertFalse( buf.hasRemaining() );
+        assertTrue( Arrays.equals( units, Arrays.copyOfRange( units2, 1, units2.length ) ) );
+        assertTrue( Arrays.equals( precisions, Arrays.copyOfRange( precisions2, 1, precisions2.length ) ) );
+    }
+
+    public void testEmpty()
+    {
+        checkRoundTrip( new long[ 0 ], new int[ 0 ] );
+    }
+
+    public void testRandomWalk()
+    {
+        final Random r = new Random( 123 );
+        final long[] units = new long[ 10000 ];
+        final int[] precisions = new int[ units.length ];
+        long price = 1234567;
+        for ( int i = 0; i < units.length; ++i )
+        {
+            price += r.nextInt( 21 ) - 10;
+            units[ i ] = price;
+            precisions[ i ] = 4;
+        }
+        checkRoundTrip( units, precisions );
+
+        final ByteBuffer buf = ByteBuffer.allocate( ( int ) MoneyBlockCodec.maxEncodedLength( units.length ) );
+        MoneyBlockCodec.encode( units, precisions, 0, units.length, buf );
+        //5 bits per value for deltas + frame overhead
+        assertTrue( "Encoded size = " + buf.position(), buf.position() < units.length );
+    }
+
+    public void testMixedPrecisions()
+    {
+        final Random r = new Random( 456 );
+        final long[] units = new long[ 5000 ];
+        final int[] precisions = new int[ units.length ];
+        for ( int i = 0; i < units.length; ++i )
+        {
+            units[ i ] = r.nextInt( 1000000 ) - 500000;
+            precisions[ i ] = ( i / 7 ) % ( MoneyFactory.MAX_ALLOWED_PRECISION + 1 );
+        }
+        checkRoundTrip( units, precisions );
+    }
+
+    public void testExtremeValues()
+    {
+        final long[] units = { Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, Long.MAX_VALUE, 1, Long.MIN_VALUE, Long.MIN_VALUE };
+        final int[] precisions = new int[ units.length ];
+        Arrays.fill( precisions, 2 );
+        checkRoundTrip( units, precisions );
+
+        final long[] same = new long[ 300 ];
+        Arrays.fill( same, -42 );
+        checkRoundTrip( same, new int[ same.length ] );
+    }
+
+    public void testAllWidths()
+    {
+        for ( int width = 0; width < 64; ++width )
+        {
+            final long[] units = new long[ 77 ];
+            final int[] precisions = new int[ units.length ];
+            for ( int i = 0; i < units.length; ++i )
+                units[ i ] = ( i % 3 == 0 ) ? ( 1L << width ) - 1 : i % 2;
+            checkRoundTrip( units, precisions );
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class MoneyCodecTest extends TestCase {
+    private static final Money[] VALUES = {
+            new MoneyLong( 0, 0 ),
+            new MoneyLong( 1, 0 ),
+            new MoneyLong( -1, 0 ),
+            new MoneyLong( 2, 5 ),
+            new MoneyLong( -3, 15 ),
+            new MoneyLong( 12345, 2 ),
+            new MoneyLong( -987654321, 7 ),
+            new MoneyLong( 500, 2 ), //not normalized, should be kept as is
+            new MoneyLong( Long.MAX_VALUE, 3 ),
+            new MoneyLong( Long.MIN_VALUE, 15 ),
+            MoneyFactory.fromString( "1234567890.12345678901234567890" ),
+            MoneyFactory.fromString( "-123456789012345678901234567890" ),
+            MoneyFactory.fromDouble( 0.05, 1 ),
+            new MoneyBigDecimal( new BigDecimal( "1E+20" ) ),
+    };
+
+    public void testByteArray()
+    {
+        final byte[] buf = new byte[ 1024 ];
+        int pos = 0;
+        for ( final Money m : VALUES )
+        {
+            final int next = MoneyCodec.write( m, buf, pos );
+            assertEquals( MoneyCodec.encodedLength( m ), next - pos );
+            assertEquals( next, MoneyCodec.skip( buf, pos ) );
+            assertEquals( m, MoneyCodec.read( buf, pos ) );
+            pos = next;
+        }
+        final Money[] res = new Money[ VALUES.length + 1 ];
+        assertEquals( pos, MoneyCodec.readArray( buf, 0, res, 1, VALUES.length ) );
+        for ( int i = 0; i < VALUES.length; ++i )
+            assertEquals( VALUES[ i ], res[ i + 1 ] );
+    }
+
+    public void testByteBuffer()
+    {
+        final ByteBuffer buf = ByteBuffer.allocateDirect( 1024 );
+        MoneyCodec.writeArray( VALUES, 0, VALUES.length, buf );
+        final int len = buf.position();
+        buf.flip();
+        final Money[] res = new Money[ VALUES.length ];
+        MoneyCodec.readArray( buf, res, 0, VALUES.length );
+        assertEquals( len, buf.position() );
+        for ( int i = 0; i < VALUES.length; ++i )
+            assertEquals( VALUES[ i ], res[ i ] );
+
+        //both formats must be identical
+        final byte[] arr = new byte[ len ];
+        assertEquals( len, MoneyCodec.writeArray( VALUES, 0, VALUES.length, arr, 0 ) );
+        buf.flip();
+        final byte[] fromBuf = new byte[ len ];
+        buf.get( fromBuf );
+        assertTrue( Arrays.equals( arr, fromBuf ) );
+    }
+
+    public void testEncodedLength()
+    {
+        assertEquals( 1, MoneyCodec.encodedLength( MoneyFactory.fromUnits( 1, 15 ) ) );
+        assertEquals( 1, MoneyCodec.encodedLength( MoneyFactory.fromUnits( -2, 15 ) ) );
+        assertEquals( 2, MoneyCodec.encodedLength( MoneyFactory.fromUnits( 2, 3 ) ) );
+        assertEquals( 2, MoneyCodec.encodedLength( MoneyFactory.fromUnits( 255, 3 ) ) );
+        assertEquals( 3, MoneyCodec.encodedLength( MoneyFactory.fromUnits( 256, 3 ) ) );
+        assertEquals( MoneyCodec.MAX_LONG_ENCODED_LENGTH, MoneyCodec.encodedLength( Long.MAX_VALUE ) );
+        assertEquals( MoneyCodec.MAX_LONG_ENCODED_LENGTH, MoneyCodec.encodedLength( Long.MIN_VALUE ) );
+    }
+
+    public void testColumns()
+    {
+        final int size = 1000;
+        final long[] units = new long[ size ];
+        final int[] precisions = new int[ size ];
+        long v = 1;
+        for ( int i = 0; i < size; ++i )
+        {
+            units[ i ] = ( i & 1 ) == 0 ? v : -v;
+            precisions[ i ] = i % ( MoneyFactory.MAX_ALLOWED_PRECISION + 1 );
+            v = v * 3 + 1;
+        }
+        final byte[] buf = new byte[ size * MoneyCodec.MAX_LONG_ENCODED_LENGTH ];
+        final int len = MoneyCodec.writeColumns( units, precisions, 0, size, buf, 0 );
+
+        final long[] units2 = new long[ size ];
+        final int[] precisions2 = new int[ size ];
+        assertEquals( len, MoneyCodec.readColumns( buf, 0, units2, precisions2, 0, size ) );
+        assertTrue( Arrays.equals( units, units2 ) );
+        assertTrue( Arrays.equals( precisions, precisions2 ) );
+
+        final ByteBuffer bb = ByteBuffer.wrap( buf, 0, len );
+        final long[] units3 = new long[ size ];
+        final int[] precisions3 = new int[ size ];
+        MoneyCodec.readColumns( bb, units3, precisions3, 0, size );
+        assertEquals( len, bb.position() );
+        assertTrue( Arrays.equals( units, units3 ) );
+        assertTrue( Arrays.equals( precisions, precisions3 ) );
+    }
+
+    public void testColumnsRejectBigDecimal()
+    {
+        final byte[] buf = new byte[ 64 ];
+        MoneyCodec.write( MoneyFactory.fromString( "123456789012345678901234567890" ), buf, 0 );
+        try
+        {
+            MoneyCodec.readColumns( buf, 0, new long[ 1 ], new int[ 1 ], 0, 1 );
+            fail( "BigDecimal value must not be read into columns" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testMalformedBigDecimal()
+    {
+        final byte[] buf = new byte[ 64 ];
+        final int end = MoneyCodec.write( MoneyFactory.fromString( "123456789012345678901234567890" ), buf, 0 );
+        //truncated payload
+        final byte[] truncated = Arrays.copyOf( buf, end - 1 );
+        try
+        {
+            MoneyCodec.read( truncated, 0 );
+            fail( "Truncated payload" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            MoneyCodec.read( ByteBuffer.wrap( truncated ) );
+            fail( "Truncated payload" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        //empty payload: flag, zigzag scale 0, length 0
+        final byte[] empty = { buf[ 0 ], 0, 0 };
+        try
+        {
+            MoneyCodec.read( empty, 0 );
+            fail( "Empty payload" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            MoneyCodec.read( ByteBuffer.wrap( empty ) );
+            fail( "Empty payload" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testWriteRejectsInvalidPrecision()
+    {
+        try
+        {
+            MoneyCodec.write( 1, 16, new byte[ 16 ], 0 );
+            fail( "Precision does not fit into a header" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            MoneyCodec.write( 1, -1, ByteBuffer.allocate( 16 ) );
+            fail( "Negative precision" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+}
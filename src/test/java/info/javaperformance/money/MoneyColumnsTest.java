@@ -0,0 +1,317 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MoneyColumnsTest extends TestCase {
+    private static final BigInteger MIN = BigInteger.valueOf( Long.MIN_VALUE );
+    private static final BigInteger MAX = BigInteger.valueOf( Long.MAX_VALUE );
+
+    private static final long[] SCALARS = { 0, 1, -1, 7, -7, 100000, Long.MAX_VALUE, Long.MIN_VALUE,
+            Long.MAX_VALUE / 3, Long.MIN_VALUE / 3, 1L << 32 };
+
+    /** Set by test runs which must use SIMD kernels */
+    private static final String VECTOR_PROPERTY = "info.javaperformance.money.test.vector";
+
+    /**
+     * Mix of small and huge values, length is not a multiple of any vector size
+     */
+    private static long[] data( final Random r, final int length )
+    {
+        final long[] res = new long[ length ];
+        for ( int i = 0; i < length; ++i )
+        {
+            switch ( r.nextInt( 4 ) )
+            {
+                case 0: res[ i ] = r.nextInt( 100000 ) - 50000; break;
+                case 1: res[ i ] = r.nextBoolean() ? Long.MAX_VALUE - r.nextInt( 10 ) : Long.MIN_VALUE + r.nextInt( 10 ); break;
+                default: res[ i ] = r.nextLong() >> r.nextInt( 64 );
+            }
+        }
+        return res;
+    }
+
+    private static void check( final BigInteger[] expected, final long[] dest, final long[] overflow, final int overflowed )
+    {
+        int cnt = 0;
+        for ( int i = 0; i < expected.length; ++i )
+        {
+            final boolean fits = expected[ i ].compareTo( MIN ) >= 0 && expected[ i ].compareTo( MAX ) <= 0;
+            assertEquals( "Index " + i, !fits, ( overflow[ i >> 6 ] & ( 1L << i ) ) != 0 );
+            if ( fits )
+                assertEquals( "Index " + i, expected[ i ].longValue(), dest[ i ] );
+            else
+                ++cnt;
+        }
+        assertEquals( cnt, overflowed );
+        //no garbage bits after the last value
+        if ( ( expected.length & 63 ) != 0 )
+            assertEquals( 0, overflow[ expected.length >> 6 ] >>> expected.length );
+    }
+
+    public void testKernels()
+    {
+        MoneyMathTest.assertReleaseVersion( VectorKernels.class );
+        if ( Boolean.getBoolean( VECTOR_PROPERTY ) )
+            assertTrue( "Vector API is not available", VectorKernels.AVAILABLE );
+        if ( !String.valueOf( VectorKernels.class.getResource( "VectorKernels.class" ) ).contains( "META-INF/versions/" ) )
+        {
+            //base version kernels process an empty prefix
+            final long[] units = { 1, 2, 3 };
+            final long[] mask = new long[ 1 ];
+            assertEquals( 0, VectorKernels.add( units, 1, units.clone(), mask, units.length ) );
+            assertEquals( 0, VectorKernels.greaterThan( units, 0, mask, units.length ) );
+            assertEquals( 0, mask[ 0 ] );
+        }
+    }
+
+    /**
+     * All lengths up to several vectors of the widest species, so every kernel leaves a different scalar tail
+     */
+    public void testTailLengths()
+    {
+        final Random r = new Random( 14 );
+        for ( int length = 0; length <= 40; ++length )
+        {
+            final long[] a = data( r, length );
+            final long[] b = data( r, length );
+            final long[] dest = new long[ length ];
+            final long[] overflow = new long[ MoneyColumns.maskLength( length ) ];
+            final BigInteger[] expected = new BigInteger[ length ];
+
+            for ( int i = 0; i < length; ++i )
+                expected[ i ] = BigInteger.valueOf( a[ i ] ).add( BigInteger.valueOf( b[ i ] ) );
+            check( expected, dest, overflow, MoneyColumns.add( a, b, dest, overflow ) );
+
+            for ( int i = 0; i < length; ++i )
+                expected[ i ] = BigInteger.valueOf( a[ i ] ).subtract( BigInteger.valueOf( 7 ) );
+            check( expected, dest, overflow, MoneyColumns.subtract( a, 7, dest, overflow ) );
+
+            for ( int i = 0; i < length; ++i )
+                expected[ i ] = BigInteger.valueOf( a[ i ] ).multiply( BigInteger.valueOf( -3 ) );
+            check( expected, dest, overflow, MoneyColumns.multiply( a, -3, dest, overflow ) );
+
+            int cnt = 0;
+            final int greater = MoneyColumns.greaterThan( a, 0, overflow );
+            for ( int i = 0; i < length; ++i )
+            {
+                assertEquals( a[ i ] > 0, ( overflow[ i >> 6 ] & ( 1L << i ) ) != 0 );
+                if ( a[ i ] > 0 )
+                    ++cnt;
+            }
+            assertEquals( cnt, greater );
+        }
+    }
+
+    public void testScalarOperations()
+    {
+        final Random r = new Random( 11 );
+        final long[] units = data( r, 1003 );
+        final long[] dest = new long[ units.length ];
+        final long[] overflow = new long[ MoneyColumns.maskLength( units.length ) ];
+        final BigInteger[] expected = new BigInteger[ units.length ];
+        for ( final long value : SCALARS )
+        {
+            final BigInteger v = BigInteger.valueOf( value );
+
+            for ( int i = 0; i < units.length; ++i )
+                expected[ i ] = BigInteger.valueOf( units[ i ] ).add( v );
+            check( expected, dest, overflow, MoneyColumns.add( units, value, dest, overflow ) );
+
+            for ( int i = 0; i < units.length; ++i )
+                expected[ i ] = BigInteger.valueOf( units[ i ] ).subtract( v );
+            check( expected, dest, overflow, MoneyColumns.subtract( units, value, dest, overflow ) );
+
+            for ( int i = 0; i < units.length; ++i )
+                expected[ i ] = BigInteger.valueOf( units[ i ] ).multiply( v );
+            check( expected, dest, overflow, MoneyColumns.multiply( units, value, dest, overflow ) );
+
+            final int greater = MoneyColumns.greaterThan( units, value, overflow );
+            int cnt = 0;
+            for ( int i = 0; i < units.length; ++i )
+            {
+                assertEquals( units[ i ] > value, ( overflow[ i >> 6 ] & ( 1L << i ) ) != 0 );
+                if ( units[ i ] > value )
+                    ++cnt;
+            }
+            assertEquals( cnt, greater );
+
+            final int less = MoneyColumns.lessThan( units, value, overflow );
+            cnt = 0;
+            for ( int i = 0; i < units.length; ++i )
+            {
+                assertEquals( units[ i ] < value, ( overflow[ i >> 6 ] & ( 1L << i ) ) != 0 );
+                if ( units[ i ] < value )
+                    ++cnt;
+            }
+            assertEquals( cnt, less );
+        }
+    }
+
+    public void testColumnOperations()
+    {
+        final Random r = new Random( 12 );
+        final long[] a = data( r, 517 );
+        final long[] b = data( r, 517 );
+        final long[] dest = new long[ a.length ];
+        final long[] overflow = new long[ MoneyColumns.maskLength( a.length ) ];
+        final BigInteger[] expected = new BigInteger[ a.length ];
+
+        for ( int i = 0; i < a.length; ++i )
+            expected[ i ] = BigInteger.valueOf( a[ i ] ).add( BigInteger.valueOf( b[ i ] ) );
+        check( expected, dest, overflow, MoneyColumns.add( a, b, dest, overflow ) );
+
+        for ( int i = 0; i < a.length; ++i )
+            expected[ i ] = BigInteger.valueOf( a[ i ] ).subtract( BigInteger.valueOf( b[ i ] ) );
+        check( expected, dest, overflow, MoneyColumns.subtract( a, b, dest, overflow ) );
+
+        //in place
+        final long[] copy = a.clone();
+        for ( int i = 0; i < a.length; ++i )
+            expected[ i ] = BigInteger.valueOf( a[ i ] ).add( BigInteger.valueOf( b[ i ] ) );
+        check( expected, copy, overflow, MoneyColumns.add( copy, b, copy, overflow ) );
+    }
+
+    public void testSlowPath()
+    {
+        //overflowed values are recalculated via Money objects
+        final long[] units = { 100, Long.MAX_VALUE - 5, -300 };
+        final long[] dest = new long[ units.length ];
+        final long[] overflow = new long[ 1 ];
+        assertEquals( 1, MoneyColumns.add( units, 10, dest, overflow ) );
+        assertEquals( 2, overflow[ 0 ] );
+        final Money slow = MoneyFactory.fromUnits( units[ 1 ], 2 ).add( MoneyFactory.fromUnits( 10, 2 ) );
+        assertEquals( BigInteger.valueOf( Long.MAX_VALUE ).add( BigInteger.valueOf( 5 ) ), slow.toBigDecimal().movePointRight( 2 ).toBigIntegerExact() );
+        assertEquals( 110, dest[ 0 ] );
+        assertEquals( -290, dest[ 2 ] );
+    }
+
+    private static BigDecimal reference( final long[] quantities, final long[] units, final int[] precisions )
+    {
+        BigDecimal res = BigDecimal.ZERO;
+        for ( int i = 0; i < quantities.length; ++i )
+            res = res.add( BigDecimal.valueOf( units[ i ], precisions[ i ] ).multiply( BigDecimal.valueOf( quantities[ i ] ) ) );
+        return res;
+    }
+
+    private static void assertSame( final BigDecimal expected, final Money actual )
+    {
+        assertEquals( expected.toString() + " vs " + actual, 0, expected.compareTo( actual.toBigDecimal() ) );
+        //results are in the canonical representation. fromBigDecimal snaps values with too many digits to a double,
+        //in this case the exact conversion is the reference
+        final Money canonical = MoneyFactory.fromBigDecimal( expected );
+        if ( canonical.toBigDecimal().compareTo( expected ) == 0 )
+            assertEquals( expected.toString(), canonical, actual );
+        else
+            assertEquals( expected.toString(), MoneyFactory.fromBigDecimalExact( expected ), actual );
+    }
+
+    public void testSumOfProducts() throws InterruptedException
+    {
+        final Random r = new Random( 13 );
+        final int length = 300000;
+        final long[] quantities = new long[ length ];
+        final long[] units = new long[ length ];
+        final int[] precisions = new int[ length ];
+        for ( int i = 0; i < length; ++i )
+        {
+            quantities[ i ] = r.nextInt( 10000 ) - 100;
+            units[ i ] = r.nextInt( 10000000 );
+            precisions[ i ] = r.nextInt( 4 );
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final BigDecimal expected = reference( quantities, units, precisions );
+            final Money sequential = MoneyColumns.sumOfProducts( quantities, units, precisions );
+            assertTrue( sequential instanceof MoneyLong );
+            assertSame( expected, sequential );
+            assertSame( expected, MoneyColumns.sumOfProducts( quantities, units, precisions, executor ) );
+
+            //huge values overflow 128 bit accumulators
+            for ( int i = 0; i < length; i += 7 )
+            {
+                quantities[ i ] = r.nextBoolean() ? Long.MAX_VALUE : Long.MIN_VALUE;
+                units[ i ] = r.nextBoolean() ? Long.MAX_VALUE - r.nextInt( 100 ) : Long.MIN_VALUE + r.nextInt( 100 );
+                precisions[ i ] = MoneyFactory.MAX_ALLOWED_PRECISION - r.nextInt( 2 );
+            }
+            final BigDecimal expectedHuge = reference( quantities, units, precisions );
+            assertSame( expectedHuge, MoneyColumns.sumOfProducts( quantities, units, precisions ) );
+            assertSame( expectedHuge, MoneyColumns.sumOfProducts( quantities, units, precisions, executor ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testSumOfProductsSmall()
+    {
+        assertSame( BigDecimal.ZERO, MoneyColumns.sumOfProducts( new long[ 0 ], new long[ 0 ], new int[ 0 ] ) );
+        //same precision overflow: 3 * (2^63 - 1)^2 does not fit into 128 bits
+        final long[] quantities = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, -1 };
+        final long[] units = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, 5 };
+        final int[] precisions = { 2, 2, 2, 0 };
+        assertSame( reference( quantities, units, precisions ), MoneyColumns.sumOfProducts( quantities, units, precisions ) );
+        //a portfolio: 10 x 1.25 + 3 x 100.1 = 312.8
+        final Money value = MoneyColumns.sumOfProducts( new long[] { 10, 3 }, new long[] { 125, 1001 }, new int[] { 2, 1 } );
+        assertEquals( "312.8", value.toString() );
+        //2 * 10^19 units with precision 2 overflow long, but the normalized value is a MoneyLong
+        final Money normalized = MoneyColumns.sumOfProducts( new long[] { 10000000000L }, new long[] { 2000000000L }, new int[] { 2 } );
+        assertEquals( MoneyFactory.fromUnits( 200000000000000000L, 0 ), normalized );
+        assertEquals( "200000000000000000", normalized.toString() );
+        //10^30 does not fit into long
+        final Money huge = MoneyColumns.sumOfProducts( new long[] { 1000000000000000L }, new long[] { 1000000000000000L }, new int[] { 0 } );
+        assertEquals( MoneyFactory.fromUnits( 1000000000000000L, 0 ).multiply( 1000000000000000L ), huge );
+        assertSame( new BigDecimal( "1E+30" ), huge );
+        try
+        {
+            MoneyColumns.sumOfProducts( new long[] { 1 }, new long[] { 1 }, new int[] { 16 } );
+            fail( "Invalid precision accepted" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+
+    public void testInvalidArguments()
+    {
+        try
+        {
+            MoneyColumns.add( new long[ 100 ], 1, new long[ 100 ], new long[ 1 ] );
+            fail( "Short bitmask accepted" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+        try
+        {
+            MoneyColumns.add( new long[ 100 ], new long[ 99 ], new long[ 100 ], new long[ 2 ] );
+            fail( "Short column accepted" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+    }
+}
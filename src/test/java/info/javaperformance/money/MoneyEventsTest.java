@@ -0,0 +1,96 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * This test requires Java 11+ classes, so it is run against the multi-release jar
+ */
+public class MoneyEventsTest extends TestCase {
+    private static final String FALLBACK = "info.javaperformance.money.Fallback";
+
+    public void testFallbackEvents() throws IOException
+    {
+        final Path file = Files.createTempFile( "money-events", ".jfr" );
+        try
+        {
+            final Recording recording = new Recording();
+            recording.enable( FALLBACK );
+            recording.start();
+            final Money big = MoneyFactory.fromUnits( Long.MAX_VALUE / 2 + 1, 1 );
+            big.multiply( 10 );
+            big.add( MoneyFactory.fromUnits( 1, 3 ) );
+            MoneyFactory.fromUnits( 12345, 2 ).multiply( 1.0 / 7 );
+            recording.stop();
+            recording.dump( file );
+            recording.close();
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents( file );
+            assertEquals( 4, events.size() );
+            assertEvent( events.get( 0 ), MoneyMetrics.FallbackSite.MULTIPLY_LONG_OVERFLOW, 1, -1 );
+            assertEvent( events.get( 1 ), MoneyMetrics.FallbackSite.ADD_OVERFLOW, 1, 3 );
+            //a BigDecimal sum can not be converted back to MoneyLong
+            assertEvent( events.get( 2 ), MoneyMetrics.FallbackSite.FROM_BIG_DECIMAL, 3, -1 );
+            assertEvent( events.get( 3 ), MoneyMetrics.FallbackSite.MULTIPLY_DOUBLE, 2, -1 );
+        }
+        finally
+        {
+            Files.delete( file );
+        }
+    }
+
+    public void testDisabledEvents() throws IOException
+    {
+        final Path file = Files.createTempFile( "money-events", ".jfr" );
+        try
+        {
+            final Recording recording = new Recording();
+            recording.disable( FALLBACK );
+            recording.start();
+            MoneyFactory.fromUnits( Long.MAX_VALUE, 0 ).multiply( 10 );
+            recording.stop();
+            recording.dump( file );
+            recording.close();
+
+            for ( final RecordedEvent event : RecordingFile.readAllEvents( file ) )
+                assertFalse( FALLBACK.equals( event.getEventType().getName() ) );
+        }
+        finally
+        {
+            Files.delete( file );
+        }
+    }
+
+    private static void assertEvent( final RecordedEvent event, final MoneyMetrics.FallbackSite site,
+                                     final int precision, final int otherPrecision )
+    {
+        assertEquals( FALLBACK, event.getEventType().getName() );
+        assertEquals( site.name(), event.getString( "reason" ) );
+        assertEquals( precision, event.getInt( "precision" ) );
+        assertEquals( otherPrecision, event.getInt( "otherPrecision" ) );
+        assertNotNull( event.getStackTrace() );
+    }
+}
@@ -19,6 +19,7 @@ package info.javaperformance.money;
 import junit.framework.TestCase;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 public class MoneyFactoryTest extends TestCase {
     public void testLongConversions()
@@ -127,6 +128,25 @@ public class MoneyFactoryTest extends TestCase {
         assertEquals( val5, bd5.toString() );
     }
 
+    public void testFromBdExactMatchesFromBd()
+    {
+        final String[] values = { "1E+30", "-1.5E+25", "1000000000000000000000000000000.00", "1234567890123456789012",
+                "123456789012345600000000000", "0.000000000000000000000005", "0.0000000000000000000000050",
+                "100.00", "0", "0E+5", "12345.678900", "-123456789012346000" };
+        for ( final String value : values )
+        {
+            final BigDecimal bd = new BigDecimal( value );
+            final Money expected = MoneyFactory.fromBigDecimal( bd );
+            final Money actual = MoneyFactory.fromBigDecimalExact( bd );
+            assertEquals( value, expected, actual );
+            assertEquals( value, expected.hashCode(), actual.hashCode() );
+            assertEquals( value, expected.toString(), actual.toString() );
+        }
+        //truncation results are converted the same way
+        final Money big = MoneyFactory.fromString( "1000000000000000000000000000000.5" );
+        assertEquals( MoneyFactory.fromBigDecimal( new BigDecimal( "1E+30" ) ), big.truncate( 0, RoundingMode.DOWN ) );
+    }
+
     public void testFromCharArray()
     {
         final char[] buffer = new char[ 100 ];
@@ -0,0 +1,97 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+public class MoneyMathTest extends TestCase {
+    private static final BigInteger MIN = BigInteger.valueOf( Long.MIN_VALUE );
+    private static final BigInteger MAX = BigInteger.valueOf( Long.MAX_VALUE );
+
+    private static final long[] SPECIAL = { 0, 1, -1, 2, -2, 10, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE / 10,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 31, -( 1L << 31 ), 1L << 32, 3037000499L, 3037000500L };
+
+    /** Set by multi-release jar test runs to a version whose classes must be loaded */
+    static final String RELEASE_PROPERTY = "info.javaperformance.money.test.release";
+
+    /**
+     * Check that a class was loaded from a multi-release jar directory of a version expected by a test run
+     */
+    static void assertReleaseVersion( final Class<?> cl )
+    {
+        final String release = System.getProperty( RELEASE_PROPERTY );
+        if ( release == null )
+            return;
+        final String url = String.valueOf( cl.getResource( cl.getSimpleName() + ".class" ) );
+        assertTrue( url, url.contains( "META-INF/versions/" + release + "/" ) );
+    }
+
+    private static boolean fits( final BigInteger value )
+    {
+        return value.compareTo( MIN ) >= 0 && value.compareTo( MAX ) <= 0;
+    }
+
+    private static void check( final long x, final long y )
+    {
+        final BigInteger product = BigInteger.valueOf( x ).multiply( BigInteger.valueOf( y ) );
+        assertEquals( x + " * " + y, fits( product ), MoneyMath.multiplyFits( x, y, x * y ) );
+        assertEquals( x + " * " + y, product.shiftRight( 64 ).longValue(), MoneyMath.multiplyHigh( x, y ) );
+        final BigInteger sum = BigInteger.valueOf( x ).add( BigInteger.valueOf( y ) );
+        assertEquals( x + " + " + y, fits( sum ), MoneyMath.addFits( x, y, x + y ) );
+    }
+
+    public void testReleaseVersion()
+    {
+        assertReleaseVersion( MoneyMath.class );
+    }
+
+    public void testSpecialValues()
+    {
+        for ( final long x : SPECIAL )
+            for ( final long y : SPECIAL )
+            {
+                check( x, y );
+                check( -x, y );
+            }
+    }
+
+    public void testRandom()
+    {
+        final Random r = new Random( 7 );
+        for ( int i = 0; i < 100000; ++i )
+        {
+            //random magnitudes, so both overflowing and not overflowing products are generated
+            final long x = r.nextLong() >> r.nextInt( 64 );
+            final long y = r.nextLong() >> r.nextInt( 64 );
+            check( x, y );
+        }
+        for ( final long multiplier : MoneyFactory.MULTIPLIERS )
+            for ( int i = 0; i < 1000; ++i )
+                check( r.nextLong() >> r.nextInt( 64 ), multiplier );
+    }
+
+    public void testNegativeAddOverflow()
+    {
+        final Money min = MoneyFactory.fromUnits( Long.MIN_VALUE / 2 - 1, 2 );
+        final Money sum = min.add( min );
+        //used to wrap around to a positive value
+        assertEquals( 0, min.toBigDecimal().add( min.toBigDecimal() ).compareTo( sum.toBigDecimal() ) );
+    }
+}
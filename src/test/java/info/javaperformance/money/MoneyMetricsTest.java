@@ -0,0 +1,89 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+
+import static info.javaperformance.money.MoneyMetrics.FallbackSite;
+
+public class MoneyMetricsTest extends TestCase {
+
+    public void testCounters() throws InterruptedException
+    {
+        final MoneyMetrics.Snapshot before = MoneyMetrics.snapshot();
+        final Thread[] threads = new Thread[ 4 ];
+        for ( int t = 0; t < threads.length; ++t )
+        {
+            threads[ t ] = new Thread() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < 1000; ++i )
+                        MoneyMetrics.increment( FallbackSite.FROM_DOUBLE );
+                }
+            };
+            threads[ t ].start();
+        }
+        MoneyMetrics.increment( FallbackSite.ADD_OVERFLOW );
+        for ( final Thread t : threads )
+            t.join();
+        final MoneyMetrics.Snapshot diff = MoneyMetrics.snapshot().minus( before );
+        assertEquals( 4000, diff.get( FallbackSite.FROM_DOUBLE ) );
+        assertEquals( 1, diff.get( FallbackSite.ADD_OVERFLOW ) );
+        assertEquals( 0, diff.get( FallbackSite.FROM_STRING ) );
+        assertEquals( 4001, diff.total() );
+
+        MoneyMetrics.reset();
+        assertEquals( 0, MoneyMetrics.snapshot().total() );
+    }
+
+    public void testFallbackSites()
+    {
+        final MoneyMetrics.Snapshot before = MoneyMetrics.snapshot();
+        final Money big = MoneyFactory.fromUnits( Long.MAX_VALUE / 2 + 1, 0 );
+        big.add( big );
+        big.multiply( 10 );
+        MoneyFactory.fromUnits( 12345, 2 ).multiply( 1.0 / 7 );
+        try
+        {
+            MoneyFactory.fromUnits( 1, 0 ).divide( 3, MoneyFactory.MAX_ALLOWED_PRECISION + 1 );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            //MoneyBigDecimal rejects such precision after the fallback is taken
+        }
+        MoneyFactory.fromString( "1.12345678901234567" );
+        MoneyFactory.fromDouble( 1.0 / 3 );
+        MoneyFactory.fromBigDecimal( new BigDecimal( "1e-20" ) );
+        final MoneyMetrics.Snapshot diff = MoneyMetrics.snapshot().minus( before );
+        assertEquals( Boolean.getBoolean( MoneyMetrics.PROPERTY ), MoneyMetrics.ENABLED );
+        if ( !MoneyMetrics.ENABLED )
+        {
+            //JIT shall remove all counting code
+            assertEquals( 0, diff.total() );
+            return;
+        }
+        assertEquals( 1, diff.get( FallbackSite.ADD_OVERFLOW ) );
+        assertEquals( 1, diff.get( FallbackSite.MULTIPLY_LONG_OVERFLOW ) );
+        assertEquals( 1, diff.get( FallbackSite.MULTIPLY_DOUBLE ) );
+        assertEquals( 1, diff.get( FallbackSite.DIVIDE_PRECISION ) );
+        assertEquals( 1, diff.get( FallbackSite.FROM_STRING ) );
+        assertEquals( 1, diff.get( FallbackSite.FROM_DOUBLE ) );
+        assertTrue( diff.get( FallbackSite.FROM_BIG_DECIMAL ) >= 1 );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class MoneyObjectMapTest extends TestCase {
+    /**
+     * Normalized BigDecimal key: equal values have equal keys
+     */
+    private static BigDecimal key( final long units, final int precision )
+    {
+        final BigDecimal res = BigDecimal.valueOf( units, precision ).stripTrailingZeros();
+        return res.scale() < 0 ? res.setScale( 0 ) : res;
+    }
+
+    public void testAgainstHashMap()
+    {
+        final Random r = new Random( 123 );
+        final MoneyObjectMap<String> map = new MoneyObjectMap<String>( 4 );
+        final Map<BigDecimal, String> expected = new HashMap<BigDecimal, String>();
+        for ( int i = 0; i < 200000; ++i )
+        {
+            //small key range in random precisions forces lots of equal keys, collisions and removals
+            final int precision = r.nextInt( 4 );
+            final long units = ( r.nextInt( 2000 ) - 1000 ) * MoneyFactory.MULTIPLIERS[ precision ] / 100;
+            final BigDecimal key = key( units, precision );
+            final int op = r.nextInt( 4 );
+            if ( op == 0 )
+                assertEquals( expected.remove( key ), map.remove( units, precision ) );
+            else if ( op == 1 )
+            {
+                final String val = Integer.toString( i );
+                assertEquals( expected.put( key, val ), map.put( units, precision, val ) );
+            }
+            else if ( op == 2 )
+                assertEquals( expected.get( key ), map.get( units, precision ) );
+            else
+                assertEquals( expected.get( key ), map.get( new MoneyBigDecimal( BigDecimal.valueOf( units, precision ) ) ) );
+            assertEquals( expected.size(), map.size() );
+        }
+        for ( final Map.Entry<BigDecimal, String> entry : expected.entrySet() )
+            assertEquals( entry.getValue(), map.get( MoneyFactory.fromBigDecimal( entry.getKey() ) ) );
+
+        int cnt = 0;
+        for ( int i = 0; i < map.capacity(); ++i )
+            if ( map.valueAt( i ) != null )
+            {
+                final BigDecimal key = BigDecimal.valueOf( map.unitsAt( i ), map.precisionAt( i ) );
+                assertEquals( key( map.unitsAt( i ), map.precisionAt( i ) ), key );
+                assertEquals( expected.get( key ), map.valueAt( i ) );
+                assertEquals( 0, key.compareTo( map.keyAt( i ).toBigDecimal() ) );
+                ++cnt;
+            }
+        assertEquals( expected.size(), cnt );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertTrue( map.isEmpty() );
+        assertNull( map.get( 0, 0 ) );
+    }
+
+    public void testRepresentations()
+    {
+        final MoneyObjectMap<String> map = new MoneyObjectMap<String>( 16 );
+        assertNull( map.put( MoneyFactory.fromUnits( 150, 2 ), "1.5" ) );
+        assertEquals( "1.5", map.get( 15, 1 ) );
+        assertEquals( "1.5", map.get( MoneyFactory.fromString( "1.500" ) ) );
+        assertEquals( "1.5", map.get( new MoneyBigDecimal( new BigDecimal( "1.5000000000000000000" ) ) ) );
+        assertEquals( "1.5", map.put( new MoneyBigDecimal( new BigDecimal( "1.50" ) ), "1.50" ) );
+        assertEquals( 1, map.size() );
+        assertFalse( map.containsKey( 15, 0 ) );
+        assertFalse( map.containsKey( 15, 2 ) );
+
+        assertNull( map.put( Long.MIN_VALUE, 15, "min" ) );
+        assertNull( map.put( 0, 3, "zero" ) );
+        assertEquals( "min", map.get( MoneyFactory.fromUnits( Long.MIN_VALUE, 15 ) ) );
+        assertEquals( "zero", map.get( MoneyFactory.fromUnits( 0, 0 ) ) );
+        assertEquals( "zero", map.remove( new MoneyBigDecimal( new BigDecimal( "0E-20" ) ) ) );
+
+        try
+        {
+            map.get( new MoneyBigDecimal( new BigDecimal( "1.0000000000000000001" ) ) );
+            fail( "Too many digits for a key" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        try
+        {
+            map.put( 1, MoneyFactory.MAX_ALLOWED_PRECISION + 1, "1" );
+            fail( "Invalid precision" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            //expected
+        }
+    }
+
+    public void testSet()
+    {
+        final MoneySet set = new MoneySet( 4 );
+        for ( int i = 0; i < 1000; ++i )
+            assertTrue( set.add( i * 5, 2 ) );
+        assertEquals( 1000, set.size() );
+        assertFalse( set.add( MoneyFactory.fromString( "0.1" ) ) );
+        assertTrue( set.contains( new MoneyBigDecimal( new BigDecimal( "4.95" ) ) ) );
+        assertFalse( set.contains( 496, 2 ) );
+        assertTrue( set.remove( 5, 1 ) );
+        assertFalse( set.remove( MoneyFactory.fromString( "0.50" ) ) );
+
+        BigDecimal sum = BigDecimal.ZERO;
+        int cnt = 0;
+        for ( int i = 0; i < set.capacity(); ++i )
+            if ( set.isUsed( i ) )
+            {
+                sum = sum.add( set.valueAt( i ).toBigDecimal() );
+                assertEquals( 0, BigDecimal.valueOf( set.unitsAt( i ), set.precisionAt( i ) ).compareTo( set.valueAt( i ).toBigDecimal() ) );
+                ++cnt;
+            }
+        assertEquals( 999, cnt );
+        //0.05 * (0 + 1 + ... + 999) - 0.5
+        assertEquals( 0, new BigDecimal( "24974.5" ).compareTo( sum ) );
+        set.clear();
+        assertTrue( set.isEmpty() );
+    }
+}
@@ -0,0 +1,148 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MoneySortTest extends TestCase {
+
+    private static void checkSorted( final long[] units, final int[] precisions, final BigDecimal[] expected )
+    {
+        for ( int i = 0; i < units.length; ++i )
+            assertEquals( "Position " + i, 0, expected[ i ].compareTo( BigDecimal.valueOf( units[ i ], precisions[ i ] ) ) );
+    }
+
+    private static void checkColumns( final long[] units, final int[] precisions )
+    {
+        final BigDecimal[] expected = new BigDecimal[ units.length ];
+        for ( int i = 0; i < units.length; ++i )
+            expected[ i ] = BigDecimal.valueOf( units[ i ], precisions[ i ] );
+        Arrays.sort( expected );
+        MoneySort.sort( units, precisions );
+        checkSorted( units, precisions, expected );
+    }
+
+    public void testSortColumns()
+    {
+        final Random r = new Random( 123 );
+        for ( final int size : new int[]{ 0, 1, 5, 31, 32, 1000, 10000 } )
+        {
+            final long[] units = new long[ size ];
+            final int[] precisions = new int[ size ];
+            for ( int i = 0; i < size; ++i )
+            {
+                units[ i ] = r.nextInt( 2000000 ) - 1000000;
+                precisions[ i ] = r.nextInt( 4 );
+            }
+            checkColumns( units, precisions );
+        }
+    }
+
+    public void testSortColumnsWithFallback()
+    {
+        final Random r = new Random( 456 );
+        final int size = 5000;
+        final long[] units = new long[ size ];
+        final int[] precisions = new int[ size ];
+        for ( int i = 0; i < size; ++i )
+        {
+            //a mix of huge low precision values and small high precision values
+            if ( i % 10 == 0 )
+            {
+                units[ i ] = r.nextLong();
+                precisions[ i ] = r.nextInt( 3 );
+            }
+            else
+            {
+                units[ i ] = r.nextInt();
+                precisions[ i ] = 10 + r.nextInt( 6 );
+            }
+        }
+        units[ 1 ] = Long.MIN_VALUE;
+        units[ 2 ] = Long.MAX_VALUE;
+        checkColumns( units, precisions );
+    }
+
+    public void testSortRange()
+    {
+        final long[] units = new long[ 100 ];
+        final int[] precisions = new int[ 100 ];
+        for ( int i = 0; i < units.length; ++i )
+            units[ i ] = 100 - i;
+        MoneySort.sort( units, precisions, 10, 90 );
+        assertEquals( 100, units[ 0 ] );
+        assertEquals( 91, units[ 9 ] );
+        assertEquals( 11, units[ 10 ] );
+        assertEquals( 90, units[ 89 ] );
+        assertEquals( 1, units[ 99 ] );
+    }
+
+    public void testSortMoney()
+    {
+        final Random r = new Random( 789 );
+        final Money[] values = new Money[ 3000 ];
+        for ( int i = 0; i < values.length; ++i )
+        {
+            switch ( i % 4 )
+            {
+                case 0:
+                    values[ i ] = MoneyFactory.fromUnits( r.nextInt( 100000 ) - 50000, r.nextInt( 3 ) );
+                    break;
+                case 1:
+                    values[ i ] = MoneyFactory.fromDouble( ( r.nextInt( 100000 ) - 50000 ) / 1000.0, 1 );
+                    break;
+                case 2:
+                    values[ i ] = MoneyFactory.fromString( ( r.nextInt( 100 ) - 50 ) + ".0000000000000000001" );
+                    break;
+                default:
+                    values[ i ] = MoneyFactory.fromUnits( r.nextLong(), 0 );
+            }
+        }
+        final Money[] expected = values.clone();
+        Arrays.sort( expected );
+        MoneySort.sort( values );
+        for ( int i = 0; i < values.length; ++i )
+            assertEquals( "Position " + i, 0, expected[ i ].compareTo( values[ i ] ) );
+    }
+
+    public void testBinarySearch()
+    {
+        final long[] units = { -500, -5, 0, 1, 15, 2, 300 };
+        final int[] precisions = { 0, 1, 0, 2, 1, 0, 0 };
+        MoneySort.sort( units, precisions );
+        assertEquals( 0, MoneySort.binarySearch( units, precisions, 0, units.length, -5000, 1 ) );
+        assertEquals( 4, MoneySort.binarySearch( units, precisions, 0, units.length, 150, 2 ) );
+        assertEquals( 6, MoneySort.binarySearch( units, precisions, 0, units.length, 300, 0 ) );
+        assertEquals( -4, MoneySort.binarySearch( units, precisions, 0, units.length, 5, 3 ) );
+        assertEquals( -8, MoneySort.binarySearch( units, precisions, 0, units.length, Long.MAX_VALUE, 0 ) );
+        assertEquals( -1, MoneySort.binarySearch( units, precisions, 0, units.length, Long.MIN_VALUE, 0 ) );
+    }
+
+    public void testCompare()
+    {
+        assertEquals( 0, MoneyLong.compare( 10, 1, 100, 2 ) );
+        assertEquals( -1, MoneyLong.compare( 10, 1, 101, 2 ) );
+        assertEquals( 1, MoneyLong.compare( Long.MAX_VALUE, 0, Long.MAX_VALUE, 15 ) );
+        assertEquals( -1, MoneyLong.compare( Long.MIN_VALUE, 0, Long.MIN_VALUE, 15 ) );
+        assertEquals( -1, MoneyLong.compare( Long.MAX_VALUE, 15, Long.MAX_VALUE, 0 ) );
+        assertEquals( 1, MoneyLong.compare( Long.MIN_VALUE, 15, Long.MIN_VALUE, 0 ) );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+public class MoneyStatisticsTest extends TestCase {
+
+    private static void assertSame( final BigDecimal expected, final Money actual )
+    {
+        assertEquals( expected + " vs " + actual, 0, expected.compareTo( actual.toBigDecimal() ) );
+        //results are in the canonical representation. fromBigDecimal snaps values with too many digits to a double,
+        //in this case the exact conversion is the reference
+        final Money canonical = MoneyFactory.fromBigDecimal( expected );
+        if ( canonical.toBigDecimal().compareTo( expected ) == 0 )
+            assertEquals( expected.toString(), canonical, actual );
+        else
+            assertEquals( expected.toString(), MoneyFactory.fromBigDecimalExact( expected ), actual );
+    }
+
+    public void testEmpty()
+    {
+        final MoneyStatistics stats = new MoneyStatistics();
+        assertEquals( 0, stats.getCount() );
+        assertSame( BigDecimal.ZERO, stats.getSum() );
+        assertNull( stats.getMin() );
+        assertNull( stats.getMax() );
+        assertNull( stats.getAverage( 2 ) );
+        stats.combine( new MoneyStatistics() );
+        assertEquals( 0, stats.getCount() );
+    }
+
+    public void testNormalizedExtremes()
+    {
+        final MoneyStatistics stats = new MoneyStatistics();
+        stats.accept( 100, 2 );
+        assertEquals( MoneyFactory.fromUnits( 1, 0 ), stats.getMin() );
+        assertEquals( "1", stats.getMin().toString() );
+        assertEquals( MoneyFactory.fromUnits( 1, 0 ), stats.getMax() );
+        //BigDecimal extremes are normalized as well
+        stats.accept( new MoneyBigDecimal( new BigDecimal( "-20000000000000000000.00" ) ) );
+        stats.accept( new MoneyBigDecimal( new BigDecimal( "3.50000000000000000000" ) ) );
+        assertEquals( "-20000000000000000000", stats.getMin().toString() );
+        assertEquals( MoneyFactory.fromUnits( 35, 1 ), stats.getMax() );
+        assertEquals( "3.5", stats.getMax().toString() );
+        //values which can be only stored as BigDecimal
+        final MoneyStatistics big = new MoneyStatistics();
+        final Money huge = MoneyFactory.fromBigDecimal( new BigDecimal( "1E+30" ) );
+        big.accept( huge );
+        assertEquals( huge, big.getMax() );
+        assertEquals( huge, big.getMin() );
+        assertEquals( huge, big.getSum() );
+    }
+
+    public void testCombine()
+    {
+        final Random r = new Random( 17 );
+        final Money[] values = new Money[ 10000 ];
+        for ( int i = 0; i < values.length; ++i )
+        {
+            switch ( r.nextInt( 4 ) )
+            {
+                case 0: values[ i ] = MoneyFactory.fromUnits( r.nextInt( 1000000 ) - 500000, r.nextInt( 4 ) ); break;
+                case 1: values[ i ] = MoneyFactory.fromUnits( r.nextBoolean() ? Long.MAX_VALUE : Long.MIN_VALUE + 1, r.nextInt( 16 ) ); break;
+                case 2: values[ i ] = MoneyFactory.fromString( "0.0000000000000000" + r.nextInt( 1000 ) + "1" ); break;
+                default: values[ i ] = MoneyFactory.fromUnits( r.nextLong(), 2 );
+            }
+        }
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal min = null;
+        BigDecimal max = null;
+        for ( final Money value : values )
+        {
+            final BigDecimal bd = value.toBigDecimal();
+            sum = sum.add( bd );
+            min = min == null || bd.compareTo( min ) < 0 ? bd : min;
+            max = max == null || bd.compareTo( max ) > 0 ? bd : max;
+        }
+
+        //split into uneven parts, the way a parallel stream would do it
+        final MoneyStatistics total = new MoneyStatistics();
+        int start = 0;
+        while ( start < values.length )
+        {
+            final int end = Math.min( values.length, start + r.nextInt( 1000 ) );
+            final MoneyStatistics part = new MoneyStatistics();
+            for ( int i = start; i < end; ++i )
+                part.accept( values[ i ] );
+            total.combine( part );
+            start = end;
+        }
+        assertEquals( values.length, total.getCount() );
+        assertSame( sum, total.getSum() );
+        assertSame( min, total.getMin() );
+        assertSame( max, total.getMax() );
+
+        final MoneyStatistics sequential = new MoneyStatistics();
+        for ( final Money value : values )
+            sequential.accept( value );
+        assertSame( sum, sequential.getSum() );
+    }
+
+    public void testExactAverage()
+    {
+        //17 digits are beyond double precision
+        final MoneyStatistics stats = new MoneyStatistics();
+        stats.accept( 1234567890123456789L, 2 );
+        stats.accept( 1234567890123456789L, 2 );
+        assertEquals( "24691357802469135.78", stats.getSum().toString() );
+        assertEquals( MoneyFactory.fromUnits( 1234567890123456789L, 2 ), stats.getAverage( 2 ) );
+        assertEquals( "12345678901234567.9", stats.getAverage( 1 ).toString() );
+        stats.accept( 1, 2 );
+        //24691357802469135.79 / 3 = 8230452600823045.263...
+        assertEquals( "8230452600823045.26", stats.getAverage( 2 ).toString() );
+    }
+
+    public void testColumns()
+    {
+        final long[] units = { 125, -300, 1001, 7 };
+        final int[] precisions = { 2, 0, 1, 3 };
+        final MoneyStatistics stats = new MoneyStatistics();
+        for ( int i = 0; i < units.length; ++i )
+            stats.accept( units[ i ], precisions[ i ] );
+        assertEquals( "-198.643", stats.getSum().toString() );
+        assertEquals( "-300", stats.getMin().toString() );
+        assertEquals( "100.1", stats.getMax().toString() );
+        assertEquals( -49.66, stats.getAverage( 2 ).toDouble() );
+        assertEquals( "-49.661", stats.getAverage( 3 ).toString() );
+        //sum of long values which does not fit into long
+        stats.accept( Long.MAX_VALUE, 0 );
+        stats.accept( Long.MAX_VALUE, 0 );
+        assertSame( new BigDecimal( "-198.643" ).add( BigDecimal.valueOf( Long.MAX_VALUE ).multiply( BigDecimal.valueOf( 2 ) ) ), stats.getSum() );
+    }
+}
@@ -20,6 +20,7 @@ import junit.framework.TestCase;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.math.RoundingMode;
 
 public class MoneyTest extends TestCase {
     public void testAdd()
@@ -210,6 +211,52 @@ public class MoneyTest extends TestCase {
         assertEquals( 0.3, res7.toDouble() );
     }
 
+    public void testDivideBdRoundsOnce()
+    {
+        //more than 16 significant digits are kept
+        final Money bd = MoneyFactory.fromString( "123456789012345678.123456789" );
+        assertTrue( bd instanceof MoneyBigDecimal );
+        assertEquals( "123456789012345678.12", bd.divide( 1, 2 ).toString() );
+        assertEquals( "41152263004115226.04", bd.divide( 3, 2 ).toString() );
+        assertEquals( "-41152263004115226.04", bd.negate().divide( 3.0, 2 ).toString() );
+        //no double rounding: 0.4449999999999999999 shall not become 0.445 and then 0.45
+        final Money half = MoneyFactory.fromString( "0.4449999999999999999" );
+        assertEquals( "0.44", half.divide( 1, 2 ).toString() );
+        assertTrue( half.divide( 1, 2 ) instanceof MoneyLong );
+    }
+
+    public void testDivideLargeIntegralBd()
+    {
+        //division by 1 returns an equal object, not just a numerically equal one
+        final Money big = MoneyFactory.fromBigDecimal( new BigDecimal( "1E+30" ) );
+        assertTrue( big instanceof MoneyBigDecimal );
+        assertEquals( big, big.divide( 1, 0 ) );
+        assertEquals( big, big.divide( 1.0, 0 ) );
+        assertEquals( big, big.divide( 1, 2, RoundingMode.HALF_UP ) );
+        assertEquals( big.hashCode(), big.divide( 1, 0 ).hashCode() );
+        final Money half = MoneyFactory.fromBigDecimal( new BigDecimal( "5E+29" ) );
+        assertEquals( half, big.divide( 2, 0 ) );
+        assertEquals( half, big.divide( 2.0, 4 ) );
+    }
+
+    public void testMultiplyBdByDouble()
+    {
+        final Money bd = MoneyFactory.fromString( "1.0000000000000000001" );
+        //alternate multipliers to check a cached conversion
+        for ( int i = 0; i < 3; ++i )
+        {
+            assertEquals( 0, new BigDecimal( "1.500000000000000" ).compareTo( bd.multiply( 1.5 ).toBigDecimal() ) );
+            assertEquals( 0, new BigDecimal( "2.500000000000000" ).compareTo( bd.multiply( 2.5 ).toBigDecimal() ) );
+            assertEquals( 0, BigDecimal.ZERO.compareTo( bd.multiply( -0.0 ).toBigDecimal() ) );
+        }
+        //more multipliers than cache slots
+        for ( int i = 0; i < 100; ++i )
+        {
+            final double multiplier = i / 8.0;
+            assertEquals( 0, new BigDecimal( multiplier ).compareTo( bd.multiply( multiplier ).toBigDecimal() ) );
+        }
+    }
+
     //this test checks if we can use multiplication by a negative power of 10 in conjunction with rounding
     public void testDivisionRounding()
     {
@@ -282,6 +329,101 @@ public class MoneyTest extends TestCase {
         assertEquals( "123", val3.truncate( 0 ).toString() );
     }
 
+    public void testTruncateRoundingMode()
+    {
+        final long[] units = { 0, 1, 5, 15, 25, 149, 150, 151, 250, 999, 1005, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 5 };
+        for ( final RoundingMode mode : RoundingMode.values() )
+            for ( final long u : units )
+                for ( final long sign : new long[] { 1, -1 } )
+                    for ( int precision = 2; precision <= 4; ++precision )
+                        for ( int maxPrecision = 0; maxPrecision < precision; ++maxPrecision )
+                        {
+                            final long signed = u * sign;
+                            final Money lng = new MoneyLong( signed, precision );
+                            final Money bd = new MoneyBigDecimal( BigDecimal.valueOf( signed, precision ) );
+                            BigDecimal expected;
+                            try
+                            {
+                                expected = BigDecimal.valueOf( signed, precision ).setScale( maxPrecision, mode );
+                            }
+                            catch ( ArithmeticException ex )
+                            {
+                                expected = null;
+                            }
+                            checkTruncate( expected, lng, maxPrecision, mode );
+                            checkTruncate( expected, bd, maxPrecision, mode );
+                        }
+    }
+
+    private static void checkTruncate( final BigDecimal expected, final Money value, final int maxPrecision, final RoundingMode mode )
+    {
+        try
+        {
+            final Money res = value.truncate( maxPrecision, mode );
+            assertNotNull( value + " " + mode, expected );
+            assertEquals( value + " " + mode, 0, expected.compareTo( res.toBigDecimal() ) );
+        }
+        catch ( ArithmeticException ex )
+        {
+            assertNull( value + " " + mode, expected );
+        }
+    }
+
+    public void testTruncateLargeUnits()
+    {
+        //not exact when calculated via double multiplication
+        final Money lng = new MoneyLong( 999999999999999995L, 3 );
+        assertEquals( "1000000000000000", lng.truncate( 2, RoundingMode.HALF_UP ).toString() );
+        assertEquals( "999999999999999.99", lng.truncate( 2, RoundingMode.HALF_DOWN ).toString() );
+        assertEquals( "1000000000000000", lng.truncate( 2 ).toString() );
+    }
+
+    public void testDivideRoundingMode()
+    {
+        final long[] units = { 0, 1, 7, 25, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE, Long.MIN_VALUE };
+        final long[] dividers = { 1, -1, 2, 3, -4, 7, 1000, Long.MAX_VALUE, Long.MIN_VALUE };
+        for ( final RoundingMode mode : RoundingMode.values() )
+            for ( final long u : units )
+                for ( final long divider : dividers )
+                    for ( int precision = 0; precision <= 3; ++precision )
+                        for ( int resPrecision = 0; resPrecision <= 5; ++resPrecision )
+                        {
+                            final Money lng = new MoneyLong( u, precision );
+                            BigDecimal expected;
+                            try
+                            {
+                                expected = BigDecimal.valueOf( u, precision ).divide( BigDecimal.valueOf( divider ), resPrecision, mode );
+                            }
+                            catch ( ArithmeticException ex )
+                            {
+                                expected = null;
+                            }
+                            final String msg = lng + " / " + divider + " " + resPrecision + " " + mode;
+                            try
+                            {
+                                final Money res = lng.divide( divider, resPrecision, mode );
+                                assertNotNull( msg, expected );
+                                assertEquals( msg, 0, expected.compareTo( res.toBigDecimal() ) );
+                            }
+                            catch ( ArithmeticException ex )
+                            {
+                                assertNull( msg, expected );
+                            }
+                        }
+        try
+        {
+            MoneyFactory.fromUnits( 1, 0 ).divide( 0, 2, RoundingMode.HALF_EVEN );
+            fail( "Division by zero" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        assertEquals( "0.12", MoneyFactory.fromUnits( 25, 2 ).divide( 2, 2, RoundingMode.HALF_EVEN ).toString() );
+        assertEquals( "0.13", MoneyFactory.fromUnits( 25, 2 ).divide( 2, 2, RoundingMode.HALF_UP ).toString() );
+        assertEquals( "-0.13", MoneyFactory.fromUnits( -25, 2 ).divide( 2, 2, RoundingMode.FLOOR ).toString() );
+    }
+
     public void testCompareTo()
     {
         final Money v1 = new MoneyLong( 20, 1 );
@@ -295,6 +437,114 @@ public class MoneyTest extends TestCase {
         assertTrue( v4.compareTo( v2 ) > 0 );
     }
 
+    public void testCompareToMixed()
+    {
+        final long[] units = { 0, 1, -1, 7, -7, 123456789, -123456789, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE / 10 };
+        final String[] bds = { "0", "1", "-1", "0.7", "-0.7", "123456.789", "-123456.789000", "9223372036854775807",
+                "-9223372036854775808", "922337203685477580.7", "0.0000000000000000000001", "1E+25", "-1E+25",
+                "123456789012345678901234567890.123", "-123456789012345678901234567890.123",
+                "1234567890123456789012345678901234567890123456789", "12345678901234567890123456789012345.67",
+                "0.00000000000000000000000000000000000000000000000000000001", "922337203685477.5807", "1E+5", "7E-1" };
+        for ( final long u : units )
+            for ( int precision = 0; precision <= MoneyFactory.MAX_ALLOWED_PRECISION; precision += 3 )
+                for ( final String str : bds )
+                {
+                    final MoneyLong lng = new MoneyLong( u, precision );
+                    final MoneyBigDecimal bd = new MoneyBigDecimal( new BigDecimal( str ) );
+                    final int expected = lng.toBigDecimal().compareTo( bd.toBigDecimal() );
+                    assertEquals( lng + " vs " + str, expected, lng.compareTo( ( Money ) bd ) );
+                    assertEquals( str + " vs " + lng, -expected, bd.compareTo( ( Money ) lng ) );
+                    //cached unscaled value
+                    assertEquals( lng + " vs " + str, expected, lng.compareTo( ( Money ) bd ) );
+                }
+        //mixed precisions overflowing long after rescaling
+        assertTrue( new MoneyLong( Long.MAX_VALUE, 0 ).compareTo( new MoneyLong( Long.MAX_VALUE, 15 ) ) > 0 );
+        assertTrue( new MoneyLong( Long.MIN_VALUE, 15 ).compareTo( new MoneyLong( Long.MIN_VALUE, 0 ) ) > 0 );
+    }
+
+    private static int compareUnsignedBytes( final byte[] a, final byte[] b )
+    {
+        for ( int i = 0; i < a.length; ++i )
+            if ( a[ i ] != b[ i ] )
+                return ( a[ i ] & 0xFF ) < ( b[ i ] & 0xFF ) ? -1 : 1;
+        return 0;
+    }
+
+    private static byte[] toBytes( final long key )
+    {
+        final byte[] res = new byte[ 8 ];
+        for ( int i = 0; i < 8; ++i )
+            res[ i ] = ( byte ) ( key >>> ( 56 - i * 8 ) );
+        return res;
+    }
+
+    public void testSortableKey()
+    {
+        final Money[] values = {
+                MoneyFactory.fromString( "-92233720368547.75808" ),
+                MoneyFactory.fromString( "-1000.5" ),
+                MoneyFactory.fromDouble( -0.05, 1 ),
+                MoneyFactory.fromUnits( -1, 4 ),
+                MoneyFactory.fromUnits( 0, 0 ),
+                MoneyFactory.fromUnits( 1, 4 ),
+                MoneyFactory.fromDouble( 0.05, 1 ),
+                MoneyFactory.fromUnits( 100, 0 ),
+                MoneyFactory.fromString( "92233720368547.75807" ),
+        };
+        for ( int i = 0; i < values.length; ++i )
+        {
+            final long key = values[ i ].toSortableKey( 5 );
+            assertEquals( 0, values[ i ].compareTo( MoneyFactory.fromSortableKey( key, 5 ) ) );
+            final byte[] key128 = new byte[ 18 ];
+            values[ i ].toSortableKey128( 5, key128, 2 );
+            assertEquals( 0, values[ i ].compareTo( MoneyFactory.fromSortableKey128( key128, 2, 5 ) ) );
+            for ( int j = 0; j < values.length; ++j )
+            {
+                final int expected = values[ i ].compareTo( values[ j ] );
+                assertEquals( expected, compareUnsignedBytes( toBytes( key ), toBytes( values[ j ].toSortableKey( 5 ) ) ) );
+                final byte[] other128 = new byte[ 18 ];
+                values[ j ].toSortableKey128( 5, other128, 2 );
+                assertEquals( expected, compareUnsignedBytes( key128, other128 ) );
+            }
+        }
+    }
+
+    public void testSortableKey128()
+    {
+        final Money[] values = {
+                MoneyFactory.fromString( "-123456789012345678901234567890" ),
+                MoneyFactory.fromUnits( Long.MIN_VALUE, 0 ),
+                MoneyFactory.fromUnits( -1, 8 ),
+                MoneyFactory.fromUnits( Long.MAX_VALUE, 3 ),
+                MoneyFactory.fromUnits( Long.MAX_VALUE, 0 ),
+                MoneyFactory.fromString( "123456789012345678901234567890" ),
+        };
+        final byte[][] keys = new byte[ values.length ][ 16 ];
+        for ( int i = 0; i < values.length; ++i )
+        {
+            values[ i ].toSortableKey128( 8, keys[ i ], 0 );
+            assertEquals( 0, values[ i ].compareTo( MoneyFactory.fromSortableKey128( keys[ i ], 0, 8 ) ) );
+            if ( i > 0 )
+                assertTrue( compareUnsignedBytes( keys[ i - 1 ], keys[ i ] ) < 0 );
+        }
+        try
+        {
+            MoneyFactory.fromUnits( Long.MAX_VALUE, 0 ).toSortableKey( 1 );
+            fail( "Value does not fit into 64 bits" );
+        }
+        catch ( ArithmeticException ex )
+        {
+        }
+        try
+        {
+            MoneyFactory.fromString( "1.23" ).toSortableKey( 1 );
+            fail( "Value has too many decimal digits" );
+        }
+        catch ( ArithmeticException ex )
+        {
+        }
+    }
+
     public void testTicket11()
     {
         final Money total = MoneyFactory.fromString( "5.5999999523162842" );
@@ -0,0 +1,238 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class TickGridTest extends TestCase {
+    private static final RoundingMode[] MODES = { RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING,
+            RoundingMode.FLOOR, RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN };
+
+    /**
+     * BigDecimal reference implementation of an index calculation
+     */
+    private static BigInteger reference( final BigDecimal tick, final BigDecimal base, final BigDecimal price, final RoundingMode mode )
+    {
+        return price.subtract( base ).divide( tick, 0, mode ).toBigIntegerExact();
+    }
+
+    public void testAgainstBigDecimal()
+    {
+        final Random r = new Random( 50 );
+        final String[][] grids = { { "0.01", "0" }, { "0.25", "0" }, { "0.0005", "100.0001" }, { "5", "-3" },
+                                   { "0.125", "0.1" }, { "0.000000000000001", "0" } };
+        for ( final String[] g : grids )
+        {
+            final BigDecimal tick = new BigDecimal( g[ 0 ] );
+            final BigDecimal base = new BigDecimal( g[ 1 ] );
+            final TickGrid grid = new TickGrid( MoneyFactory.fromString( g[ 0 ] ), MoneyFactory.fromString( g[ 1 ] ) );
+            for ( int i = 0; i < 20000; ++i )
+            {
+                final int precision = r.nextInt( MoneyFactory.MAX_ALLOWED_PRECISION + 1 );
+                final long units = i % 10 == 0 ? r.nextLong() : r.nextInt( 10000000 ) - 5000000;
+                final BigDecimal price = BigDecimal.valueOf( units, precision );
+                final String msg = grid + " " + price;
+                for ( final RoundingMode mode : MODES )
+                {
+                    final BigInteger expected = reference( tick, base, price, mode );
+                    if ( expected.bitLength() >= 32 )
+                    {
+                        try
+                        {
+                            grid.indexOf( units, precision, mode );
+                            fail( msg );
+                        }
+                        catch ( ArithmeticException ex )
+                        {
+                            //expected
+                        }
+                        continue;
+                    }
+                    final int index = grid.indexOf( units, precision, mode );
+                    assertEquals( msg, expected.intValue(), index );
+                    assertEquals( msg, 0, base.add( tick.multiply( BigDecimal.valueOf( index ) ) ).compareTo(
+                            BigDecimal.valueOf( grid.unitsAt( index ), grid.getPrecision() ) ) );
+                }
+                final BigInteger floor = reference( tick, base, price, RoundingMode.FLOOR );
+                final BigInteger ceiling = reference( tick, base, price, RoundingMode.CEILING );
+                if ( floor.bitLength() < 63 )
+                    assertEquals( msg, floor.equals( ceiling ), grid.isOnGrid( units, precision ) );
+                if ( floor.bitLength() < 31 && ceiling.bitLength() < 31 )
+                {
+                    assertEquals( msg, floor.intValue() + 1, grid.indexAbove( units, precision ) );
+                    assertEquals( msg, ceiling.intValue() - 1, grid.indexBelow( units, precision ) );
+                }
+            }
+        }
+    }
+
+    public void testRoundToTick()
+    {
+        final TickGrid grid = new TickGrid( MoneyFactory.fromString( "0.05" ) );
+        assertEquals( 2, grid.getPrecision() );
+        assertEquals( MoneyFactory.fromString( "1.25" ), grid.round( MoneyFactory.fromString( "1.27" ), RoundingMode.HALF_EVEN ) );
+        assertEquals( MoneyFactory.fromString( "1.3" ), grid.round( MoneyFactory.fromString( "1.275" ), RoundingMode.HALF_UP ) );
+        assertEquals( MoneyFactory.fromString( "-1.3" ), grid.round( MoneyFactory.fromString( "-1.26" ), RoundingMode.FLOOR ) );
+        assertEquals( MoneyFactory.fromString( "1.3" ), grid.round( new MoneyBigDecimal( new BigDecimal( "1.2510" ) ), RoundingMode.UP ) );
+        assertEquals( 130, grid.roundUnits( 1251, 3, RoundingMode.CEILING ) );
+        assertEquals( 25, grid.indexOf( MoneyFactory.fromString( "1.25" ), RoundingMode.UNNECESSARY ) );
+        assertEquals( 26, grid.indexAbove( 125, 2 ) );
+        assertEquals( 24, grid.indexBelow( 125, 2 ) );
+        assertEquals( 26, grid.indexAbove( 1251, 3 ) );
+        assertEquals( 25, grid.indexBelow( 1251, 3 ) );
+        assertTrue( grid.isOnGrid( 125, 2 ) );
+        assertFalse( grid.isOnGrid( 126, 2 ) );
+        assertEquals( MoneyFactory.fromString( "0.05" ), grid.priceAt( 1 ) );
+
+        try
+        {
+            grid.indexOf( 126, 2, RoundingMode.UNNECESSARY );
+            fail( "Not on grid" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        try
+        {
+            grid.indexOf( Long.MAX_VALUE, 2, RoundingMode.DOWN );
+            fail( "Index does not fit into int" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+        try
+        {
+            new TickGrid( MoneyFactory.fromString( "-0.01" ) );
+            fail( "Negative tick" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            //expected
+        }
+        try
+        {
+            new TickGrid( MoneyFactory.fromString( "0.000000000000001" ), MoneyFactory.fromString( "100000" ) );
+            fail( "Base does not fit into grid precision" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+    }
+
+    public void testBookDrift()
+    {
+        //about 10 live levels drifting up and then down by 10 million ticks
+        final TickGrid grid = new TickGrid( MoneyFactory.fromString( "0.01" ) );
+        final PriceLevelBook<String> book = new PriceLevelBook<String>( grid, 16 );
+        final int window = 10;
+        final int distance = 10 * 1000 * 1000;
+        for ( int i = 0; i < distance; ++i )
+        {
+            assertNull( book.put( i, "level" ) );
+            if ( i >= window )
+                assertEquals( "level", book.remove( i - window ) );
+        }
+        for ( int i = distance - window - 1; i >= 0; --i )
+        {
+            assertNull( book.put( i, "level" ) );
+            assertEquals( "level", book.remove( i + window ) );
+        }
+        assertEquals( window, book.size() );
+        assertEquals( 0, book.lowestIndex() );
+        assertEquals( window - 1, book.highestIndex() );
+        int cnt = 0;
+        for ( int idx = book.lowestIndex(); idx != PriceLevelBook.NONE; idx = book.higherIndex( idx ) )
+        {
+            assertEquals( cnt, idx );
+            ++cnt;
+        }
+        assertEquals( window, cnt );
+        assertEquals( 32, book.capacity() );
+    }
+
+    public void testBookAgainstTreeMap()
+    {
+        final Random r = new Random( 500 );
+        final TickGrid grid = new TickGrid( MoneyFactory.fromString( "0.01" ), MoneyFactory.fromString( "100" ) );
+        final PriceLevelBook<String> book = new PriceLevelBook<String>( grid, 4 );
+        final TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+        for ( int i = 0; i < 100000; ++i )
+        {
+            //levels drift, so a book grows in both directions
+            final int index = r.nextInt( 200 ) - 100 + ( i / 1000 ) * ( i % 2 == 0 ? 7 : -7 );
+            final int op = r.nextInt( 3 );
+            if ( op == 0 )
+                assertEquals( expected.remove( index ), book.remove( index ) );
+            else if ( op == 1 )
+            {
+                final String val = Integer.toString( i );
+                assertEquals( expected.put( index, val ), book.put( index, val ) );
+            }
+            else
+                assertEquals( expected.get( index ), book.get( grid.unitsAt( index ), grid.getPrecision() ) );
+            assertEquals( expected.size(), book.size() );
+            if ( !expected.isEmpty() )
+            {
+                assertEquals( expected.firstKey().intValue(), book.lowestIndex() );
+                assertEquals( expected.lastKey().intValue(), book.highestIndex() );
+                final Integer higher = expected.higherKey( index );
+                assertEquals( higher == null ? PriceLevelBook.NONE : higher, book.higherIndex( index ) );
+                final Integer lower = expected.lowerKey( index );
+                assertEquals( lower == null ? PriceLevelBook.NONE : lower, book.lowerIndex( index ) );
+            }
+        }
+        int cnt = 0;
+        for ( int idx = book.lowestIndex(); idx != PriceLevelBook.NONE; idx = book.higherIndex( idx ) )
+        {
+            assertEquals( expected.get( idx ), book.get( idx ) );
+            ++cnt;
+        }
+        assertEquals( expected.size(), cnt );
+
+        book.clear();
+        assertTrue( book.isEmpty() );
+        assertEquals( PriceLevelBook.NONE, book.higherIndex( 0 ) );
+        assertNull( book.put( Integer.MAX_VALUE, "max" ) );
+        assertNull( book.put( Integer.MAX_VALUE - 1, "max-1" ) );
+        assertEquals( Integer.MAX_VALUE - 1, book.lowestIndex() );
+        assertEquals( "max", book.remove( Integer.MAX_VALUE ) );
+        assertEquals( Integer.MAX_VALUE - 1, book.highestIndex() );
+
+        book.clear();
+
+        assertNull( book.put( 10055, 2, "100.55" ) );
+        assertEquals( "100.55", book.get( 55 ) );
+        try
+        {
+            book.get( 100555, 3 );
+            fail( "Not on grid" );
+        }
+        catch ( ArithmeticException ex )
+        {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyAccrual;
+import info.javaperformance.money.MoneyColumns;
+import info.javaperformance.money.MoneyFactory;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compound accrual over balance columns vs a loop of <code>balance.add( balance.multiply( rate ).truncate( 2 ) )</code>
+ * on Money objects (reported in the second column). Rates are counted per account and period.
+ */
+public class AccrualTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 10 * 1000 * 1000;
+    private static final int ACTUAL_TEST = 100 * 1000 * 1000;
+    private static final int PRECISION = 2;
+    private static final int RATE_SCALE = 9;
+    private static final int PERIODS = 30;
+
+    public static void main(String[] args) {
+        new AccrualTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    private final long[] balances;
+    private final long[] rates;
+    private final double[] doubleRates;
+    private final int[] periods;
+    private final Money[] values;
+    private final long[] dest;
+    private final long[] mask;
+    private final MoneyAccrual accrual = MoneyAccrual.compound( RATE_SCALE, RoundingMode.HALF_EVEN );
+
+    public AccrualTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        balances = new long[ dataSize ];
+        rates = new long[ dataSize ];
+        doubleRates = new double[ dataSize ];
+        values = new Money[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            balances[ i ] = r.nextInt( 100000000 );
+            //0-10% a year, daily
+            rates[ i ] = r.nextInt( 100000000 ) / 365;
+            doubleRates[ i ] = rates[ i ] / 1e9;
+            values[ i ] = MoneyFactory.fromUnits( balances[ i ], PRECISION );
+        }
+        periods = new int[ dataSize ];
+        Arrays.fill( periods, PERIODS );
+        dest = new long[ dataSize ];
+        mask = new long[ MoneyColumns.maskLength( dataSize ) ];
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 2 );
+        testAccrue( warmup );
+        final TestResult accrue = new TestResult( "compound accrual", Math.max( testAccrue( iters ), testAccrue( iters ) ) );
+        testMoneyAccrue( warmup / 10 );
+        accrue.bdRate = Math.max( testMoneyAccrue( iters / 10 ), testMoneyAccrue( iters / 10 ) );
+        res.add( accrue );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+        testParallelAccrue( warmup, executor );
+        res.add( new TestResult( "parallel compound accrual", Math.max( testParallelAccrue( iters, executor ),
+                testParallelAccrue( iters, executor ) ) ) );
+        executor.shutdown();
+        return res;
+    }
+
+    private static long report( final String name, final int iters, final long time, final long check )
+    {
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to " + name + " " + iters + " periods = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; check = " + check );
+        return rate;
+    }
+
+    public long testAccrue( final int iters )
+    {
+        final int actualIters = Math.max( iters / ( balances.length * PERIODS ), 1 );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            check += accrual.accrue( balances, rates, periods, dest, mask );
+            check += dest[ i ];
+        }
+        return report( "compound accrual", actualIters * balances.length * PERIODS, System.currentTimeMillis() - start, check );
+    }
+
+    public long testParallelAccrue( final int iters, final ExecutorService executor )
+    {
+        final int actualIters = Math.max( iters / ( balances.length * PERIODS ), 1 );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            check += accrual.accrue( balances, rates, periods, dest, mask, executor );
+            check += dest[ i ];
+        }
+        return report( "parallel compound accrual", actualIters * balances.length * PERIODS, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoneyAccrue( final int iters )
+    {
+        final int accounts = Math.min( Math.max( iters / PERIODS, 1 ), values.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < accounts; ++i )
+        {
+            Money balance = values[ i ];
+            for ( int p = 0; p < PERIODS; ++p )
+                balance = balance.add( balance.multiply( doubleRates[ i ] ).truncate( PRECISION, RoundingMode.HALF_EVEN ) );
+            check += balance.toString().length();
+        }
+        return report( "accrue Money", accounts * PERIODS, System.currentTimeMillis() - start, check );
+    }
+}
@@ -0,0 +1,139 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.ConcurrentLongBitSet;
+import info.javaperformance.money.LongBitSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ConcurrentLongBitSet vs LongBitSet guarded by a global lock, ids are marked as seen from several threads
+ */
+public class ConcurrentLongBitSetTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 20000;
+    private static final int ACTUAL_TEST = 50 * 1000 * 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        final int threads = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : Runtime.getRuntime().availableProcessors();
+        new ConcurrentLongBitSetTests( DATA_SIZE, threads ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    /** Mostly increasing transaction ids, one array per thread */
+    private final long[][] ids;
+
+    public ConcurrentLongBitSetTests( final int dataSize, final int threads )
+    {
+        final Random r = new Random( 123 );
+        ids = new long[ threads ][ dataSize ];
+        for ( int t = 0; t < threads; ++t )
+        {
+            long id = 1000000000L;
+            for ( int i = 0; i < dataSize; ++i )
+            {
+                id += r.nextInt( 10 );
+                ids[ t ][ i ] = id;
+            }
+        }
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters ) throws InterruptedException
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 1 );
+        testConcurrent( warmup );
+        final TestResult seen = new TestResult( "getAndSet, " + ids.length + " threads", Math.max( testConcurrent( iters ), testConcurrent( iters ) ) );
+        testLocked( warmup );
+        seen.bdRate = Math.max( testLocked( iters ), testLocked( iters ) );
+        res.add( seen );
+        return res;
+    }
+
+    private long run( final String name, final int iters, final Worker worker ) throws InterruptedException
+    {
+        final int actualIters = Math.max( 1, iters / ids[ 0 ].length / ids.length );
+        final Thread[] threads = new Thread[ ids.length ];
+        final int[] found = new int[ ids.length ];
+        for ( int t = 0; t < threads.length; ++t )
+        {
+            final int thread = t;
+            threads[ t ] = new Thread() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < actualIters; ++i )
+                        found[ thread ] += worker.run( ids[ thread ] );
+                }
+            };
+        }
+        final long start = System.currentTimeMillis();
+        for ( final Thread t : threads )
+            t.start();
+        for ( final Thread t : threads )
+            t.join();
+        final long time = System.currentTimeMillis() - start;
+        int total = 0;
+        for ( final int f : found )
+            total += f;
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to getAndSet " + iters + " " + name + " values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; new = " + total );
+        return rate;
+    }
+
+    private interface Worker
+    {
+        int run( final long[] ids );
+    }
+
+    public long testConcurrent( final int iters ) throws InterruptedException
+    {
+        final ConcurrentLongBitSet bs = new ConcurrentLongBitSet();
+        return run( "ConcurrentLongBitSet", iters, new Worker() {
+            public int run( final long[] ids ) {
+                int res = 0;
+                for ( final long id : ids )
+                    if ( !bs.getAndSet( id, true ) )
+                        ++res;
+                return res;
+            }
+        } );
+    }
+
+    public long testLocked( final int iters ) throws InterruptedException
+    {
+        final LongBitSet bs = new LongBitSet();
+        return run( "synchronized LongBitSet", iters, new Worker() {
+            public int run( final long[] ids ) {
+                int res = 0;
+                for ( final long id : ids )
+                {
+                    synchronized ( bs )
+                    {
+                        if ( !bs.get( id ) )
+                        {
+                            bs.set( id, true );
+                            ++res;
+                        }
+                    }
+                }
+                return res;
+            }
+        } );
+    }
+}
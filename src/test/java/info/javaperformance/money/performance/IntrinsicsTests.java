@@ -0,0 +1,133 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>
+ *  Operations relying on overflow checks and 128 bit multiplication. Run this test twice on Java 17+:
+ *  with <code>target/classes</code> on the classpath (Java 6 code) and with the multi-release jar
+ *  from <code>target</code> (<code>Math.multiplyHigh</code> based code), then compare the rates.
+ * </p>
+ * <p>
+ *  All values are large enough to skip the "fits in 31 bits" shortcut, but results still fit into <code>long</code>.
+ * </p>
+ */
+public class IntrinsicsTests {
+    private static final int DATA_SIZE = 1000;
+    private static final int WARMUP = 20000;
+    private static final int ACTUAL_TEST = 20 * 1000 * 1000;
+
+    public static void main(String[] args) {
+        System.out.println( "Java " + System.getProperty( "java.version" ) + ", classpath = " + System.getProperty( "java.class.path" ) );
+        new IntrinsicsTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    private final Money[] data2;
+    private final Money[] data4;
+    private final byte[] key = new byte[ 16 ];
+
+    public IntrinsicsTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        data2 = new Money[ dataSize ];
+        data4 = new Money[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            data2[ i ] = MoneyFactory.fromUnits( ( 1L << 40 ) + r.nextInt( 1 << 30 ) * 2 + 1, 2 );
+            data4[ i ] = MoneyFactory.fromUnits( ( 1L << 40 ) + r.nextInt( 1 << 30 ) * 2 + 1, 4 );
+        }
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 4 );
+        testAdd( warmup );
+        res.add( new TestResult( "add, different precisions", Math.max( testAdd( iters ), testAdd( iters ) ) ) );
+
+        testMultiplyLong( warmup );
+        res.add( new TestResult( "multiply(long)", Math.max( testMultiplyLong( iters ), testMultiplyLong( iters ) ) ) );
+
+        testCompare( warmup );
+        res.add( new TestResult( "compareTo, different precisions", Math.max( testCompare( iters ), testCompare( iters ) ) ) );
+
+        testSortableKey128( warmup );
+        res.add( new TestResult( "toSortableKey128", Math.max( testSortableKey128( iters ), testSortableKey128( iters ) ) ) );
+        return res;
+    }
+
+    private static long report( final String name, final int iters, final long time, final long check )
+    {
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to " + name + " " + iters + " values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; check = " + check );
+        return rate;
+    }
+
+    public long testAdd( final int iters )
+    {
+        final int actualIters = iters / data2.length;
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( int j = 0; j < data2.length; ++j )
+                check += data2[ j ].add( data4[ j ] ).hashCode();
+        return report( "add", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMultiplyLong( final int iters )
+    {
+        final int actualIters = iters / data2.length;
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( int j = 0; j < data2.length; ++j )
+                check += data2[ j ].multiply( 12345 + j ).hashCode();
+        return report( "multiply by long", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testCompare( final int iters )
+    {
+        final int actualIters = iters / data2.length;
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( int j = 0; j < data2.length; ++j )
+                check += data2[ j ].compareTo( data4[ j ] );
+        return report( "compare", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testSortableKey128( final int iters )
+    {
+        final int actualIters = iters / data4.length;
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( int j = 0; j < data4.length; ++j )
+            {
+                data4[ j ].toSortableKey128( 10, key, 0 );
+                check += key[ 15 ];
+            }
+        return report( "build 128 bit keys for", iters, System.currentTimeMillis() - start, check );
+    }
+}
@@ -0,0 +1,209 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.LongBitSet;
+import info.javaperformance.money.LongProcedure;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * LongBitSet vs a bit set with partitions kept in HashMap&lt;Long, BitSet&gt;
+ */
+public class LongBitSetTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 20000;
+    private static final int ACTUAL_TEST = 50 * 1000 * 1000;
+
+    public static void main(String[] args) {
+        new LongBitSetTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    /** Random transaction ids spread over 4000 partitions */
+    private final long[] randomIds;
+    /** Mostly increasing transaction ids */
+    private final long[] sequentialIds;
+
+    public LongBitSetTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        randomIds = new long[ dataSize ];
+        sequentialIds = new long[ dataSize ];
+        long id = 1000000000L;
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            randomIds[ i ] = 1000000000L + ( r.nextLong() & Long.MAX_VALUE ) % ( 4000L << 20 );
+            id += r.nextInt( 10 );
+            sequentialIds[ i ] = id;
+        }
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 3 );
+        testLongBitSet( randomIds, warmup );
+        final TestResult random = new TestResult( "set+get, random ids", Math.max( testLongBitSet( randomIds, iters ), testLongBitSet( randomIds, iters ) ) );
+        testHashMapBitSet( randomIds, warmup );
+        random.bdRate = Math.max( testHashMapBitSet( randomIds, iters ), testHashMapBitSet( randomIds, iters ) );
+        res.add( random );
+
+        testLongBitSet( sequentialIds, warmup );
+        final TestResult seq = new TestResult( "set+get, sequential ids", Math.max( testLongBitSet( sequentialIds, iters ), testLongBitSet( sequentialIds, iters ) ) );
+        testHashMapBitSet( sequentialIds, warmup );
+        seq.bdRate = Math.max( testHashMapBitSet( sequentialIds, iters ), testHashMapBitSet( sequentialIds, iters ) );
+        res.add( seq );
+
+        final LongBitSet today = new LongBitSet();
+        final LongBitSet yesterday = new LongBitSet();
+        for ( int i = 0; i < sequentialIds.length; ++i )
+        {
+            today.set( sequentialIds[ i ], true );
+            if ( i % 10 != 0 )
+                yesterday.set( sequentialIds[ i ], true );
+        }
+        testAndNot( today, yesterday, warmup );
+        final TestResult diff = new TestResult( "andNot vs probing, sequential ids", Math.max( testAndNot( today, yesterday, iters ), testAndNot( today, yesterday, iters ) ) );
+        testProbeDiff( today, yesterday, warmup );
+        diff.bdRate = Math.max( testProbeDiff( today, yesterday, iters ), testProbeDiff( today, yesterday, iters ) );
+        res.add( diff );
+        return res;
+    }
+
+    /**
+     * Rate is calculated in processed ids of the first set
+     */
+    public long testAndNot( final LongBitSet today, final LongBitSet yesterday, final int iters )
+    {
+        final long size = today.cardinality();
+        final int actualIters = ( int ) Math.max( 1, iters / size );
+        long found = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            found += LongBitSet.andNot( today, yesterday ).cardinality();
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * actualIters * size / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to andNot " + actualIters * size + " LongBitSet values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; found = " + found );
+        return rate;
+    }
+
+    public long testProbeDiff( final LongBitSet today, final LongBitSet yesterday, final int iters )
+    {
+        final long size = today.cardinality();
+        final int actualIters = ( int ) Math.max( 1, iters / size );
+        final long[] found = new long[ 1 ];
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            final LongBitSet res = new LongBitSet();
+            today.forEach( new LongProcedure() {
+                public boolean forEntry( final long value ) {
+                    if ( !yesterday.get( value ) )
+                        res.set( value, true );
+                    return true;
+                }
+            } );
+            found[ 0 ] += res.cardinality();
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * actualIters * size / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to probe " + actualIters * size + " LongBitSet values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; found = " + found[ 0 ] );
+        return rate;
+    }
+
+    public long testLongBitSet( final long[] ids, final int iters )
+    {
+        //partitions are allocated outside of the measured loop
+        final LongBitSet bs = new LongBitSet();
+        for ( final long id : ids )
+            bs.set( id, true );
+
+        final int actualIters = Math.max( 1, iters / ids.length / 2 );
+        int found = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( final long id : ids )
+                bs.set( id, true );
+            for ( final long id : ids )
+                if ( bs.get( id + 1 ) )
+                    ++found;
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to set+get " + iters + " LongBitSet values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; found = " + found
+                    + "; memory = " + bs.memoryUsage() / 1024 + " Kb" );
+        return rate;
+    }
+
+    public long testHashMapBitSet( final long[] ids, final int iters )
+    {
+        final HashMapBitSet bs = new HashMapBitSet();
+        for ( final long id : ids )
+            bs.set( id );
+
+        final int actualIters = Math.max( 1, iters / ids.length / 2 );
+        int found = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( final long id : ids )
+                bs.set( id );
+            for ( final long id : ids )
+                if ( bs.get( id + 1 ) )
+                    ++found;
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to set+get " + iters + " HashMap<Long, BitSet> values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; found = " + found );
+        return rate;
+    }
+
+    /**
+     * The original LongBitSet partition directory
+     */
+    private static final class HashMapBitSet
+    {
+        private final Map<Long, BitSet> m_sets = new HashMap<Long, BitSet>( 20 );
+
+        void set( final long index )
+        {
+            final Long iIndex = index >> 20;
+            BitSet bitSet = m_sets.get( iIndex );
+            if ( bitSet == null )
+            {
+                bitSet = new BitSet( 1024 );
+                m_sets.put( iIndex, bitSet );
+            }
+            bitSet.set( ( int ) ( index & 0xFFFFF ) );
+        }
+
+        boolean get( final long index )
+        {
+            final BitSet bitSet = m_sets.get( index >> 20 );
+            return bitSet != null && bitSet.get( ( int ) ( index & 0xFFFFF ) );
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyColumns;
+import info.javaperformance.money.MoneyFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ *  Bulk column operations vs the same operations on Money objects (reported in the second column).
+ * </p>
+ * <p>
+ *  Run with the multi-release jar and <code>--add-modules jdk.incubator.vector</code> on Java 17+ to use SIMD
+ *  kernels, add <code>-Dinfo.javaperformance.money.vector=false</code> to compare with scalar kernels.
+ * </p>
+ */
+public class MoneyColumnsTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 20 * 1000 * 1000;
+    private static final int ACTUAL_TEST = 200 * 1000 * 1000;
+    private static final int PRECISION = 2;
+
+    public static void main(String[] args) {
+        new MoneyColumnsTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    private final long[] units;
+    private final long[] dest;
+    private final long[] mask;
+    private final Money[] values;
+    private final long[] quantities;
+    private final int[] precisions;
+
+    public MoneyColumnsTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        units = new long[ dataSize ];
+        values = new Money[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            units[ i ] = r.nextInt( 100000000 ) * 10L + 1;
+            values[ i ] = MoneyFactory.fromUnits( units[ i ], PRECISION );
+        }
+        quantities = new long[ dataSize ];
+        precisions = new int[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            //large positions overflow multiply(long)
+            quantities[ i ] = r.nextInt( 10 ) == 0 ? ( 1L << 40 ) + r.nextInt() : r.nextInt( 100000 );
+            precisions[ i ] = PRECISION;
+        }
+        dest = new long[ dataSize ];
+        mask = new long[ MoneyColumns.maskLength( dataSize ) ];
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 3 );
+        testAdd( warmup );
+        final TestResult add = new TestResult( "add scalar", Math.max( testAdd( iters ), testAdd( iters ) ) );
+        testMoneyAdd( warmup / 10 );
+        add.bdRate = Math.max( testMoneyAdd( iters / 10 ), testMoneyAdd( iters / 10 ) );
+        res.add( add );
+
+        testMultiply( warmup );
+        final TestResult mul = new TestResult( "multiply by long", Math.max( testMultiply( iters ), testMultiply( iters ) ) );
+        testMoneyMultiply( warmup / 10 );
+        mul.bdRate = Math.max( testMoneyMultiply( iters / 10 ), testMoneyMultiply( iters / 10 ) );
+        res.add( mul );
+
+        testGreater( warmup );
+        final TestResult greater = new TestResult( "greater than threshold", Math.max( testGreater( iters ), testGreater( iters ) ) );
+        testMoneyGreater( warmup / 10 );
+        greater.bdRate = Math.max( testMoneyGreater( iters / 10 ), testMoneyGreater( iters / 10 ) );
+        res.add( greater );
+
+        testSumOfProducts( warmup / 10 );
+        final TestResult dot = new TestResult( "sum of products", Math.max( testSumOfProducts( iters / 10 ), testSumOfProducts( iters / 10 ) ) );
+        testMoneySumOfProducts( warmup / 100 );
+        //once a sum becomes MoneyBigDecimal, all following additions are slow
+        dot.bdRate = Math.max( testMoneySumOfProducts( iters / 100 ), testMoneySumOfProducts( iters / 100 ) );
+        res.add( dot );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+        testParallelSumOfProducts( warmup / 10, executor );
+        res.add( new TestResult( "parallel sum of products", Math.max( testParallelSumOfProducts( iters / 10, executor ),
+                testParallelSumOfProducts( iters / 10, executor ) ) ) );
+        executor.shutdown();
+        return res;
+    }
+
+    private static long report( final String name, final int iters, final long time, final long check )
+    {
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to " + name + " " + iters + " values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; check = " + check );
+        return rate;
+    }
+
+    public long testAdd( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            check += MoneyColumns.add( units, 12345, dest, mask ) + dest[ i ];
+        return report( "add to a column of", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoneyAdd( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        final Money shift = MoneyFactory.fromUnits( 12345, PRECISION );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( final Money value : values )
+                check += value.add( shift ).hashCode();
+        return report( "add to Money", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMultiply( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            check += MoneyColumns.multiply( units, 3, dest, mask ) + dest[ i ];
+        return report( "multiply a column of", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoneyMultiply( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( final Money value : values )
+                check += value.multiply( 3 ).hashCode();
+        return report( "multiply Money", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testSumOfProducts( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            check += MoneyColumns.sumOfProducts( quantities, units, precisions ).hashCode();
+        return report( "sum products of", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testParallelSumOfProducts( final int iters, final ExecutorService executor )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            check += MoneyColumns.sumOfProducts( quantities, units, precisions, executor ).hashCode();
+        return report( "sum products in parallel of", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoneySumOfProducts( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            Money sum = MoneyFactory.fromUnits( 0, 0 );
+            for ( int j = 0; j < values.length; ++j )
+                sum = sum.add( values[ j ].multiply( quantities[ j ] ) );
+            check += sum.hashCode();
+        }
+        return report( "multiply and add Money", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testGreater( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            check += MoneyColumns.greaterThan( units, 500000000L, mask );
+        return report( "compare a column of", iters, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoneyGreater( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / units.length );
+        final Money limit = MoneyFactory.fromUnits( 500000000L, PRECISION );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( final Money value : values )
+                if ( value.compareTo( limit ) > 0 )
+                    ++check;
+        return report( "compare Money", iters, System.currentTimeMillis() - start, check );
+    }
+}
@@ -0,0 +1,119 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyFactory;
+import info.javaperformance.money.MoneyObjectMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Price level book: MoneyObjectMap keyed by raw units vs HashMap&lt;Money, V&gt; (reported in the second column)
+ */
+public class MoneyMapTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 20000;
+    private static final int ACTUAL_TEST = 50 * 1000 * 1000;
+    private static final int PRECISION = 4;
+    private static final int LEVELS = 20000;
+
+    public static void main(String[] args) {
+        new MoneyMapTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    /** Prices of orders around 100.0000 */
+    private final long[] prices;
+    private final Money[] values;
+
+    public MoneyMapTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        prices = new long[ dataSize ];
+        values = new Money[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            prices[ i ] = 1000000 + ( r.nextInt( LEVELS ) - LEVELS / 2 ) * 5;
+            values[ i ] = MoneyFactory.fromUnits( prices[ i ], PRECISION );
+        }
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 1 );
+        testMoneyObjectMap( warmup );
+        final TestResult book = new TestResult( "put+get price levels", Math.max( testMoneyObjectMap( iters ), testMoneyObjectMap( iters ) ) );
+        testHashMap( warmup );
+        book.bdRate = Math.max( testHashMap( iters ), testHashMap( iters ) );
+        res.add( book );
+        return res;
+    }
+
+    private static long report( final String name, final int iters, final long time, final long check )
+    {
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to put+get " + iters + " " + name + " values = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; check = " + check );
+        return rate;
+    }
+
+    public long testMoneyObjectMap( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / prices.length / 2 );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            final MoneyObjectMap<long[]> book = new MoneyObjectMap<long[]>( LEVELS );
+            for ( final long price : prices )
+            {
+                final long[] level = book.get( price, PRECISION );
+                if ( level == null )
+                    book.put( price, PRECISION, new long[] { 1 } );
+                else
+                    ++level[ 0 ];
+            }
+            check += book.size();
+        }
+        return report( "MoneyObjectMap", actualIters * prices.length * 2, System.currentTimeMillis() - start, check );
+    }
+
+    public long testHashMap( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / prices.length / 2 );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            final Map<Money, long[]> book = new HashMap<Money, long[]>( LEVELS * 2 );
+            for ( final Money price : values )
+            {
+                final long[] level = book.get( price );
+                if ( level == null )
+                    book.put( price, new long[] { 1 } );
+                else
+                    ++level[ 0 ];
+            }
+            check += book.size();
+        }
+        return report( "HashMap<Money, V>", actualIters * prices.length * 2, System.currentTimeMillis() - start, check );
+    }
+}
@@ -38,6 +38,8 @@ public class OperationsTests {
 
     private final Money[] dataLong;
     private final Money[] dataBd;
+    /** Values with 18 digits after decimal point, like crypto currency amounts */
+    private final Money[] dataCrypto;
 
     public OperationsTests( final int dataSize )
     {
@@ -49,6 +51,10 @@ public class OperationsTests {
         dataBd = new Money[ dataSize ];
         for ( int i = 0; i < dataBd.length; ++i )
             dataBd[ i ] = MoneyFactory.fromDouble((i + 1) / 10000.0, 1);
+
+        dataCrypto = new Money[ dataSize ];
+        for ( int i = 0; i < dataCrypto.length; ++i )
+            dataCrypto[ i ] = MoneyFactory.fromString( r.nextInt( 1000 ) + "." + ( 100000000000000000L + r.nextInt( 1000000000 ) ) );
     }
 
     public List<TestResult> runAllTests( final int warmup, final int iters )
@@ -63,6 +69,18 @@ public class OperationsTests {
         testBdToBdAddition(warmup);
         res.add(new TestResult("MoneyBigDecimal+MoneyBigDecimal", Math.max(testBdToBdAddition(iters), testBdToBdAddition(iters))));
 
+        testCryptoAddition(warmup);
+        res.add(new TestResult("18 digits: MoneyBigDecimal+MoneyBigDecimal", Math.max(testCryptoAddition(iters), testCryptoAddition(iters))));
+
+        testCryptoMultiplyLong(warmup);
+        res.add(new TestResult("18 digits: MoneyBigDecimal*long", Math.max(testCryptoMultiplyLong(iters), testCryptoMultiplyLong(iters))));
+
+        testCryptoMultiplyDoubleAlternating(warmup);
+        res.add(new TestResult("18 digits: MoneyBigDecimal*double, alternating rates", Math.max(testCryptoMultiplyDoubleAlternating(iters), testCryptoMultiplyDoubleAlternating(iters))));
+
+        testCryptoDivideLong(warmup);
+        res.add(new TestResult("18 digits: MoneyBigDecimal/long", Math.max(testCryptoDivideLong(iters), testCryptoDivideLong(iters))));
+
         testLongMultiplyLong(warmup);
         final TestResult multByLong = new TestResult( "multiply(long)", Math.max( testLongMultiplyLong(iters), testLongMultiplyLong(iters) ));
 
@@ -103,6 +121,13 @@ public class OperationsTests {
         trunc.bdRate = Math.max( testBdTruncate( iters ), testBdTruncate( iters ) );
         res.add( trunc );
 
+        testLongCompareToBd( warmup );
+        final TestResult compare = new TestResult( "compareTo(MoneyBigDecimal)", Math.max( testLongCompareToBd( iters ), testLongCompareToBd( iters ) ) );
+
+        testBdCompareToBd( warmup );
+        compare.bdRate = Math.max( testBdCompareToBd( iters ), testBdCompareToBd( iters ) );
+        res.add( compare );
+
         return res;
     }
 
@@ -159,6 +184,76 @@ public class OperationsTests {
         return rate;
     }
 
+    public long testCryptoAddition( final int iters )
+    {
+        final Money bd = MoneyFactory.fromString( "0.000000000000000001" );
+
+        final int actualIters = iters / dataCrypto.length;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataCrypto.length; ++j )
+                bd.add( dataCrypto[ j ] );
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to add " + iters + " MoneyBigDecimal values with 18 digits = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec");
+        return rate;
+    }
+
+    public long testCryptoMultiplyLong( final int iters )
+    {
+        final int actualIters = iters / dataCrypto.length;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataCrypto.length; ++j )
+                dataCrypto[ j ].multiply( 97 );
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to multiply " + iters + " MoneyBigDecimal values with 18 digits by Long = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec");
+        return rate;
+    }
+
+    /**
+     * Several FX rates applied in turn, so a cached conversion of the last multiplier would always miss
+     */
+    public long testCryptoMultiplyDoubleAlternating( final int iters )
+    {
+        final double[] rates = { 1.0825, 0.9238, 157.31, 0.7891 };
+        final int actualIters = iters / dataCrypto.length;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataCrypto.length; ++j )
+                dataCrypto[ j ].multiply( rates[ j & 3 ] );
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to multiply " + iters + " MoneyBigDecimal values with 18 digits by alternating Double rates = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec");
+        return rate;
+    }
+
+    public long testCryptoDivideLong( final int iters )
+    {
+        final int actualIters = iters / dataCrypto.length;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataCrypto.length; ++j )
+                dataCrypto[ j ].divide( 97, 8 );
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to divide " + iters + " MoneyBigDecimal values with 18 digits by Long = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec");
+        return rate;
+    }
+
     public long testLongMultiplyLong( final int iters )
     {
         final int actualIters = iters / dataLong.length;
@@ -319,6 +414,46 @@ public class OperationsTests {
         return rate;
     }
 
+    public long testLongCompareToBd( final int iters )
+    {
+        final Money limit = MoneyFactory.fromString( "500.0000000000000000001" );
+
+        final int actualIters = iters / dataLong.length;
+        int less = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataLong.length; ++j )
+                if ( dataLong[ j ].compareTo( limit ) < 0 )
+                    ++less;
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to compare " + iters + " MoneyLong values to MoneyBigDecimal = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; less = " + less);
+        return rate;
+    }
+
+    public long testBdCompareToBd( final int iters )
+    {
+        final Money limit = MoneyFactory.fromString( "500.0000000000000000001" );
+
+        final int actualIters = iters / dataBd.length;
+        int less = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+        {
+            for ( int j = 0; j < dataBd.length; ++j )
+                if ( dataBd[ j ].compareTo( limit ) < 0 )
+                    ++less;
+        }
+        final long time = System.currentTimeMillis() - start;
+        final long rate = (long) (1.0 * iters / ( time / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to compare " + iters + " MoneyBigDecimal values to MoneyBigDecimal = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; less = " + less);
+        return rate;
+    }
+
     public long testLongDivisionWithRound( final int iterations )
     {
         final int actualIters = iterations / 10000 * 2;
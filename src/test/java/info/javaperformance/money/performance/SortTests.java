@@ -0,0 +1,123 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyFactory;
+import info.javaperformance.money.MoneySort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sorting of money values: Arrays.sort(Money[]) vs MoneySort
+ */
+public class SortTests {
+    private static final int DATA_SIZE = 10 * 1000 * 1000;
+
+    public static void main(String[] args) {
+        new SortTests( DATA_SIZE ).runAllTests( 2 );
+    }
+
+    private final long[] units;
+    private final int[] precisions;
+
+    public SortTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        units = new long[ dataSize ];
+        precisions = new int[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            units[ i ] = r.nextInt( 10000000 );
+            precisions[ i ] = 2 + r.nextInt( 3 ); //mixed precisions
+        }
+    }
+
+    public List<TestResult> runAllTests( final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 3 );
+        testArraysSort( 1 );
+        res.add( new TestResult( "Arrays.sort(Money[])", testArraysSort( iters ) ) );
+
+        testMoneySortObjects( 1 );
+        res.add( new TestResult( "MoneySort.sort(Money[])", testMoneySortObjects( iters ) ) );
+
+        testMoneySortColumns( 1 );
+        res.add( new TestResult( "MoneySort.sort(long[], int[])", testMoneySortColumns( iters ) ) );
+        return res;
+    }
+
+    private Money[] toMoney()
+    {
+        final Money[] res = new Money[ units.length ];
+        for ( int i = 0; i < units.length; ++i )
+            res[ i ] = MoneyFactory.fromUnits( units[ i ], precisions[ i ] );
+        return res;
+    }
+
+    public long testArraysSort( final int iters )
+    {
+        long time = 0;
+        for ( int i = 0; i < iters; ++i )
+        {
+            final Money[] data = toMoney();
+            final long start = System.currentTimeMillis();
+            Arrays.sort( data );
+            time += System.currentTimeMillis() - start;
+        }
+        return report( "Arrays.sort(Money[])", iters, time );
+    }
+
+    public long testMoneySortObjects( final int iters )
+    {
+        long time = 0;
+        for ( int i = 0; i < iters; ++i )
+        {
+            final Money[] data = toMoney();
+            final long start = System.currentTimeMillis();
+            MoneySort.sort( data );
+            time += System.currentTimeMillis() - start;
+        }
+        return report( "MoneySort.sort(Money[])", iters, time );
+    }
+
+    public long testMoneySortColumns( final int iters )
+    {
+        long time = 0;
+        for ( int i = 0; i < iters; ++i )
+        {
+            final long[] u = units.clone();
+            final int[] p = precisions.clone();
+            final long start = System.currentTimeMillis();
+            MoneySort.sort( u, p );
+            time += System.currentTimeMillis() - start;
+        }
+        return report( "MoneySort.sort(long[], int[])", iters, time );
+    }
+
+    private long report( final String name, final int iters, final long time )
+    {
+        final long values = ( long ) iters * units.length;
+        final long rate = (long) (1.0 * values / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 1 )
+            System.out.println( "Time to sort " + values + " values using " + name + " = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec");
+        return rate;
+    }
+}
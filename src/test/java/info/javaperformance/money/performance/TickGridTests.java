@@ -0,0 +1,100 @@
+/*
+* Copyright 2014 Mikhail Vorontsov
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package info.javaperformance.money.performance;
+
+import info.javaperformance.money.Money;
+import info.javaperformance.money.MoneyFactory;
+import info.javaperformance.money.TickGrid;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Round to tick: TickGrid on raw units vs <code>price.divide( 0.0005, 0 ).multiply( 0.0005 )</code>
+ * on Money objects (reported in the second column)
+ */
+public class TickGridTests {
+    private static final int DATA_SIZE = 1000 * 1000;
+    private static final int WARMUP = 20000;
+    private static final int ACTUAL_TEST = 50 * 1000 * 1000;
+    private static final int PRECISION = 4;
+
+    public static void main(String[] args) {
+        new TickGridTests( DATA_SIZE ).runAllTests( WARMUP, ACTUAL_TEST );
+    }
+
+    /** Prices around 100.0000 with a 0.0001 precision, tick is 0.0005 */
+    private final long[] prices;
+    private final Money[] values;
+    private final TickGrid grid = new TickGrid( MoneyFactory.fromString( "0.0005" ) );
+
+    public TickGridTests( final int dataSize )
+    {
+        final Random r = new Random( 123 );
+        prices = new long[ dataSize ];
+        values = new Money[ dataSize ];
+        for ( int i = 0; i < dataSize; ++i )
+        {
+            prices[ i ] = 1000000 + r.nextInt( 100000 ) - 50000;
+            values[ i ] = MoneyFactory.fromUnits( prices[ i ], PRECISION );
+        }
+    }
+
+    public List<TestResult> runAllTests( final int warmup, final int iters )
+    {
+        final List<TestResult> res = new ArrayList<TestResult>( 1 );
+        testTickGrid( warmup );
+        final TestResult round = new TestResult( "round to tick", Math.max( testTickGrid( iters ), testTickGrid( iters ) ) );
+        testMoney( warmup / 10 );
+        round.bdRate = Math.max( testMoney( iters / 10 ), testMoney( iters / 10 ) );
+        res.add( round );
+        return res;
+    }
+
+    private static long report( final String name, final int iters, final long time, final long check )
+    {
+        final long rate = (long) (1.0 * iters / ( Math.max( time, 1 ) / 1000.0 )) / 1000;
+        if ( iters > 20000 )
+            System.out.println( "Time to round " + iters + " " + name + " prices = " + time / 1000.0 + " sec; rate = " + rate + " Kops/sec; check = " + check );
+        return rate;
+    }
+
+    public long testTickGrid( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / prices.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( final long price : prices )
+                check += grid.roundUnits( price, PRECISION, RoundingMode.HALF_EVEN );
+        return report( "TickGrid", actualIters * prices.length, System.currentTimeMillis() - start, check );
+    }
+
+    public long testMoney( final int iters )
+    {
+        final int actualIters = Math.max( 1, iters / values.length );
+        final int count = Math.min( iters, values.length );
+        long check = 0;
+        final long start = System.currentTimeMillis();
+        for ( int i = 0; i < actualIters; ++i )
+            for ( int j = 0; j < count; ++j )
+                check += values[ j ].divide( 0.0005, 0 ).multiply( 0.0005 ).toString().length();
+        return report( "Money", actualIters * count, System.currentTimeMillis() - start, check );
+    }
+}